@@ -0,0 +1,68 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ubjson.CouchDB4k;
+import org.ubjson.CouchDB4kMarshaller;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CouchDB4kBenchmark {
+	private CouchDB4k db;
+	private byte[] data;
+
+	@Setup
+	public void setup() throws IOException {
+		db = new CouchDB4k();
+
+		// Serialize a single CouchDB4k to use as the deserialization input.
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
+		UBJOutputStream out = new UBJOutputStream(baos);
+		CouchDB4kMarshaller.serialize(db, out);
+		out.close();
+
+		data = new byte[baos.getLength()];
+		System.arraycopy(baos.getArray(), 0, data, 0, data.length);
+	}
+
+	@Benchmark
+	public int serialize(StreamStates.Output output) throws IOException {
+		CouchDB4kMarshaller.serialize(db, output.begin());
+		return output.end();
+	}
+
+	@Benchmark
+	public CouchDB4k deserialize(StreamStates.Input input) throws IOException {
+		return CouchDB4kMarshaller.deserialize(input.open(data));
+	}
+}
@@ -0,0 +1,177 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * JMH state classes used by all the benchmarks to parameterize the stream
+ * implementation that Universal Binary JSON is read from and written to.
+ * <p/>
+ * Each benchmark method only declares the state it actually uses, so
+ * serialization benchmarks are only multiplied by the {@link Output}
+ * parameters and deserialization benchmarks by the {@link Input} ones.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class StreamStates {
+	/**
+	 * A single, reused input parser that every operation reads from after it
+	 * is {@link UBJInputStream#reset(java.io.InputStream) reset} to the
+	 * beginning of a fixture's bytes, the same way a connection or worker
+	 * thread re-uses one per message.
+	 */
+	@State(Scope.Thread)
+	public static class Input {
+		/**
+		 * <ul>
+		 * <li><code>ByteArray</code> - {@link UBJInputStreamParser} over a
+		 * {@link ByteArrayInputStream}.</li>
+		 * <li><code>ByteArrayBuffered</code> - same as above, but in buffered
+		 * mode.</li>
+		 * <li><code>ByteBuffer</code> - {@link UBJInputStreamParser} over a
+		 * {@link ByteBufferInputStream} wrapping a heap buffer.</li>
+		 * <li><code>DirectByteBuffer</code> - same as above, wrapping a
+		 * direct buffer.</li>
+		 * </ul>
+		 */
+		@Param({ "ByteArray", "ByteArrayBuffered", "ByteBuffer",
+				"DirectByteBuffer" })
+		public String input;
+
+		private byte[] data;
+		private ByteBuffer bbuffer;
+		private ByteArrayInputStream bais;
+		private ByteBufferInputStream bbis;
+		private UBJInputStreamParser in;
+
+		/**
+		 * Used to get a parser positioned at the beginning of the given data.
+		 * The first call for a given <code>byte[]</code> copies it into the
+		 * buffer used by the <code>ByteBuffer</code> variants, every call after
+		 * that only rewinds.
+		 */
+		public UBJInputStreamParser open(byte[] data) throws IOException {
+			if (this.data != data)
+				prepare(data);
+
+			if (bais != null) {
+				bais.reset();
+				in.reset(bais);
+			} else {
+				bbuffer.rewind();
+				in.reset(bbis);
+			}
+
+			return in;
+		}
+
+		private void prepare(byte[] data) {
+			this.data = data;
+
+			if ("ByteArray".equals(input) || "ByteArrayBuffered".equals(input)) {
+				bais = new ByteArrayInputStream(data);
+				in = ("ByteArrayBuffered".equals(input) ? new UBJInputStreamParser(
+						bais, UBJInputStream.BUFFER_SIZE)
+						: new UBJInputStreamParser(bais));
+			} else {
+				bbuffer = ("DirectByteBuffer".equals(input) ? ByteBuffer
+						.allocateDirect(data.length) : ByteBuffer
+						.allocate(data.length));
+				bbuffer.put(data).flip();
+				bbis = new ByteBufferInputStream(bbuffer);
+				in = new UBJInputStreamParser(bbis);
+			}
+		}
+	}
+
+	/**
+	 * A single, reused output stream that every operation writes into after
+	 * rewinding the sink underneath it.
+	 */
+	@State(Scope.Thread)
+	public static class Output {
+		/**
+		 * <ul>
+		 * <li><code>ByteArray</code> - {@link UBJOutputStream} over a
+		 * {@link ByteArrayOutputStream}.</li>
+		 * <li><code>ByteArrayBuffered</code> - same as above, but in buffered
+		 * mode.</li>
+		 * <li><code>ByteBuffer</code> - {@link UBJOutputStream} over a
+		 * {@link ByteBufferOuputStream} wrapping a heap buffer.</li>
+		 * <li><code>DirectByteBuffer</code> - same as above, wrapping a
+		 * direct buffer.</li>
+		 * </ul>
+		 */
+		@Param({ "ByteArray", "ByteArrayBuffered", "ByteBuffer",
+				"DirectByteBuffer" })
+		public String output;
+
+		private UBJOutputStream out;
+		private ByteArrayOutputStream baos;
+		private ByteBufferOuputStream bbos;
+
+		@Setup
+		public void setup() {
+			if ("ByteArray".equals(output) || "ByteArrayBuffered".equals(output)) {
+				baos = new ByteArrayOutputStream(65536);
+				out = ("ByteArrayBuffered".equals(output) ? new UBJOutputStream(
+						baos, UBJOutputStream.BUFFER_SIZE)
+						: new UBJOutputStream(baos));
+			} else {
+				bbos = new ByteBufferOuputStream(
+						"DirectByteBuffer".equals(output) ? ByteBuffer
+								.allocateDirect(65536) : ByteBuffer
+								.allocate(65536));
+				out = new UBJOutputStream(bbos);
+			}
+		}
+
+		/**
+		 * Used to rewind the sink and get the stream to write into, reset to
+		 * it.
+		 */
+		public UBJOutputStream begin() {
+			if (baos != null) {
+				baos.reset();
+				out.reset(baos);
+			} else {
+				bbos.reset();
+				out.reset(bbos);
+			}
+
+			return out;
+		}
+
+		/**
+		 * Used to flush the stream once an operation is done writing.
+		 * 
+		 * @return the number of bytes the sink holds, so the work can't be
+		 *         optimized away.
+		 */
+		public int end() throws IOException {
+			out.flush();
+			return (baos != null ? baos.getLength() : bbos.getBuffer()
+					.position());
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io.reflect;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ubjson.CouchDB4k;
+import org.ubjson.MediaContent;
+import org.ubjson.TwitterTimeline;
+import org.ubjson.io.StreamStates;
+
+/**
+ * Benchmarks the reflection-based {@link ObjectWriter} against the example
+ * documents; compare with the hand-written marshaller numbers from the
+ * <code>serialize</code> benchmarks in <code>org.ubjson.io</code>.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ObjectWriterBenchmark {
+	@Param({ "MediaContent", "CouchDB4k", "TwitterTimeline" })
+	public String fixture;
+
+	private Object obj;
+	private IObjectWriter writer;
+
+	@Setup
+	public void setup() {
+		if ("MediaContent".equals(fixture))
+			obj = new MediaContent();
+		else if ("CouchDB4k".equals(fixture))
+			obj = new CouchDB4k();
+		else
+			obj = new TwitterTimeline();
+
+		writer = new ObjectWriter();
+	}
+
+	@Benchmark
+	public int writeObject(StreamStates.Output output) throws IOException {
+		writer.writeObject(output.begin(), obj);
+		return output.end();
+	}
+}
@@ -0,0 +1,108 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io.reflect;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks reading every property of a small object through the
+ * {@link PropertyAccessor}s used by {@link ObjectWriter}, against reading the
+ * same fields directly and through plain {@link MethodHandle}s held in an
+ * array (which the JIT can't inline calls through).
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PropertyAccessorBenchmark {
+	private Bean bean;
+	private PropertyAccessor[] accessors;
+	private MethodHandle[] handles;
+
+	@Setup
+	public void setup() throws Exception {
+		bean = new Bean();
+
+		List<PropertyAccessor> accessorList = PropertyAccessor
+				.forFields(Bean.class);
+		accessors = accessorList.toArray(new PropertyAccessor[accessorList
+				.size()]);
+		handles = new MethodHandle[accessors.length];
+
+		for (int i = 0; i < handles.length; i++)
+			handles[i] = MethodHandles.lookup()
+					.findGetter(Bean.class, accessors[i].name, long.class)
+					.asType(MethodType.methodType(long.class, Object.class));
+	}
+
+	@Benchmark
+	public long direct() {
+		Bean b = bean;
+		return b.a + b.b + b.c + b.d + b.e + b.f + b.g + b.h;
+	}
+
+	@Benchmark
+	public long handles() throws Throwable {
+		MethodHandle[] handles = this.handles;
+		long sum = 0;
+
+		for (int i = 0; i < handles.length; i++)
+			sum += (long) handles[i].invokeExact((Object) bean);
+
+		return sum;
+	}
+
+	@Benchmark
+	public long accessors() throws Throwable {
+		PropertyAccessor[] accessors = this.accessors;
+		long sum = 0;
+
+		for (int i = 0; i < accessors.length; i++)
+			sum += accessors[i].getLong(bean);
+
+		return sum;
+	}
+
+	static class Bean {
+		private long a = 1;
+		private long b = 2;
+		private long c = 3;
+		private long d = 4;
+		private long e = 5;
+		private long f = 6;
+		private long g = 7;
+		private long h = 8;
+	}
+}
@@ -0,0 +1,150 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.model;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ubjson.CouchDB4k;
+import org.ubjson.CouchDB4kMarshaller;
+import org.ubjson.MediaContent;
+import org.ubjson.MediaContentMarshaller;
+import org.ubjson.TwitterTimeline;
+import org.ubjson.TwitterTimelineMarshaller;
+import org.ubjson.io.ByteArrayInputStream;
+import org.ubjson.io.ByteArrayOutputStream;
+import org.ubjson.io.StreamStates;
+import org.ubjson.io.UBJInputStreamParser;
+import org.ubjson.io.UBJOutputStream;
+
+/**
+ * Benchmarks reading the example documents into (and writing them back out
+ * of) the {@link ObjectValue} and {@link ArrayValue} model.
+ * <p/>
+ * The <code>ObjectValue</code> benchmarks operate on a single document, the
+ * <code>ArrayValue</code> benchmarks on an array containing
+ * {@link #ARRAY_LENGTH} copies of it. The <code>lazy</code> benchmarks use
+ * {@link LazyArrayValue} to read a single field out of that array.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ModelBenchmark {
+	public static final int ARRAY_LENGTH = 16;
+
+	@Param({ "MediaContent", "CouchDB4k", "TwitterTimeline" })
+	public String fixture;
+
+	private byte[] objectData;
+	private byte[] arrayData;
+
+	private ObjectValue objectValue;
+	private ArrayValue arrayValue;
+
+	@Setup
+	public void setup() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
+		UBJOutputStream out = new UBJOutputStream(baos);
+
+		write(out);
+		objectData = copy(baos);
+
+		baos.reset();
+		out.writeArrayHeader(ARRAY_LENGTH);
+
+		for (int i = 0; i < ARRAY_LENGTH; i++)
+			write(out);
+
+		arrayData = copy(baos);
+		out.close();
+
+		// Pre-built trees for the serialization benchmarks.
+		objectValue = new ObjectValue(new UBJInputStreamParser(
+				new ByteArrayInputStream(objectData)));
+		arrayValue = new ArrayValue(new UBJInputStreamParser(
+				new ByteArrayInputStream(arrayData)));
+	}
+
+	@Benchmark
+	public ObjectValue deserializeObject(StreamStates.Input input)
+			throws IOException {
+		return new ObjectValue(input.open(objectData));
+	}
+
+	@Benchmark
+	public ArrayValue deserializeArray(StreamStates.Input input)
+			throws IOException {
+		return new ArrayValue(input.open(arrayData));
+	}
+
+	@Benchmark
+	public IValue<?> lazyArrayOneField() {
+		LazyArrayValue array = new LazyArrayValue(arrayData);
+		LazyObjectValue last = (LazyObjectValue) array.get(ARRAY_LENGTH - 1);
+
+		return last.getValue().values().iterator().next();
+	}
+
+	@Benchmark
+	public int lazyArrayRoundTrip(StreamStates.Output output)
+			throws IOException {
+		new LazyArrayValue(arrayData).serialize(output.begin());
+		return output.end();
+	}
+
+	@Benchmark
+	public int serializeObject(StreamStates.Output output) throws IOException {
+		objectValue.serialize(output.begin());
+		return output.end();
+	}
+
+	@Benchmark
+	public int serializeArray(StreamStates.Output output) throws IOException {
+		arrayValue.serialize(output.begin());
+		return output.end();
+	}
+
+	private void write(UBJOutputStream out) throws IOException {
+		if ("MediaContent".equals(fixture))
+			MediaContentMarshaller.serialize(new MediaContent(), out);
+		else if ("CouchDB4k".equals(fixture))
+			CouchDB4kMarshaller.serialize(new CouchDB4k(), out);
+		else
+			TwitterTimelineMarshaller.serialize(new TwitterTimeline(), out);
+	}
+
+	private static byte[] copy(ByteArrayOutputStream baos) {
+		byte[] data = new byte[baos.getLength()];
+		System.arraycopy(baos.getArray(), 0, data, 0, data.length);
+		return data;
+	}
+}
@@ -0,0 +1,112 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base class for {@link IBufferPool} implementations that keep idle buffers
+ * of a single, fixed size around.
+ * <p/>
+ * Requests for up to {@link #getBufferSize()} bytes are served with a pooled
+ * buffer of exactly that size; larger requests are always allocated and the
+ * buffers are dropped again on {@link #release(byte[])}. Subclasses only
+ * decide where idle buffers are kept by implementing {@link #poll()} and
+ * {@link #offer(byte[])}.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public abstract class AbstractBufferPool implements IBufferPool {
+	/**
+	 * The smallest buffer size allowed; matches
+	 * {@link UBJOutputStream#MIN_BUFFER_SIZE}.
+	 */
+	public static final int MIN_BUFFER_SIZE = 16;
+
+	protected int bufferSize;
+
+	private AtomicLong allocations;
+	private AtomicLong reuses;
+
+	public AbstractBufferPool(int bufferSize) throws IllegalArgumentException {
+		if (bufferSize < MIN_BUFFER_SIZE)
+			throw new IllegalArgumentException("bufferSize [" + bufferSize
+					+ "] must be >= " + MIN_BUFFER_SIZE);
+
+		this.bufferSize = bufferSize;
+
+		allocations = new AtomicLong();
+		reuses = new AtomicLong();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getName() + "@" + hashCode() + " [bufferSize="
+				+ bufferSize + ", allocations=" + allocations.get()
+				+ ", reuses=" + reuses.get() + "]";
+	}
+
+	public byte[] acquire(int size) throws IllegalArgumentException {
+		if (size < 0)
+			throw new IllegalArgumentException("size [" + size
+					+ "] must be >= 0");
+
+		byte[] buffer = (size > bufferSize ? null : poll());
+
+		if (buffer == null) {
+			allocations.incrementAndGet();
+			buffer = new byte[Math.max(size, bufferSize)];
+		} else
+			reuses.incrementAndGet();
+
+		return buffer;
+	}
+
+	public void release(byte[] buffer) throws IllegalArgumentException {
+		if (buffer == null)
+			throw new IllegalArgumentException("buffer cannot be null");
+
+		// Only buffers of the pooled size are worth keeping.
+		if (buffer.length == bufferSize)
+			offer(buffer);
+	}
+
+	public long getAllocationCount() {
+		return allocations.get();
+	}
+
+	public long getReuseCount() {
+		return reuses.get();
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Used to take an idle buffer out of this pool.
+	 * 
+	 * @return an idle buffer of {@link #getBufferSize()} bytes or
+	 *         <code>null</code> if there are none.
+	 */
+	protected abstract byte[] poll();
+
+	/**
+	 * Used to keep the given idle buffer of {@link #getBufferSize()} bytes,
+	 * or drop it if this pool is already full.
+	 */
+	protected abstract void offer(byte[] buffer);
+}
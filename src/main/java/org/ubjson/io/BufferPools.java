@@ -0,0 +1,82 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+/**
+ * Class used to hold the {@link IBufferPool} used by every
+ * {@link UBJInputStream} and {@link UBJOutputStream} that is not given one
+ * explicitly.
+ * <p/>
+ * By default no pool is used and every stream allocates its own buffer,
+ * exactly as before pooling existed. Servers that create a stream per
+ * request can switch all of them over to pooled buffers at once, either with
+ * {@link #setDefault(IBufferPool)} at startup or with the
+ * {@link #POOL_PROPERTY_NAME} property.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class BufferPools {
+	/**
+	 * System property name used to pick the initial default pool. Supported
+	 * values are <code>none</code> (the default), <code>thread</code> for a
+	 * {@link ThreadLocalBufferPool} and <code>striped</code> for a
+	 * {@link StripedBufferPool}.
+	 * <p/>
+	 * From the command line this can be done using the <code>-D</code>
+	 * argument like so:
+	 * <p/>
+	 * <code>java -cp [...] -Dorg.ubjson.io.bufferPool=thread [...]</code>
+	 * <p/>
+	 * Value is: <code>org.ubjson.io.bufferPool</code>
+	 */
+	public static final String POOL_PROPERTY_NAME = "org.ubjson.io.bufferPool";
+
+	private static volatile IBufferPool defaultPool;
+
+	static {
+		String type = System.getProperty(POOL_PROPERTY_NAME, "none");
+
+		if ("thread".equals(type))
+			defaultPool = new ThreadLocalBufferPool();
+		else if ("striped".equals(type))
+			defaultPool = new StripedBufferPool();
+		else if (!"none".equals(type))
+			throw new RuntimeException("System property ["
+					+ POOL_PROPERTY_NAME
+					+ "] must be one of 'none', 'thread' or 'striped' but is currently set to the value '"
+					+ type + "'.");
+	}
+
+	/**
+	 * Used to get the pool used by streams that are not given one
+	 * explicitly.
+	 * 
+	 * @return the default pool or <code>null</code> if streams allocate
+	 *         their own buffers.
+	 */
+	public static IBufferPool getDefault() {
+		return defaultPool;
+	}
+
+	/**
+	 * Used to set the pool used by streams created from now on that are not
+	 * given one explicitly; <code>null</code> turns pooling off again.
+	 * Streams that already exist keep the pool they were created with.
+	 */
+	public static void setDefault(IBufferPool pool) {
+		defaultPool = pool;
+	}
+}
@@ -132,6 +132,8 @@ import java.nio.ByteBuffer;
  * @see ByteArrayOutputStream
  */
 public class ByteArrayInputStream extends InputStream {
+	// Start offset, current index and limit (exclusive) within bbuffer.
+	protected int o;
 	protected int i;
 	protected int l;
 	protected byte[] bbuffer;
@@ -220,18 +222,15 @@ public class ByteArrayInputStream extends InputStream {
 
 	@Override
 	public void reset() throws IOException {
-		i = 0;
+		i = o;
 	}
 
 	public void reset(int offset) throws IllegalArgumentException {
-		if (offset < 0 || (offset + l) > bbuffer.length)
-			throw new IllegalArgumentException(
-					"offset ["
-							+ offset
-							+ "] must be >= 0 and (offset + getLength()) must be <= getArray().length ["
-							+ bbuffer.length + "]");
+		if (offset < 0 || offset > (l - o))
+			throw new IllegalArgumentException("offset [" + offset
+					+ "] must be >= 0 and <= getLength() [" + (l - o) + "]");
 
-		i = offset;
+		i = o + offset;
 	}
 
 	public void reset(byte[] data) throws IllegalArgumentException {
@@ -252,8 +251,9 @@ public class ByteArrayInputStream extends InputStream {
 					+ (offset + length) + "] must be <= data.length ["
 					+ data.length + "]");
 
-		this.i = 0;
-		this.l = length;
+		this.o = offset;
+		this.i = offset;
+		this.l = offset + length;
 		this.bbuffer = data;
 	}
 
@@ -266,6 +266,6 @@ public class ByteArrayInputStream extends InputStream {
 	}
 
 	public int getLength() {
-		return l;
+		return (l - o);
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,218 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.SelectableChannel;
+
+/**
+ * Class used to implement an {@link InputStream} that reads directly from a
+ * {@link ReadableByteChannel} (e.g. a {@link java.nio.channels.FileChannel},
+ * {@link java.nio.channels.SocketChannel} or
+ * {@link java.nio.channels.Pipe.SourceChannel}) into a pooled, direct
+ * {@link ByteBuffer}.
+ * <p/>
+ * Unlike the stream returned by
+ * {@link java.nio.channels.Channels#newInputStream(ReadableByteChannel)},
+ * this stream reads the channel in large chunks into its own direct buffer,
+ * so the JDK never has to allocate (or copy through) a temporary direct buffer
+ * of its own, and serves every read out of that buffer without locking. The
+ * buffer is borrowed from a {@link DirectBufferPool} and given back when this
+ * stream is closed.
+ * <p/>
+ * This stream is typically wrapped by a {@link UBJChannelParser}, which
+ * exposes the same typed read API as {@link UBJInputStreamParser} on top of
+ * it. The channel must be in blocking mode; use a {@link UBJFeedParser} to
+ * parse from non-blocking channels.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class ChannelInputStream extends InputStream {
+	protected ReadableByteChannel channel;
+	protected DirectBufferPool pool;
+
+	/*
+	 * [position, limit) are the bytes read from the channel that have not been
+	 * consumed yet; null once this stream is closed.
+	 */
+	protected ByteBuffer buffer;
+
+	/**
+	 * Creates a stream that reads the given channel using a buffer from the
+	 * {@link DirectBufferPool#getDefault()} pool. The channel is <em>not</em>
+	 * closed when this stream is closed.
+	 */
+	public ChannelInputStream(ReadableByteChannel channel)
+			throws IllegalArgumentException {
+		this(channel, DirectBufferPool.getDefault());
+	}
+
+	/**
+	 * Creates a stream that reads the given channel using a buffer from the
+	 * given pool. The channel is <em>not</em> closed when this stream is
+	 * closed.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>channel</code> or <code>pool</code> is
+	 *             <code>null</code> or if <code>channel</code> is in
+	 *             non-blocking mode.
+	 */
+	public ChannelInputStream(ReadableByteChannel channel,
+			DirectBufferPool pool) throws IllegalArgumentException {
+		if (channel == null)
+			throw new IllegalArgumentException("channel cannot be null");
+		if (pool == null)
+			throw new IllegalArgumentException("pool cannot be null");
+		if (channel instanceof SelectableChannel
+				&& !((SelectableChannel) channel).isBlocking())
+			throw new IllegalArgumentException(
+					"channel must be in blocking mode; use a UBJFeedParser to parse from non-blocking channels.");
+
+		this.channel = channel;
+		this.pool = pool;
+
+		buffer = pool.acquire();
+
+		// Nothing read yet.
+		buffer.limit(0);
+	}
+
+	@Override
+	public int available() throws IOException {
+		ensureOpen();
+		return buffer.remaining();
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!buffer().hasRemaining() && fill() == -1)
+			return -1;
+
+		return buffer.get() & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length)
+			throws IllegalArgumentException, IOException {
+		if (buffer == null)
+			throw new IllegalArgumentException("buffer cannot be null");
+		if (offset < 0 || length < 0 || (offset + length) > buffer.length)
+			throw new IllegalArgumentException("offset [" + offset
+					+ "] and length [" + length
+					+ "] must be >= 0 and (offset + length)["
+					+ (offset + length) + "] must be <= buffer.length ["
+					+ buffer.length + "]");
+
+		if (length == 0)
+			return 0;
+
+		if (!buffer().hasRemaining() && fill() == -1)
+			return -1;
+
+		/*
+		 * Only serve what is buffered; callers that need more (e.g.
+		 * UBJInputStream.readFully) simply read again.
+		 */
+		int r = this.buffer.remaining();
+		length = (length < r ? length : r);
+		this.buffer.get(buffer, offset, length);
+
+		return length;
+	}
+
+	@Override
+	public long skip(long n) throws IllegalArgumentException, IOException {
+		if (n < 0)
+			throw new IllegalArgumentException("n [" + n + "] must be >= 0");
+
+		ByteBuffer buffer = buffer();
+		int r = buffer.remaining();
+
+		if (n <= r) {
+			buffer.position(buffer.position() + (int) n);
+			return n;
+		}
+
+		long skipped = r;
+		buffer.position(buffer.limit());
+
+		// Seekable channels (e.g. files) jump straight over the rest.
+		if (channel instanceof SeekableByteChannel) {
+			SeekableByteChannel sc = (SeekableByteChannel) channel;
+			long position = sc.position();
+			long amount = Math.min(n - skipped, sc.size() - position);
+
+			if (amount > 0) {
+				sc.position(position + amount);
+				skipped += amount;
+			}
+		} else {
+			while (skipped < n && fill() != -1) {
+				int amount = (int) Math.min(n - skipped, buffer.remaining());
+
+				buffer.position(buffer.position() + amount);
+				skipped += amount;
+			}
+		}
+
+		return skipped;
+	}
+
+	/**
+	 * Gives the buffer back to its pool; the channel is <em>not</em> closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (buffer == null)
+			return;
+
+		pool.release(buffer);
+		buffer = null;
+	}
+
+	public ReadableByteChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Used to refill the (fully consumed) buffer from the channel.
+	 * 
+	 * @return the number of bytes read or <code>-1</code> if the end of the
+	 *         channel was reached.
+	 */
+	protected int fill() throws IOException {
+		buffer.clear();
+
+		int read = channel.read(buffer);
+
+		buffer.flip();
+		return read;
+	}
+
+	protected ByteBuffer buffer() throws IOException {
+		ensureOpen();
+		return buffer;
+	}
+
+	protected void ensureOpen() throws IOException {
+		if (buffer == null)
+			throw new IOException("Stream closed");
+	}
+}
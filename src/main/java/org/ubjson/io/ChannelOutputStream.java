@@ -0,0 +1,208 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Class used to implement an {@link OutputStream} that writes directly to a
+ * {@link WritableByteChannel} (e.g. a {@link java.nio.channels.FileChannel},
+ * {@link java.nio.channels.SocketChannel} or
+ * {@link java.nio.channels.Pipe.SinkChannel}) out of a pooled, direct
+ * {@link ByteBuffer}.
+ * <p/>
+ * Small writes (markers, lengths, numeric values, short strings) are
+ * collected in the direct buffer and written out when it fills up or on
+ * {@link #flush()}. A write too large to fit in what is left of the buffer
+ * (e.g. the body of a large STRING or an optimized ARRAY of bytes) is not
+ * copied through it; instead the buffered bytes (typically the header of
+ * that value) and the caller's bytes are handed to the channel together in a
+ * single gathering {@link GatheringByteChannel#write(ByteBuffer[])} call.
+ * <p/>
+ * The buffer is borrowed from a {@link DirectBufferPool} and given back when
+ * this stream is closed. The channel must be in blocking mode.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class ChannelOutputStream extends OutputStream {
+	protected WritableByteChannel channel;
+	protected DirectBufferPool pool;
+
+	// [0, position) are the bytes not written yet; null once closed.
+	protected ByteBuffer buffer;
+
+	/*
+	 * Re-used for gathering writes so they don't allocate; the second slot
+	 * is cleared after every write so the caller's array isn't retained.
+	 */
+	private ByteBuffer[] gather;
+
+	/**
+	 * Creates a stream that writes to the given channel using a buffer from
+	 * the {@link DirectBufferPool#getDefault()} pool. The channel is
+	 * <em>not</em> closed when this stream is closed.
+	 */
+	public ChannelOutputStream(WritableByteChannel channel)
+			throws IllegalArgumentException {
+		this(channel, DirectBufferPool.getDefault());
+	}
+
+	/**
+	 * Creates a stream that writes to the given channel using a buffer from
+	 * the given pool. The channel is <em>not</em> closed when this stream is
+	 * closed.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>channel</code> or <code>pool</code> is
+	 *             <code>null</code> or if <code>channel</code> is in
+	 *             non-blocking mode.
+	 */
+	public ChannelOutputStream(WritableByteChannel channel,
+			DirectBufferPool pool) throws IllegalArgumentException {
+		if (channel == null)
+			throw new IllegalArgumentException("channel cannot be null");
+		if (pool == null)
+			throw new IllegalArgumentException("pool cannot be null");
+		if (channel instanceof SelectableChannel
+				&& !((SelectableChannel) channel).isBlocking())
+			throw new IllegalArgumentException(
+					"channel must be in blocking mode.");
+
+		this.channel = channel;
+		this.pool = pool;
+
+		buffer = pool.acquire();
+		gather = new ByteBuffer[2];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (!buffer().hasRemaining())
+			flushBuffer();
+
+		buffer.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length)
+			throws IllegalArgumentException, IOException {
+		if (buffer == null)
+			throw new IllegalArgumentException("buffer cannot be null");
+		if (offset < 0 || length < 0 || (offset + length) > buffer.length)
+			throw new IllegalArgumentException("offset [" + offset
+					+ "] and length [" + length
+					+ "] must be >= 0 and (offset + length)["
+					+ (offset + length) + "] must be <= buffer.length ["
+					+ buffer.length + "]");
+
+		ByteBuffer dest = buffer();
+
+		if (length <= dest.remaining()) {
+			dest.put(buffer, offset, length);
+			return;
+		}
+
+		/*
+		 * Doesn't fit; write what we have pending and the caller's bytes out
+		 * together instead of copying them through our buffer.
+		 */
+		dest.flip();
+
+		gather[0] = dest;
+		gather[1] = ByteBuffer.wrap(buffer, offset, length);
+
+		try {
+			writeFully(gather);
+		} finally {
+			gather[1] = null;
+			dest.clear();
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+	}
+
+	/**
+	 * Writes out any buffered bytes and gives the buffer back to its pool;
+	 * the channel is <em>not</em> closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (buffer == null)
+			return;
+
+		try {
+			flushBuffer();
+		} finally {
+			pool.release(buffer);
+			buffer = null;
+		}
+	}
+
+	public WritableByteChannel getChannel() {
+		return channel;
+	}
+
+	protected void flushBuffer() throws IOException {
+		ByteBuffer buffer = buffer();
+
+		if (buffer.position() == 0)
+			return;
+
+		buffer.flip();
+
+		try {
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		} finally {
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Used to write all of the given buffers out, in order; with a single
+	 * gathering write whenever the channel supports it.
+	 */
+	protected void writeFully(ByteBuffer[] srcs) throws IOException {
+		ByteBuffer last = srcs[srcs.length - 1];
+
+		if (channel instanceof GatheringByteChannel) {
+			GatheringByteChannel gc = (GatheringByteChannel) channel;
+
+			while (last.hasRemaining())
+				gc.write(srcs);
+		} else {
+			for (int i = 0; i < srcs.length; i++) {
+				while (srcs[i].hasRemaining())
+					channel.write(srcs[i]);
+			}
+		}
+	}
+
+	protected ByteBuffer buffer() throws IOException {
+		if (buffer == null)
+			throw new IOException("Stream closed");
+
+		return buffer;
+	}
+}
@@ -0,0 +1,187 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class used to pool the direct {@link ByteBuffer}s used for channel I/O by
+ * {@link ChannelInputStream} and {@link ChannelOutputStream}.
+ * <p/>
+ * Direct buffers are expensive to allocate and are only released by the
+ * garbage collector (long) after they become unreachable, so allocating one
+ * per stream quickly exhausts the direct memory of a server opening a stream
+ * per request. Streams {@link #acquire()} a buffer when they are created and
+ * {@link #release(ByteBuffer)} it when they are closed instead.
+ * <p/>
+ * Up to <code>capacity</code> idle buffers are kept; any buffer released
+ * beyond that is simply dropped. Instances of this class are thread-safe.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class DirectBufferPool {
+	/**
+	 * System property name used to set the runtime value of
+	 * {@link #BUFFER_SIZE}.
+	 * <p/>
+	 * Value is: <code>org.ubjson.io.directBufferSize</code>
+	 */
+	public static final String BUFFER_SIZE_PROPERTY_NAME = "org.ubjson.io.directBufferSize";
+
+	/**
+	 * Constant used to define the size of the buffers in the
+	 * {@link #getDefault()} pool.
+	 * <p/>
+	 * Default value: <code>65536</code> (64KB)
+	 * <p/>
+	 * This value can be set using the {@link #BUFFER_SIZE_PROPERTY_NAME}
+	 * property at runtime. From the command line this can be done using the
+	 * <code>-D</code> argument like so:
+	 * <p/>
+	 * <code>java -cp [...] -Dorg.ubjson.io.directBufferSize=16384 [...]</code>
+	 */
+	public static final int BUFFER_SIZE = Integer.getInteger(
+			BUFFER_SIZE_PROPERTY_NAME, 65536);
+
+	/**
+	 * System property name used to set the runtime value of {@link #CAPACITY}.
+	 * <p/>
+	 * Value is: <code>org.ubjson.io.directBufferPoolCapacity</code>
+	 */
+	public static final String CAPACITY_PROPERTY_NAME = "org.ubjson.io.directBufferPoolCapacity";
+
+	/**
+	 * Constant used to define the maximum number of idle buffers kept by the
+	 * {@link #getDefault()} pool.
+	 * <p/>
+	 * Default value: <code>64</code>
+	 * <p/>
+	 * This value can be set using the {@link #CAPACITY_PROPERTY_NAME}
+	 * property at runtime.
+	 */
+	public static final int CAPACITY = Integer.getInteger(
+			CAPACITY_PROPERTY_NAME, 64);
+
+	/**
+	 * The smallest buffer size allowed; matches
+	 * {@link UBJOutputStream#MIN_BUFFER_SIZE}.
+	 */
+	public static final int MIN_BUFFER_SIZE = 16;
+
+	static {
+		if (BUFFER_SIZE < MIN_BUFFER_SIZE)
+			throw new RuntimeException("System property ["
+					+ BUFFER_SIZE_PROPERTY_NAME + "] must be >= "
+					+ MIN_BUFFER_SIZE
+					+ " but is currently set to the value '" + BUFFER_SIZE
+					+ "'.");
+		if (CAPACITY < 0)
+			throw new RuntimeException("System property ["
+					+ CAPACITY_PROPERTY_NAME
+					+ "] must be >= 0 but is currently set to the value '"
+					+ CAPACITY + "'.");
+	}
+
+	private static final DirectBufferPool DEFAULT = new DirectBufferPool(
+			BUFFER_SIZE, CAPACITY);
+
+	/**
+	 * Used to get the pool shared by all channel streams that are not given
+	 * one explicitly.
+	 */
+	public static DirectBufferPool getDefault() {
+		return DEFAULT;
+	}
+
+	private int bufferSize;
+	private int capacity;
+
+	private ConcurrentLinkedQueue<ByteBuffer> idle;
+	private AtomicInteger idleCount;
+
+	public DirectBufferPool(int bufferSize, int capacity)
+			throws IllegalArgumentException {
+		if (bufferSize < MIN_BUFFER_SIZE)
+			throw new IllegalArgumentException("bufferSize [" + bufferSize
+					+ "] must be >= " + MIN_BUFFER_SIZE);
+		if (capacity < 0)
+			throw new IllegalArgumentException("capacity [" + capacity
+					+ "] must be >= 0");
+
+		this.bufferSize = bufferSize;
+		this.capacity = capacity;
+
+		idle = new ConcurrentLinkedQueue<ByteBuffer>();
+		idleCount = new AtomicInteger();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getName() + "@" + hashCode() + " [bufferSize="
+				+ bufferSize + ", capacity=" + capacity + ", idle="
+				+ idleCount.get() + "]";
+	}
+
+	/**
+	 * Used to get a cleared direct buffer of {@link #getBufferSize()} bytes;
+	 * an idle one if there is any, a newly allocated one otherwise.
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = idle.poll();
+
+		if (buffer == null)
+			return ByteBuffer.allocateDirect(bufferSize);
+
+		idleCount.decrementAndGet();
+		buffer.clear();
+
+		return buffer;
+	}
+
+	/**
+	 * Used to give a buffer obtained from {@link #acquire()} back to this
+	 * pool; the caller must not use it afterwards.
+	 */
+	public void release(ByteBuffer buffer) throws IllegalArgumentException {
+		if (buffer == null)
+			throw new IllegalArgumentException("buffer cannot be null");
+
+		// Keep at most capacity idle buffers; drop the rest.
+		if (idleCount.incrementAndGet() > capacity) {
+			idleCount.decrementAndGet();
+			return;
+		}
+
+		idle.offer(buffer);
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Used to get the number of idle buffers currently held by this pool.
+	 */
+	public int getIdleCount() {
+		return idleCount.get();
+	}
+}
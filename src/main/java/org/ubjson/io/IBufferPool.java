@@ -0,0 +1,60 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+/**
+ * Interface describing a pool of the <code>byte[]</code> buffers that
+ * {@link UBJInputStream} (its buffered-mode read window) and
+ * {@link UBJOutputStream} (its write buffer) encode and decode through.
+ * <p/>
+ * A server creating a stream per request otherwise allocates (and soon after
+ * throws away) a fresh 8KB buffer for every stream; streams created with a
+ * pool borrow their buffer from it instead and give it back when they are
+ * {@link java.io.Closeable#close() closed}. The pool used by streams that are
+ * not given one explicitly is {@link BufferPools#getDefault()}.
+ * <p/>
+ * Implementations must be safe to share between streams used by different
+ * threads.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public interface IBufferPool {
+	/**
+	 * Used to get a buffer at least <code>size</code> bytes long; an idle one
+	 * if the pool has one, a newly allocated one otherwise. Its contents are
+	 * unspecified.
+	 */
+	public byte[] acquire(int size) throws IllegalArgumentException;
+
+	/**
+	 * Used to give a buffer obtained from {@link #acquire(int)} back to this
+	 * pool; the caller must not use it afterwards. Buffers the pool has no
+	 * use for are simply dropped.
+	 */
+	public void release(byte[] buffer) throws IllegalArgumentException;
+
+	/**
+	 * Used to get the number of calls to {@link #acquire(int)} that had to
+	 * allocate a new buffer.
+	 */
+	public long getAllocationCount();
+
+	/**
+	 * Used to get the number of calls to {@link #acquire(int)} that were
+	 * satisfied with an idle buffer.
+	 */
+	public long getReuseCount();
+}
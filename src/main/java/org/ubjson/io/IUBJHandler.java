@@ -0,0 +1,83 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.io.IOException;
+
+/**
+ * Interface used to receive the values of a Universal Binary JSON stream as
+ * they are decoded by a {@link UBJPushParser}, one callback per value, field
+ * name and container boundary.
+ * <p/>
+ * Numeric values are handed to the callback for their exact type as
+ * primitives. The {@link CharSequence}s given to {@link #onString(CharSequence)}
+ * and {@link #onHuge(CharSequence)} are re-used by the parser and are only
+ * valid for the duration of the call; copy them (e.g.
+ * <code>toString()</code>) to keep them.
+ * <p/>
+ * {@link UBJHandlerAdapter} provides empty implementations of every callback.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public interface IUBJHandler {
+	/**
+	 * Called at the start of an ARRAY.
+	 * 
+	 * @param length
+	 *            The number of elements, or <code>-1</code> if the ARRAY is
+	 *            unbounded.
+	 */
+	public void onStartArray(int length) throws IOException;
+
+	public void onEndArray() throws IOException;
+
+	/**
+	 * Called at the start of an OBJECT.
+	 * 
+	 * @param length
+	 *            The number of fields, or <code>-1</code> if the OBJECT is
+	 *            unbounded.
+	 */
+	public void onStartObject(int length) throws IOException;
+
+	public void onEndObject() throws IOException;
+
+	/**
+	 * Called with the name of every field of an OBJECT, right before the
+	 * callback(s) for its value.
+	 */
+	public void onFieldName(String name) throws IOException;
+
+	public void onNull() throws IOException;
+
+	public void onBoolean(boolean value) throws IOException;
+
+	public void onByte(byte value) throws IOException;
+
+	public void onInt16(short value) throws IOException;
+
+	public void onInt32(int value) throws IOException;
+
+	public void onInt64(long value) throws IOException;
+
+	public void onFloat(float value) throws IOException;
+
+	public void onDouble(double value) throws IOException;
+
+	public void onHuge(CharSequence value) throws IOException;
+
+	public void onString(CharSequence value) throws IOException;
+}
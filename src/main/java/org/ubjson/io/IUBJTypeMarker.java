@@ -43,6 +43,11 @@ public interface IUBJTypeMarker {
 	public static final byte OBJECT = 'O';
 	public static final byte OBJECT_COMPACT = 'o';
 
+	// Optimized Container Types
+	public static final byte ARRAY_OPTIMIZED = '[';
+	public static final byte CONTAINER_TYPE = '$';
+	public static final byte CONTAINER_COUNT = '#';
+
 	// Streaming Types
 	public static final byte NOOP = 'N';
 	public static final byte END = 'E';
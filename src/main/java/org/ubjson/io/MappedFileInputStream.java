@@ -0,0 +1,307 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Class used to implement an {@link InputStream} that reads a file through
+ * read-only, memory-mapped windows of a {@link FileChannel} instead of issuing
+ * a system call (and copy) for every read.
+ * <p/>
+ * A single {@link MappedByteBuffer} can address at most 2GB, so the file is
+ * mapped one window (see {@link #WINDOW_SIZE}) at a time, moving the window
+ * forward as it is consumed; files of any size can be read and all positions
+ * are absolute file offsets held in a <code>long</code>. {@link #seek(long)}
+ * allows random access to any offset in the file.
+ * <p/>
+ * This stream is typically wrapped by a {@link UBJMappedFileParser}, which
+ * exposes the same typed read API as {@link UBJInputStreamParser} on top of
+ * it.
+ * <p/>
+ * <strong>NOTE</strong>: The JDK provides no supported way to unmap a
+ * {@link MappedByteBuffer}; the mapping of a window is released when the
+ * buffer is garbage-collected after this stream moves on from it.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class MappedFileInputStream extends InputStream {
+	/**
+	 * System property name used to set the runtime value of
+	 * {@link #WINDOW_SIZE}.
+	 * <p/>
+	 * Value is: <code>org.ubjson.io.mappedWindowSize</code>
+	 */
+	public static final String WINDOW_SIZE_PROPERTY_NAME = "org.ubjson.io.mappedWindowSize";
+
+	/**
+	 * Constant used to define the default size (in bytes) of the region of the
+	 * file that is mapped at any one time.
+	 * <p/>
+	 * Default value: <code>268435456</code> (256MB)
+	 * <p/>
+	 * This value can be set using the {@link #WINDOW_SIZE_PROPERTY_NAME}
+	 * property at runtime. From the command line this can be done using the
+	 * <code>-D</code> argument like so:
+	 * <p/>
+	 * <code>java -cp [...] -Dorg.ubjson.io.mappedWindowSize=1073741824 [...]</code>
+	 */
+	public static final int WINDOW_SIZE = Integer.getInteger(
+			WINDOW_SIZE_PROPERTY_NAME, 268435456);
+
+	static {
+		if (WINDOW_SIZE < 1)
+			throw new RuntimeException("System property ["
+					+ WINDOW_SIZE_PROPERTY_NAME
+					+ "] must be > 0 but is currently set to the value '"
+					+ WINDOW_SIZE + "'.");
+	}
+
+	protected FileChannel channel;
+	protected boolean ownsChannel;
+	protected long length;
+	protected int windowSize;
+
+	/*
+	 * The currently mapped window (null until the first read or after a seek
+	 * outside of it) and the file offset it starts at. When window is null,
+	 * wstart is the current position.
+	 */
+	protected MappedByteBuffer window;
+	protected long wstart;
+	protected long mark;
+
+	/**
+	 * Creates a stream that opens and reads the given file; the file is closed
+	 * when this stream is closed.
+	 */
+	public MappedFileInputStream(File file) throws IllegalArgumentException,
+			IOException {
+		if (file == null)
+			throw new IllegalArgumentException("file cannot be null");
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+		try {
+			init(raf.getChannel(), WINDOW_SIZE);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+
+		ownsChannel = true;
+	}
+
+	/**
+	 * Creates a stream that reads the given channel starting at offset
+	 * <code>0</code>. The channel is <em>not</em> closed when this stream is
+	 * closed.
+	 */
+	public MappedFileInputStream(FileChannel channel)
+			throws IllegalArgumentException, IOException {
+		this(channel, WINDOW_SIZE);
+	}
+
+	/**
+	 * Creates a stream that reads the given channel starting at offset
+	 * <code>0</code>, mapping up to <code>windowSize</code> bytes at a time.
+	 * The channel is <em>not</em> closed when this stream is closed.
+	 */
+	public MappedFileInputStream(FileChannel channel, int windowSize)
+			throws IllegalArgumentException, IOException {
+		if (channel == null)
+			throw new IllegalArgumentException("channel cannot be null");
+
+		init(channel, windowSize);
+	}
+
+	@Override
+	public int available() throws IOException {
+		long r = length - getPosition();
+		return (r < Integer.MAX_VALUE ? (int) r : Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (remaining() < 1)
+			return -1;
+
+		return window.get() & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length)
+			throws IllegalArgumentException, IOException {
+		if (buffer == null)
+			throw new IllegalArgumentException("buffer cannot be null");
+		if (offset < 0 || length < 0 || (offset + length) > buffer.length)
+			throw new IllegalArgumentException("offset [" + offset
+					+ "] and length [" + length
+					+ "] must be >= 0 and (offset + length)["
+					+ (offset + length) + "] must be <= buffer.length ["
+					+ buffer.length + "]");
+
+		int r = remaining();
+
+		if (r < 1)
+			return (length == 0 ? 0 : -1);
+
+		/*
+		 * Only serve what the current window holds; callers that need more
+		 * (e.g. UBJInputStream.readFully) simply read again, which maps the
+		 * next window.
+		 */
+		length = (length < r ? length : r);
+		window.get(buffer, offset, length);
+
+		return length;
+	}
+
+	@Override
+	public long skip(long n) throws IllegalArgumentException, IOException {
+		if (n < 0)
+			throw new IllegalArgumentException("n [" + n + "] must be >= 0");
+
+		long position = getPosition();
+
+		// Trim to the bytes left in the file.
+		n = (n < length - position ? n : length - position);
+		seek(position + n);
+
+		return n;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	/**
+	 * Overridden to remember the current position; the
+	 * <code>readLimit</code> parameter is ignored as any position in the file
+	 * can be returned to.
+	 * 
+	 * @param readlimit
+	 *            An ignored limit value.
+	 */
+	@Override
+	public void mark(int readlimit) {
+		mark = getPosition();
+	}
+
+	@Override
+	public void reset() throws IOException {
+		seek(mark);
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+
+		if (ownsChannel)
+			channel.close();
+	}
+
+	/**
+	 * Used to move this stream to the given absolute offset in the file.
+	 * Seeking within the currently mapped window is free; anything else
+	 * re-maps on the next read.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>position</code> is &lt; 0 or &gt;
+	 *             {@link #getLength()}.
+	 */
+	public void seek(long position) throws IllegalArgumentException {
+		if (position < 0 || position > length)
+			throw new IllegalArgumentException("position [" + position
+					+ "] must be >= 0 and <= getLength() [" + length + "]");
+
+		if (window != null && position >= wstart
+				&& position <= wstart + window.limit())
+			window.position((int) (position - wstart));
+		else {
+			window = null;
+			wstart = position;
+		}
+	}
+
+	/**
+	 * Used to get the absolute offset in the file of the next byte that will
+	 * be read.
+	 */
+	public long getPosition() {
+		return (window == null ? wstart : wstart + window.position());
+	}
+
+	/**
+	 * Used to get the length of the file, as it was when this stream was
+	 * created.
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	public FileChannel getChannel() {
+		return channel;
+	}
+
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	protected void init(FileChannel channel, int windowSize)
+			throws IllegalArgumentException, IOException {
+		if (windowSize < 1)
+			throw new IllegalArgumentException("windowSize [" + windowSize
+					+ "] must be > 0");
+
+		this.channel = channel;
+		this.windowSize = windowSize;
+
+		length = channel.size();
+	}
+
+	/**
+	 * Used to get the number of bytes left in the current window, mapping the
+	 * next window first if the current one is used up (or none is mapped).
+	 * 
+	 * @return the bytes available in {@link #window}; <code>0</code> only at
+	 *         the end of the file.
+	 */
+	protected int remaining() throws IOException {
+		if (window != null && window.hasRemaining())
+			return window.remaining();
+
+		long position = getPosition();
+		long r = length - position;
+
+		if (r < 1)
+			return 0;
+
+		int size = (r < windowSize ? (int) r : windowSize);
+
+		window = channel.map(MapMode.READ_ONLY, position, size);
+		wstart = position;
+
+		return size;
+	}
+}
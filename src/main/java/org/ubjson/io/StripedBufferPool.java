@@ -0,0 +1,134 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+/**
+ * {@link IBufferPool} shared by all threads that spreads its idle buffers
+ * over a number of independently locked stripes, so threads acquiring and
+ * releasing buffers concurrently rarely contend on the same lock.
+ * <p/>
+ * Unlike {@link ThreadLocalBufferPool} the number of idle buffers is bounded
+ * no matter how many threads use the pool (at most
+ * <code>stripes * stripeCapacity</code>), which suits servers that hand
+ * streams between threads or run very large thread pools.
+ * <p/>
+ * A thread always starts at the stripe picked by its ID and falls back to
+ * the other stripes in turn before allocating a new buffer, or before
+ * dropping a released one.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class StripedBufferPool extends AbstractBufferPool {
+	/**
+	 * Default number of idle buffers kept per stripe.
+	 */
+	public static final int DEFAULT_STRIPE_CAPACITY = 4;
+
+	private Stripe[] stripes;
+	private int mask;
+
+	/**
+	 * Creates a pool of buffers of {@link UBJOutputStream#BUFFER_SIZE} bytes
+	 * with a stripe per available processor (rounded up to a power of 2).
+	 */
+	public StripedBufferPool() {
+		this(UBJOutputStream.BUFFER_SIZE, Runtime.getRuntime()
+				.availableProcessors(), DEFAULT_STRIPE_CAPACITY);
+	}
+
+	/**
+	 * @param bufferSize
+	 *            The size of the pooled buffers.
+	 * @param stripes
+	 *            The number of stripes; rounded up to a power of 2.
+	 * @param stripeCapacity
+	 *            The maximum number of idle buffers kept per stripe.
+	 */
+	public StripedBufferPool(int bufferSize, int stripes, int stripeCapacity)
+			throws IllegalArgumentException {
+		super(bufferSize);
+
+		if (stripes < 1)
+			throw new IllegalArgumentException("stripes [" + stripes
+					+ "] must be >= 1");
+		if (stripeCapacity < 1)
+			throw new IllegalArgumentException("stripeCapacity ["
+					+ stripeCapacity + "] must be >= 1");
+
+		int count = Integer.highestOneBit(stripes);
+
+		if (count < stripes)
+			count <<= 1;
+
+		this.stripes = new Stripe[count];
+		this.mask = count - 1;
+
+		for (int i = 0; i < count; i++)
+			this.stripes[i] = new Stripe(stripeCapacity);
+	}
+
+	public int getStripeCount() {
+		return stripes.length;
+	}
+
+	@Override
+	protected byte[] poll() {
+		int start = (int) Thread.currentThread().getId();
+
+		for (int i = 0; i < stripes.length; i++) {
+			Stripe stripe = stripes[(start + i) & mask];
+
+			synchronized (stripe) {
+				if (stripe.size > 0) {
+					byte[] buffer = stripe.buffers[--stripe.size];
+					stripe.buffers[stripe.size] = null;
+
+					return buffer;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	@Override
+	protected void offer(byte[] buffer) {
+		int start = (int) Thread.currentThread().getId();
+
+		for (int i = 0; i < stripes.length; i++) {
+			Stripe stripe = stripes[(start + i) & mask];
+
+			synchronized (stripe) {
+				if (stripe.size < stripe.buffers.length) {
+					stripe.buffers[stripe.size++] = buffer;
+					return;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Idle buffers of one stripe; guarded by the stripe's own monitor.
+	 */
+	private static final class Stripe {
+		private byte[][] buffers;
+		private int size;
+
+		private Stripe(int capacity) {
+			buffers = new byte[capacity][];
+		}
+	}
+}
@@ -0,0 +1,339 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.util.Random;
+
+import org.ubjson.io.charset.UTF8Decoder;
+
+/**
+ * Class used to implement a bounded symbol table that maps the raw UTF-8 bytes
+ * of frequently repeated strings (typically object keys) to a single,
+ * canonical {@link String} instance.
+ * <p/>
+ * Universal Binary JSON payloads tend to repeat the same small set of keys
+ * over and over again (e.g. every tweet in a timeline carries the same couple
+ * dozen field names). Looking the raw key bytes up in this table avoids
+ * decoding them and allocating a new {@link String} every time they are read;
+ * only the first occurrence of a key (a <em>miss</em>) is decoded.
+ * <h3>Bounds</h3>
+ * The table holds at most {@link #getCapacity()} entries and only caches keys
+ * up to {@link #getMaxLength()} bytes long; longer strings are simply decoded
+ * and returned. Once the table is full, each new key evicts an older one using
+ * a CLOCK (second-chance) policy: keys that were hit since the clock hand last
+ * passed them are skipped, so a burst of one-off keys cannot flush the hot set
+ * of keys out of the table. Bucket indices are derived from a hash seeded per
+ * table so colliding key sets cannot be precomputed.
+ * <h3>Usage</h3>
+ * A table is used by {@link UBJInputStream#readKey()}. Streams that are not
+ * given one via {@link UBJInputStream#setSymbolTable(SymbolTable)} use the
+ * table of the thread reading them (see {@link #getThreadTable()}), so keys
+ * decoded from one message are hits in every later message read by that
+ * thread, even when each message gets a new stream. Instances are
+ * <em>not</em> thread-safe; share a table only between streams used by the
+ * same thread.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class SymbolTable {
+	/**
+	 * System property name used to set the runtime value of {@link #SIZE}.
+	 * <p/>
+	 * Value is: <code>org.ubjson.io.symbolTableSize</code>
+	 */
+	public static final String SIZE_PROPERTY_NAME = "org.ubjson.io.symbolTableSize";
+
+	/**
+	 * Constant used to define the default maximum number of entries a symbol
+	 * table will hold. A value of <code>0</code> disables the per-thread
+	 * tables used by streams that are not given one.
+	 * <p/>
+	 * Default value: <code>512</code>
+	 * <p/>
+	 * This value can be set using the {@link #SIZE_PROPERTY_NAME} property at
+	 * runtime. From the command line this can be done using the
+	 * <code>-D</code> argument like so:
+	 * <p/>
+	 * <code>java -cp [...] -Dorg.ubjson.io.symbolTableSize=1024 [...]</code>
+	 */
+	public static final int SIZE = Integer.getInteger(SIZE_PROPERTY_NAME, 512);
+
+	/**
+	 * System property name used to set the runtime value of
+	 * {@link #MAX_LENGTH}.
+	 * <p/>
+	 * Value is: <code>org.ubjson.io.symbolTableMaxLength</code>
+	 */
+	public static final String MAX_LENGTH_PROPERTY_NAME = "org.ubjson.io.symbolTableMaxLength";
+
+	/**
+	 * Constant used to define the default length (in bytes) of the longest
+	 * string a symbol table will cache.
+	 * <p/>
+	 * Default value: <code>64</code>
+	 * <p/>
+	 * This value can be set using the {@link #MAX_LENGTH_PROPERTY_NAME}
+	 * property at runtime. From the command line this can be done using the
+	 * <code>-D</code> argument like so:
+	 * <p/>
+	 * <code>java -cp [...] -Dorg.ubjson.io.symbolTableMaxLength=128 [...]</code>
+	 */
+	public static final int MAX_LENGTH = Integer.getInteger(
+			MAX_LENGTH_PROPERTY_NAME, 64);
+
+	static {
+		if (SIZE < 0)
+			throw new RuntimeException("System property ["
+					+ SIZE_PROPERTY_NAME
+					+ "] must be >= 0 but is currently set to the value '"
+					+ SIZE + "'.");
+		if (MAX_LENGTH < 1)
+			throw new RuntimeException("System property ["
+					+ MAX_LENGTH_PROPERTY_NAME
+					+ "] must be > 0 but is currently set to the value '"
+					+ MAX_LENGTH + "'.");
+	}
+
+	private static final Random SEEDS = new Random();
+
+	private static final ThreadLocal<SymbolTable> THREAD_TABLES = new ThreadLocal<SymbolTable>() {
+		@Override
+		protected SymbolTable initialValue() {
+			return new SymbolTable();
+		}
+	};
+
+	/**
+	 * Used to get the table of the calling thread, which is used by every
+	 * stream that is not given a table of its own.
+	 * 
+	 * @return the calling thread's table or <code>null</code> if
+	 *         {@link #SIZE} is <code>0</code>.
+	 */
+	public static SymbolTable getThreadTable() {
+		return (SIZE < 1 ? null : THREAD_TABLES.get());
+	}
+
+	private int seed;
+	private int capacity;
+	private int maxLength;
+
+	private Entry[] buckets;
+	private Entry[] ring;
+	private int hand;
+	private int size;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	public SymbolTable() {
+		this((SIZE < 1 ? 1 : SIZE), MAX_LENGTH);
+	}
+
+	public SymbolTable(int capacity, int maxLength)
+			throws IllegalArgumentException {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity [" + capacity
+					+ "] must be > 0");
+		if (maxLength < 1)
+			throw new IllegalArgumentException("maxLength [" + maxLength
+					+ "] must be > 0");
+
+		this.capacity = capacity;
+		this.maxLength = maxLength;
+
+		// Keep the load factor at or under 0.5.
+		int length = Integer.highestOneBit(capacity) << 1;
+
+		if (length < capacity * 2)
+			length <<= 1;
+
+		seed = SEEDS.nextInt();
+		buckets = new Entry[length];
+		ring = new Entry[capacity];
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getName() + "@" + hashCode() + " [size=" + size
+				+ ", capacity=" + capacity + ", maxLength=" + maxLength
+				+ ", hits=" + hits + ", misses=" + misses + ", evictions="
+				+ evictions + "]";
+	}
+
+	/**
+	 * Used to get the canonical {@link String} for the UTF-8 bytes in the
+	 * range [<code>offset</code>, <code>offset + length</code>) of
+	 * <code>data</code>, decoding (and caching) it only if it isn't in the
+	 * table already. Strings longer than {@link #getMaxLength()} bytes are
+	 * decoded and returned without touching the table.
+	 */
+	public String get(byte[] data, int offset, int length)
+			throws IllegalArgumentException {
+		if (data == null)
+			throw new IllegalArgumentException("data cannot be null");
+		if (offset < 0 || length < 0 || (offset + length) > data.length)
+			throw new IllegalArgumentException("offset [" + offset
+					+ "] and length [" + length
+					+ "] must be >= 0 and (offset + length)["
+					+ (offset + length) + "] must be <= data.length ["
+					+ data.length + "]");
+
+		if (length > maxLength)
+			return UTF8Decoder.decode(data, offset, length);
+
+		int hash = hash(data, offset, length);
+
+		for (Entry e = buckets[hash & (buckets.length - 1)]; e != null; e = e.next) {
+			if (e.hash == hash && equals(e.bytes, data, offset, length)) {
+				e.referenced = true;
+				hits++;
+				return e.value;
+			}
+		}
+
+		misses++;
+
+		byte[] bytes = new byte[length];
+		System.arraycopy(data, offset, bytes, 0, length);
+
+		Entry e = new Entry(hash, bytes, UTF8Decoder.decode(bytes, 0, length));
+		put(e);
+
+		return e.value;
+	}
+
+	public void clear() {
+		for (int i = 0; i < buckets.length; i++)
+			buckets[i] = null;
+		for (int i = 0; i < ring.length; i++)
+			ring[i] = null;
+
+		hand = 0;
+		size = 0;
+	}
+
+	public void resetStats() {
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	private void put(Entry e) {
+		if (size < capacity)
+			size++;
+		else {
+			/*
+			 * Full; advance the clock hand past (and clear) recently hit
+			 * entries, then evict the first one that wasn't.
+			 */
+			Entry victim;
+
+			while ((victim = ring[hand]).referenced) {
+				victim.referenced = false;
+				hand = (hand + 1) % capacity;
+			}
+
+			unlink(victim);
+			evictions++;
+		}
+
+		int index = e.hash & (buckets.length - 1);
+
+		e.next = buckets[index];
+		buckets[index] = e;
+
+		ring[hand] = e;
+		hand = (hand + 1) % capacity;
+	}
+
+	private void unlink(Entry victim) {
+		int index = victim.hash & (buckets.length - 1);
+		Entry prev = null;
+
+		for (Entry e = buckets[index]; e != null; prev = e, e = e.next) {
+			if (e == victim) {
+				if (prev == null)
+					buckets[index] = e.next;
+				else
+					prev.next = e.next;
+				break;
+			}
+		}
+	}
+
+	private int hash(byte[] data, int offset, int length) {
+		// Seeded FNV-1a, with the final bits spread for the power-of-2 mask.
+		int hash = seed ^ 0x811C9DC5;
+
+		for (int end = offset + length; offset < end; offset++)
+			hash = (hash ^ data[offset]) * 0x01000193;
+
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean equals(byte[] bytes, byte[] data, int offset,
+			int length) {
+		if (bytes.length != length)
+			return false;
+
+		for (int i = 0; i < length; i++)
+			if (bytes[i] != data[offset + i])
+				return false;
+
+		return true;
+	}
+
+	private static final class Entry {
+		private final int hash;
+		private final byte[] bytes;
+		private final String value;
+
+		private Entry next;
+		private boolean referenced;
+
+		private Entry(int hash, byte[] bytes, String value) {
+			this.hash = hash;
+			this.bytes = bytes;
+			this.value = value;
+		}
+	}
+}
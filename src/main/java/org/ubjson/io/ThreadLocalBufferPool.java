@@ -0,0 +1,100 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+/**
+ * {@link IBufferPool} that keeps a separate, small stack of idle buffers for
+ * every thread, so acquiring and releasing a buffer never contends with
+ * other threads.
+ * <p/>
+ * This suits servers that create, use and close a stream on the same thread
+ * (e.g. one request per thread); a buffer released on a different thread
+ * than it was acquired on simply ends up in that thread's stack. Idle buffers
+ * are only reclaimed when their thread dies, so the pool holds up to
+ * <code>depth * bufferSize</code> bytes per thread that ever used it.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class ThreadLocalBufferPool extends AbstractBufferPool {
+	/**
+	 * Default number of idle buffers kept per thread; enough for one input
+	 * and one output stream open at the same time.
+	 */
+	public static final int DEFAULT_DEPTH = 2;
+
+	private int depth;
+	private ThreadLocal<Stack> stacks;
+
+	public ThreadLocalBufferPool() {
+		this(UBJOutputStream.BUFFER_SIZE, DEFAULT_DEPTH);
+	}
+
+	public ThreadLocalBufferPool(int bufferSize, int depth)
+			throws IllegalArgumentException {
+		super(bufferSize);
+
+		if (depth < 1)
+			throw new IllegalArgumentException("depth [" + depth
+					+ "] must be >= 1");
+
+		this.depth = depth;
+
+		stacks = new ThreadLocal<Stack>() {
+			@Override
+			protected Stack initialValue() {
+				return new Stack(ThreadLocalBufferPool.this.depth);
+			}
+		};
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	@Override
+	protected byte[] poll() {
+		Stack stack = stacks.get();
+
+		if (stack.size == 0)
+			return null;
+
+		byte[] buffer = stack.buffers[--stack.size];
+		stack.buffers[stack.size] = null;
+
+		return buffer;
+	}
+
+	@Override
+	protected void offer(byte[] buffer) {
+		Stack stack = stacks.get();
+
+		if (stack.size < stack.buffers.length)
+			stack.buffers[stack.size++] = buffer;
+	}
+
+	/*
+	 * Idle buffers of a single thread; only ever touched by that thread so
+	 * no synchronization is needed.
+	 */
+	private static final class Stack {
+		private byte[][] buffers;
+		private int size;
+
+		private Stack(int depth) {
+			buffers = new byte[depth][];
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Class used to write Universal Binary JSON straight to a
+ * {@link WritableByteChannel} (file, socket, pipe ...), exposing the same
+ * typed write API as {@link UBJOutputStream}.
+ * <p/>
+ * Values are written through a {@link ChannelOutputStream}, which collects
+ * them in a pooled direct buffer and writes the header and body of large
+ * values (long STRINGs, optimized ARRAYs of bytes ...) out together in a
+ * single gathering write. Closing this stream writes out anything still
+ * buffered and gives the buffer back to its pool; the channel is
+ * <em>not</em> closed.
+ * <p/>
+ * <strong>REMINDER</strong>: Values only reach the channel once the buffer
+ * fills up or when {@link #flush()} or {@link #close()} are called.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class UBJChannelOutputStream extends UBJOutputStream {
+	protected ChannelOutputStream cout;
+
+	public UBJChannelOutputStream(WritableByteChannel channel)
+			throws IllegalArgumentException {
+		this(new ChannelOutputStream(channel));
+	}
+
+	public UBJChannelOutputStream(WritableByteChannel channel,
+			DirectBufferPool pool) throws IllegalArgumentException {
+		this(new ChannelOutputStream(channel, pool));
+	}
+
+	public UBJChannelOutputStream(ChannelOutputStream out)
+			throws IllegalArgumentException {
+		super(out);
+
+		if (out == null)
+			throw new IllegalArgumentException("out cannot be null");
+
+		cout = out;
+	}
+
+	public WritableByteChannel getChannel() {
+		return cout.getChannel();
+	}
+}
@@ -0,0 +1,59 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Class used to parse Universal Binary JSON straight out of a
+ * {@link ReadableByteChannel} (file, socket, pipe ...), exposing the same
+ * typed read API as {@link UBJInputStreamParser}.
+ * <p/>
+ * The channel is read through a {@link ChannelInputStream}, in large chunks
+ * into a pooled direct buffer, instead of through the
+ * {@link java.nio.channels.Channels#newInputStream(ReadableByteChannel)}
+ * wrapper. Closing this parser gives the buffer back to its pool; the
+ * channel is <em>not</em> closed.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class UBJChannelParser extends UBJInputStreamParser {
+	protected ChannelInputStream cin;
+
+	public UBJChannelParser(ReadableByteChannel channel)
+			throws IllegalArgumentException {
+		this(new ChannelInputStream(channel));
+	}
+
+	public UBJChannelParser(ReadableByteChannel channel, DirectBufferPool pool)
+			throws IllegalArgumentException {
+		this(new ChannelInputStream(channel, pool));
+	}
+
+	public UBJChannelParser(ChannelInputStream in)
+			throws IllegalArgumentException {
+		super(in);
+
+		if (in == null)
+			throw new IllegalArgumentException("in cannot be null");
+
+		cin = in;
+	}
+
+	public ReadableByteChannel getChannel() {
+		return cin.getChannel();
+	}
+}
@@ -0,0 +1,703 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import static org.ubjson.io.IUBJTypeMarker.ARRAY;
+import static org.ubjson.io.IUBJTypeMarker.ARRAY_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.ARRAY_OPTIMIZED;
+import static org.ubjson.io.IUBJTypeMarker.BYTE;
+import static org.ubjson.io.IUBJTypeMarker.CONTAINER_COUNT;
+import static org.ubjson.io.IUBJTypeMarker.CONTAINER_TYPE;
+import static org.ubjson.io.IUBJTypeMarker.DOUBLE;
+import static org.ubjson.io.IUBJTypeMarker.END;
+import static org.ubjson.io.IUBJTypeMarker.FALSE;
+import static org.ubjson.io.IUBJTypeMarker.FLOAT;
+import static org.ubjson.io.IUBJTypeMarker.HUGE;
+import static org.ubjson.io.IUBJTypeMarker.HUGE_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.INT16;
+import static org.ubjson.io.IUBJTypeMarker.INT32;
+import static org.ubjson.io.IUBJTypeMarker.INT64;
+import static org.ubjson.io.IUBJTypeMarker.NOOP;
+import static org.ubjson.io.IUBJTypeMarker.NULL;
+import static org.ubjson.io.IUBJTypeMarker.OBJECT;
+import static org.ubjson.io.IUBJTypeMarker.OBJECT_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.STRING;
+import static org.ubjson.io.IUBJTypeMarker.STRING_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.TRUE;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+import org.ubjson.io.charset.UTF8Decoder;
+
+/**
+ * Non-blocking {@link UBJPullParser} that is fed the bytes of a Universal
+ * Binary JSON stream in arbitrary chunks (e.g. as they are read from a
+ * non-blocking {@link java.nio.channels.SocketChannel}) instead of reading
+ * them from an {@link java.io.InputStream}.
+ * <p/>
+ * Bytes are handed to the parser with {@link #feed(ByteBuffer)} and tokens
+ * are pulled with {@link #nextToken()} exactly like with a
+ * {@link UBJPullParser}, until it returns {@link Token#NOT_AVAILABLE}; that
+ * means the next token is not complete yet and nothing has been consumed for
+ * it. Feed the next chunk when it arrives and call {@link #nextToken()}
+ * again; a value split across any number of chunks (e.g. a STRING or an INT64
+ * whose bytes arrive one at a time) is returned once all of its bytes are in.
+ * Call {@link #endOfInput()} once the stream is over, after which
+ * {@link #nextToken()} returns <code>null</code> after the last top-level
+ * value, or throws a {@link UBJFormatException} if the stream ended in the
+ * middle of one.
+ * <p/>
+ * The whole state of the parser is the container stack of
+ * {@link UBJPullParser} plus a copy of every byte fed after the last token
+ * that was returned; feeding large chunks buffers any number of tokens ahead.
+ * The buffer grows as needed to hold those bytes and goes back to
+ * {@link #BUFFER_SIZE} as soon as all of them have been consumed. Nothing
+ * ever blocks, so one thread can drive any number of parsers, one per
+ * connection. Unlike
+ * {@link UBJInputStream}, field names are not looked up in a
+ * {@link SymbolTable} unless one is given with
+ * {@link #setSymbolTable(SymbolTable)}, which keeps idle parsers small; a
+ * table can be shared by all the parsers used by the same thread.
+ * <p/>
+ * Instances of this class are not thread-safe.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class UBJFeedParser extends UBJPullParser {
+	/**
+	 * Initial size of the buffer holding the bytes fed to a parser but not
+	 * consumed yet; it grows as needed to hold them and is put back to this
+	 * size whenever all of them have been consumed.
+	 */
+	public static final int BUFFER_SIZE = 256;
+
+	protected byte[] data;
+	protected int start;
+	protected int end;
+
+	/*
+	 * Stream position of data[0], so error messages and getPosition() report
+	 * positions in the whole stream.
+	 */
+	protected long offset;
+	protected boolean eof;
+
+	protected SymbolTable symbols;
+
+	// Element type of every open optimized ARRAY, -1 for other containers.
+	protected byte[] elementTypes;
+
+	// Depth the parser is skipping back up to (see skipChildren()) or -1.
+	protected int skipDepth = -1;
+
+	public UBJFeedParser() {
+		data = new byte[BUFFER_SIZE];
+		elementTypes = new byte[objects.length];
+	}
+
+	/**
+	 * Used to hand the remaining bytes of the given buffer to this parser;
+	 * they are copied, so the buffer can be re-used as soon as this returns
+	 * (its position is moved to its limit).
+	 * 
+	 * @throws IllegalStateException
+	 *             if {@link #endOfInput()} has been called.
+	 */
+	public void feed(ByteBuffer chunk) throws IllegalArgumentException,
+			IllegalStateException {
+		if (chunk == null)
+			throw new IllegalArgumentException("chunk cannot be null");
+
+		int length = chunk.remaining();
+
+		ensureRoom(length);
+		chunk.get(data, end, length);
+		end += length;
+	}
+
+	/**
+	 * Used to hand the given range of bytes to this parser; they are copied.
+	 * 
+	 * @throws IllegalStateException
+	 *             if {@link #endOfInput()} has been called.
+	 */
+	public void feed(byte[] chunk, int index, int length)
+			throws IllegalArgumentException, IllegalStateException {
+		if (chunk == null)
+			throw new IllegalArgumentException("chunk cannot be null");
+		if (index < 0 || length < 0 || (index + length) > chunk.length)
+			throw new IllegalArgumentException("index [" + index
+					+ "] and length [" + length
+					+ "] must be >= 0 and (index + length)["
+					+ (index + length) + "] must be <= chunk.length ["
+					+ chunk.length + "]");
+
+		ensureRoom(length);
+		System.arraycopy(chunk, index, data, end, length);
+		end += length;
+	}
+
+	/**
+	 * Used to tell this parser that no more bytes will be fed to it.
+	 */
+	public void endOfInput() {
+		eof = true;
+	}
+
+	/**
+	 * Used to determine if all of the bytes fed so far have been consumed;
+	 * after that {@link #nextToken()} returns {@link Token#NOT_AVAILABLE}
+	 * until more bytes are fed (or <code>null</code> or an exception after
+	 * {@link #endOfInput()}).
+	 */
+	public boolean needsInput() {
+		return (start == end && !eof);
+	}
+
+	/**
+	 * Used to get the number of bytes fed to this parser that have not been
+	 * consumed yet.
+	 */
+	public int getBufferedCount() {
+		return end - start;
+	}
+
+	/**
+	 * Used to get the position in the stream right after the last token that
+	 * was returned.
+	 */
+	public long getPosition() {
+		return offset + start;
+	}
+
+	public SymbolTable getSymbolTable() {
+		return symbols;
+	}
+
+	/**
+	 * Used to set the {@link SymbolTable} field names are looked up in, or
+	 * <code>null</code> to decode every field name into a new {@link String}.
+	 */
+	public void setSymbolTable(SymbolTable symbols) {
+		this.symbols = symbols;
+	}
+
+	/**
+	 * Does nothing; this parser is not backed by a stream.
+	 */
+	@Override
+	public void close() {
+		// no-op
+	}
+
+	/**
+	 * @return <code>null</code>; this parser is not backed by a stream.
+	 */
+	@Override
+	public UBJInputStreamParser getInputStream() {
+		return null;
+	}
+
+	/**
+	 * Used to advance to the next token in the input fed so far.
+	 * 
+	 * @return the next token, {@link Token#NOT_AVAILABLE} if it is not
+	 *         complete in the input fed so far, or <code>null</code> if
+	 *         {@link #endOfInput()} has been called and the end of the input
+	 *         was reached in between top-level values.
+	 * 
+	 * @throws UBJFormatException
+	 *             if the input contains invalid data or ends in the middle of
+	 *             a value or container.
+	 */
+	@Override
+	public Token nextToken() throws UBJFormatException {
+		Token t;
+
+		// Keep going while skipping the children of a container.
+		do {
+			t = nextTokenImpl();
+		} while (skipDepth != -1 && depth > skipDepth
+				&& t != Token.NOT_AVAILABLE);
+
+		if (skipDepth == depth && t != Token.NOT_AVAILABLE)
+			skipDepth = -1;
+
+		if (start == end)
+			trim();
+
+		return t;
+	}
+
+	/**
+	 * Used to skip all the children of the container whose
+	 * {@link Token#START_ARRAY} or {@link Token#START_OBJECT} token is the
+	 * current token.
+	 * <p/>
+	 * If all of them have been fed already, the parser is left on the
+	 * matching <code>END_XXX</code> token like a {@link UBJPullParser} is;
+	 * otherwise the current token is {@link Token#NOT_AVAILABLE} and the
+	 * remaining children are skipped by the following calls to
+	 * {@link #nextToken()}, the first token they return being the matching
+	 * <code>END_XXX</code> one.
+	 */
+	@Override
+	public void skipChildren() throws UBJFormatException {
+		if (token != Token.START_ARRAY && token != Token.START_OBJECT)
+			return;
+
+		skipDepth = depth - 1;
+		nextToken();
+	}
+
+	protected Token nextTokenImpl() throws UBJFormatException {
+		type = -1;
+
+		int d = depth - 1;
+
+		// Counted container with nothing left in it.
+		if (d >= 0 && !pendingValues[d] && remaining[d] == 0)
+			return (token = closeContainer());
+
+		// Elements of an optimized ARRAY have no type markers of their own.
+		if (d >= 0 && elementTypes[d] != -1) {
+			Token t = readValue(start, elementTypes[d], false);
+
+			if (t != Token.NOT_AVAILABLE) {
+				remaining[d]--;
+				indexes[d]++;
+			}
+
+			return (token = t);
+		}
+
+		// NOOPs carry no state, they can be dropped right away.
+		while (start < end && data[start] == NOOP)
+			start++;
+
+		if (start == end) {
+			if (!eof)
+				return (token = Token.NOT_AVAILABLE);
+			else if (d == -1)
+				return (token = null);
+			else
+				throw new UBJFormatException(getPosition(),
+						"End of input encountered at stream position "
+								+ getPosition() + " inside of " + getPath()
+								+ "; the container was never closed.");
+		}
+
+		byte next = data[start];
+
+		if (d == -1)
+			return (token = readValue(start, next, true));
+
+		// The name of this field was the last token; now its value.
+		if (pendingValues[d]) {
+			Token t = readValue(start, next, true);
+
+			if (t != Token.NOT_AVAILABLE)
+				pendingValues[d] = false;
+
+			return (token = t);
+		}
+
+		if (remaining[d] == -1 && next == END) {
+			start++;
+			return (token = closeContainer());
+		}
+
+		if (objects[d]) {
+			if (!readName(start, d))
+				return (token = Token.NOT_AVAILABLE);
+
+			if (remaining[d] != -1)
+				remaining[d]--;
+
+			pendingValues[d] = true;
+			return (token = Token.FIELD_NAME);
+		}
+
+		Token t = readValue(start, next, true);
+
+		if (t != Token.NOT_AVAILABLE) {
+			if (remaining[d] != -1)
+				remaining[d]--;
+
+			indexes[d]++;
+		}
+
+		return (token = t);
+	}
+
+	/**
+	 * Used to read the field name starting at index <code>i</code> into
+	 * <code>names[d]</code>.
+	 * 
+	 * @return <code>false</code> if it is not complete yet, in which case
+	 *         nothing was consumed.
+	 */
+	protected boolean readName(int i, int d) throws UBJFormatException {
+		byte marker = data[i];
+
+		if (marker != STRING && marker != STRING_COMPACT)
+			throw new UBJFormatException(offset + i,
+					"Expected a STRING field name at stream position "
+							+ (offset + i)
+							+ " but found a type marker of byte value "
+							+ marker + " (char='" + ((char) marker) + "').");
+
+		int header = (marker == STRING_COMPACT ? 2 : 5);
+		int length = readLength(i, marker == STRING_COMPACT);
+
+		if (length == -1 || !available(i, header + length))
+			return false;
+
+		if (symbols != null && length <= symbols.getMaxLength())
+			names[d] = symbols.get(data, i + header, length);
+		else
+			names[d] = UTF8Decoder.decode(data, i + header, length);
+
+		start = i + header + length;
+		return true;
+	}
+
+	/**
+	 * Used to read the value of the given type starting at index
+	 * <code>i</code> (at its type marker if <code>marker</code> is
+	 * <code>true</code>, at its body otherwise), or the header of the
+	 * container, into the fields backing the getters.
+	 * 
+	 * @return the token for the value or {@link Token#NOT_AVAILABLE} if it is
+	 *         not complete yet, in which case nothing was consumed.
+	 */
+	protected Token readValue(int i, byte next, boolean marker)
+			throws UBJFormatException {
+		int m = (marker ? 1 : 0);
+		Token t;
+		int length;
+
+		switch (next) {
+		case NULL:
+			length = 1;
+			t = Token.VALUE_NULL;
+			break;
+
+		case TRUE:
+			length = 1;
+			t = Token.VALUE_TRUE;
+			break;
+
+		case FALSE:
+			length = 1;
+			t = Token.VALUE_FALSE;
+			break;
+
+		case BYTE:
+			if (!available(i, length = m + 1))
+				return Token.NOT_AVAILABLE;
+
+			longValue = data[i + m];
+			t = Token.VALUE_NUMBER_INT;
+			break;
+
+		case INT16:
+			if (!available(i, length = m + 2))
+				return Token.NOT_AVAILABLE;
+
+			longValue = (short) readInt32(i + m, 2);
+			t = Token.VALUE_NUMBER_INT;
+			break;
+
+		case INT32:
+			if (!available(i, length = m + 4))
+				return Token.NOT_AVAILABLE;
+
+			longValue = readInt32(i + m, 4);
+			t = Token.VALUE_NUMBER_INT;
+			break;
+
+		case INT64:
+			if (!available(i, length = m + 8))
+				return Token.NOT_AVAILABLE;
+
+			longValue = readInt64(i + m);
+			t = Token.VALUE_NUMBER_INT;
+			break;
+
+		case FLOAT:
+			if (!available(i, length = m + 4))
+				return Token.NOT_AVAILABLE;
+
+			doubleValue = Float.intBitsToFloat(readInt32(i + m, 4));
+			t = Token.VALUE_NUMBER_FLOAT;
+			break;
+
+		case DOUBLE:
+			if (!available(i, length = m + 8))
+				return Token.NOT_AVAILABLE;
+
+			doubleValue = Double.longBitsToDouble(readInt64(i + m));
+			t = Token.VALUE_NUMBER_FLOAT;
+			break;
+
+		case HUGE:
+		case HUGE_COMPACT:
+		case STRING:
+		case STRING_COMPACT:
+			boolean compact = (next == HUGE_COMPACT || next == STRING_COMPACT);
+			int header = (compact ? 2 : 5);
+			int body = readLength(i, compact);
+
+			if (body == -1 || !available(i, length = header + body))
+				return Token.NOT_AVAILABLE;
+
+			readText(i + header, body);
+			t = (next == STRING || next == STRING_COMPACT ? Token.VALUE_STRING
+					: Token.VALUE_HUGE);
+			break;
+
+		case ARRAY:
+		case ARRAY_COMPACT:
+		case OBJECT:
+		case OBJECT_COMPACT:
+			compact = (next == ARRAY_COMPACT || next == OBJECT_COMPACT);
+			int count = readLength(i, compact);
+
+			if (count == -1)
+				return Token.NOT_AVAILABLE;
+
+			// Compact 255 is an unbounded container, terminated by END.
+			if (compact && count == 255)
+				count = -1;
+
+			boolean object = (next == OBJECT || next == OBJECT_COMPACT);
+
+			start = i + (compact ? 2 : 5);
+			type = next;
+			open(object, count);
+
+			return (object ? Token.START_OBJECT : Token.START_ARRAY);
+
+		case ARRAY_OPTIMIZED:
+			return readTypedArrayHeader(i);
+
+		default:
+			throw new UBJFormatException(offset + i,
+					"Encountered an unexpected type marker of byte value "
+							+ next + " (char='" + ((char) next)
+							+ "') at stream position " + (offset + i) + " ("
+							+ getPath() + ").");
+		}
+
+		start = i + length;
+		type = next;
+
+		return t;
+	}
+
+	/**
+	 * Used to read the header of the optimized ARRAY starting at index
+	 * <code>i</code> and open it.
+	 */
+	protected Token readTypedArrayHeader(int i) throws UBJFormatException {
+		// '[' '$' type '#' count-type
+		if (!available(i, 5))
+			return Token.NOT_AVAILABLE;
+
+		byte elementType = data[i + 2];
+		byte countType = data[i + 4];
+
+		if (data[i + 1] != CONTAINER_TYPE || data[i + 3] != CONTAINER_COUNT)
+			throw new UBJFormatException(offset + i,
+					"Invalid header for the optimized ARRAY at stream position "
+							+ (offset + i) + ".");
+
+		if (UBJInputStream.sizeOf(elementType) == -1)
+			throw new UBJFormatException(offset + i,
+					"Unsupported element type marker of byte value "
+							+ elementType + " (char='" + ((char) elementType)
+							+ "') for the optimized ARRAY at stream position "
+							+ (offset + i) + ".");
+
+		int size;
+
+		switch (countType) {
+		case BYTE:
+			size = 1;
+			break;
+
+		case INT16:
+			size = 2;
+			break;
+
+		case INT32:
+			size = 4;
+			break;
+
+		default:
+			throw new UBJFormatException(offset + i,
+					"Unsupported count type marker of byte value "
+							+ countType + " (char='" + ((char) countType)
+							+ "') for the optimized ARRAY at stream position "
+							+ (offset + i) + ".");
+		}
+
+		if (!available(i, 5 + size))
+			return Token.NOT_AVAILABLE;
+
+		int count = (size == 1 ? data[i + 5] : size == 2 ? (short) readInt32(
+				i + 5, 2) : readInt32(i + 5, 4));
+
+		if (count < 0)
+			throw new UBJFormatException(offset + i,
+					"Encountered a negative (invalid) count of [" + count
+							+ "] for the optimized ARRAY at stream position "
+							+ (offset + i) + ".");
+
+		start = i + 5 + size;
+		type = ARRAY_OPTIMIZED;
+		open(false, count);
+		elementTypes[depth - 1] = elementType;
+
+		return Token.START_ARRAY;
+	}
+
+	/**
+	 * Used to decode the <code>length</code> bytes of UTF-8 starting at index
+	 * <code>i</code> into {@link #chars}, growing it first if needed.
+	 */
+	protected void readText(int i, int length) {
+		// Never more chars than UTF-8 bytes.
+		if (length > chars.capacity())
+			chars = CharBuffer.allocate(Math.max(length, chars.capacity() * 2));
+
+		chars.clear();
+		chars.limit(UTF8Decoder.decode(data, i, length, chars.array(), 0));
+	}
+
+	@Override
+	protected void open(boolean object, int length) {
+		if (depth == elementTypes.length)
+			elementTypes = Arrays.copyOf(elementTypes, depth * 2);
+
+		elementTypes[depth] = -1;
+		super.open(object, length);
+	}
+
+	/**
+	 * Used to read the length in the header of the STRING, HUGE, ARRAY or
+	 * OBJECT starting at index <code>i</code>.
+	 * 
+	 * @return the length or <code>-1</code> if the header is not complete
+	 *         yet.
+	 */
+	protected int readLength(int i, boolean compact) throws UBJFormatException {
+		if (!available(i, compact ? 2 : 5))
+			return -1;
+
+		if (compact)
+			return data[i + 1] & 0xFF;
+
+		int length = readInt32(i + 1, 4);
+
+		if (length < 0)
+			throw new UBJFormatException(offset + i,
+					"Encountered a negative (invalid) length of [" + length
+							+ "] for the value at stream position "
+							+ (offset + i) + ".");
+
+		return length;
+	}
+
+	/**
+	 * Used to determine if the <code>length</code> bytes starting at index
+	 * <code>i</code> have all been fed.
+	 * 
+	 * @throws UBJFormatException
+	 *             if they haven't and never will be, because
+	 *             {@link #endOfInput()} has been called.
+	 */
+	protected boolean available(int i, int length) throws UBJFormatException {
+		if (end - i >= length)
+			return true;
+
+		if (eof)
+			throw new UBJFormatException(offset + end,
+					"End of input encountered at stream position "
+							+ (offset + end)
+							+ " in the middle of the value starting at stream position "
+							+ (offset + i) + ".");
+
+		return false;
+	}
+
+	/**
+	 * Used to make room for <code>length</code> more bytes after
+	 * {@link #end}, dropping the bytes consumed so far first.
+	 */
+	protected void ensureRoom(int length) throws IllegalStateException {
+		if (eof)
+			throw new IllegalStateException(
+					"endOfInput() has already been called; no more bytes can be fed.");
+
+		if (end + length <= data.length)
+			return;
+
+		int live = end - start;
+		byte[] dest = data;
+
+		if (live + length > data.length)
+			dest = new byte[Math.max(live + length, data.length * 2)];
+
+		System.arraycopy(data, start, dest, 0, live);
+
+		data = dest;
+		offset += start;
+		start = 0;
+		end = live;
+	}
+
+	/**
+	 * Used to drop the (fully consumed) contents of {@link #data} and give
+	 * back a buffer that grew past {@link #BUFFER_SIZE} for a large value, so
+	 * idle parsers stay small.
+	 */
+	protected void trim() {
+		offset += start;
+		start = 0;
+		end = 0;
+
+		if (data.length > BUFFER_SIZE)
+			data = new byte[BUFFER_SIZE];
+	}
+
+	private int readInt32(int i, int size) {
+		int value = 0;
+
+		for (int n = i + size; i < n; i++)
+			value = (value << 8) | (data[i] & 0xFF);
+
+		return value;
+	}
+
+	private long readInt64(int i) {
+		return ((long) readInt32(i, 4) << 32)
+				| (readInt32(i + 4, 4) & 0xFFFFFFFFL);
+	}
+}
@@ -0,0 +1,101 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.io.IOException;
+
+/**
+ * Convenience implementation of {@link IUBJHandler} that ignores every
+ * callback; extend it and override only the callbacks of interest.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class UBJHandlerAdapter implements IUBJHandler {
+	@Override
+	public void onStartArray(int length) throws IOException {
+		// no-op
+	}
+
+	@Override
+	public void onEndArray() throws IOException {
+		// no-op
+	}
+
+	@Override
+	public void onStartObject(int length) throws IOException {
+		// no-op
+	}
+
+	@Override
+	public void onEndObject() throws IOException {
+		// no-op
+	}
+
+	@Override
+	public void onFieldName(String name) throws IOException {
+		// no-op
+	}
+
+	@Override
+	public void onNull() throws IOException {
+		// no-op
+	}
+
+	@Override
+	public void onBoolean(boolean value) throws IOException {
+		// no-op
+	}
+
+	@Override
+	public void onByte(byte value) throws IOException {
+		// no-op
+	}
+
+	@Override
+	public void onInt16(short value) throws IOException {
+		// no-op
+	}
+
+	@Override
+	public void onInt32(int value) throws IOException {
+		// no-op
+	}
+
+	@Override
+	public void onInt64(long value) throws IOException {
+		// no-op
+	}
+
+	@Override
+	public void onFloat(float value) throws IOException {
+		// no-op
+	}
+
+	@Override
+	public void onDouble(double value) throws IOException {
+		// no-op
+	}
+
+	@Override
+	public void onHuge(CharSequence value) throws IOException {
+		// no-op
+	}
+
+	@Override
+	public void onString(CharSequence value) throws IOException {
+		// no-op
+	}
+}
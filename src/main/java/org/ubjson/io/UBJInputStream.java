@@ -17,7 +17,10 @@ package org.ubjson.io;
 
 import static org.ubjson.io.IUBJTypeMarker.ARRAY;
 import static org.ubjson.io.IUBJTypeMarker.ARRAY_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.ARRAY_OPTIMIZED;
 import static org.ubjson.io.IUBJTypeMarker.BYTE;
+import static org.ubjson.io.IUBJTypeMarker.CONTAINER_COUNT;
+import static org.ubjson.io.IUBJTypeMarker.CONTAINER_TYPE;
 import static org.ubjson.io.IUBJTypeMarker.DOUBLE;
 import static org.ubjson.io.IUBJTypeMarker.END;
 import static org.ubjson.io.IUBJTypeMarker.FALSE;
@@ -38,36 +41,194 @@ import static org.ubjson.io.IUBJTypeMarker.TRUE;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Array;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 
-import org.ubjson.io.charset.StreamDecoder;
+import org.ubjson.io.charset.UTF8Decoder;
 
 public class UBJInputStream extends FilterInputStream {
+	/**
+	 * System property name used to set the runtime value of
+	 * {@link #BUFFER_SIZE}.
+	 * <p/>
+	 * Value is: <code>org.ubjson.io.inputBufferSize</code>
+	 */
+	public static final String BUFFER_SIZE_PROPERTY_NAME = "org.ubjson.io.inputBufferSize";
+
+	/**
+	 * Constant used to define the default size of the <code>byte[]</code>
+	 * window used by streams created in buffered mode (see
+	 * {@link #UBJInputStream(InputStream, int)}).
+	 * <p/>
+	 * Default value: <code>8192</code> (8KB)
+	 * <p/>
+	 * This value can be set using the {@link #BUFFER_SIZE_PROPERTY_NAME}
+	 * property at runtime. From the command line this can be done using the
+	 * <code>-D</code> argument like so:
+	 * <p/>
+	 * <code>java -cp [...] -Dorg.ubjson.io.inputBufferSize=32768 [...]</code>
+	 */
+	public static final int BUFFER_SIZE = Integer.getInteger(
+			BUFFER_SIZE_PROPERTY_NAME, 8192);
+
+	/**
+	 * The smallest window size allowed in buffered mode; large enough to
+	 * always hold the widest fixed-size construct (a marker plus an 8-byte
+	 * INT64 or DOUBLE) in one contiguous run.
+	 */
+	public static final int MIN_BUFFER_SIZE = 16;
+
+	static {
+		if (BUFFER_SIZE < MIN_BUFFER_SIZE)
+			throw new RuntimeException("System property ["
+					+ BUFFER_SIZE_PROPERTY_NAME + "] must be >= "
+					+ MIN_BUFFER_SIZE
+					+ " but is currently set to the value '" + BUFFER_SIZE
+					+ "'.");
+	}
+
 	protected static final byte INVALID = -1;
 
 	protected long pos;
 	protected byte[] buffer;
-	protected StreamDecoder decoder;
+
+	/*
+	 * Scratch space STRING and HUGE bodies are read into when they cannot be
+	 * accessed directly (see acquire(int)); grown on demand.
+	 */
+	protected byte[] sbuffer;
+
+	// Canonicalizes keys read by readKey(); null uses the thread's table.
+	protected SymbolTable symbols;
+
+	/*
+	 * Direct access: after a successful call to acquire(int), the bytes just
+	 * consumed from the stream can be read from dArray starting at dOffset.
+	 */
+	protected byte[] dArray;
+	protected int dOffset;
+
+	/*
+	 * Buffered mode: when wbuffer is non-null this stream owns a refillable
+	 * window over the underlying stream; [wpos, wlimit) are the bytes read
+	 * from the underlying stream but not yet consumed by the caller.
+	 */
+	protected byte[] wbuffer;
+	protected int wpos;
+	protected int wlimit;
+
+	/*
+	 * Where wbuffer is borrowed from and given back to on close(); null if
+	 * this stream allocated its own.
+	 */
+	protected IBufferPool pool;
+
+	/*
+	 * The pool and size of the window given back by close(), so reset(...)
+	 * can borrow a new one; null unless a pooled stream has been closed.
+	 */
+	protected IBufferPool closedPool;
+	protected int closedSize;
+
+	/*
+	 * Optimized ARRAYs: after readArrayLength() reads the header of one,
+	 * elementType is the type marker shared by all of its elements and
+	 * elementsRemaining is the number of elements whose (omitted) type markers
+	 * nextType() still has to hand back instead of reading them.
+	 */
+	protected byte elementType = INVALID;
+	protected int elementsRemaining;
 
 	public UBJInputStream(InputStream in) {
 		super(in);
 
 		buffer = new byte[8];
-		decoder = new StreamDecoder();
+		sbuffer = new byte[256];
+	}
+
+	/**
+	 * Creates a stream in <em>buffered mode</em> that reads from the given
+	 * {@link InputStream} in chunks of up to <code>bufferSize</code> bytes
+	 * into an internal window, decoding markers, lengths and numeric values
+	 * directly from that window instead of issuing a call to the underlying
+	 * stream for every byte.
+	 * <p/>
+	 * Because the window reads ahead, the underlying stream will generally be
+	 * positioned past the last value consumed from this stream; callers that
+	 * need to hand the underlying stream to someone else after reading a
+	 * value should use the unbuffered {@link #UBJInputStream(InputStream)}
+	 * constructor instead. Buffered streams do not support
+	 * {@link #mark(int)}/{@link #reset()}.
+	 * 
+	 * @param in
+	 *            The stream to read from.
+	 * @param bufferSize
+	 *            The size of the internal read window.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>bufferSize</code> is &lt; {@link #MIN_BUFFER_SIZE}.
+	 */
+	public UBJInputStream(InputStream in, int bufferSize)
+			throws IllegalArgumentException {
+		this(in, bufferSize, BufferPools.getDefault());
+	}
+
+	/**
+	 * Creates a stream in <em>buffered mode</em> (see
+	 * {@link #UBJInputStream(InputStream, int)}) that borrows its read window
+	 * from the given pool and gives it back when it is {@link #close()
+	 * closed}. The window may be larger than <code>bufferSize</code>.
+	 * 
+	 * @param in
+	 *            The stream to read from.
+	 * @param bufferSize
+	 *            The minimum size of the internal read window.
+	 * @param pool
+	 *            The pool to borrow the window from or <code>null</code> to
+	 *            allocate it.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>bufferSize</code> is &lt; {@link #MIN_BUFFER_SIZE}.
+	 */
+	public UBJInputStream(InputStream in, int bufferSize, IBufferPool pool)
+			throws IllegalArgumentException {
+		this(in);
+
+		if (bufferSize < MIN_BUFFER_SIZE)
+			throw new IllegalArgumentException("bufferSize [" + bufferSize
+					+ "] must be >= " + MIN_BUFFER_SIZE);
+
+		this.pool = pool;
+
+		wbuffer = (pool == null ? new byte[bufferSize] : pool
+				.acquire(bufferSize));
 	}
 
 	@Override
 	public int available() throws IOException {
-		return in.available();
+		return (wbuffer == null ? in.available() : (wlimit - wpos)
+				+ in.available());
 	}
 
 	@Override
 	public int read() throws IOException {
-		pos++;
-		return in.read();
+		if (wbuffer != null) {
+			if (wpos == wlimit && fill(1) < 1)
+				return -1;
+
+			pos++;
+			return wbuffer[wpos++] & 0xFF;
+		}
+
+		int b = in.read();
+
+		if (b != -1)
+			pos++;
+
+		return b;
 	}
 
 	@Override
@@ -92,8 +253,38 @@ public class UBJInputStream extends FilterInputStream {
 							+ "] must be >= 0 and (offset + length) must be <= buffer.lengt ["
 							+ buffer.length + "]");
 
-		int read = in.read(buffer, offset, length);
-		pos += read;
+		int read = 0;
+
+		if (wbuffer == null)
+			read = in.read(buffer, offset, length);
+		else {
+			int r = wlimit - wpos;
+
+			if (r == 0) {
+				/*
+				 * Nothing buffered; large requests go straight to the
+				 * underlying stream (no point copying them through the window)
+				 * while small requests refill the window first.
+				 */
+				if (length >= wbuffer.length)
+					read = in.read(buffer, offset, length);
+				else if ((r = fill(1)) > 0) {
+					read = (length < r ? length : r);
+					System.arraycopy(wbuffer, wpos, buffer, offset, read);
+					wpos += read;
+				} else
+					read = -1;
+			} else {
+				// Serve what we can out of the window.
+				read = (length < r ? length : r);
+				System.arraycopy(wbuffer, wpos, buffer, offset, read);
+				wpos += read;
+			}
+		}
+
+		if (read > 0)
+			pos += read;
+
 		return read;
 	}
 
@@ -103,14 +294,25 @@ public class UBJInputStream extends FilterInputStream {
 			throw new IllegalArgumentException("amount [" + amount
 					+ "] must be >= 0");
 
-		long skipped = in.skip(amount);
+		long skipped = 0;
+
+		// Skip over whatever we have buffered first.
+		if (wbuffer != null) {
+			int r = wlimit - wpos;
+			skipped = (amount < r ? amount : r);
+			wpos += (int) skipped;
+		}
+
+		if (skipped < amount)
+			skipped += in.skip(amount - skipped);
+
 		pos += skipped;
 		return skipped;
 	}
 
 	@Override
 	public boolean markSupported() {
-		return in.markSupported();
+		return (wbuffer == null ? in.markSupported() : false);
 	}
 
 	@Override
@@ -119,11 +321,16 @@ public class UBJInputStream extends FilterInputStream {
 			throw new IllegalArgumentException("readLimit [" + readLimit
 					+ "] must be >= 0");
 
-		in.mark(readLimit);
+		if (wbuffer == null)
+			in.mark(readLimit);
 	}
 
 	@Override
 	public void reset() throws IOException {
+		if (wbuffer != null)
+			throw new IOException(
+					"mark/reset is not supported by a UBJInputStream in buffered mode.");
+
 		in.reset();
 
 		/*
@@ -138,13 +345,130 @@ public class UBJInputStream extends FilterInputStream {
 
 	@Override
 	public void close() throws IOException {
-		in.close();
+		try {
+			in.close();
+		} finally {
+			if (pool != null) {
+				closedPool = pool;
+				closedSize = wbuffer.length;
+				pool.release(wbuffer);
+
+				/*
+				 * The pooled window may already be in use by another stream;
+				 * drop it so a second close() or a stray read can never touch
+				 * it again.
+				 */
+				wbuffer = null;
+				wpos = 0;
+				wlimit = 0;
+				dArray = null;
+				pool = null;
+			}
+		}
+	}
+
+	/**
+	 * Used to point this stream at a new source so it can be re-used for the
+	 * next message (e.g. by a connection or worker thread) instead of
+	 * creating a new stream per message.
+	 * <p/>
+	 * The position is rewound to <code>0</code> and everything read ahead
+	 * from, or still pending in, the previous source is discarded; the read
+	 * window, scratch buffers and symbol table are kept. The previous source
+	 * is <strong>not</strong> closed.
+	 * <p/>
+	 * A stream that borrowed its window from a pool gives it back when it is
+	 * {@link #close() closed} and borrows a new one of the same size from the
+	 * same pool when it is reset afterwards.
+	 * 
+	 * @param in
+	 *            The stream to read from from now on.
+	 */
+	public void reset(InputStream in) throws IllegalArgumentException {
+		if (in == null)
+			throw new IllegalArgumentException("in cannot be null");
+
+		this.in = in;
+
+		pos = 0;
+		wpos = 0;
+		wlimit = 0;
+		dArray = null;
+		dOffset = 0;
+		elementType = INVALID;
+		elementsRemaining = 0;
+
+		if (closedPool != null) {
+			pool = closedPool;
+			wbuffer = pool.acquire(closedSize);
+			closedPool = null;
+		}
+	}
+
+	/**
+	 * Used to get the pool this stream borrowed its read window from.
+	 * 
+	 * @return the pool or <code>null</code> if this stream is unbuffered,
+	 *         allocated its own window or has already been closed.
+	 */
+	public IBufferPool getBufferPool() {
+		return pool;
 	}
 
 	public long getPosition() {
 		return pos;
 	}
 
+	/**
+	 * Used to determine if the source this stream reads from supports the
+	 * zero-copy slice reads: {@link #readStringAsSlice()} and
+	 * {@link #readHugeAsSlice()}.
+	 * <p/>
+	 * Slices are supported when this stream is unbuffered and reads directly
+	 * from a {@link ByteArrayInputStream} or a (heap or direct)
+	 * {@link ByteBufferInputStream}.
+	 */
+	public boolean isSliceSupported() {
+		return (wbuffer == null && (in instanceof ByteArrayInputStream
+				|| in instanceof ByteBufferInputStream));
+	}
+
+	/**
+	 * Used to get the {@link SymbolTable} set for {@link #readKey()}, or
+	 * <code>null</code> if none has been set and the reading thread's table
+	 * (see {@link SymbolTable#getThreadTable()}) is used.
+	 */
+	public SymbolTable getSymbolTable() {
+		return symbols;
+	}
+
+	/**
+	 * Used to set the {@link SymbolTable} used by {@link #readKey()}; useful
+	 * for sharing one table (and its hit/miss stats) across multiple streams.
+	 * Passing <code>null</code> goes back to the reading thread's table.
+	 */
+	public void setSymbolTable(SymbolTable symbols) {
+		this.symbols = symbols;
+	}
+
+	/**
+	 * Used to get the type marker shared by all the elements of the last ARRAY
+	 * whose length was read with {@link #readArrayLength()} if it was an
+	 * optimized ARRAY (see {@link IUBJTypeMarker#ARRAY_OPTIMIZED}), or
+	 * <code>-1</code> if it was a regular ARRAY.
+	 * <p/>
+	 * Callers don't need to treat the elements of an optimized ARRAY
+	 * differently; {@link #nextType()} (and so every <code>readXXX</code>
+	 * method) hands back the shared type marker for each of them as if it had
+	 * been written out in front of every element. This is mostly useful to
+	 * allocate the right primitive array for
+	 * <code>readArrayElements(...)</code>, which decodes the elements of an
+	 * optimized ARRAY in bulk.
+	 */
+	public byte getElementType() {
+		return elementType;
+	}
+
 	public void readEnd() throws IOException, UBJFormatException {
 		checkType("END", END, INVALID);
 	}
@@ -189,12 +513,7 @@ public class UBJInputStream extends FilterInputStream {
 	}
 
 	public Number readHuge() throws IOException, UBJFormatException {
-		String huge = readHugeAsString();
-
-		if (huge.indexOf('.') == -1)
-			return new BigInteger(huge);
-		else
-			return new BigDecimal(huge);
+		return parseHuge(readHugeAsString());
 	}
 
 	public ByteBuffer readHugeAsBytes() throws IOException, UBJFormatException {
@@ -213,6 +532,24 @@ public class UBJInputStream extends FilterInputStream {
 		readHugeBodyAsBytesImpl(readHugeHeaderImpl(), buffer);
 	}
 
+	/**
+	 * Used to read the raw UTF-8 bytes of a HUGE value as a read-only view of
+	 * the underlying storage of the source, without copying them.
+	 * <p/>
+	 * The returned buffer's position is <code>0</code> and its limit is the
+	 * number of bytes in the value. It shares its content with the source, so
+	 * it is only valid for as long as the source's storage is not reused.
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             if {@link #isSliceSupported()} returns <code>false</code>;
+	 *             nothing is read from the stream in that case.
+	 */
+	public ByteBuffer readHugeAsSlice() throws IOException, UBJFormatException,
+			UnsupportedOperationException {
+		checkSliceSupported();
+		return readBodyAsSliceImpl("HUGE", readHugeHeaderImpl());
+	}
+
 	public CharBuffer readHugeAsChars() throws IOException, UBJFormatException {
 		CharBuffer buffer = CharBuffer.allocate(readHugeHeaderImpl());
 		readHugeBodyAsCharsImpl(buffer.capacity(), buffer);
@@ -230,13 +567,39 @@ public class UBJInputStream extends FilterInputStream {
 	}
 
 	public String readHugeAsString() throws IOException, UBJFormatException {
-		CharBuffer buffer = readHugeAsChars();
-		return new String(buffer.array(), buffer.position(), buffer.remaining());
+		return readBodyAsStringImpl("HUGE", readHugeHeaderImpl());
 	}
 
 	public String readString() throws IOException, UBJFormatException {
-		CharBuffer buffer = readStringAsChars();
-		return new String(buffer.array(), buffer.position(), buffer.remaining());
+		return readBodyAsStringImpl("STRING", readStringHeaderImpl());
+	}
+
+	/**
+	 * Used to read a STRING value that is expected to repeat often, like the
+	 * name of an object field.
+	 * <p/>
+	 * The raw UTF-8 bytes of the string are looked up in the
+	 * {@link SymbolTable} set with {@link #setSymbolTable(SymbolTable)}, or
+	 * else the reading thread's table, and the canonical {@link String}
+	 * instance returned without decoding it again. If
+	 * {@link SymbolTable#SIZE} is <code>0</code> and no table has been set,
+	 * this behaves exactly like {@link #readString()}.
+	 */
+	public String readKey() throws IOException, UBJFormatException {
+		int length = readStringHeaderImpl();
+		SymbolTable symbols = this.symbols;
+
+		if (symbols == null && (symbols = SymbolTable.getThreadTable()) == null)
+			return readBodyAsStringImpl("STRING", length);
+
+		// Too long to be cached; don't bother copying it.
+		if (length > symbols.getMaxLength())
+			return readBodyAsStringImpl("STRING", length);
+
+		if (acquire(length))
+			return symbols.get(dArray, dOffset, length);
+		else
+			return symbols.get(readBodyImpl("STRING", length), 0, length);
 	}
 
 	public ByteBuffer readStringAsBytes() throws IOException,
@@ -256,6 +619,25 @@ public class UBJInputStream extends FilterInputStream {
 		readStringBodyAsBytesImpl(readStringHeaderImpl(), buffer);
 	}
 
+	/**
+	 * Used to read the raw UTF-8 bytes of a STRING value as a read-only view
+	 * of the underlying storage of the source, without copying them; useful
+	 * for forwarding or hashing string payloads.
+	 * <p/>
+	 * The returned buffer's position is <code>0</code> and its limit is the
+	 * number of bytes in the value. It shares its content with the source, so
+	 * it is only valid for as long as the source's storage is not reused.
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             if {@link #isSliceSupported()} returns <code>false</code>;
+	 *             nothing is read from the stream in that case.
+	 */
+	public ByteBuffer readStringAsSlice() throws IOException,
+			UBJFormatException, UnsupportedOperationException {
+		checkSliceSupported();
+		return readBodyAsSliceImpl("STRING", readStringHeaderImpl());
+	}
+
 	public CharBuffer readStringAsChars() throws IOException,
 			UBJFormatException {
 		CharBuffer buffer = CharBuffer.allocate(readStringHeaderImpl());
@@ -274,9 +656,11 @@ public class UBJInputStream extends FilterInputStream {
 	}
 
 	public int readArrayLength() throws IOException, UBJFormatException {
-		byte type = checkType("ARRAY", ARRAY_COMPACT, ARRAY);
+		byte type = checkType("ARRAY", ARRAY_COMPACT, ARRAY, ARRAY_OPTIMIZED);
 		int count = 0;
 
+		elementType = INVALID;
+
 		switch (type) {
 		case ARRAY_COMPACT:
 			count = read();
@@ -289,12 +673,17 @@ public class UBJInputStream extends FilterInputStream {
 			 * We use -1 to indicate this scenario to the caller.
 			 */
 			if (count == 255)
-				count = -1;
+				return -1;
 			break;
 
 		case ARRAY:
 			count = readInt32Impl();
 			break;
+
+		case ARRAY_OPTIMIZED:
+			count = readTypedArrayHeaderImpl();
+			elementsRemaining = count;
+			break;
 		}
 
 		if (count < 0)
@@ -324,7 +713,7 @@ public class UBJInputStream extends FilterInputStream {
 			 * We use -1 to indicate this scenario to the caller.
 			 */
 			if (count == 255)
-				count = -1;
+				return -1;
 			break;
 
 		case OBJECT:
@@ -343,7 +732,264 @@ public class UBJInputStream extends FilterInputStream {
 		return count;
 	}
 
+	/**
+	 * Used to read the elements of an ARRAY whose length has already been read
+	 * with {@link #readArrayLength()} straight into <code>dest</code>, storing
+	 * <code>length</code> values starting at <code>offset</code>.
+	 * <p/>
+	 * This is the counterpart to
+	 * {@link UBJOutputStream#writeArray(boolean[], int, int)} and is identical
+	 * to calling {@link #readBoolean()} for every element, without the
+	 * per-value call and type checking overhead. Elements must be TRUE or
+	 * FALSE values.
+	 * 
+	 * @throws UBJFormatException
+	 *             if an element of a different type, or the end of the
+	 *             stream, is encountered.
+	 */
+	public void readArrayElements(boolean[] dest, int offset, int length)
+			throws IllegalArgumentException, IOException, UBJFormatException {
+		checkArrayRange(dest, offset, length);
+
+		for (int n = offset, end = offset + length; n < end; n++) {
+			byte type = nextElementTypeImpl();
+
+			switch (type) {
+			case TRUE:
+				dest[n] = true;
+				break;
+
+			case FALSE:
+				dest[n] = false;
+				break;
+
+			default:
+				throw elementTypeError("BOOLEAN", type);
+			}
+		}
+	}
+
+	/**
+	 * Used to read the elements of an ARRAY whose length has already been read
+	 * straight into <code>dest</code>; see
+	 * {@link #readArrayElements(boolean[], int, int)}. Elements must be BYTE
+	 * values; the body of an optimized ARRAY of BYTEs (see
+	 * {@link UBJOutputStream#writeTypedArray(byte[], int, int)}) is copied
+	 * straight into <code>dest</code>.
+	 */
+	public void readArrayElements(byte[] dest, int offset, int length)
+			throws IllegalArgumentException, IOException, UBJFormatException {
+		checkArrayRange(dest, offset, length);
+
+		// Optimized ARRAY of the same type; decode the raw values in bulk.
+		if (elementType == BYTE && elementsRemaining >= length) {
+			readTypedArrayBodyImpl(dest, offset, length, 1);
+			return;
+		}
+
+		for (int n = offset, end = offset + length; n < end; n++) {
+			byte type = nextElementTypeImpl();
+
+			if (type != BYTE)
+				throw elementTypeError("BYTE", type);
+
+			dest[n] = readInt8Impl();
+		}
+	}
+
+	/**
+	 * Used to read the elements of an ARRAY whose length has already been read
+	 * straight into <code>dest</code>; see
+	 * {@link #readArrayElements(boolean[], int, int)}. Elements must be
+	 * INT16 or BYTE values.
+	 */
+	public void readArrayElements(short[] dest, int offset, int length)
+			throws IllegalArgumentException, IOException, UBJFormatException {
+		checkArrayRange(dest, offset, length);
+
+		// Optimized ARRAY of the same type; decode the raw values in bulk.
+		if (elementType == INT16 && elementsRemaining >= length) {
+			readTypedArrayBodyImpl(dest, offset, length, 2);
+			return;
+		}
+
+		for (int n = offset, end = offset + length; n < end; n++) {
+			byte type = nextElementTypeImpl();
+
+			switch (type) {
+			case INT16:
+				dest[n] = readInt16Impl();
+				break;
+
+			case BYTE:
+				dest[n] = readInt8Impl();
+				break;
+
+			default:
+				throw elementTypeError("INT16", type);
+			}
+		}
+	}
+
+	/**
+	 * Used to read the elements of an ARRAY whose length has already been read
+	 * straight into <code>dest</code>; see
+	 * {@link #readArrayElements(boolean[], int, int)}. Elements must be
+	 * INT32, INT16 or BYTE values.
+	 */
+	public void readArrayElements(int[] dest, int offset, int length)
+			throws IllegalArgumentException, IOException, UBJFormatException {
+		checkArrayRange(dest, offset, length);
+
+		// Optimized ARRAY of the same type; decode the raw values in bulk.
+		if (elementType == INT32 && elementsRemaining >= length) {
+			readTypedArrayBodyImpl(dest, offset, length, 4);
+			return;
+		}
+
+		for (int n = offset, end = offset + length; n < end; n++) {
+			byte type = nextElementTypeImpl();
+
+			switch (type) {
+			case INT32:
+				dest[n] = readInt32Impl();
+				break;
+
+			case INT16:
+				dest[n] = readInt16Impl();
+				break;
+
+			case BYTE:
+				dest[n] = readInt8Impl();
+				break;
+
+			default:
+				throw elementTypeError("INT32", type);
+			}
+		}
+	}
+
+	/**
+	 * Used to read the elements of an ARRAY whose length has already been read
+	 * straight into <code>dest</code>; see
+	 * {@link #readArrayElements(boolean[], int, int)}. Elements must be
+	 * INT64, INT32, INT16 or BYTE values.
+	 */
+	public void readArrayElements(long[] dest, int offset, int length)
+			throws IllegalArgumentException, IOException, UBJFormatException {
+		checkArrayRange(dest, offset, length);
+
+		// Optimized ARRAY of the same type; decode the raw values in bulk.
+		if (elementType == INT64 && elementsRemaining >= length) {
+			readTypedArrayBodyImpl(dest, offset, length, 8);
+			return;
+		}
+
+		for (int n = offset, end = offset + length; n < end; n++) {
+			byte type = nextElementTypeImpl();
+
+			switch (type) {
+			case INT64:
+				dest[n] = readInt64Impl();
+				break;
+
+			case INT32:
+				dest[n] = readInt32Impl();
+				break;
+
+			case INT16:
+				dest[n] = readInt16Impl();
+				break;
+
+			case BYTE:
+				dest[n] = readInt8Impl();
+				break;
+
+			default:
+				throw elementTypeError("INT64", type);
+			}
+		}
+	}
+
+	/**
+	 * Used to read the elements of an ARRAY whose length has already been read
+	 * straight into <code>dest</code>; see
+	 * {@link #readArrayElements(boolean[], int, int)}. Elements must be
+	 * FLOAT values.
+	 */
+	public void readArrayElements(float[] dest, int offset, int length)
+			throws IllegalArgumentException, IOException, UBJFormatException {
+		checkArrayRange(dest, offset, length);
+
+		// Optimized ARRAY of the same type; decode the raw values in bulk.
+		if (elementType == FLOAT && elementsRemaining >= length) {
+			readTypedArrayBodyImpl(dest, offset, length, 4);
+			return;
+		}
+
+		for (int n = offset, end = offset + length; n < end; n++) {
+			byte type = nextElementTypeImpl();
+
+			switch (type) {
+			case FLOAT:
+				dest[n] = Float.intBitsToFloat(readInt32Impl());
+				break;
+
+			default:
+				throw elementTypeError("FLOAT", type);
+			}
+		}
+	}
+
+	/**
+	 * Used to read the elements of an ARRAY whose length has already been read
+	 * straight into <code>dest</code>; see
+	 * {@link #readArrayElements(boolean[], int, int)}. Elements must be
+	 * DOUBLE or FLOAT values.
+	 */
+	public void readArrayElements(double[] dest, int offset, int length)
+			throws IllegalArgumentException, IOException, UBJFormatException {
+		checkArrayRange(dest, offset, length);
+
+		// Optimized ARRAY of the same type; decode the raw values in bulk.
+		if (elementType == DOUBLE && elementsRemaining >= length) {
+			readTypedArrayBodyImpl(dest, offset, length, 8);
+			return;
+		}
+
+		for (int n = offset, end = offset + length; n < end; n++) {
+			byte type = nextElementTypeImpl();
+
+			switch (type) {
+			case DOUBLE:
+				dest[n] = Double.longBitsToDouble(readInt64Impl());
+				break;
+
+			case FLOAT:
+				dest[n] = Float.intBitsToFloat(readInt32Impl());
+				break;
+
+			default:
+				throw elementTypeError("DOUBLE", type);
+			}
+		}
+	}
+
 	protected byte nextType() throws IOException {
+		return nextTypeImpl();
+	}
+
+	/**
+	 * Used to read the next type marker from the stream, skipping any NOOP
+	 * markers; returns {@link #INVALID} at the end of the stream.
+	 */
+	protected byte nextTypeImpl() throws IOException {
+		// Elements of an optimized ARRAY have no type markers of their own.
+		if (elementsRemaining > 0) {
+			elementsRemaining--;
+			return elementType;
+		}
+
 		byte b = INVALID;
 
 		/*
@@ -353,44 +999,353 @@ public class UBJInputStream extends FilterInputStream {
 		 * Put another way, keep reading until we find a valid marker byte value
 		 * or hit the end of stream.
 		 */
-		while ((b = (byte) read()) != -1 && b == NOOP)
-			;
+		if (wbuffer == null) {
+			while ((b = (byte) read()) != -1 && b == NOOP)
+				;
+		} else {
+			// Buffered mode; scan the window directly.
+			do {
+				if (wpos == wlimit && fill(1) < 1)
+					return INVALID;
+
+				b = wbuffer[wpos++];
+				pos++;
+			} while (b == NOOP);
+		}
 
 		return b;
 	}
 
 	protected byte checkType(String name, byte expected, byte expectedOpt)
 			throws IOException, UBJFormatException {
+		return checkType(name, expected, expectedOpt, INVALID);
+	}
+
+	protected byte checkType(String name, byte expected, byte expectedOpt,
+			byte expectedOpt2) throws IOException, UBJFormatException {
 		byte type = nextType();
 
-		if (type != expected && (expectedOpt != INVALID && type != expectedOpt)) {
-			String message = "Unable to read " + name
-					+ " value at stream position " + pos
-					+ ". The type marker byte value read was " + type
-					+ " (char='" + ((char) type)
-					+ "') but the expected type marker byte value was "
-					+ expected + " (char='" + ((char) expected) + "')";
+		if (type != expected && (expectedOpt == INVALID || type != expectedOpt)
+				&& (expectedOpt2 == INVALID || type != expectedOpt2))
+			throw new UBJFormatException(pos, typeError(name, type, expected,
+					expectedOpt, expectedOpt2));
+
+		return type;
+	}
+
+	/**
+	 * Used to create the message of the exception thrown when the type marker
+	 * read for a <code>name</code> value was none of the expected ones.
+	 */
+	protected String typeError(String name, byte type, byte expected,
+			byte expectedOpt, byte expectedOpt2) {
+		String message = "Unable to read " + name
+				+ " value at stream position " + pos
+				+ ". The type marker byte value read was " + type + " (char='"
+				+ ((char) type)
+				+ "') but the expected type marker byte value was " + expected
+				+ " (char='" + ((char) expected) + "')";
+
+		if (expectedOpt2 != INVALID)
+			message += ", " + expectedOpt + " (char='" + ((char) expectedOpt)
+					+ "') or " + expectedOpt2 + " (char='"
+					+ ((char) expectedOpt2) + "'); but none were found.";
+		else if (expectedOpt != INVALID)
+			message += " or " + expectedOpt + " (char='"
+					+ ((char) expectedOpt) + "'); but neither were found.";
+		else
+			message += '.';
+
+		return message;
+	}
+
+	/**
+	 * Used to read the rest of the header of an optimized ARRAY after its
+	 * {@link IUBJTypeMarker#ARRAY_OPTIMIZED} marker: the shared element type
+	 * (stored in {@link #elementType}) and the element count, which is
+	 * returned.
+	 */
+	protected int readTypedArrayHeaderImpl() throws IOException,
+			UBJFormatException {
+		int b = read();
+
+		if (b != CONTAINER_TYPE)
+			throw new UBJFormatException(pos,
+					"Expected the type marker (char='$') of the optimized ARRAY at stream position "
+							+ pos + " but found byte value " + b
+							+ "; only optimized ARRAYs with a type and a count are supported.");
+
+		byte type = (byte) read();
+
+		if (sizeOf(type) == -1)
+			throw new UBJFormatException(pos,
+					"Unsupported element type marker of byte value " + type
+							+ " (char='" + ((char) type)
+							+ "') for the optimized ARRAY at stream position "
+							+ pos
+							+ "; only fixed-size numeric types are supported.");
+
+		if ((b = read()) != CONTAINER_COUNT)
+			throw new UBJFormatException(pos,
+					"Expected the count marker (char='#') of the optimized ARRAY at stream position "
+							+ pos + " but found byte value " + b + ".");
 
-			if (expectedOpt != INVALID)
-				message += " or " + expectedOpt + " (char='"
-						+ ((char) expectedOpt) + "'); but neither were found.";
-			else
-				message += '.';
+		int count;
+
+		switch (b = read()) {
+		case BYTE:
+			count = readInt8Impl();
+			break;
+
+		case INT16:
+			count = readInt16Impl();
+			break;
+
+		case INT32:
+			count = readInt32Impl();
+			break;
 
-			throw new UBJFormatException(pos, message);
+		default:
+			throw new UBJFormatException(pos,
+					"Unsupported count type marker of byte value " + b
+							+ " for the optimized ARRAY at stream position "
+							+ pos + "; expected BYTE, INT16 or INT32.");
 		}
 
-		return type;
+		if (count < 0)
+			throw new UBJFormatException(pos,
+					"Encountered a negative (invalid) count of [" + count
+							+ "] specified for the optimized ARRAY at stream position "
+							+ pos + ". Count must be >= 0.");
+
+		elementType = type;
+		return count;
 	}
 
-	protected short readInt16Impl() throws IOException {
-		int read = read(buffer, 0, 2);
+	/**
+	 * Used to decode <code>length</code> raw (marker-less) elements of
+	 * <code>size</code> bytes each from the body of the current optimized
+	 * ARRAY into <code>dest</code>; a <code>byte[]</code>,
+	 * <code>short[]</code>, <code>int[]</code>, <code>long[]</code>,
+	 * <code>float[]</code> or <code>double[]</code> matching
+	 * {@link #elementType}.
+	 * <p/>
+	 * The elements are decoded in large runs straight out of the window or
+	 * the underlying byte array when possible (see {@link #acquire(int)}) and
+	 * out of a scratch buffer filled with bulk reads otherwise.
+	 */
+	protected void readTypedArrayBodyImpl(Object dest, int offset,
+			int length, int size) throws IOException, UBJFormatException {
+		int run = Math.max(1, (wbuffer == null ? BUFFER_SIZE : wbuffer.length)
+				/ size);
+		byte[] scratch = null;
+
+		for (int n = offset, end = offset + length; n < end;) {
+			int count = Math.min(end - n, run);
+			int bytes = count * size;
+			byte[] src;
+			int i;
+
+			if (acquire(bytes)) {
+				src = dArray;
+				i = dOffset;
+			} else {
+				if (scratch == null)
+					scratch = new byte[Math.min(length, run) * size];
+
+				int read = readFully(scratch, 0, bytes);
+
+				if (read < bytes)
+					throw new UBJFormatException(pos,
+							"End of Stream encountered at stream position "
+									+ pos
+									+ " while reading the elements of an optimized ARRAY.");
+
+				src = scratch;
+				i = 0;
+			}
+
+			decode(src, i, dest, n, count);
+			n += count;
+			elementsRemaining -= count;
+		}
+	}
+
+	/**
+	 * Used to decode <code>count</code> big-endian values from
+	 * <code>src</code> into the primitive array <code>dest</code>.
+	 */
+	private static void decode(byte[] src, int i, Object dest, int n,
+			int count) {
+		int end = n + count;
+
+		if (dest instanceof byte[])
+			System.arraycopy(src, i, dest, n, count);
+		else if (dest instanceof short[]) {
+			short[] d = (short[]) dest;
+
+			for (; n < end; n++, i += 2)
+				d[n] = (short) (((src[i] & 0xFF) << 8) | (src[i + 1] & 0xFF));
+		} else if (dest instanceof int[]) {
+			int[] d = (int[]) dest;
+
+			for (; n < end; n++, i += 4)
+				d[n] = decodeInt32(src, i);
+		} else if (dest instanceof float[]) {
+			float[] d = (float[]) dest;
+
+			for (; n < end; n++, i += 4)
+				d[n] = Float.intBitsToFloat(decodeInt32(src, i));
+		} else if (dest instanceof long[]) {
+			long[] d = (long[]) dest;
+
+			for (; n < end; n++, i += 8)
+				d[n] = decodeInt64(src, i);
+		} else {
+			double[] d = (double[]) dest;
+
+			for (; n < end; n++, i += 8)
+				d[n] = Double.longBitsToDouble(decodeInt64(src, i));
+		}
+	}
+
+	private static int decodeInt32(byte[] src, int i) {
+		return ((src[i] & 0xFF) << 24) | ((src[i + 1] & 0xFF) << 16)
+				| ((src[i + 2] & 0xFF) << 8) | (src[i + 3] & 0xFF);
+	}
+
+	private static long decodeInt64(byte[] src, int i) {
+		return ((long) decodeInt32(src, i) << 32)
+				| (decodeInt32(src, i + 4) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Used to convert the text of a HUGE value to a {@link BigInteger} or, if
+	 * it has a fractional part or an exponent (e.g. <code>"1E+5"</code>, the
+	 * way {@link BigDecimal#toString()} writes some values), a
+	 * {@link BigDecimal}.
+	 * 
+	 * @throws NumberFormatException
+	 *             if <code>huge</code> is not a valid number.
+	 */
+	public static Number parseHuge(String huge) throws NumberFormatException {
+		if (huge.indexOf('.') == -1 && huge.indexOf('e') == -1
+				&& huge.indexOf('E') == -1)
+			return new BigInteger(huge);
+		else
+			return new BigDecimal(huge);
+	}
+
+	/**
+	 * Used to get the size in bytes of a value of the given fixed-size numeric
+	 * type (not counting its type marker), or <code>-1</code> if
+	 * <code>type</code> isn't one; these are the types allowed as the element
+	 * type of an optimized ARRAY.
+	 */
+	public static int sizeOf(byte type) {
+		switch (type) {
+		case BYTE:
+			return 1;
+
+		case INT16:
+			return 2;
+
+		case INT32:
+		case FLOAT:
+			return 4;
 
-		if (read < 2)
+		case INT64:
+		case DOUBLE:
+			return 8;
+
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Used by the <code>readArrayElements(...)</code> methods to read the type
+	 * marker of the next array element.
+	 */
+	protected byte nextElementTypeImpl() throws IOException {
+		return nextTypeImpl();
+	}
+
+	/**
+	 * Used to create the exception thrown when an array element read by one of
+	 * the <code>readArrayElements(...)</code> methods has the wrong type.
+	 */
+	protected UBJFormatException elementTypeError(String name, byte type) {
+		if (type == INVALID)
+			return new UBJFormatException(pos,
+					"End of Stream encountered at stream position " + pos
+							+ " while reading the elements of a " + name
+							+ " array.");
+
+		return new UBJFormatException(pos, "Unable to read " + name
+				+ " array element at stream position " + pos
+				+ ". The type marker byte value read was " + type
+				+ " (char='" + ((char) type) + "').");
+	}
+
+	/**
+	 * Used to validate the <code>offset</code> and <code>length</code> of the
+	 * range of a primitive array passed to one of the
+	 * <code>readArrayElements(...)</code> methods.
+	 */
+	protected void checkArrayRange(Object dest, int offset, int length)
+			throws IllegalArgumentException {
+		if (dest == null)
+			throw new IllegalArgumentException("dest cannot be null");
+
+		int arrayLength = Array.getLength(dest);
+
+		if (offset < 0 || length < 0 || (offset + length) > arrayLength)
+			throw new IllegalArgumentException("offset [" + offset
+					+ "] and length [" + length
+					+ "] must be >= 0 and (offset + length) must be <= dest.length ["
+					+ arrayLength + "]");
+	}
+
+	protected byte readInt8Impl() throws IOException {
+		int b = read();
+
+		if (b == -1)
 			throw new UBJFormatException(pos,
-					"Attempted to read 2 bytes to reconstruct the INT16 value at stream position "
-							+ pos + ", but was only able to read " + read
-							+ " bytes from the underlying stream.");
+					"Attempted to read 1 byte to reconstruct the BYTE value at stream position "
+							+ pos
+							+ ", but was unable to read any bytes from the underlying stream.");
+
+		return (byte) b;
+	}
+
+	protected short readInt16Impl() throws IOException {
+		byte[] buffer = this.buffer;
+		int i = 0;
+
+		if (wbuffer == null) {
+			int read = readFully(buffer, 0, 2);
+
+			if (read < 2)
+				throw new UBJFormatException(pos,
+						"Attempted to read 2 bytes to reconstruct the INT16 value at stream position "
+								+ pos + ", but was only able to read " + read
+								+ " bytes from the underlying stream.");
+		} else {
+			int read = wlimit - wpos;
+
+			if (read < 2 && (read = fill(2)) < 2)
+				throw new UBJFormatException(pos,
+						"Attempted to read 2 bytes to reconstruct the INT16 value at stream position "
+								+ pos + ", but was only able to read " + read
+								+ " bytes from the underlying stream.");
+
+			// Decode straight out of the window.
+			buffer = wbuffer;
+			i = wpos;
+			wpos += 2;
+			pos += 2;
+		}
 
 		/*
 		 * We read in the original number in 1-byte (8-bit) segments,
@@ -401,8 +1356,8 @@ public class UBJInputStream extends FilterInputStream {
 		 * shorts here, bit-shifting, then returning below, we have to keep the
 		 * segments as ints while we bit-shift, then cast it in the return.
 		 */
-		int s1 = (int) (buffer[0] & 0xFF) << 8;
-		int s2 = (int) (buffer[1] & 0xFF) << 0;
+		int s1 = (int) (buffer[i] & 0xFF) << 8;
+		int s2 = (int) (buffer[i + 1] & 0xFF) << 0;
 
 		/*
 		 * Now that the significant bits of each segment of the number are where
@@ -416,23 +1371,42 @@ public class UBJInputStream extends FilterInputStream {
 	}
 
 	protected int readInt32Impl() throws IOException {
-		int read = read(buffer, 0, 4);
-
-		if (read < 4)
-			throw new UBJFormatException(pos,
-					"Attempted to read 4 bytes to reconstruct the INT32 value at stream position "
-							+ pos + ", but was only able to read " + read
-							+ " bytes from the underlying stream.");
+		byte[] buffer = this.buffer;
+		int i = 0;
+
+		if (wbuffer == null) {
+			int read = readFully(buffer, 0, 4);
+
+			if (read < 4)
+				throw new UBJFormatException(pos,
+						"Attempted to read 4 bytes to reconstruct the INT32 value at stream position "
+								+ pos + ", but was only able to read " + read
+								+ " bytes from the underlying stream.");
+		} else {
+			int read = wlimit - wpos;
+
+			if (read < 4 && (read = fill(4)) < 4)
+				throw new UBJFormatException(pos,
+						"Attempted to read 4 bytes to reconstruct the INT32 value at stream position "
+								+ pos + ", but was only able to read " + read
+								+ " bytes from the underlying stream.");
+
+			// Decode straight out of the window.
+			buffer = wbuffer;
+			i = wpos;
+			wpos += 4;
+			pos += 4;
+		}
 
 		/*
 		 * We read in the original number in 1-byte (8-bit) segments,
 		 * bit-shifting the significant bits back into their place in the final
 		 * numeric type that will be returned.
 		 */
-		int i1 = (int) (buffer[0] & 0xFF) << 24;
-		int i2 = (int) (buffer[1] & 0xFF) << 16;
-		int i3 = (int) (buffer[2] & 0xFF) << 8;
-		int i4 = (int) (buffer[3] & 0xFF) << 0;
+		int i1 = (int) (buffer[i] & 0xFF) << 24;
+		int i2 = (int) (buffer[i + 1] & 0xFF) << 16;
+		int i3 = (int) (buffer[i + 2] & 0xFF) << 8;
+		int i4 = (int) (buffer[i + 3] & 0xFF) << 0;
 
 		/*
 		 * Now that the significant bits of each segment of the number are where
@@ -443,27 +1417,46 @@ public class UBJInputStream extends FilterInputStream {
 	}
 
 	protected long readInt64Impl() throws IOException {
-		int read = read(buffer);
-
-		if (read < 8)
-			throw new UBJFormatException(pos,
-					"Attempted to read 8 bytes to reconstruct the INT64 value at stream position "
-							+ pos + ", but was only able to read " + read
-							+ " bytes from the underlying stream.");
+		byte[] buffer = this.buffer;
+		int i = 0;
+
+		if (wbuffer == null) {
+			int read = readFully(buffer, 0, 8);
+
+			if (read < 8)
+				throw new UBJFormatException(pos,
+						"Attempted to read 8 bytes to reconstruct the INT64 value at stream position "
+								+ pos + ", but was only able to read " + read
+								+ " bytes from the underlying stream.");
+		} else {
+			int read = wlimit - wpos;
+
+			if (read < 8 && (read = fill(8)) < 8)
+				throw new UBJFormatException(pos,
+						"Attempted to read 8 bytes to reconstruct the INT64 value at stream position "
+								+ pos + ", but was only able to read " + read
+								+ " bytes from the underlying stream.");
+
+			// Decode straight out of the window.
+			buffer = wbuffer;
+			i = wpos;
+			wpos += 8;
+			pos += 8;
+		}
 
 		/*
 		 * We read in the original number in 1-byte (8-bit) segments,
 		 * bit-shifting the significant bits back into their place in the final
 		 * numeric type that will be returned.
 		 */
-		long l1 = (long) (buffer[0] & 0xFF) << 56;
-		long l2 = (long) (buffer[1] & 0xFF) << 48;
-		long l3 = (long) (buffer[2] & 0xFF) << 40;
-		long l4 = (long) (buffer[3] & 0xFF) << 32;
-		long l5 = (long) (buffer[4] & 0xFF) << 24;
-		long l6 = (long) (buffer[5] & 0xFF) << 16;
-		long l7 = (long) (buffer[6] & 0xFF) << 8;
-		long l8 = (long) (buffer[7] & 0xFF) << 0;
+		long l1 = (long) (buffer[i] & 0xFF) << 56;
+		long l2 = (long) (buffer[i + 1] & 0xFF) << 48;
+		long l3 = (long) (buffer[i + 2] & 0xFF) << 40;
+		long l4 = (long) (buffer[i + 3] & 0xFF) << 32;
+		long l5 = (long) (buffer[i + 4] & 0xFF) << 24;
+		long l6 = (long) (buffer[i + 5] & 0xFF) << 16;
+		long l7 = (long) (buffer[i + 6] & 0xFF) << 8;
+		long l8 = (long) (buffer[i + 7] & 0xFF) << 0;
 
 		/*
 		 * Now that the significant bits of each segment of the number are where
@@ -473,6 +1466,15 @@ public class UBJInputStream extends FilterInputStream {
 		return (l1 | l2 | l3 | l4 | l5 | l6 | l7 | l8);
 	}
 
+	protected void checkSliceSupported() throws UnsupportedOperationException {
+		if (!isSliceSupported())
+			throw new UnsupportedOperationException(
+					"Slice reads are only supported by an unbuffered stream reading directly from a ByteArrayInputStream or ByteBufferInputStream; this stream is "
+							+ (wbuffer == null ? "reading from "
+									+ in.getClass().getName()
+									: "in buffered mode") + ".");
+	}
+
 	protected int readHugeHeaderImpl() throws IOException, UBJFormatException {
 		// Ensure we are reading a HUGE or HUGE_COMPACT type.
 		byte type = checkType("HUGE", HUGE_COMPACT, HUGE);
@@ -512,24 +1514,8 @@ public class UBJInputStream extends FilterInputStream {
 							+ length
 							+ " bytes; destination buffer must be big enough to contain at least all the bytes for the HUGE value being read.");
 
-		// Read the raw bytes from the stream directly into the backing byte[]
-		int read = read(buffer.array(), 0, length);
-
-		// Make sure we got all the bytes we were promised.
-		if (read < length)
-			throw new IOException(
-					"The End-of-Stream was encountered at stream position "
-							+ pos
-							+ " while trying to read all of the bytes representing this HUGE value ("
-							+ length + " bytes). Only " + read
-							+ " bytes could be read.");
-
-		/*
-		 * Simulate the clear/put/flip ops for the wrapping ByteBuffer so the
-		 * caller can read the result.
-		 */
-		buffer.position(0);
-		buffer.limit(read);
+		// Read the raw bytes into the buffer, failing if we hit the end first.
+		readBodyAsBytesImpl("HUGE", length, buffer);
 	}
 
 	protected void readHugeBodyAsCharsImpl(int length, CharBuffer buffer)
@@ -543,10 +1529,7 @@ public class UBJInputStream extends FilterInputStream {
 							+ " bytes; destination buffer must be big enough to contain at least all the bytes for the HUGE value being read.");
 
 		// Decode the HUGE from our byte stream into our CharBuffer.
-		decoder.decode(in, length, buffer);
-
-		// Prepare the buffer to be read by the caller.
-		buffer.flip();
+		readBodyAsCharsImpl("HUGE", length, buffer);
 	}
 
 	protected int readStringHeaderImpl() throws IOException, UBJFormatException {
@@ -587,24 +1570,8 @@ public class UBJInputStream extends FilterInputStream {
 							+ length
 							+ " bytes; destination buffer must be big enough to contain at least all the bytes for the HUGE value being read.");
 
-		// Read the raw bytes from the stream directly into the backing byte[]
-		int read = read(buffer.array(), 0, length);
-
-		// Make sure we got all the bytes we were promised.
-		if (read < length)
-			throw new IOException(
-					"The End-of-Stream was encountered at stream position "
-							+ pos
-							+ " while trying to read all of the bytes representing this STRING value ("
-							+ length + " bytes). Only " + read
-							+ " bytes could be read.");
-
-		/*
-		 * Simulate the clear/put/flip ops for the wrapping ByteBuffer so the
-		 * caller can read the result.
-		 */
-		buffer.position(0);
-		buffer.limit(read);
+		// Read the raw bytes into the buffer, failing if we hit the end first.
+		readBodyAsBytesImpl("STRING", length, buffer);
 	}
 
 	protected void readStringBodyAsCharsImpl(int length, CharBuffer buffer)
@@ -618,9 +1585,325 @@ public class UBJInputStream extends FilterInputStream {
 							+ " bytes; destination buffer must be big enough to contain at least all of the bytes for the STRING value being read.");
 
 		// Decode the STRING from our byte stream to our CharBuffer.
-		decoder.decode(in, length, buffer);
+		readBodyAsCharsImpl("STRING", length, buffer);
+	}
+
+	/**
+	 * Used to read the <code>length</code>-byte body of a STRING or HUGE value
+	 * (named by <code>type</code> for error reporting) into the given buffer,
+	 * which is left with a position of <code>0</code> and a limit of
+	 * <code>length</code>. Works with both heap and direct buffers.
+	 */
+	protected void readBodyAsBytesImpl(String type, int length,
+			ByteBuffer buffer) throws IOException {
+		buffer.clear();
+
+		if (buffer.hasArray()) {
+			// Read straight into the backing byte[]
+			int read = readFully(buffer.array(), buffer.arrayOffset(), length);
+
+			if (read < length)
+				throw new IOException(
+						"The End-of-Stream was encountered at stream position "
+								+ pos
+								+ " while trying to read all of the bytes representing this "
+								+ type + " value (" + length + " bytes). Only "
+								+ read + " bytes could be read.");
+
+			buffer.position(length);
+		} else if (acquire(length))
+			buffer.put(dArray, dOffset, length);
+		else {
+			// Copy through the scratch buffer one chunk at a time.
+			for (int r = length; r > 0;) {
+				int chunk = (r < BUFFER_SIZE ? r : BUFFER_SIZE);
+
+				buffer.put(readBodyImpl(type, chunk), 0, chunk);
+				r -= chunk;
+			}
+		}
 
-		// Prepare the buffer to be read by the caller.
 		buffer.flip();
 	}
+
+	/**
+	 * Used to consume the <code>length</code>-byte body of a STRING or HUGE
+	 * value (named by <code>type</code> for error reporting) by returning a
+	 * read-only slice of the source's storage. Callers must have checked
+	 * {@link #isSliceSupported()}.
+	 */
+	protected ByteBuffer readBodyAsSliceImpl(String type, int length)
+			throws IOException {
+		ByteBuffer slice;
+		int r;
+
+		if (in instanceof ByteArrayInputStream) {
+			ByteArrayInputStream bais = (ByteArrayInputStream) in;
+
+			if ((r = bais.l - bais.i) >= length) {
+				slice = ByteBuffer.wrap(bais.bbuffer, bais.i, length).slice()
+						.asReadOnlyBuffer();
+				bais.i += length;
+			} else
+				slice = null;
+		} else {
+			ByteBuffer bb = ((ByteBufferInputStream) in).bbuffer;
+
+			if ((r = bb.remaining()) >= length) {
+				int position = bb.position();
+				ByteBuffer view = bb.asReadOnlyBuffer();
+
+				view.limit(position + length);
+				slice = view.slice();
+				bb.position(position + length);
+			} else
+				slice = null;
+		}
+
+		if (slice == null)
+			throw new IOException(
+					"The End-of-Stream was encountered at stream position "
+							+ pos
+							+ " while trying to read all of the bytes representing this "
+							+ type + " value (" + length + " bytes). Only " + r
+							+ " bytes are available.");
+
+		pos += length;
+		return slice;
+	}
+
+	/**
+	 * Used to read the <code>length</code>-byte UTF-8 body of a STRING or HUGE
+	 * value (named by <code>type</code> for error reporting) and decode it to
+	 * a {@link String}.
+	 */
+	protected String readBodyAsStringImpl(String type, int length)
+			throws IOException, UBJFormatException {
+		if (length == 0)
+			return "";
+
+		if (acquire(length))
+			return UTF8Decoder.decode(dArray, dOffset, length);
+
+		byte[] data = readBodyImpl(type, length);
+		return UTF8Decoder.decode(data, 0, length);
+	}
+
+	/**
+	 * Used to read the <code>length</code>-byte UTF-8 body of a STRING or HUGE
+	 * value (named by <code>type</code> for error reporting) and decode it
+	 * into the given buffer, which is flipped and ready to be read by the
+	 * caller afterwards.
+	 */
+	protected void readBodyAsCharsImpl(String type, int length,
+			CharBuffer buffer) throws IOException, UBJFormatException {
+		buffer.clear();
+
+		if (length > 0) {
+			byte[] data;
+			int offset = 0;
+
+			if (acquire(length)) {
+				data = dArray;
+				offset = dOffset;
+			} else
+				data = readBodyImpl(type, length);
+
+			if (buffer.hasArray()) {
+				// Decode straight into the backing array.
+				int start = buffer.arrayOffset();
+				int end = UTF8Decoder.decode(data, offset, length,
+						buffer.array(), start);
+
+				buffer.position(end - start);
+			} else
+				buffer.put(UTF8Decoder.decode(data, offset, length));
+		}
+
+		buffer.flip();
+	}
+
+	/**
+	 * Used to read the <code>length</code>-byte body of a STRING or HUGE value
+	 * (named by <code>type</code> for error reporting) into the scratch buffer
+	 * (or a temporary one if it is very large) when it cannot be accessed
+	 * directly.
+	 * 
+	 * @return the array holding the body, starting at index <code>0</code>.
+	 */
+	protected byte[] readBodyImpl(String type, int length) throws IOException {
+		byte[] data = sbuffer;
+
+		if (length > data.length) {
+			data = new byte[length];
+
+			// Only hang on to moderately sized scratch buffers.
+			if (length <= BUFFER_SIZE)
+				sbuffer = data;
+		}
+
+		int read = readFully(data, 0, length);
+
+		// Make sure we got all the bytes we were promised.
+		if (read < length)
+			throw new IOException(
+					"The End-of-Stream was encountered at stream position "
+							+ pos + " while trying to read all of the bytes representing this "
+							+ type + " value (" + length + " bytes). Only "
+							+ read + " bytes could be read.");
+
+		return data;
+	}
+
+	/**
+	 * Used to consume the next <code>length</code> bytes of the stream
+	 * <em>without copying them</em> when they are already sitting in memory:
+	 * in the read window of a buffered stream, or in the backing array of a
+	 * wrapped {@link ByteArrayInputStream} or heap-based
+	 * {@link ByteBufferInputStream}.
+	 * <p/>
+	 * On success the bytes are considered read (the stream position moves past
+	 * them) and can be accessed in {@link #dArray} starting at
+	 * {@link #dOffset} until the next read operation on this stream.
+	 * 
+	 * @return <code>true</code> if the bytes were consumed and are available
+	 *         via {@link #dArray}/{@link #dOffset}, or <code>false</code> if
+	 *         nothing was consumed and the caller must read the bytes itself.
+	 */
+	protected boolean acquire(int length) throws IOException {
+		if (wbuffer != null) {
+			// Bytes must come out of the window first, in order.
+			if (length <= wbuffer.length) {
+				if (wlimit - wpos < length && fill(length) < length)
+					return false;
+
+				dArray = wbuffer;
+				dOffset = wpos;
+				wpos += length;
+				pos += length;
+				return true;
+			} else if (wlimit > wpos)
+				return false;
+		}
+
+		if (in instanceof ByteArrayInputStream) {
+			ByteArrayInputStream bais = (ByteArrayInputStream) in;
+
+			if (bais.l - bais.i < length)
+				return false;
+
+			dArray = bais.bbuffer;
+			dOffset = bais.i;
+			bais.i += length;
+		} else if (in instanceof ByteBufferInputStream) {
+			ByteBuffer bb = ((ByteBufferInputStream) in).bbuffer;
+
+			// Direct buffers have no array to hand out.
+			if (!bb.hasArray() || bb.remaining() < length)
+				return false;
+
+			int position = bb.position();
+
+			dArray = bb.array();
+			dOffset = bb.arrayOffset() + position;
+			bb.position(position + length);
+		} else
+			return false;
+
+		pos += length;
+		return true;
+	}
+
+	/**
+	 * Used to read exactly <code>length</code> bytes into the given array,
+	 * looping over short reads (common with sockets and pipes) until all the
+	 * bytes have been read or the end of the stream is reached.
+	 * 
+	 * @return the number of bytes actually read; less than <code>length</code>
+	 *         only if the end of the stream was reached first.
+	 */
+	protected int readFully(byte[] buffer, int offset, int length)
+			throws IOException {
+		int total = 0;
+
+		while (total < length) {
+			int read = read(buffer, offset + total, length - total);
+
+			if (read == -1)
+				break;
+
+			total += read;
+		}
+
+		return total;
+	}
+
+	/**
+	 * Used to skip exactly <code>amount</code> bytes, looping over short skips
+	 * until all the bytes have been skipped.
+	 * 
+	 * @throws IOException
+	 *             if the end of the stream is reached first.
+	 */
+	protected void skipFully(long amount) throws IOException {
+		long r = amount;
+
+		while (r > 0) {
+			long skipped = skip(r);
+
+			/*
+			 * skip(...) is allowed to skip nothing without being at the end of
+			 * the stream; reading a byte tells the two apart.
+			 */
+			if (skipped < 1) {
+				if (read() == -1)
+					throw new IOException(
+							"End of Stream encountered at stream position "
+									+ pos + " while trying to skip " + amount
+									+ " bytes; " + r
+									+ " bytes could not be skipped.");
+
+				skipped = 1;
+			}
+
+			r -= skipped;
+		}
+	}
+
+	/**
+	 * Used in buffered mode to ensure at least <code>required</code> bytes are
+	 * available in the window, compacting any unconsumed bytes to the front of
+	 * the window and reading from the underlying stream (looping over short
+	 * reads) until enough bytes are available or the end of the stream is hit.
+	 * 
+	 * @return the number of bytes available in the window after the fill; less
+	 *         than <code>required</code> only at the end of the stream.
+	 */
+	protected int fill(int required) throws IOException {
+		int r = wlimit - wpos;
+
+		if (r >= required)
+			return r;
+
+		// Slide the unconsumed bytes to the front of the window.
+		if (wpos > 0) {
+			if (r > 0)
+				System.arraycopy(wbuffer, wpos, wbuffer, 0, r);
+
+			wpos = 0;
+			wlimit = r;
+		}
+
+		while (r < required) {
+			int read = in.read(wbuffer, wlimit, wbuffer.length - wlimit);
+
+			if (read == -1)
+				break;
+
+			wlimit += read;
+			r += read;
+		}
+
+		return r;
+	}
 }
\ No newline at end of file
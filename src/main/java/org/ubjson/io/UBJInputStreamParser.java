@@ -17,6 +17,7 @@ package org.ubjson.io;
 
 import static org.ubjson.io.IUBJTypeMarker.ARRAY;
 import static org.ubjson.io.IUBJTypeMarker.ARRAY_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.ARRAY_OPTIMIZED;
 import static org.ubjson.io.IUBJTypeMarker.BYTE;
 import static org.ubjson.io.IUBJTypeMarker.DOUBLE;
 import static org.ubjson.io.IUBJTypeMarker.END;
@@ -40,13 +41,47 @@ import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 
 public class UBJInputStreamParser extends UBJInputStream {
-	private byte peek;
+	protected byte peek;
+
+	/*
+	 * true when the marker in peek was read by hasNext(int, int) on behalf of
+	 * the caller; the next call to nextType() hands it back instead of
+	 * skipping over its value.
+	 */
+	protected boolean held;
+
+	/*
+	 * Remaining child counts of the containers being skipped by
+	 * skipValueImpl, innermost last; -1 for unbounded containers. Kept and
+	 * re-used across calls.
+	 */
+	private long[] skipStack;
 
 	public UBJInputStreamParser(InputStream in) {
 		super(in);
 		peek = -1;
 	}
 
+	public UBJInputStreamParser(InputStream in, int bufferSize)
+			throws IllegalArgumentException {
+		super(in, bufferSize);
+		peek = -1;
+	}
+
+	public UBJInputStreamParser(InputStream in, int bufferSize,
+			IBufferPool pool) throws IllegalArgumentException {
+		super(in, bufferSize, pool);
+		peek = -1;
+	}
+
+	@Override
+	public void reset(InputStream in) throws IllegalArgumentException {
+		super.reset(in);
+
+		peek = -1;
+		held = false;
+	}
+
 	@Override
 	public byte nextType() throws IOException, UBJFormatException {
 		/*
@@ -58,74 +93,93 @@ public class UBJInputStreamParser extends UBJInputStream {
 		 * "nextType" we first need to skip over the body of the currently
 		 * marked value.
 		 */
-		if (peek != -1) {
-			switch (peek) {
-			/*
-			 * All 1-byte values are technically already "skipped" as they have
-			 * been read from the stream and their value is sitting in the
-			 * "peek" variable at the moment. By no-op'ing here then calling
-			 * nextType at the end of this method, we are effectively skipping
-			 * the value and moving onto the next one from the stream.
-			 */
-			case END:
-			case NULL:
-			case TRUE:
-			case FALSE:
-				break;
+		if (held) {
+			held = false;
 
-			// 2-byte value, skip the 1-byte body.
-			case BYTE:
-				in.skip(1);
-				break;
+			if (peek != -1)
+				return peek;
+		}
 
-			// 3-byte value, skip the 2-byte body.
-			case INT16:
-				in.skip(2);
-				break;
+		if (peek != -1)
+			skipValueImpl(peek);
 
-			// 5-byte values, skip the 4-byte body.
-			case INT32:
-			case FLOAT:
-				in.skip(4);
-				break;
+		return (peek = super.nextType());
+	}
 
-			// 9-byte value, skip the 8-byte body.
-			case INT64:
-			case DOUBLE:
-				in.skip(8);
-				break;
+	/**
+	 * Used to skip over the next value in the stream (the one whose type was
+	 * returned by the last call to {@link #nextType()}, or the next one in the
+	 * stream if it hasn't been called yet) without decoding it.
+	 * <p/>
+	 * Containers are skipped in their entirety, no matter how deeply nested or
+	 * whether they are bounded or unbounded, and no Strings or values are
+	 * created in the process. STRING and HUGE bodies are skipped in bulk using
+	 * {@link #skip(long)}, which is a constant time operation on array-backed
+	 * sources like {@link ByteArrayInputStream} and
+	 * {@link ByteBufferInputStream}.
+	 * 
+	 * @throws IOException
+	 *             if the end of the stream is reached before the whole value
+	 *             could be skipped.
+	 * @throws UBJFormatException
+	 *             if an invalid type marker or length is encountered.
+	 */
+	public void skipValue() throws IOException, UBJFormatException {
+		if (peek == -1)
+			nextType();
 
-			/*
-			 * Variable-Length: Each of these types have a variable-length body
-			 * size which is described in the following 4-byte integer value.
-			 */
-			case HUGE:
-			case STRING:
-			case ARRAY:
-			case OBJECT:
-				in.skip(readInt32Impl());
-				break;
+		if (peek == -1)
+			throw new IOException(
+					"End of Stream encountered at stream position " + pos
+							+ " while looking for a value to skip.");
 
-			/*
-			 * Variable-Length: Each of these types have a variable-length body
-			 * size which is described in the following 1-byte integer value.
-			 */
-			case HUGE_COMPACT:
-			case STRING_COMPACT:
-			case ARRAY_COMPACT:
-			case OBJECT_COMPACT:
-				in.skip(in.read());
-				break;
+		byte type = peek;
+		peek = -1;
 
-			default:
-				throw new UBJFormatException(pos,
-						"Encountered an unknown type marker of byte value "
-								+ peek + " (char='" + ((char) peek)
-								+ "') at stream position " + pos + ".");
-			}
+		skipValueImpl(type);
+	}
+
+	/**
+	 * Used to determine if the ARRAY or OBJECT whose <code>length</code> was
+	 * just read with {@link #readArrayLength()} or {@link #readObjectLength()}
+	 * has another element after the <code>index</code> elements read so far.
+	 * <p/>
+	 * Unbounded (streaming) containers, those with a length of
+	 * <code>-1</code>, have another element until the END marker terminating
+	 * them is found; that marker is consumed by this method. This allows
+	 * every container to be read with a single loop:
+	 * 
+	 * <pre>
+	 * int length = in.readArrayLength();
+	 * 
+	 * for (int i = 0; in.hasNext(length, i); i++) {
+	 * 	// read element i
+	 * }
+	 * </pre>
+	 * 
+	 * @throws UBJFormatException
+	 *             if the end of the stream is reached before the END marker
+	 *             of an unbounded container.
+	 */
+	public boolean hasNext(int length, int index) throws IOException,
+			UBJFormatException {
+		if (length != -1)
+			return (index < length);
+
+		byte type = nextType();
+
+		if (type == -1)
+			throw new UBJFormatException(pos,
+					"End of Stream encountered at stream position " + pos
+							+ " before the END marker of an unbounded container.");
+
+		if (type != END) {
+			held = true;
+			return true;
 		}
 
-		return (peek = super.nextType());
+		readEnd();
+		return false;
 	}
 
 	@Override
@@ -210,6 +264,14 @@ public class UBJInputStreamParser extends UBJInputStream {
 		peek = -1;
 	}
 
+	@Override
+	public ByteBuffer readHugeAsSlice() throws IOException, UBJFormatException,
+			UnsupportedOperationException {
+		ByteBuffer h = super.readHugeAsSlice();
+		peek = -1;
+		return h;
+	}
+
 	@Override
 	public CharBuffer readHugeAsChars() throws IOException, UBJFormatException {
 		CharBuffer buffer = super.readHugeAsChars();
@@ -238,6 +300,13 @@ public class UBJInputStreamParser extends UBJInputStream {
 		return s;
 	}
 
+	@Override
+	public String readKey() throws IOException, UBJFormatException {
+		String key = super.readKey();
+		peek = -1;
+		return key;
+	}
+
 	@Override
 	public ByteBuffer readStringAsBytes() throws IOException,
 			UBJFormatException {
@@ -253,6 +322,14 @@ public class UBJInputStreamParser extends UBJInputStream {
 		peek = -1;
 	}
 
+	@Override
+	public ByteBuffer readStringAsSlice() throws IOException,
+			UBJFormatException, UnsupportedOperationException {
+		ByteBuffer s = super.readStringAsSlice();
+		peek = -1;
+		return s;
+	}
+
 	@Override
 	public CharBuffer readStringAsChars() throws IOException,
 			UBJFormatException {
@@ -283,8 +360,172 @@ public class UBJInputStreamParser extends UBJInputStream {
 	}
 
 	@Override
-	protected byte checkType(String name, byte expected, byte expectedOpt)
-			throws UBJFormatException, IOException {
+	protected byte nextElementTypeImpl() throws IOException {
+		/*
+		 * The marker of the first element may have already been read by a
+		 * call to nextType(); hand that one back instead of reading past it.
+		 */
+		if (peek != -1) {
+			byte type = peek;
+			peek = -1;
+			return type;
+		}
+
+		return super.nextElementTypeImpl();
+	}
+
+	/**
+	 * Used to skip the body of the value with the given type marker (which has
+	 * already been read from the stream) including, for containers, all of
+	 * their children. Nested containers are tracked with an explicit stack
+	 * instead of recursion so arbitrarily deep input can't overflow the call
+	 * stack.
+	 */
+	protected void skipValueImpl(byte type) throws IOException,
+			UBJFormatException {
+		long[] stack = skipStack;
+		int depth = 0;
+
+		for (;;) {
+			long count = 0;
+
+			switch (type) {
+			case END:
+			case NULL:
+			case TRUE:
+			case FALSE:
+				break;
+
+			case BYTE:
+				skipFully(1);
+				break;
+
+			case INT16:
+				skipFully(2);
+				break;
+
+			case INT32:
+			case FLOAT:
+				skipFully(4);
+				break;
+
+			case INT64:
+			case DOUBLE:
+				skipFully(8);
+				break;
+
+			case HUGE_COMPACT:
+			case STRING_COMPACT:
+				skipFully(readLengthImpl(type, true));
+				break;
+
+			case HUGE:
+			case STRING:
+				skipFully(readLengthImpl(type, false));
+				break;
+
+			case ARRAY_COMPACT:
+			case OBJECT_COMPACT:
+				count = readLengthImpl(type, true);
+
+				// 255 is an unbounded container, terminated by END.
+				if (count == 255)
+					count = -1;
+				break;
+
+			case ARRAY:
+			case OBJECT:
+				count = readLengthImpl(type, false);
+				break;
+
+			case ARRAY_OPTIMIZED:
+				// Elements are raw values of a fixed size; skip them in bulk.
+				count = readTypedArrayHeaderImpl();
+				skipFully(count * sizeOf(elementType));
+
+				elementType = INVALID;
+				count = 0;
+				break;
+
+			default:
+				throw new UBJFormatException(pos,
+						"Encountered an unknown type marker of byte value "
+								+ type + " (char='" + ((char) type)
+								+ "') at stream position " + pos + ".");
+			}
+
+			if (count != 0) {
+				// Objects hold 2 values (name and value) per entry.
+				if (count > 0 && (type == OBJECT || type == OBJECT_COMPACT))
+					count *= 2;
+
+				if (stack == null || depth == stack.length) {
+					long[] grown = new long[depth == 0 ? 16 : depth * 2];
+
+					if (depth > 0)
+						System.arraycopy(stack, 0, grown, 0, depth);
+
+					skipStack = stack = grown;
+				}
+
+				stack[depth++] = count;
+			}
+
+			// Find the next child to skip, closing finished containers.
+			type = INVALID;
+
+			while (depth > 0 && type == INVALID) {
+				long remaining = stack[depth - 1];
+
+				if (remaining == 0) {
+					depth--;
+					continue;
+				}
+
+				type = super.nextType();
+
+				if (type == INVALID)
+					throw new IOException(
+							"End of Stream encountered at stream position "
+									+ pos
+									+ " while skipping the children of a container.");
+
+				if (remaining == -1) {
+					if (type == END) {
+						depth--;
+						type = INVALID;
+					}
+				} else
+					stack[depth - 1] = remaining - 1;
+			}
+
+			if (type == INVALID)
+				break;
+		}
+	}
+
+	/**
+	 * Used to read the length following the given STRING, HUGE, ARRAY or
+	 * OBJECT type marker; a 1-byte length if <code>compact</code>, a 4-byte
+	 * length otherwise.
+	 */
+	private int readLengthImpl(byte type, boolean compact) throws IOException,
+			UBJFormatException {
+		int length = (compact ? read() : readInt32Impl());
+
+		if (length < 0)
+			throw new UBJFormatException(pos, (compact ? "End of Stream"
+					: "A negative (invalid) length of [" + length + "]")
+					+ " encountered at stream position " + pos
+					+ " while reading the length of the value with type marker "
+					+ type + " (char='" + ((char) type) + "').");
+
+		return length;
+	}
+
+	@Override
+	protected byte checkType(String name, byte expected, byte expectedOpt,
+			byte expectedOpt2) throws UBJFormatException, IOException {
 		/*
 		 * Auto-peek at the next byte if necessary. This allows people to use
 		 * the UBJ streams in a manual serial/deserialization pattern of calling
@@ -295,23 +536,11 @@ public class UBJInputStreamParser extends UBJInputStream {
 		if (peek == -1)
 			nextType();
 
-		if (peek != expected && (expectedOpt != INVALID && peek != expectedOpt)) {
-			String message = "Unable to read " + name
-					+ " value at stream position " + pos
-					+ ". The type marker byte value read was " + peek
-					+ " (char='" + ((char) peek)
-					+ "') but the expected type marker byte value was "
-					+ expected + " (char='" + ((char) expected) + "')";
-
-			if (expectedOpt != INVALID)
-				message += " or " + expectedOpt + " (char='"
-						+ ((char) expectedOpt) + "'); but neither were found.";
-			else
-				message += '.';
-
-			throw new UBJFormatException(pos, message);
-		}
+		if (peek != expected && (expectedOpt == INVALID || peek != expectedOpt)
+				&& (expectedOpt2 == INVALID || peek != expectedOpt2))
+			throw new UBJFormatException(pos, typeError(name, peek, expected,
+					expectedOpt, expectedOpt2));
 
 		return peek;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,326 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.ubjson.io.charset.UTF8Decoder;
+
+/**
+ * Class used to parse Universal Binary JSON out of a (potentially very large)
+ * file using memory-mapped I/O, exposing the same typed read API as
+ * {@link UBJInputStreamParser}.
+ * <p/>
+ * The file is read through a {@link MappedFileInputStream}, so reads are
+ * served from mapped memory instead of system calls, files larger than 2GB
+ * are supported and {@link #getPosition()} always reports the absolute offset
+ * in the file. {@link #seek(long)} can be used to jump directly to a value at
+ * a known offset (e.g. from an index built on a previous pass).
+ * <p/>
+ * Markers, numeric values, STRING/HUGE bodies and optimized ARRAY elements
+ * are decoded straight out of the currently mapped window whenever the value
+ * fits in it; only values straddling two windows are copied through the
+ * scratch buffers the way {@link UBJInputStream} reads any other stream.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class UBJMappedFileParser extends UBJInputStreamParser {
+	protected MappedFileInputStream min;
+
+	/**
+	 * Creates a parser that opens and reads the given file; the file is closed
+	 * when this parser is closed.
+	 */
+	public UBJMappedFileParser(File file) throws IllegalArgumentException,
+			IOException {
+		this(new MappedFileInputStream(file));
+	}
+
+	/**
+	 * Creates a parser that reads the given channel from offset
+	 * <code>0</code>; the channel is <em>not</em> closed when this parser is
+	 * closed.
+	 */
+	public UBJMappedFileParser(FileChannel channel)
+			throws IllegalArgumentException, IOException {
+		this(new MappedFileInputStream(channel));
+	}
+
+	/**
+	 * Creates a parser that reads the given channel from offset
+	 * <code>0</code>, mapping up to <code>windowSize</code> bytes at a time;
+	 * the channel is <em>not</em> closed when this parser is closed.
+	 */
+	public UBJMappedFileParser(FileChannel channel, int windowSize)
+			throws IllegalArgumentException, IOException {
+		this(new MappedFileInputStream(channel, windowSize));
+	}
+
+	public UBJMappedFileParser(MappedFileInputStream in)
+			throws IllegalArgumentException {
+		super(in);
+
+		if (in == null)
+			throw new IllegalArgumentException("in cannot be null");
+
+		min = in;
+		pos = in.getPosition();
+	}
+
+	@Override
+	public int read() throws IOException {
+		MappedByteBuffer w = min.window;
+
+		if (w == null || !w.hasRemaining())
+			return super.read();
+
+		pos++;
+		return w.get() & 0xFF;
+	}
+
+	/**
+	 * Overridden to only accept another {@link MappedFileInputStream}, which
+	 * all of the reads of this parser are served from.
+	 */
+	@Override
+	public void reset(InputStream in) throws IllegalArgumentException {
+		if (in == null)
+			throw new IllegalArgumentException("in cannot be null");
+		if (!(in instanceof MappedFileInputStream))
+			throw new IllegalArgumentException(
+					"in must be a MappedFileInputStream");
+
+		super.reset(in);
+
+		min = (MappedFileInputStream) in;
+		pos = min.getPosition();
+	}
+
+	/**
+	 * Overridden to also move {@link #getPosition()} back to the marked offset
+	 * as the underlying stream can always report it exactly.
+	 */
+	@Override
+	public void reset() throws IOException {
+		super.reset();
+
+		pos = min.getPosition();
+		peek = -1;
+	}
+
+	/**
+	 * Used to move the parser to the value starting at the given absolute
+	 * offset in the file, discarding any value that was peeked at via
+	 * {@link #nextType()} but not read.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>position</code> is &lt; 0 or &gt;
+	 *             {@link #getLength()}.
+	 */
+	public void seek(long position) throws IllegalArgumentException {
+		min.seek(position);
+
+		pos = position;
+		peek = -1;
+	}
+
+	/**
+	 * Used to get the length of the file being parsed.
+	 */
+	public long getLength() {
+		return min.getLength();
+	}
+
+	@Override
+	protected short readInt16Impl() throws IOException {
+		MappedByteBuffer w = window(2);
+
+		if (w == null)
+			return super.readInt16Impl();
+
+		pos += 2;
+		return w.getShort();
+	}
+
+	@Override
+	protected int readInt32Impl() throws IOException {
+		MappedByteBuffer w = window(4);
+
+		if (w == null)
+			return super.readInt32Impl();
+
+		pos += 4;
+		return w.getInt();
+	}
+
+	@Override
+	protected long readInt64Impl() throws IOException {
+		MappedByteBuffer w = window(8);
+
+		if (w == null)
+			return super.readInt64Impl();
+
+		pos += 8;
+		return w.getLong();
+	}
+
+	@Override
+	protected void readTypedArrayBodyImpl(Object dest, int offset,
+			int length, int size) throws IOException, UBJFormatException {
+		long bytes = (long) length * size;
+		MappedByteBuffer w;
+
+		if (length == 0 || (w = window(bytes)) == null) {
+			super.readTypedArrayBodyImpl(dest, offset, length, size);
+			return;
+		}
+
+		int position = w.position();
+
+		/*
+		 * The views share the window's big-endian byte order and start at its
+		 * current position, so each run is a single bulk get.
+		 */
+		if (dest instanceof byte[])
+			w.get((byte[]) dest, offset, length);
+		else if (dest instanceof short[])
+			w.asShortBuffer().get((short[]) dest, offset, length);
+		else if (dest instanceof int[])
+			w.asIntBuffer().get((int[]) dest, offset, length);
+		else if (dest instanceof float[])
+			w.asFloatBuffer().get((float[]) dest, offset, length);
+		else if (dest instanceof long[])
+			w.asLongBuffer().get((long[]) dest, offset, length);
+		else
+			w.asDoubleBuffer().get((double[]) dest, offset, length);
+
+		w.position(position + (int) bytes);
+		pos += bytes;
+		elementsRemaining -= length;
+	}
+
+	@Override
+	protected void readBodyAsBytesImpl(String type, int length,
+			ByteBuffer buffer) throws IOException {
+		MappedByteBuffer w;
+
+		// Empty bodies never need to map (or slide) the window.
+		if (length == 0 || (w = window(length)) == null) {
+			super.readBodyAsBytesImpl(type, length, buffer);
+			return;
+		}
+
+		ByteBuffer src = w.duplicate();
+
+		src.limit(src.position() + length);
+		buffer.clear();
+		buffer.put(src);
+		buffer.flip();
+
+		w.position(src.position());
+		pos += length;
+	}
+
+	@Override
+	protected String readBodyAsStringImpl(String type, int length)
+			throws IOException, UBJFormatException {
+		MappedByteBuffer w;
+
+		if (length == 0 || (w = window(length)) == null)
+			return super.readBodyAsStringImpl(type, length);
+
+		// Decoding will never produce more chars than there are bytes.
+		char[] chars = new char[length];
+		return new String(chars, 0, decode(w, length, chars, 0));
+	}
+
+	@Override
+	protected void readBodyAsCharsImpl(String type, int length,
+			CharBuffer buffer) throws IOException, UBJFormatException {
+		MappedByteBuffer w;
+
+		if (length == 0 || !buffer.hasArray()
+				|| (w = window(length)) == null) {
+			super.readBodyAsCharsImpl(type, length, buffer);
+			return;
+		}
+
+		// Decode straight into the backing array.
+		int start = buffer.arrayOffset();
+		int end = decode(w, length, buffer.array(), start);
+
+		buffer.clear();
+		buffer.position(end - start);
+		buffer.flip();
+	}
+
+	/**
+	 * Used to get the mapped window if the next <code>length</code> bytes of
+	 * the file are all held by it, mapping the next window first if the
+	 * current one is used up.
+	 * 
+	 * @return the window, positioned at the next byte, or <code>null</code>
+	 *         if the bytes straddle two windows (or run past the end of the
+	 *         file) and must be read through the copying paths instead.
+	 */
+	protected MappedByteBuffer window(long length) throws IOException {
+		return (min.remaining() >= length ? min.window : null);
+	}
+
+	/**
+	 * Used to decode the next <code>length</code> UTF-8 bytes of the window
+	 * into <code>dest</code> starting at index <code>destOffset</code>,
+	 * consuming them.
+	 * 
+	 * @return the index in <code>dest</code> right after the last char
+	 *         written.
+	 */
+	private int decode(MappedByteBuffer w, int length, char[] dest,
+			int destOffset) {
+		int i = w.position();
+		int end = i + length;
+		byte b;
+
+		// Widen the leading run of ASCII bytes straight out of the window.
+		while (i < end && (b = w.get(i)) >= 0) {
+			dest[destOffset++] = (char) b;
+			i++;
+		}
+
+		w.position(i);
+
+		/*
+		 * Only the bytes from the first multi-byte sequence on are copied out
+		 * to be validated and decoded.
+		 */
+		if (i < end) {
+			int n = end - i;
+			byte[] data = (n <= sbuffer.length ? sbuffer : new byte[n]);
+
+			w.get(data, 0, n);
+			destOffset = UTF8Decoder.decode(data, 0, n, dest, destOffset);
+		}
+
+		pos += length;
+		return destOffset;
+	}
+}
@@ -17,7 +17,10 @@ package org.ubjson.io;
 
 import static org.ubjson.io.IUBJTypeMarker.ARRAY;
 import static org.ubjson.io.IUBJTypeMarker.ARRAY_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.ARRAY_OPTIMIZED;
 import static org.ubjson.io.IUBJTypeMarker.BYTE;
+import static org.ubjson.io.IUBJTypeMarker.CONTAINER_COUNT;
+import static org.ubjson.io.IUBJTypeMarker.CONTAINER_TYPE;
 import static org.ubjson.io.IUBJTypeMarker.DOUBLE;
 import static org.ubjson.io.IUBJTypeMarker.END;
 import static org.ubjson.io.IUBJTypeMarker.FALSE;
@@ -38,28 +41,155 @@ import static org.ubjson.io.IUBJTypeMarker.TRUE;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.reflect.Array;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.nio.CharBuffer;
 
-import org.ubjson.io.charset.StreamEncoder;
+import org.ubjson.io.charset.UTF8Encoder;
 
 public class UBJOutputStream extends FilterOutputStream {
+	/**
+	 * System property name used to set the runtime value of
+	 * {@link #BUFFER_SIZE}.
+	 * <p/>
+	 * Value is: <code>org.ubjson.io.outputBufferSize</code>
+	 */
+	public static final String BUFFER_SIZE_PROPERTY_NAME = "org.ubjson.io.outputBufferSize";
+
+	/**
+	 * Constant used to define the default size of the <code>byte[]</code>
+	 * used by streams created in buffered mode (see
+	 * {@link #UBJOutputStream(OutputStream, int)}).
+	 * <p/>
+	 * Default value: <code>8192</code> (8KB)
+	 * <p/>
+	 * This value can be set using the {@link #BUFFER_SIZE_PROPERTY_NAME}
+	 * property at runtime. From the command line this can be done using the
+	 * <code>-D</code> argument like so:
+	 * <p/>
+	 * <code>java -cp [...] -Dorg.ubjson.io.outputBufferSize=32768 [...]</code>
+	 */
+	public static final int BUFFER_SIZE = Integer.getInteger(
+			BUFFER_SIZE_PROPERTY_NAME, 8192);
+
+	/**
+	 * The smallest buffer size allowed in buffered mode; large enough to
+	 * always hold the widest fixed-size construct (a marker plus an 8-byte
+	 * INT64 or DOUBLE) in one contiguous run.
+	 */
+	public static final int MIN_BUFFER_SIZE = 16;
+
+	/**
+	 * Longest text (in chars) that is encoded in a single pass; anything
+	 * longer has its UTF-8 length calculated before it is encoded. Also keeps
+	 * the worst-case size calculation from overflowing.
+	 */
+	protected static final int MAX_SINGLE_PASS_LENGTH = (Integer.MAX_VALUE - 5) / 3;
+
+	static {
+		if (BUFFER_SIZE < MIN_BUFFER_SIZE)
+			throw new RuntimeException("System property ["
+					+ BUFFER_SIZE_PROPERTY_NAME + "] must be >= "
+					+ MIN_BUFFER_SIZE
+					+ " but is currently set to the value '" + BUFFER_SIZE
+					+ "'.");
+	}
+
 	protected long count;
+
+	/*
+	 * Every value is encoded directly into buffer; [0, i) are the bytes that
+	 * have not been handed to the underlying stream yet. In buffered mode
+	 * those bytes are only written out when the buffer fills up or on
+	 * flush/close, otherwise they are written out at the end of every value.
+	 */
+	protected int i;
 	protected byte[] buffer;
-	protected StreamEncoder encoder;
+	protected boolean buffered;
+
+	/*
+	 * Where buffer was borrowed from and is given back to on close(); null
+	 * while buffer is one this stream allocated itself.
+	 */
+	protected IBufferPool pool;
+
+	/*
+	 * The pool and size of the buffer given back by close(), so reset(...)
+	 * can borrow a new one; null unless a pooled stream has been closed.
+	 */
+	protected IBufferPool closedPool;
+	protected int closedSize;
 
 	public UBJOutputStream(OutputStream out) {
 		super(out);
 
-		buffer = new byte[8];
-		encoder = new StreamEncoder();
+		buffer = new byte[MIN_BUFFER_SIZE];
+	}
+
+	/**
+	 * Creates a stream in <em>buffered mode</em> that encodes every marker,
+	 * length and value directly into an internal <code>byte[]</code> of
+	 * <code>bufferSize</code> bytes and only writes to the given
+	 * {@link OutputStream} when that buffer fills up, or when
+	 * {@link #flush()} or {@link #close()} are called.
+	 * <p/>
+	 * <strong>REMINDER</strong>: Callers must {@link #flush()} (or
+	 * {@link #close()}) a buffered stream before reading the results out of
+	 * the underlying stream, e.g. from a {@link ByteArrayOutputStream}.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @param bufferSize
+	 *            The size of the internal buffer.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>bufferSize</code> is &lt; {@link #MIN_BUFFER_SIZE}.
+	 */
+	public UBJOutputStream(OutputStream out, int bufferSize)
+			throws IllegalArgumentException {
+		this(out, bufferSize, BufferPools.getDefault());
+	}
+
+	/**
+	 * Creates a stream in <em>buffered mode</em> (see
+	 * {@link #UBJOutputStream(OutputStream, int)}) that borrows its internal
+	 * buffer from the given pool and gives it back when it is
+	 * {@link #close() closed}. The buffer may be larger than
+	 * <code>bufferSize</code>.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @param bufferSize
+	 *            The minimum size of the internal buffer.
+	 * @param pool
+	 *            The pool to borrow the buffer from or <code>null</code> to
+	 *            allocate it.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>bufferSize</code> is &lt; {@link #MIN_BUFFER_SIZE}.
+	 */
+	public UBJOutputStream(OutputStream out, int bufferSize, IBufferPool pool)
+			throws IllegalArgumentException {
+		super(out);
+
+		if (bufferSize < MIN_BUFFER_SIZE)
+			throw new IllegalArgumentException("bufferSize [" + bufferSize
+					+ "] must be >= " + MIN_BUFFER_SIZE);
+
+		this.pool = pool;
+
+		buffer = (pool == null ? new byte[bufferSize] : pool
+				.acquire(bufferSize));
+		buffered = true;
 	}
 
 	@Override
 	public void write(int b) throws IOException {
+		ensureCapacity(1);
+		buffer[i++] = (byte) b;
 		count++;
-		out.write(b);
+		drain();
 	}
 
 	@Override
@@ -85,18 +215,91 @@ public class UBJOutputStream extends FilterOutputStream {
 							+ "] must be >= 0 and (offset + length) must be <= buffer.lengt ["
 							+ buffer.length + "]");
 
-		out.write(buffer, offset, length);
+		if (length > this.buffer.length - i) {
+			/*
+			 * Doesn't fit in what is left of our buffer; write out what we
+			 * have pending then hand the caller's bytes to the underlying
+			 * stream directly instead of copying them through our buffer.
+			 */
+			flushBuffer();
+			out.write(buffer, offset, length);
+		} else {
+			System.arraycopy(buffer, offset, this.buffer, i, length);
+			i += length;
+			drain();
+		}
+
 		count += length;
 	}
 
 	@Override
 	public void flush() throws IOException {
+		flushBuffer();
 		out.flush();
 	}
 
 	@Override
 	public void close() throws IOException {
-		out.close();
+		try {
+			flushBuffer();
+			out.close();
+		} finally {
+			if (pool != null) {
+				closedPool = pool;
+				closedSize = buffer.length;
+				pool.release(buffer);
+
+				/*
+				 * The pooled buffer may already be in use by another stream;
+				 * make sure a second close() or a stray write can never touch
+				 * it again.
+				 */
+				buffer = new byte[MIN_BUFFER_SIZE];
+				pool = null;
+			}
+		}
+	}
+
+	/**
+	 * Used to point this stream at a new sink so it can be re-used for the
+	 * next message (e.g. by a connection or worker thread) instead of
+	 * creating a new stream per message.
+	 * <p/>
+	 * The write count is cleared and any bytes not yet handed to the previous
+	 * sink are <strong>discarded</strong>; {@link #flush()} first to keep
+	 * them. The write buffer is kept and the previous sink is not closed.
+	 * <p/>
+	 * A stream that borrowed its buffer from a pool gives it back when it is
+	 * {@link #close() closed} and borrows a new one of the same size from the
+	 * same pool when it is reset afterwards.
+	 * 
+	 * @param out
+	 *            The stream to write to from now on.
+	 */
+	public void reset(OutputStream out) throws IllegalArgumentException {
+		if (out == null)
+			throw new IllegalArgumentException("out cannot be null");
+
+		this.out = out;
+
+		i = 0;
+		count = 0;
+
+		if (closedPool != null) {
+			pool = closedPool;
+			buffer = pool.acquire(closedSize);
+			closedPool = null;
+		}
+	}
+
+	/**
+	 * Used to get the pool this stream borrowed its buffer from.
+	 * 
+	 * @return the pool or <code>null</code> if this stream allocated its own
+	 *         buffer or has already been closed.
+	 */
+	public IBufferPool getBufferPool() {
+		return pool;
 	}
 
 	public long getWriteCount() {
@@ -104,53 +307,65 @@ public class UBJOutputStream extends FilterOutputStream {
 	}
 
 	public void writeEnd() throws IOException {
-		write(END);
+		writeMarkerImpl(END);
+		drain();
 	}
 
 	public void writeNoop() throws IOException {
-		write(NOOP);
+		writeMarkerImpl(NOOP);
+		drain();
 	}
 
 	public void writeNull() throws IOException {
-		write(NULL);
+		writeMarkerImpl(NULL);
+		drain();
 	}
 
 	public void writeBoolean(boolean value) throws IOException {
-		write(value ? TRUE : FALSE);
+		writeMarkerImpl(value ? TRUE : FALSE);
+		drain();
 	}
 
 	public void writeByte(byte value) throws IOException {
-		write(BYTE);
-		write(value);
+		ensureCapacity(2);
+		buffer[i++] = BYTE;
+		buffer[i++] = value;
+		count += 2;
+		drain();
 	}
 
 	public void writeInt16(short value) throws IOException {
-		write(INT16);
+		writeMarkerImpl(INT16);
 		writeInt16Impl(value);
+		drain();
 	}
 
 	public void writeInt32(int value) throws IOException {
-		write(INT32);
+		writeMarkerImpl(INT32);
 		writeInt32Impl(value);
+		drain();
 	}
 
 	public void writeInt64(long value) throws IOException {
-		write(INT64);
+		writeMarkerImpl(INT64);
 		writeInt64Impl(value);
+		drain();
 	}
 
 	public void writeFloat(float value) throws IOException {
-		write(FLOAT);
+		writeMarkerImpl(FLOAT);
 
 		// IEEE 754 single precision floating point format (as int).
 		writeInt32Impl(Float.floatToIntBits(value));
+		drain();
 	}
 
 	public void writeDouble(double value) throws IOException {
-		write(DOUBLE);
+		writeMarkerImpl(DOUBLE);
 
 		// IEEE 754 double precision floating point format (as long).
 		writeInt64Impl(Double.doubleToLongBits(value));
+		drain();
 	}
 
 	public void writeHuge(CharBuffer huge) throws IllegalArgumentException,
@@ -158,19 +373,10 @@ public class UBJOutputStream extends FilterOutputStream {
 		if (huge == null)
 			throw new IllegalArgumentException("huge cannot be null");
 
-		int length = huge.remaining();
+		writeStringImpl(HUGE_COMPACT, HUGE, huge);
 
-		// Write header
-		if (length < 255) {
-			write(HUGE_COMPACT);
-			write(length);
-		} else {
-			write(HUGE);
-			writeInt32Impl(length);
-		}
-
-		// Write body
-		encoder.encode(huge, out);
+		// Mark the chars as consumed, same as an encode operation would.
+		huge.position(huge.limit());
 	}
 
 	public void writeHuge(BigInteger huge) throws IllegalArgumentException,
@@ -178,11 +384,7 @@ public class UBJOutputStream extends FilterOutputStream {
 		if (huge == null)
 			throw new IllegalArgumentException("huge cannot be null");
 
-		/*
-		 * Write body - CharBuffer uses a reflection-optimized wrapper for
-		 * String instances specifically.
-		 */
-		writeHuge(CharBuffer.wrap(huge.toString()));
+		writeStringImpl(HUGE_COMPACT, HUGE, huge.toString());
 	}
 
 	public void writeHuge(BigDecimal huge) throws IllegalArgumentException,
@@ -190,11 +392,7 @@ public class UBJOutputStream extends FilterOutputStream {
 		if (huge == null)
 			throw new IllegalArgumentException("huge cannot be null");
 
-		/*
-		 * Write body - CharBuffer uses a reflection-optimized wrapper for
-		 * String instances specifically.
-		 */
-		writeHuge(CharBuffer.wrap(huge.toString()));
+		writeStringImpl(HUGE_COMPACT, HUGE, huge.toString());
 	}
 
 	public void writeString(CharBuffer text) throws IllegalArgumentException,
@@ -202,19 +400,10 @@ public class UBJOutputStream extends FilterOutputStream {
 		if (text == null)
 			throw new IllegalArgumentException("text cannot be null");
 
-		int length = text.remaining();
+		writeStringImpl(STRING_COMPACT, STRING, text);
 
-		// Write header
-		if (length < 255) {
-			write(STRING_COMPACT);
-			write(length);
-		} else {
-			write(STRING);
-			writeInt32Impl(length);
-		}
-
-		// Write body
-		encoder.encode(text, out);
+		// Mark the chars as consumed, same as an encode operation would.
+		text.position(text.limit());
 	}
 
 	public void writeString(String text) throws IllegalArgumentException,
@@ -222,11 +411,7 @@ public class UBJOutputStream extends FilterOutputStream {
 		if (text == null)
 			throw new IllegalArgumentException("text cannot be null");
 
-		/*
-		 * Write body - CharBuffer uses a reflection-optimized wrapper for
-		 * String instances specifically.
-		 */
-		writeString(CharBuffer.wrap(text));
+		writeStringImpl(STRING_COMPACT, STRING, text);
 	}
 
 	public void writeArrayHeader(int elementCount)
@@ -235,73 +420,922 @@ public class UBJOutputStream extends FilterOutputStream {
 			throw new IllegalArgumentException("elementCount [" + elementCount
 					+ "] must be >= 0.");
 
+		writeArrayHeaderImpl(elementCount);
+		drain();
+	}
+
+	public void writeObjectHeader(int elementCount) throws IOException {
+		if (elementCount < 0)
+			throw new IllegalArgumentException("elementCount [" + elementCount
+					+ "] must be >= 0.");
+
 		/*
-		 * Streaming Support: If the element count is 255 or smaller, write it
-		 * out in compact representation. The value 255 (0xFF) specifically will
-		 * signify an unbounded container that must be terminated with a
-		 * trailing 'E' at some point.
+		 * Streaming Support: If the element count is smaller than 255, write
+		 * it out in compact representation. The compact value 255 (0xFF) is
+		 * reserved to signify an unbounded container (see
+		 * writeUnboundedObjectHeader()), so a count of exactly 255 is written
+		 * out in full.
 		 */
-		if (elementCount < 256) {
-			write(ARRAY_COMPACT);
-			write(elementCount);
+		if (elementCount < 255) {
+			writeMarkerImpl(OBJECT_COMPACT);
+			writeInt8Impl((byte) elementCount);
 		} else {
-			write(ARRAY);
+			writeMarkerImpl(OBJECT);
 			writeInt32Impl(elementCount);
 		}
+
+		drain();
 	}
 
-	public void writeObjectHeader(int elementCount) throws IOException {
+	/**
+	 * Used to write the header of an unbounded (streaming) ARRAY; one whose
+	 * number of elements is not known up front. The elements are written as
+	 * usual and the ARRAY must be terminated with a call to
+	 * {@link #writeEnd()}.
+	 */
+	public void writeUnboundedArrayHeader() throws IOException {
+		writeMarkerImpl(ARRAY_COMPACT);
+		writeInt8Impl((byte) 255);
+		drain();
+	}
+
+	/**
+	 * Used to write the header of an unbounded (streaming) OBJECT; one whose
+	 * number of name-value pairs is not known up front. The pairs are written
+	 * as usual and the OBJECT must be terminated with a call to
+	 * {@link #writeEnd()}.
+	 */
+	public void writeUnboundedObjectHeader() throws IOException {
+		writeMarkerImpl(OBJECT_COMPACT);
+		writeInt8Impl((byte) 255);
+		drain();
+	}
+
+	/**
+	 * Convenience method for {@link #writeArray(boolean[], int, int)} that
+	 * writes the whole array.
+	 */
+	public void writeArray(boolean[] values) throws IllegalArgumentException,
+			IOException {
+		if (values == null)
+			throw new IllegalArgumentException("values cannot be null");
+
+		writeArray(values, 0, values.length);
+	}
+
+	/**
+	 * Used to write an ARRAY (header and elements) containing the
+	 * <code>length</code> values starting at <code>offset</code> as TRUE and
+	 * FALSE markers. The result is identical to calling
+	 * {@link #writeArrayHeader(int)} followed by {@link #writeBoolean(boolean)}
+	 * for every value, but the markers are encoded directly into the write
+	 * buffer in one tight loop.
+	 */
+	public void writeArray(boolean[] values, int offset, int length)
+			throws IllegalArgumentException, IOException {
+		checkArrayRange(values, offset, length);
+		writeArrayHeaderImpl(length);
+		prepareBulk(length);
+
+		byte[] buffer = this.buffer;
+		int i = this.i;
+
+		for (int n = offset, end = offset + length; n < end; n++) {
+			if (i == buffer.length) {
+				this.i = i;
+				flushBuffer();
+				i = 0;
+			}
+
+			buffer[i++] = (values[n] ? TRUE : FALSE);
+		}
+
+		this.i = i;
+		count += length;
+		drain();
+	}
+
+	/**
+	 * Convenience method for {@link #writeArray(short[], int, int)} that
+	 * writes the whole array.
+	 */
+	public void writeArray(short[] values) throws IllegalArgumentException,
+			IOException {
+		if (values == null)
+			throw new IllegalArgumentException("values cannot be null");
+
+		writeArray(values, 0, values.length);
+	}
+
+	/**
+	 * Used to write an ARRAY (header and elements) containing the
+	 * <code>length</code> values starting at <code>offset</code> as INT16
+	 * values; identical to calling {@link #writeArrayHeader(int)} followed by
+	 * {@link #writeInt16(short)} for every value, without the per-value call overhead.
+	 */
+	public void writeArray(short[] values, int offset, int length)
+			throws IllegalArgumentException, IOException {
+		checkArrayRange(values, offset, length);
+		writeArrayHeaderImpl(length);
+		writeArrayBodyImpl(values, offset, length, true);
+		drain();
+	}
+
+	/**
+	 * Convenience method for {@link #writeTypedArray(short[], int, int)} that
+	 * writes the whole array.
+	 */
+	public void writeTypedArray(short[] values)
+			throws IllegalArgumentException, IOException {
+		if (values == null)
+			throw new IllegalArgumentException("values cannot be null");
+
+		writeTypedArray(values, 0, values.length);
+	}
+
+	/**
+	 * Used to write the <code>length</code> values starting at
+	 * <code>offset</code> as an optimized ARRAY of INT16 values; see
+	 * {@link #writeTypedArrayHeader(byte, int)}.
+	 */
+	public void writeTypedArray(short[] values, int offset, int length)
+			throws IllegalArgumentException, IOException {
+		checkArrayRange(values, offset, length);
+		writeTypedArrayHeaderImpl(INT16, length);
+		writeArrayBodyImpl(values, offset, length, false);
+		drain();
+	}
+
+	/**
+	 * Convenience method for {@link #writeArray(int[], int, int)} that
+	 * writes the whole array.
+	 */
+	public void writeArray(int[] values) throws IllegalArgumentException,
+			IOException {
+		if (values == null)
+			throw new IllegalArgumentException("values cannot be null");
+
+		writeArray(values, 0, values.length);
+	}
+
+	/**
+	 * Used to write an ARRAY (header and elements) containing the
+	 * <code>length</code> values starting at <code>offset</code> as INT32
+	 * values; identical to calling {@link #writeArrayHeader(int)} followed by
+	 * {@link #writeInt32(int)} for every value, without the per-value call overhead.
+	 */
+	public void writeArray(int[] values, int offset, int length)
+			throws IllegalArgumentException, IOException {
+		checkArrayRange(values, offset, length);
+		writeArrayHeaderImpl(length);
+		writeArrayBodyImpl(values, offset, length, true);
+		drain();
+	}
+
+	/**
+	 * Convenience method for {@link #writeTypedArray(int[], int, int)} that
+	 * writes the whole array.
+	 */
+	public void writeTypedArray(int[] values)
+			throws IllegalArgumentException, IOException {
+		if (values == null)
+			throw new IllegalArgumentException("values cannot be null");
+
+		writeTypedArray(values, 0, values.length);
+	}
+
+	/**
+	 * Used to write the <code>length</code> values starting at
+	 * <code>offset</code> as an optimized ARRAY of INT32 values; see
+	 * {@link #writeTypedArrayHeader(byte, int)}.
+	 */
+	public void writeTypedArray(int[] values, int offset, int length)
+			throws IllegalArgumentException, IOException {
+		checkArrayRange(values, offset, length);
+		writeTypedArrayHeaderImpl(INT32, length);
+		writeArrayBodyImpl(values, offset, length, false);
+		drain();
+	}
+
+	/**
+	 * Convenience method for {@link #writeArray(long[], int, int)} that
+	 * writes the whole array.
+	 */
+	public void writeArray(long[] values) throws IllegalArgumentException,
+			IOException {
+		if (values == null)
+			throw new IllegalArgumentException("values cannot be null");
+
+		writeArray(values, 0, values.length);
+	}
+
+	/**
+	 * Used to write an ARRAY (header and elements) containing the
+	 * <code>length</code> values starting at <code>offset</code> as INT64
+	 * values; identical to calling {@link #writeArrayHeader(int)} followed by
+	 * {@link #writeInt64(long)} for every value, without the per-value call overhead.
+	 */
+	public void writeArray(long[] values, int offset, int length)
+			throws IllegalArgumentException, IOException {
+		checkArrayRange(values, offset, length);
+		writeArrayHeaderImpl(length);
+		writeArrayBodyImpl(values, offset, length, true);
+		drain();
+	}
+
+	/**
+	 * Convenience method for {@link #writeTypedArray(long[], int, int)} that
+	 * writes the whole array.
+	 */
+	public void writeTypedArray(long[] values)
+			throws IllegalArgumentException, IOException {
+		if (values == null)
+			throw new IllegalArgumentException("values cannot be null");
+
+		writeTypedArray(values, 0, values.length);
+	}
+
+	/**
+	 * Used to write the <code>length</code> values starting at
+	 * <code>offset</code> as an optimized ARRAY of INT64 values; see
+	 * {@link #writeTypedArrayHeader(byte, int)}.
+	 */
+	public void writeTypedArray(long[] values, int offset, int length)
+			throws IllegalArgumentException, IOException {
+		checkArrayRange(values, offset, length);
+		writeTypedArrayHeaderImpl(INT64, length);
+		writeArrayBodyImpl(values, offset, length, false);
+		drain();
+	}
+
+	/**
+	 * Convenience method for {@link #writeArray(float[], int, int)} that
+	 * writes the whole array.
+	 */
+	public void writeArray(float[] values) throws IllegalArgumentException,
+			IOException {
+		if (values == null)
+			throw new IllegalArgumentException("values cannot be null");
+
+		writeArray(values, 0, values.length);
+	}
+
+	/**
+	 * Used to write an ARRAY (header and elements) containing the
+	 * <code>length</code> values starting at <code>offset</code> as FLOAT
+	 * values; identical to calling {@link #writeArrayHeader(int)} followed by
+	 * {@link #writeFloat(float)} for every value, without the per-value call overhead.
+	 */
+	public void writeArray(float[] values, int offset, int length)
+			throws IllegalArgumentException, IOException {
+		checkArrayRange(values, offset, length);
+		writeArrayHeaderImpl(length);
+		writeArrayBodyImpl(values, offset, length, true);
+		drain();
+	}
+
+	/**
+	 * Convenience method for {@link #writeTypedArray(float[], int, int)} that
+	 * writes the whole array.
+	 */
+	public void writeTypedArray(float[] values)
+			throws IllegalArgumentException, IOException {
+		if (values == null)
+			throw new IllegalArgumentException("values cannot be null");
+
+		writeTypedArray(values, 0, values.length);
+	}
+
+	/**
+	 * Used to write the <code>length</code> values starting at
+	 * <code>offset</code> as an optimized ARRAY of FLOAT values; see
+	 * {@link #writeTypedArrayHeader(byte, int)}.
+	 */
+	public void writeTypedArray(float[] values, int offset, int length)
+			throws IllegalArgumentException, IOException {
+		checkArrayRange(values, offset, length);
+		writeTypedArrayHeaderImpl(FLOAT, length);
+		writeArrayBodyImpl(values, offset, length, false);
+		drain();
+	}
+
+	/**
+	 * Convenience method for {@link #writeArray(double[], int, int)} that
+	 * writes the whole array.
+	 */
+	public void writeArray(double[] values) throws IllegalArgumentException,
+			IOException {
+		if (values == null)
+			throw new IllegalArgumentException("values cannot be null");
+
+		writeArray(values, 0, values.length);
+	}
+
+	/**
+	 * Used to write an ARRAY (header and elements) containing the
+	 * <code>length</code> values starting at <code>offset</code> as DOUBLE
+	 * values; identical to calling {@link #writeArrayHeader(int)} followed by
+	 * {@link #writeDouble(double)} for every value, without the per-value call overhead.
+	 */
+	public void writeArray(double[] values, int offset, int length)
+			throws IllegalArgumentException, IOException {
+		checkArrayRange(values, offset, length);
+		writeArrayHeaderImpl(length);
+		writeArrayBodyImpl(values, offset, length, true);
+		drain();
+	}
+
+	/**
+	 * Convenience method for {@link #writeTypedArray(double[], int, int)} that
+	 * writes the whole array.
+	 */
+	public void writeTypedArray(double[] values)
+			throws IllegalArgumentException, IOException {
+		if (values == null)
+			throw new IllegalArgumentException("values cannot be null");
+
+		writeTypedArray(values, 0, values.length);
+	}
+
+	/**
+	 * Used to write the <code>length</code> values starting at
+	 * <code>offset</code> as an optimized ARRAY of DOUBLE values; see
+	 * {@link #writeTypedArrayHeader(byte, int)}.
+	 */
+	public void writeTypedArray(double[] values, int offset, int length)
+			throws IllegalArgumentException, IOException {
+		checkArrayRange(values, offset, length);
+		writeTypedArrayHeaderImpl(DOUBLE, length);
+		writeArrayBodyImpl(values, offset, length, false);
+		drain();
+	}
+
+	/**
+	 * Convenience method for {@link #writeTypedArray(byte[], int, int)} that
+	 * writes the whole array.
+	 */
+	public void writeTypedArray(byte[] values) throws IllegalArgumentException,
+			IOException {
+		if (values == null)
+			throw new IllegalArgumentException("values cannot be null");
+
+		writeTypedArray(values, 0, values.length);
+	}
+
+	/**
+	 * Used to write the <code>length</code> values starting at
+	 * <code>offset</code> as an optimized ARRAY of BYTE values; the body is
+	 * the raw bytes themselves, so this is the most compact way to write
+	 * binary data.
+	 */
+	public void writeTypedArray(byte[] values, int offset, int length)
+			throws IllegalArgumentException, IOException {
+		checkArrayRange(values, offset, length);
+		writeTypedArrayHeaderImpl(BYTE, length);
+
+		if (length > buffer.length - i) {
+			// Hand large bodies to the underlying stream directly.
+			flushBuffer();
+			out.write(values, offset, length);
+		} else {
+			System.arraycopy(values, offset, buffer, i, length);
+			i += length;
+		}
+
+		count += length;
+		drain();
+	}
+
+	/**
+	 * Used to write the header of an optimized ARRAY: the
+	 * {@link IUBJTypeMarker#ARRAY_OPTIMIZED} marker, the
+	 * {@link IUBJTypeMarker#CONTAINER_TYPE} marker followed by the type marker
+	 * shared by every element, and the {@link IUBJTypeMarker#CONTAINER_COUNT}
+	 * marker followed by the number of elements as an integer value.
+	 * <p/>
+	 * The <code>elementCount</code> elements that follow are written without
+	 * their type markers, e.g. as the 4 raw bytes of each INT32; only the
+	 * fixed-size numeric types (BYTE, INT16, INT32, INT64, FLOAT and DOUBLE)
+	 * can be used as the element type.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>type</code> is not one of the fixed-size numeric
+	 *             type markers or <code>elementCount</code> is &lt; 0.
+	 */
+	public void writeTypedArrayHeader(byte type, int elementCount)
+			throws IllegalArgumentException, IOException {
+		writeTypedArrayHeaderImpl(type, elementCount);
+		drain();
+	}
+
+	/**
+	 * Used to encode the given range of values as INT16 array elements
+	 * directly into the write buffer, each one preceded by its type marker if
+	 * <code>markers</code> is <code>true</code>.
+	 */
+	protected void writeArrayBodyImpl(short[] values, int offset, int length,
+			boolean markers) throws IOException {
+		int size = (markers ? 2 + 1 : 2);
+		prepareBulk((long) length * size);
+
+		byte[] buffer = this.buffer;
+		int i = this.i;
+
+		for (int n = offset, end = offset + length; n < end; n++) {
+			if (buffer.length - i < size) {
+				this.i = i;
+				flushBuffer();
+				i = 0;
+			}
+
+			if (markers)
+				buffer[i++] = INT16;
+
+			short value = values[n];
+
+			buffer[i] = (byte) ((value >>> 8) & 0xFF);
+			buffer[i + 1] = (byte) ((value >>> 0) & 0xFF);
+			i += 2;
+		}
+
+		this.i = i;
+		count += (long) length * size;
+	}
+
+	/**
+	 * Used to encode the given range of values as INT32 array elements
+	 * directly into the write buffer, each one preceded by its type marker if
+	 * <code>markers</code> is <code>true</code>.
+	 */
+	protected void writeArrayBodyImpl(int[] values, int offset, int length,
+			boolean markers) throws IOException {
+		int size = (markers ? 4 + 1 : 4);
+		prepareBulk((long) length * size);
+
+		byte[] buffer = this.buffer;
+		int i = this.i;
+
+		for (int n = offset, end = offset + length; n < end; n++) {
+			if (buffer.length - i < size) {
+				this.i = i;
+				flushBuffer();
+				i = 0;
+			}
+
+			if (markers)
+				buffer[i++] = INT32;
+
+			int value = values[n];
+
+			buffer[i] = (byte) ((value >>> 24) & 0xFF);
+			buffer[i + 1] = (byte) ((value >>> 16) & 0xFF);
+			buffer[i + 2] = (byte) ((value >>> 8) & 0xFF);
+			buffer[i + 3] = (byte) ((value >>> 0) & 0xFF);
+			i += 4;
+		}
+
+		this.i = i;
+		count += (long) length * size;
+	}
+
+	/**
+	 * Used to encode the given range of values as INT64 array elements
+	 * directly into the write buffer, each one preceded by its type marker if
+	 * <code>markers</code> is <code>true</code>.
+	 */
+	protected void writeArrayBodyImpl(long[] values, int offset, int length,
+			boolean markers) throws IOException {
+		int size = (markers ? 8 + 1 : 8);
+		prepareBulk((long) length * size);
+
+		byte[] buffer = this.buffer;
+		int i = this.i;
+
+		for (int n = offset, end = offset + length; n < end; n++) {
+			if (buffer.length - i < size) {
+				this.i = i;
+				flushBuffer();
+				i = 0;
+			}
+
+			if (markers)
+				buffer[i++] = INT64;
+
+			long value = values[n];
+
+			buffer[i] = (byte) (value >>> 56);
+			buffer[i + 1] = (byte) (value >>> 48);
+			buffer[i + 2] = (byte) (value >>> 40);
+			buffer[i + 3] = (byte) (value >>> 32);
+			buffer[i + 4] = (byte) (value >>> 24);
+			buffer[i + 5] = (byte) (value >>> 16);
+			buffer[i + 6] = (byte) (value >>> 8);
+			buffer[i + 7] = (byte) (value >>> 0);
+			i += 8;
+		}
+
+		this.i = i;
+		count += (long) length * size;
+	}
+
+	/**
+	 * Used to encode the given range of values as FLOAT array elements
+	 * directly into the write buffer, each one preceded by its type marker if
+	 * <code>markers</code> is <code>true</code>.
+	 */
+	protected void writeArrayBodyImpl(float[] values, int offset, int length,
+			boolean markers) throws IOException {
+		int size = (markers ? 4 + 1 : 4);
+		prepareBulk((long) length * size);
+
+		byte[] buffer = this.buffer;
+		int i = this.i;
+
+		for (int n = offset, end = offset + length; n < end; n++) {
+			if (buffer.length - i < size) {
+				this.i = i;
+				flushBuffer();
+				i = 0;
+			}
+
+			if (markers)
+				buffer[i++] = FLOAT;
+
+			int value = Float.floatToIntBits(values[n]);
+
+			buffer[i] = (byte) ((value >>> 24) & 0xFF);
+			buffer[i + 1] = (byte) ((value >>> 16) & 0xFF);
+			buffer[i + 2] = (byte) ((value >>> 8) & 0xFF);
+			buffer[i + 3] = (byte) ((value >>> 0) & 0xFF);
+			i += 4;
+		}
+
+		this.i = i;
+		count += (long) length * size;
+	}
+
+	/**
+	 * Used to encode the given range of values as DOUBLE array elements
+	 * directly into the write buffer, each one preceded by its type marker if
+	 * <code>markers</code> is <code>true</code>.
+	 */
+	protected void writeArrayBodyImpl(double[] values, int offset, int length,
+			boolean markers) throws IOException {
+		int size = (markers ? 8 + 1 : 8);
+		prepareBulk((long) length * size);
+
+		byte[] buffer = this.buffer;
+		int i = this.i;
+
+		for (int n = offset, end = offset + length; n < end; n++) {
+			if (buffer.length - i < size) {
+				this.i = i;
+				flushBuffer();
+				i = 0;
+			}
+
+			if (markers)
+				buffer[i++] = DOUBLE;
+
+			long value = Double.doubleToLongBits(values[n]);
+
+			buffer[i] = (byte) (value >>> 56);
+			buffer[i + 1] = (byte) (value >>> 48);
+			buffer[i + 2] = (byte) (value >>> 40);
+			buffer[i + 3] = (byte) (value >>> 32);
+			buffer[i + 4] = (byte) (value >>> 24);
+			buffer[i + 5] = (byte) (value >>> 16);
+			buffer[i + 6] = (byte) (value >>> 8);
+			buffer[i + 7] = (byte) (value >>> 0);
+			i += 8;
+		}
+
+		this.i = i;
+		count += (long) length * size;
+	}
+
+
+	/**
+	 * Used to validate the <code>offset</code> and <code>length</code> of the
+	 * range of a primitive array passed to one of the bulk
+	 * <code>writeArray(...)</code> methods.
+	 */
+	protected void checkArrayRange(Object values, int offset, int length)
+			throws IllegalArgumentException {
+		if (values == null)
+			throw new IllegalArgumentException("values cannot be null");
+
+		int arrayLength = Array.getLength(values);
+
+		if (offset < 0 || length < 0 || (offset + length) > arrayLength)
+			throw new IllegalArgumentException("offset [" + offset
+					+ "] and length [" + length
+					+ "] must be >= 0 and (offset + length) must be <= values.length ["
+					+ arrayLength + "]");
+	}
+
+	/**
+	 * Used before encoding <code>bytes</code> bytes of array elements in bulk;
+	 * unbuffered streams only have a tiny scratch buffer, so it is grown to
+	 * {@link #BUFFER_SIZE} for large arrays so the elements are handed to the
+	 * underlying stream in a few large writes instead of one per element.
+	 */
+	protected void prepareBulk(long bytes) throws IOException {
+		if (!buffered && bytes > buffer.length - i
+				&& buffer.length < BUFFER_SIZE) {
+			flushBuffer();
+
+			// Always leave room for the widest element.
+			growBuffer(Math.max((int) Math.min(bytes, BUFFER_SIZE),
+					MIN_BUFFER_SIZE));
+		}
+	}
+
+	/**
+	 * Used to write a STRING or HUGE value (header and UTF-8 body) for the
+	 * given chars. The header length is the exact UTF-8 <em>byte</em> length
+	 * of the body, not the number of chars.
+	 * <p/>
+	 * When the worst-case encoded size (3 bytes per char) fits in the write
+	 * buffer, the body is encoded directly into the buffer after a
+	 * placeholder header in a single pass and the header is filled in
+	 * afterwards. Longer text has its exact length calculated up front and is
+	 * then encoded straight into the write buffer in slices, writing the
+	 * buffer out to the underlying stream as it fills up.
+	 */
+	protected void writeStringImpl(byte compactMarker, byte marker,
+			CharSequence text) throws IOException {
+		int length = text.length();
+		int max = length * 3;
+
+		// Make room for the single-pass encode if we can.
+		if (length <= MAX_SINGLE_PASS_LENGTH && max + 5 > buffer.length - i) {
+			flushBuffer();
+
+			/*
+			 * Unbuffered streams only have a tiny scratch buffer; grow it to
+			 * fit moderately sized strings so they take the fast path too.
+			 */
+			if (!buffered && max + 5 > buffer.length && max + 5 <= BUFFER_SIZE)
+				growBuffer(max + 5);
+		}
+
+		if (length <= MAX_SINGLE_PASS_LENGTH && max + 5 <= buffer.length - i) {
+			byte[] buffer = this.buffer;
+			int i = this.i;
+
+			if (max < 255) {
+				// Compact header guaranteed; encode after a 2-byte header.
+				int end = UTF8Encoder.encode(text, 0, length, buffer, i + 2);
+				int bytes = end - (i + 2);
+
+				buffer[i] = compactMarker;
+				buffer[i + 1] = (byte) bytes;
+
+				this.i = end;
+				count += bytes + 2;
+			} else {
+				// Encode after room for the larger 5-byte header.
+				int end = UTF8Encoder.encode(text, 0, length, buffer, i + 5);
+				int bytes = end - (i + 5);
+
+				if (bytes < 255) {
+					// It still fit in a compact header; slide it back 3 bytes.
+					System.arraycopy(buffer, i + 5, buffer, i + 2, bytes);
+					buffer[i] = compactMarker;
+					buffer[i + 1] = (byte) bytes;
+
+					this.i = i + 2 + bytes;
+					count += bytes + 2;
+				} else {
+					buffer[i] = marker;
+					buffer[i + 1] = (byte) ((bytes >>> 24) & 0xFF);
+					buffer[i + 2] = (byte) ((bytes >>> 16) & 0xFF);
+					buffer[i + 3] = (byte) ((bytes >>> 8) & 0xFF);
+					buffer[i + 4] = (byte) ((bytes >>> 0) & 0xFF);
+
+					this.i = end;
+					count += bytes + 5;
+				}
+			}
+		} else {
+			int bytes = UTF8Encoder.length(text, 0, length);
+
+			// Don't encode a large body through the tiny unbuffered scratch.
+			if (!buffered && buffer.length < BUFFER_SIZE) {
+				flushBuffer();
+				growBuffer(BUFFER_SIZE);
+			}
+
+			// Write header
+			if (bytes < 255) {
+				writeMarkerImpl(compactMarker);
+				writeInt8Impl((byte) bytes);
+			} else {
+				writeMarkerImpl(marker);
+				writeInt32Impl(bytes);
+			}
+
+			// Write body, one buffer-full at a time.
+			for (int from = 0; from < length;) {
+				int room = buffer.length - i;
+
+				if (room < 6) {
+					flushBuffer();
+					room = buffer.length;
+				}
+
+				// Leave room for a trailing surrogate pair (4 bytes).
+				int to = from + Math.min(length - from, (room - 3) / 3);
+
+				// Never split a surrogate pair across slices.
+				if (to < length && Character.isHighSurrogate(text.charAt(to - 1)))
+					to++;
+
+				i = UTF8Encoder.encode(text, from, to, buffer, i);
+				from = to;
+			}
+
+			count += bytes;
+		}
+
+		drain();
+	}
+
+	protected void writeArrayHeaderImpl(int elementCount) throws IOException {
+		/*
+		 * Streaming Support: If the element count is smaller than 255, write
+		 * it out in compact representation. The compact value 255 (0xFF) is
+		 * reserved to signify an unbounded container (see
+		 * writeUnboundedArrayHeader()), so a count of exactly 255 is written
+		 * out in full.
+		 */
+		if (elementCount < 255) {
+			writeMarkerImpl(ARRAY_COMPACT);
+			writeInt8Impl((byte) elementCount);
+		} else {
+			writeMarkerImpl(ARRAY);
+			writeInt32Impl(elementCount);
+		}
+	}
+
+	protected void writeTypedArrayHeaderImpl(byte type, int elementCount)
+			throws IllegalArgumentException, IOException {
+		if (type != BYTE && type != INT16 && type != INT32 && type != INT64
+				&& type != FLOAT && type != DOUBLE)
+			throw new IllegalArgumentException("type [" + type + " (char='"
+					+ ((char) type)
+					+ "')] must be one of the fixed-size numeric type markers.");
 		if (elementCount < 0)
 			throw new IllegalArgumentException("elementCount [" + elementCount
 					+ "] must be >= 0.");
 
-		/*
-		 * Streaming Support: If the element count is 255 or smaller, write it
-		 * out in compact representation. The value 255 (0xFF) specifically will
-		 * signify an unbounded container that must be terminated with a
-		 * trailing 'E' at some point.
-		 */
-		if (elementCount < 256) {
-			write(OBJECT_COMPACT);
-			write(elementCount);
+		ensureCapacity(8);
+		buffer[i++] = ARRAY_OPTIMIZED;
+		buffer[i++] = CONTAINER_TYPE;
+		buffer[i++] = type;
+		buffer[i++] = CONTAINER_COUNT;
+		count += 4;
+
+		// Count is written using the smallest integer type that holds it.
+		if (elementCount <= Byte.MAX_VALUE) {
+			writeMarkerImpl(BYTE);
+			writeInt8Impl((byte) elementCount);
+		} else if (elementCount <= Short.MAX_VALUE) {
+			writeMarkerImpl(INT16);
+			writeInt16Impl((short) elementCount);
 		} else {
-			write(OBJECT);
+			writeMarkerImpl(INT32);
 			writeInt32Impl(elementCount);
 		}
 	}
 
+	protected void writeMarkerImpl(byte marker) throws IOException {
+		ensureCapacity(1);
+		buffer[i++] = marker;
+		count++;
+	}
+
+	protected void writeInt8Impl(byte value) throws IOException {
+		ensureCapacity(1);
+		buffer[i++] = value;
+		count++;
+	}
+
 	protected void writeInt16Impl(short value) throws IOException {
-		// Fill write buffer
-		buffer[0] = (byte) ((value >>> 8) & 0xFF);
-		buffer[1] = (byte) ((value >>> 0) & 0xFF);
+		ensureCapacity(2);
+
+		// Encode directly into the write buffer.
+		byte[] buffer = this.buffer;
+		int i = this.i;
 
-		// Write it in one chunk.
-		write(buffer, 0, 2);
+		buffer[i] = (byte) ((value >>> 8) & 0xFF);
+		buffer[i + 1] = (byte) ((value >>> 0) & 0xFF);
+
+		this.i = i + 2;
+		count += 2;
 	}
 
 	protected void writeInt32Impl(int value) throws IOException {
-		// Fill write buffer
-		buffer[0] = (byte) ((value >>> 24) & 0xFF);
-		buffer[1] = (byte) ((value >>> 16) & 0xFF);
-		buffer[2] = (byte) ((value >>> 8) & 0xFF);
-		buffer[3] = (byte) ((value >>> 0) & 0xFF);
+		ensureCapacity(4);
+
+		// Encode directly into the write buffer.
+		byte[] buffer = this.buffer;
+		int i = this.i;
 
-		// Write it in one chunk.
-		write(buffer, 0, 4);
+		buffer[i] = (byte) ((value >>> 24) & 0xFF);
+		buffer[i + 1] = (byte) ((value >>> 16) & 0xFF);
+		buffer[i + 2] = (byte) ((value >>> 8) & 0xFF);
+		buffer[i + 3] = (byte) ((value >>> 0) & 0xFF);
+
+		this.i = i + 4;
+		count += 4;
 	}
 
 	protected void writeInt64Impl(long value) throws IOException {
-		// Fill write buffer
-		buffer[0] = (byte) (value >>> 56);
-		buffer[1] = (byte) (value >>> 48);
-		buffer[2] = (byte) (value >>> 40);
-		buffer[3] = (byte) (value >>> 32);
-		buffer[4] = (byte) (value >>> 24);
-		buffer[5] = (byte) (value >>> 16);
-		buffer[6] = (byte) (value >>> 8);
-		buffer[7] = (byte) (value >>> 0);
-
-		// Write it in one chunk
-		write(buffer, 0, 8);
-	}
-}
\ No newline at end of file
+		ensureCapacity(8);
+
+		// Encode directly into the write buffer.
+		byte[] buffer = this.buffer;
+		int i = this.i;
+
+		buffer[i] = (byte) (value >>> 56);
+		buffer[i + 1] = (byte) (value >>> 48);
+		buffer[i + 2] = (byte) (value >>> 40);
+		buffer[i + 3] = (byte) (value >>> 32);
+		buffer[i + 4] = (byte) (value >>> 24);
+		buffer[i + 5] = (byte) (value >>> 16);
+		buffer[i + 6] = (byte) (value >>> 8);
+		buffer[i + 7] = (byte) (value >>> 0);
+
+		this.i = i + 8;
+		count += 8;
+	}
+
+	/**
+	 * Used to make sure there are at least <code>length</code> free bytes at
+	 * the end of the write buffer, writing out the pending bytes to the
+	 * underlying stream first if there isn't enough room left.
+	 * <p/>
+	 * The buffer is only ever grown when a single construct is bigger than
+	 * the entire buffer.
+	 */
+	protected void ensureCapacity(int length) throws IOException {
+		if (length <= buffer.length - i)
+			return;
+
+		flushBuffer();
+
+		if (length > buffer.length)
+			growBuffer(length);
+	}
+
+	/**
+	 * Used to replace the (empty) write buffer with one of at least
+	 * <code>length</code> bytes, borrowed from the pool if this stream has
+	 * one; the old buffer is given back to the pool if it was borrowed from
+	 * it.
+	 * <p/>
+	 * Unbuffered streams start out with a small scratch buffer of their own
+	 * and only borrow from the {@link BufferPools#getDefault()} pool once it
+	 * has to grow.
+	 */
+	protected void growBuffer(int length) {
+		IBufferPool source = (pool == null && !buffered ? BufferPools
+				.getDefault() : pool);
+
+		if (source == null)
+			buffer = new byte[length];
+		else {
+			byte[] old = buffer;
+			buffer = source.acquire(length);
+
+			if (pool != null)
+				pool.release(old);
+
+			pool = source;
+		}
+	}
+
+	/**
+	 * Called at the end of every value written to this stream. In buffered
+	 * mode this is a no-op; otherwise the bytes of the value are handed to the
+	 * underlying stream right away so that nothing is held back between
+	 * calls.
+	 */
+	protected void drain() throws IOException {
+		if (!buffered && i > 0)
+			flushBuffer();
+	}
+
+	/**
+	 * Used to write all the pending bytes in the write buffer out to the
+	 * underlying stream.
+	 */
+	protected void flushBuffer() throws IOException {
+		if (i > 0) {
+			out.write(buffer, 0, i);
+			i = 0;
+		}
+	}
+}
@@ -0,0 +1,549 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import static org.ubjson.io.IUBJTypeMarker.ARRAY;
+import static org.ubjson.io.IUBJTypeMarker.ARRAY_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.ARRAY_OPTIMIZED;
+import static org.ubjson.io.IUBJTypeMarker.BYTE;
+import static org.ubjson.io.IUBJTypeMarker.DOUBLE;
+import static org.ubjson.io.IUBJTypeMarker.END;
+import static org.ubjson.io.IUBJTypeMarker.FALSE;
+import static org.ubjson.io.IUBJTypeMarker.FLOAT;
+import static org.ubjson.io.IUBJTypeMarker.HUGE;
+import static org.ubjson.io.IUBJTypeMarker.HUGE_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.INT16;
+import static org.ubjson.io.IUBJTypeMarker.INT32;
+import static org.ubjson.io.IUBJTypeMarker.INT64;
+import static org.ubjson.io.IUBJTypeMarker.NULL;
+import static org.ubjson.io.IUBJTypeMarker.OBJECT;
+import static org.ubjson.io.IUBJTypeMarker.OBJECT_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.STRING;
+import static org.ubjson.io.IUBJTypeMarker.STRING_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.TRUE;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Class used to read a stream of Universal Binary JSON values as a flat
+ * sequence of {@link Token}s (e.g. {@link Token#START_OBJECT},
+ * {@link Token#FIELD_NAME}, {@link Token#VALUE_NUMBER_INT} ...
+ * {@link Token#END_OBJECT}) instead of as a tree of values.
+ * <p/>
+ * The parser keeps track of the containers it is in for the caller: counted
+ * containers are closed (with an <code>END_XXX</code> token) once their last
+ * child has been read and unbounded ones when their END marker is reached, so
+ * a consumer only ever has to react to the tokens it gets. The location of
+ * the current token is available from {@link #getDepth()} and
+ * {@link #getPath()}.
+ * <p/>
+ * Values are decoded as their token is reached and held in reusable fields:
+ * numeric values are available through primitive getters (e.g.
+ * {@link #getInt()}, {@link #getDouble()}) without being boxed and STRING and
+ * HUGE values are decoded into a reusable {@link CharBuffer} (see
+ * {@link #getTextChars()}). Field names are read with
+ * {@link UBJInputStream#readKey()}, so repeated names are not re-created.
+ * <p/>
+ * Instances of this class are not thread-safe.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class UBJPullParser {
+	public enum Token {
+		START_ARRAY, END_ARRAY, START_OBJECT, END_OBJECT, FIELD_NAME,
+		VALUE_NULL, VALUE_TRUE, VALUE_FALSE, VALUE_NUMBER_INT,
+		VALUE_NUMBER_FLOAT, VALUE_HUGE, VALUE_STRING,
+
+		/**
+		 * Only returned by {@link UBJFeedParser}; the next token is not
+		 * complete in the input fed so far.
+		 */
+		NOT_AVAILABLE;
+	}
+
+	protected UBJInputStreamParser in;
+
+	protected Token token;
+	protected byte type = -1;
+
+	// Value of the current token; only the one matching the token is valid.
+	protected long longValue;
+	protected double doubleValue;
+	protected CharBuffer chars;
+
+	/*
+	 * One entry per open container: whether it is an OBJECT, how many
+	 * children (entries for objects) are left to read (-1 for unbounded), the
+	 * index of the current element (arrays) or the name of the current field
+	 * (objects) and whether that field's value still has to be read.
+	 */
+	protected int depth;
+	protected boolean[] objects;
+	protected int[] remaining;
+	protected int[] indexes;
+	protected String[] names;
+	protected boolean[] pendingValues;
+
+	public UBJPullParser(InputStream in) throws IllegalArgumentException {
+		this(in instanceof UBJInputStreamParser ? (UBJInputStreamParser) in
+				: new UBJInputStreamParser(in));
+	}
+
+	public UBJPullParser(UBJInputStreamParser in)
+			throws IllegalArgumentException {
+		this();
+
+		if (in == null)
+			throw new IllegalArgumentException("in cannot be null");
+
+		this.in = in;
+	}
+
+	/**
+	 * Constructor for subclasses that are not backed by a
+	 * {@link UBJInputStreamParser} (e.g. {@link UBJFeedParser}); they must
+	 * override every method that reads from {@link #in}.
+	 */
+	protected UBJPullParser() {
+		chars = CharBuffer.allocate(64);
+		objects = new boolean[16];
+		remaining = new int[16];
+		indexes = new int[16];
+		names = new String[16];
+		pendingValues = new boolean[16];
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Used to get the stream this parser reads from.
+	 */
+	public UBJInputStreamParser getInputStream() {
+		return in;
+	}
+
+	/**
+	 * Used to advance to the next token in the stream.
+	 * 
+	 * @return the next token or <code>null</code> if the end of the stream was
+	 *         reached in between top-level values.
+	 * 
+	 * @throws IOException
+	 *             if any exception bubbles up from the underlying stream.
+	 * @throws UBJFormatException
+	 *             if the stream contains invalid data or ends in the middle of
+	 *             a container.
+	 */
+	public Token nextToken() throws IOException, UBJFormatException {
+		type = -1;
+
+		if (depth == 0) {
+			byte next = in.nextType();
+			return (token = (next == -1 ? null : readValue(next)));
+		}
+
+		int d = depth - 1;
+
+		// The name of this field was the last token; now its value.
+		if (pendingValues[d]) {
+			pendingValues[d] = false;
+			return (token = readValue(nextType()));
+		}
+
+		// Counted container with nothing left in it.
+		if (remaining[d] == 0)
+			return (token = closeContainer());
+
+		byte next = nextType();
+
+		if (remaining[d] == -1) {
+			if (next == END) {
+				in.readEnd();
+				return (token = closeContainer());
+			}
+		} else
+			remaining[d]--;
+
+		if (objects[d]) {
+			names[d] = in.readKey();
+			pendingValues[d] = true;
+			return (token = Token.FIELD_NAME);
+		}
+
+		indexes[d]++;
+		return (token = readValue(next));
+	}
+
+	/**
+	 * Used to skip all the children of the container whose
+	 * {@link Token#START_ARRAY} or {@link Token#START_OBJECT} token is the
+	 * current token, leaving the parser on its matching <code>END_XXX</code>
+	 * token. Does nothing if the current token is not a start token.
+	 */
+	public void skipChildren() throws IOException, UBJFormatException {
+		if (token != Token.START_ARRAY && token != Token.START_OBJECT)
+			return;
+
+		for (int end = depth - 1; depth > end;)
+			nextToken();
+	}
+
+	/**
+	 * Used to get the token returned by the last call to {@link #nextToken()}.
+	 */
+	public Token getToken() {
+		return token;
+	}
+
+	/**
+	 * Used to get the type marker of the value the current token was read
+	 * from (e.g. {@link IUBJTypeMarker#INT16} for a
+	 * {@link Token#VALUE_NUMBER_INT} read from an INT16), or <code>-1</code>
+	 * if the current token is a {@link Token#FIELD_NAME} or
+	 * <code>END_XXX</code> token.
+	 */
+	public byte getType() {
+		return type;
+	}
+
+	/**
+	 * Used to get the number of containers that are currently open; a
+	 * {@link Token#START_ARRAY} or {@link Token#START_OBJECT} token counts the
+	 * container it opens, an <code>END_XXX</code> token does not count the
+	 * container it closes.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Used to get the location of the current token in the document, e.g.
+	 * <code>$.statuses[3].user.id</code>; <code>$</code> is the top-level
+	 * value. For <code>START_XXX</code> and <code>END_XXX</code> tokens this
+	 * is the location of the container itself.
+	 * <p/>
+	 * The path is built on every call; use {@link #getDepth()},
+	 * {@link #getFieldName()} and {@link #getIndex()} to track the location
+	 * without creating any objects.
+	 */
+	public String getPath() {
+		StringBuilder path = new StringBuilder("$");
+
+		for (int d = 0, level = getLevel(); d <= level; d++) {
+			if (objects[d])
+				path.append('.').append(names[d]);
+			else
+				path.append('[').append(indexes[d]).append(']');
+		}
+
+		return path.toString();
+	}
+
+	/**
+	 * Used to get the name of the field the current token belongs to (the
+	 * {@link Token#FIELD_NAME} itself or its value) or <code>null</code> if
+	 * the current token is not directly inside an OBJECT.
+	 */
+	public String getFieldName() {
+		int d = getLevel();
+		return (d >= 0 && objects[d] ? names[d] : null);
+	}
+
+	/**
+	 * Used to get the index of the current token in the ARRAY it is directly
+	 * inside of, or <code>-1</code> if it is not directly inside an ARRAY.
+	 */
+	public int getIndex() {
+		int d = getLevel();
+		return (d >= 0 && !objects[d] ? indexes[d] : -1);
+	}
+
+	/**
+	 * Used to get the number of children (entries for an OBJECT) of the
+	 * container opened by the current token, or <code>-1</code> if it is
+	 * unbounded.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the current token is not a <code>START_XXX</code> token.
+	 */
+	public int getLength() throws IllegalStateException {
+		if (token != Token.START_ARRAY && token != Token.START_OBJECT)
+			throw new IllegalStateException("Current token [" + token
+					+ "] is not a START_ARRAY or START_OBJECT token.");
+
+		return (int) longValue;
+	}
+
+	public boolean getBoolean() throws IllegalStateException {
+		if (token != Token.VALUE_TRUE && token != Token.VALUE_FALSE)
+			throw new IllegalStateException("Current token [" + token
+					+ "] is not a VALUE_TRUE or VALUE_FALSE token.");
+
+		return (token == Token.VALUE_TRUE);
+	}
+
+	public byte getByte() throws IllegalStateException {
+		return (byte) getLong();
+	}
+
+	public short getShort() throws IllegalStateException {
+		return (short) getLong();
+	}
+
+	public int getInt() throws IllegalStateException {
+		return (int) getLong();
+	}
+
+	/**
+	 * Used to get the value of the current numeric token as a
+	 * <code>long</code>; FLOAT and DOUBLE values are truncated.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the current token is not a
+	 *             {@link Token#VALUE_NUMBER_INT} or
+	 *             {@link Token#VALUE_NUMBER_FLOAT} token.
+	 */
+	public long getLong() throws IllegalStateException {
+		if (token == Token.VALUE_NUMBER_INT)
+			return longValue;
+		else if (token == Token.VALUE_NUMBER_FLOAT)
+			return (long) doubleValue;
+		else
+			throw new IllegalStateException("Current token [" + token
+					+ "] is not a numeric token.");
+	}
+
+	public float getFloat() throws IllegalStateException {
+		return (float) getDouble();
+	}
+
+	/**
+	 * Used to get the value of the current numeric token as a
+	 * <code>double</code>.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the current token is not a
+	 *             {@link Token#VALUE_NUMBER_INT} or
+	 *             {@link Token#VALUE_NUMBER_FLOAT} token.
+	 */
+	public double getDouble() throws IllegalStateException {
+		if (token == Token.VALUE_NUMBER_FLOAT)
+			return doubleValue;
+		else if (token == Token.VALUE_NUMBER_INT)
+			return longValue;
+		else
+			throw new IllegalStateException("Current token [" + token
+					+ "] is not a numeric token.");
+	}
+
+	/**
+	 * Used to get the value of the current {@link Token#VALUE_HUGE} token as a
+	 * {@link BigInteger} or, if it has a fractional part or an exponent, a
+	 * {@link BigDecimal}.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the current token is not a {@link Token#VALUE_HUGE}
+	 *             token.
+	 */
+	public Number getHuge() throws IllegalStateException {
+		if (token != Token.VALUE_HUGE)
+			throw new IllegalStateException("Current token [" + token
+					+ "] is not a VALUE_HUGE token.");
+
+		return UBJInputStream.parseHuge(chars.toString());
+	}
+
+	/**
+	 * Used to get the text of the current {@link Token#VALUE_STRING} or
+	 * {@link Token#VALUE_HUGE} token, or the name of the current
+	 * {@link Token#FIELD_NAME} token, as a {@link String}.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the current token has no text.
+	 */
+	public String getText() throws IllegalStateException {
+		if (token == Token.FIELD_NAME)
+			return names[depth - 1];
+
+		return getTextChars().toString();
+	}
+
+	/**
+	 * Used to get the text of the current {@link Token#VALUE_STRING} or
+	 * {@link Token#VALUE_HUGE} token without creating a {@link String}.
+	 * <p/>
+	 * The returned buffer is re-used by this parser and is only valid until
+	 * the next call to {@link #nextToken()}.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the current token is not a {@link Token#VALUE_STRING} or
+	 *             {@link Token#VALUE_HUGE} token.
+	 */
+	public CharBuffer getTextChars() throws IllegalStateException {
+		if (token != Token.VALUE_STRING && token != Token.VALUE_HUGE)
+			throw new IllegalStateException("Current token [" + token
+					+ "] is not a VALUE_STRING or VALUE_HUGE token.");
+
+		return chars;
+	}
+
+	/**
+	 * Used to read the type marker of the next child of the current
+	 * container.
+	 */
+	protected byte nextType() throws IOException, UBJFormatException {
+		byte next = in.nextType();
+
+		if (next == -1)
+			throw new UBJFormatException(in.getPosition(),
+					"End of Stream encountered at stream position "
+							+ in.getPosition() + " inside of " + getPath()
+							+ "; the container was never closed.");
+
+		return next;
+	}
+
+	/**
+	 * Used to read the value with the given type marker (already read by
+	 * {@link #nextType()}), or the header of the container, into the fields
+	 * backing the getters.
+	 */
+	protected Token readValue(byte next) throws IOException,
+			UBJFormatException {
+		type = next;
+
+		switch (next) {
+		case NULL:
+			in.readNull();
+			return Token.VALUE_NULL;
+
+		case TRUE:
+		case FALSE:
+			return (in.readBoolean() ? Token.VALUE_TRUE : Token.VALUE_FALSE);
+
+		case BYTE:
+			longValue = in.readByte();
+			return Token.VALUE_NUMBER_INT;
+
+		case INT16:
+			longValue = in.readInt16();
+			return Token.VALUE_NUMBER_INT;
+
+		case INT32:
+			longValue = in.readInt32();
+			return Token.VALUE_NUMBER_INT;
+
+		case INT64:
+			longValue = in.readInt64();
+			return Token.VALUE_NUMBER_INT;
+
+		case FLOAT:
+			doubleValue = in.readFloat();
+			return Token.VALUE_NUMBER_FLOAT;
+
+		case DOUBLE:
+			doubleValue = in.readDouble();
+			return Token.VALUE_NUMBER_FLOAT;
+
+		case HUGE:
+		case HUGE_COMPACT:
+			readText("HUGE", in.readHugeHeaderImpl());
+			return Token.VALUE_HUGE;
+
+		case STRING:
+		case STRING_COMPACT:
+			readText("STRING", in.readStringHeaderImpl());
+			return Token.VALUE_STRING;
+
+		case ARRAY:
+		case ARRAY_COMPACT:
+		case ARRAY_OPTIMIZED:
+			open(false, in.readArrayLength());
+			return Token.START_ARRAY;
+
+		case OBJECT:
+		case OBJECT_COMPACT:
+			open(true, in.readObjectLength());
+			return Token.START_OBJECT;
+
+		default:
+			throw new UBJFormatException(in.getPosition(),
+					"Encountered an unexpected type marker of byte value "
+							+ next + " (char='" + ((char) next)
+							+ "') at stream position " + in.getPosition()
+							+ " (" + getPath() + ").");
+		}
+	}
+
+	/**
+	 * Used to decode the <code>length</code>-byte body of the STRING or HUGE
+	 * value whose header was just read into {@link #chars}, growing it first
+	 * if needed.
+	 */
+	protected void readText(String name, int length) throws IOException,
+			UBJFormatException {
+		// Never more chars than UTF-8 bytes.
+		if (length > chars.capacity())
+			chars = CharBuffer.allocate(Math.max(length, chars.capacity() * 2));
+
+		in.readBodyAsCharsImpl(name, length, chars);
+
+		// The body was read directly; the value is consumed.
+		in.peek = -1;
+	}
+
+	/**
+	 * Used to get the index of the entry in the container stack for the
+	 * container the current token is directly inside of, or <code>-1</code>
+	 * at the top level.
+	 */
+	protected int getLevel() {
+		return (token == Token.START_ARRAY || token == Token.START_OBJECT ? depth - 2
+				: depth - 1);
+	}
+
+	protected void open(boolean object, int length) {
+		if (depth == objects.length) {
+			int size = depth * 2;
+
+			objects = Arrays.copyOf(objects, size);
+			remaining = Arrays.copyOf(remaining, size);
+			indexes = Arrays.copyOf(indexes, size);
+			names = Arrays.copyOf(names, size);
+			pendingValues = Arrays.copyOf(pendingValues, size);
+		}
+
+		objects[depth] = object;
+		remaining[depth] = length;
+		indexes[depth] = -1;
+		names[depth] = null;
+		pendingValues[depth] = false;
+		depth++;
+
+		longValue = length;
+	}
+
+	protected Token closeContainer() {
+		return (objects[--depth] ? Token.END_OBJECT : Token.END_ARRAY);
+	}
+}
@@ -0,0 +1,181 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import static org.ubjson.io.IUBJTypeMarker.BYTE;
+import static org.ubjson.io.IUBJTypeMarker.FLOAT;
+import static org.ubjson.io.IUBJTypeMarker.INT16;
+import static org.ubjson.io.IUBJTypeMarker.INT32;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.ubjson.io.UBJPullParser.Token;
+
+/**
+ * Class used to decode a stream of Universal Binary JSON values by driving the
+ * callbacks of an {@link IUBJHandler}, without ever building a tree of values
+ * in memory.
+ * <p/>
+ * The parser is built on a {@link UBJPullParser} and only holds a fixed
+ * amount of state per level of nesting plus a re-usable text buffer, so
+ * arbitrarily large streams can be processed with a constant heap.
+ * <p/>
+ * Instances of this class are not thread-safe.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class UBJPushParser {
+	protected UBJPullParser parser;
+
+	public UBJPushParser(InputStream in) throws IllegalArgumentException {
+		this(new UBJPullParser(in));
+	}
+
+	public UBJPushParser(UBJPullParser parser) throws IllegalArgumentException {
+		if (parser == null)
+			throw new IllegalArgumentException("parser cannot be null");
+
+		this.parser = parser;
+	}
+
+	public void close() throws IOException {
+		parser.close();
+	}
+
+	/**
+	 * Used to decode every remaining value in the stream, calling the given
+	 * handler for each of them.
+	 * 
+	 * @return the number of top-level values decoded.
+	 */
+	public long parse(IUBJHandler handler) throws IllegalArgumentException,
+			IOException, UBJFormatException {
+		long count = 0;
+
+		while (parseNext(handler))
+			count++;
+
+		return count;
+	}
+
+	/**
+	 * Used to decode the next top-level value in the stream (with all of its
+	 * children if it is a container), calling the given handler for it.
+	 * 
+	 * @return <code>false</code> if the end of the stream was reached before
+	 *         a value could be read, <code>true</code> otherwise.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>handler</code> is <code>null</code>.
+	 * @throws UBJFormatException
+	 *             if the stream contains invalid data or ends in the middle of
+	 *             a container.
+	 */
+	public boolean parseNext(IUBJHandler handler)
+			throws IllegalArgumentException, IOException, UBJFormatException {
+		if (handler == null)
+			throw new IllegalArgumentException("handler cannot be null");
+
+		UBJPullParser parser = this.parser;
+		Token token = parser.nextToken();
+
+		if (token == null)
+			return false;
+
+		for (;;) {
+			dispatch(parser, token, handler);
+
+			// Done once we are back at the top level.
+			if (parser.getDepth() == 0)
+				return true;
+
+			token = parser.nextToken();
+		}
+	}
+
+	protected void dispatch(UBJPullParser parser, Token token,
+			IUBJHandler handler) throws IOException {
+		switch (token) {
+		case START_ARRAY:
+			handler.onStartArray(parser.getLength());
+			break;
+
+		case END_ARRAY:
+			handler.onEndArray();
+			break;
+
+		case START_OBJECT:
+			handler.onStartObject(parser.getLength());
+			break;
+
+		case END_OBJECT:
+			handler.onEndObject();
+			break;
+
+		case FIELD_NAME:
+			handler.onFieldName(parser.getText());
+			break;
+
+		case VALUE_NULL:
+			handler.onNull();
+			break;
+
+		case VALUE_TRUE:
+			handler.onBoolean(true);
+			break;
+
+		case VALUE_FALSE:
+			handler.onBoolean(false);
+			break;
+
+		case VALUE_NUMBER_INT:
+			switch (parser.getType()) {
+			case BYTE:
+				handler.onByte(parser.getByte());
+				break;
+
+			case INT16:
+				handler.onInt16(parser.getShort());
+				break;
+
+			case INT32:
+				handler.onInt32(parser.getInt());
+				break;
+
+			default:
+				handler.onInt64(parser.getLong());
+				break;
+			}
+			break;
+
+		case VALUE_NUMBER_FLOAT:
+			if (parser.getType() == FLOAT)
+				handler.onFloat(parser.getFloat());
+			else
+				handler.onDouble(parser.getDouble());
+			break;
+
+		case VALUE_HUGE:
+			handler.onHuge(parser.getTextChars());
+			break;
+
+		case VALUE_STRING:
+			handler.onString(parser.getTextChars());
+			break;
+		}
+	}
+}
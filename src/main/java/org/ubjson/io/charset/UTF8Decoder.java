@@ -0,0 +1,194 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io.charset;
+
+/**
+ * Class used to provide a specialized, validating UTF-8 decoder that reads
+ * directly from a caller-provided <code>byte[]</code>; the counterpart to
+ * {@link UTF8Encoder}.
+ * <p/>
+ * Most strings in Universal Binary JSON (field names in particular) are pure
+ * ASCII. {@link #decode(byte[], int, int)} checks for that case first and
+ * builds the resulting {@link String} straight from the source bytes in a
+ * single copy; only when multi-byte sequences are present are the bytes
+ * decoded (and validated) into an intermediate <code>char[]</code>.
+ * <p/>
+ * Malformed input (invalid lead or continuation bytes, overlong forms, encoded
+ * surrogates, values past <code>U+10FFFF</code> or a sequence truncated by the
+ * end of the range) is replaced with <code>U+FFFD</code>, one replacement per
+ * maximal invalid subsequence, the same way {@link String#String(byte[],
+ * String)} treats it.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public final class UTF8Decoder {
+	private static final char REPLACEMENT = '\uFFFD';
+
+	private UTF8Decoder() {
+		// static utility class
+	}
+
+	/**
+	 * Used to determine if the bytes in the range [<code>offset</code>,
+	 * <code>offset + length</code>) of <code>src</code> are all 7-bit ASCII.
+	 */
+	public static boolean isASCII(byte[] src, int offset, int length) {
+		for (int end = offset + length; offset < end; offset++)
+			if (src[offset] < 0)
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * Used to decode the UTF-8 bytes in the range [<code>offset</code>,
+	 * <code>offset + length</code>) of <code>src</code> into a {@link String}.
+	 */
+	@SuppressWarnings("deprecation")
+	public static String decode(byte[] src, int offset, int length) {
+		int i = offset;
+		int end = offset + length;
+
+		while (i < end && src[i] >= 0)
+			i++;
+
+		/*
+		 * Pure ASCII; every byte is exactly one char with a 0 high byte. This
+		 * (deprecated, but not going anywhere) constructor copies the bytes
+		 * straight into the new String without an intermediate char[] or a
+		 * CharsetDecoder.
+		 */
+		if (i == end)
+			return new String(src, 0, offset, length);
+
+		// Decoding will never produce more chars than there are bytes.
+		char[] chars = new char[length];
+		int n = i - offset;
+
+		// Widen the leading ASCII run we already scanned.
+		for (int j = 0; j < n; j++)
+			chars[j] = (char) src[offset + j];
+
+		n = decodeImpl(src, i, end, chars, n);
+		return new String(chars, 0, n);
+	}
+
+	/**
+	 * Used to decode the UTF-8 bytes in the range [<code>offset</code>,
+	 * <code>offset + length</code>) of <code>src</code> into
+	 * <code>dest</code> starting at index <code>destOffset</code>.
+	 * <p/>
+	 * The caller must make sure <code>dest</code> has room for the decoded
+	 * chars; <code>length</code> chars is always enough.
+	 * 
+	 * @return the index in <code>dest</code> right after the last char
+	 *         written.
+	 */
+	public static int decode(byte[] src, int offset, int length, char[] dest,
+			int destOffset) {
+		int end = offset + length;
+
+		// Fast path: widen the leading run of ASCII bytes.
+		while (offset < end && src[offset] >= 0)
+			dest[destOffset++] = (char) src[offset++];
+
+		return (offset < end ? decodeImpl(src, offset, end, dest, destOffset)
+				: destOffset);
+	}
+
+	private static int decodeImpl(byte[] src, int i, int end, char[] dest,
+			int j) {
+		while (i < end) {
+			int b = src[i];
+
+			if (b >= 0) {
+				dest[j++] = (char) b;
+				i++;
+				continue;
+			}
+
+			b &= 0xFF;
+
+			int n;
+			int min = 0x80;
+			int max = 0xBF;
+
+			/*
+			 * Determine the number of continuation bytes from the lead byte
+			 * along with the valid range of the first continuation byte, which
+			 * is what rules out overlong forms and values past U+10FFFF.
+			 */
+			if (b >= 0xC2 && b <= 0xDF)
+				n = 1;
+			else if (b >= 0xE0 && b <= 0xEF) {
+				n = 2;
+
+				if (b == 0xE0)
+					min = 0xA0;
+			} else if (b >= 0xF0 && b <= 0xF4) {
+				n = 3;
+
+				if (b == 0xF0)
+					min = 0x90;
+				else if (b == 0xF4)
+					max = 0x8F;
+			} else {
+				// Stray continuation byte or invalid lead byte.
+				dest[j++] = REPLACEMENT;
+				i++;
+				continue;
+			}
+
+			int cp = b & (0x3F >> n);
+			int k = 0;
+
+			// Consume as many valid continuation bytes as we can.
+			while (k < n && i + 1 + k < end) {
+				int c = src[i + 1 + k] & 0xFF;
+
+				if (k == 0 ? (c < min || c > max) : (c & 0xC0) != 0x80)
+					break;
+
+				cp = (cp << 6) | (c & 0x3F);
+				k++;
+			}
+
+			if (k < n) {
+				// Truncated or invalid; replace the maximal bad subsequence.
+				dest[j++] = REPLACEMENT;
+				i += 1 + k;
+			} else {
+				/*
+				 * An encoded surrogate is well-formed in structure but not a
+				 * valid scalar value; the whole sequence is replaced.
+				 */
+				if (cp >= Character.MIN_SURROGATE
+						&& cp <= Character.MAX_SURROGATE)
+					dest[j++] = REPLACEMENT;
+				else if (cp < 0x10000)
+					dest[j++] = (char) cp;
+				else {
+					dest[j++] = Character.highSurrogate(cp);
+					dest[j++] = Character.lowSurrogate(cp);
+				}
+
+				i += 1 + n;
+			}
+		}
+
+		return j;
+	}
+}
@@ -0,0 +1,129 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io.charset;
+
+/**
+ * Class used to provide a specialized, allocation-free UTF-8 encoder that
+ * writes directly into a caller-provided <code>byte[]</code>.
+ * <p/>
+ * Universal Binary JSON strings are always UTF-8 and their headers carry the
+ * <em>byte</em> length of the encoded string; this class provides both the
+ * exact byte length calculation ({@link #length(CharSequence, int, int)}) and
+ * the encoding itself ({@link #encode(CharSequence, int, int, byte[], int)})
+ * without any of the reset/encode/flush overhead of a general purpose
+ * {@link java.nio.charset.CharsetEncoder}; runs of ASCII chars (the common
+ * case for field names and most values) are copied one byte per char in a
+ * tight loop.
+ * <p/>
+ * Unpaired surrogate chars cannot be represented in UTF-8 and are encoded as
+ * <code>'?'</code>, the same replacement {@link String#getBytes(String)} uses.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public final class UTF8Encoder {
+	private static final byte REPLACEMENT = '?';
+
+	private UTF8Encoder() {
+		// static utility class
+	}
+
+	/**
+	 * Used to calculate the exact number of bytes the UTF-8 encoding of
+	 * <code>text</code> will take.
+	 */
+	public static int length(CharSequence text) {
+		return length(text, 0, text.length());
+	}
+
+	/**
+	 * Used to calculate the exact number of bytes the UTF-8 encoding of the
+	 * chars in the range [<code>from</code>, <code>to</code>) of
+	 * <code>text</code> will take.
+	 */
+	public static int length(CharSequence text, int from, int to) {
+		int length = to - from;
+
+		for (int i = from; i < to; i++) {
+			char c = text.charAt(i);
+
+			if (c < 0x80)
+				continue;
+			else if (c < 0x800)
+				length++;
+			else if (Character.isHighSurrogate(c) && i + 1 < to
+					&& Character.isLowSurrogate(text.charAt(i + 1))) {
+				// 2 chars, 4 bytes.
+				length += 2;
+				i++;
+			} else if (!Character.isSurrogate(c))
+				length += 2;
+		}
+
+		return length;
+	}
+
+	/**
+	 * Used to encode the chars in the range [<code>from</code>,
+	 * <code>to</code>) of <code>text</code> as UTF-8 into <code>dest</code>
+	 * starting at index <code>offset</code>.
+	 * <p/>
+	 * The caller must make sure <code>dest</code> has room for the encoded
+	 * bytes; <code>(to - from) * 3</code> bytes is always enough. A high
+	 * surrogate at index <code>to - 1</code> is treated as unpaired, so
+	 * callers encoding a long string in slices must not split surrogate pairs
+	 * across slices.
+	 * 
+	 * @return the index in <code>dest</code> right after the last byte
+	 *         written.
+	 */
+	public static int encode(CharSequence text, int from, int to,
+			byte[] dest, int offset) {
+		int i = from;
+		char c;
+
+		// Fast path: copy the leading run of ASCII chars.
+		while (i < to && (c = text.charAt(i)) < 0x80) {
+			dest[offset++] = (byte) c;
+			i++;
+		}
+
+		for (; i < to; i++) {
+			c = text.charAt(i);
+
+			if (c < 0x80)
+				dest[offset++] = (byte) c;
+			else if (c < 0x800) {
+				dest[offset++] = (byte) (0xC0 | (c >> 6));
+				dest[offset++] = (byte) (0x80 | (c & 0x3F));
+			} else if (!Character.isSurrogate(c)) {
+				dest[offset++] = (byte) (0xE0 | (c >> 12));
+				dest[offset++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				dest[offset++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < to
+					&& Character.isLowSurrogate(text.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, text.charAt(++i));
+
+				dest[offset++] = (byte) (0xF0 | (cp >> 18));
+				dest[offset++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				dest[offset++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				dest[offset++] = (byte) (0x80 | (cp & 0x3F));
+			} else
+				dest[offset++] = REPLACEMENT;
+		}
+
+		return offset;
+	}
+}
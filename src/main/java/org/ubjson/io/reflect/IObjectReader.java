@@ -19,8 +19,14 @@ import java.io.IOException;
 
 import org.ubjson.io.UBJFormatException;
 import org.ubjson.io.UBJInputStreamParser;
+import org.ubjson.io.reflect.IObjectWriter.Mode;
 
 public interface IObjectReader {
+	public void clear();
+
 	public <T> T readObject(UBJInputStreamParser in, Class<T> type)
 			throws IllegalArgumentException, IOException, UBJFormatException;
+
+	public <T> T readObject(UBJInputStreamParser in, Class<T> type, Mode mode)
+			throws IllegalArgumentException, IOException, UBJFormatException;
 }
\ No newline at end of file
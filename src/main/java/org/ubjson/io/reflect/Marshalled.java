@@ -0,0 +1,56 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io.reflect;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation used to mark a class that should have a {@link IMarshaller}
+ * generated for it at compile time by the
+ * <code>org.ubjson.processor.MarshallerProcessor</code> annotation processor.
+ * <p/>
+ * The generated marshaller is named after the class with a
+ * <code>_UBJMarshaller</code> suffix (e.g. <code>Order_UBJMarshaller</code> or
+ * <code>Outer_Inner_UBJMarshaller</code> for a nested class) and placed in the
+ * same package. It reads and writes the same representation that
+ * {@link ObjectWriter} and {@link ObjectReader} do in {@link Mode#FIELDS}
+ * mode, but with straight-line code instead of reflection; both of them use it
+ * automatically for the annotated class when it is present.
+ * <p/>
+ * Annotated classes must be top-level or <code>static</code> nested classes
+ * with a non-private no-arg constructor. All of their non-static,
+ * non-transient fields are mapped and must be non-private and of one of the
+ * following types:
+ * <ul>
+ * <li>A primitive type other than <code>char</code>, or its wrapper.</li>
+ * <li>{@link String}, <code>char[]</code>, {@link java.math.BigInteger} or
+ * {@link java.math.BigDecimal}.</li>
+ * <li>Another class annotated with {@link Marshalled}.</li>
+ * <li>An array or {@link java.util.Collection} of any of the above.</li>
+ * </ul>
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Marshalled {
+	// marker
+}
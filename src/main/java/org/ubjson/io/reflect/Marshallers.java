@@ -0,0 +1,207 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io.reflect;
+
+import static org.ubjson.io.IUBJTypeMarker.BYTE;
+import static org.ubjson.io.IUBJTypeMarker.DOUBLE;
+import static org.ubjson.io.IUBJTypeMarker.FLOAT;
+import static org.ubjson.io.IUBJTypeMarker.HUGE;
+import static org.ubjson.io.IUBJTypeMarker.HUGE_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.INT16;
+import static org.ubjson.io.IUBJTypeMarker.INT32;
+import static org.ubjson.io.IUBJTypeMarker.INT64;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import org.ubjson.io.UBJFormatException;
+import org.ubjson.io.UBJInputStreamParser;
+import org.ubjson.io.UBJOutputStream;
+
+/**
+ * Class used to look up the generated {@link IMarshaller} of a
+ * {@link Marshalled} class, as well as a handful of lenient value readers
+ * shared by the generated code and {@link ObjectReader}.
+ * <p/>
+ * The numeric readers accept any numeric type marker and convert the value to
+ * the requested type, so a field can be widened (or narrowed) without breaking
+ * previously written data.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public final class Marshallers {
+	/**
+	 * Suffix appended to the (flattened) name of a {@link Marshalled} class to
+	 * get the name of its generated marshaller.
+	 */
+	public static final String SUFFIX = "_UBJMarshaller";
+
+	/*
+	 * Stands in for "no marshaller" in MARSHALLERS so classes without one are
+	 * only checked once.
+	 */
+	private static final IMarshaller<?> NONE = new IMarshaller<Object>() {
+		@Override
+		public void serialize(UBJOutputStream out, Object obj) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Object deserialize(UBJInputStreamParser in) {
+			throw new UnsupportedOperationException();
+		}
+	};
+
+	private static final ClassValue<IMarshaller<?>> MARSHALLERS = new ClassValue<IMarshaller<?>>() {
+		@Override
+		protected IMarshaller<?> computeValue(Class<?> type) {
+			return find(type);
+		}
+	};
+
+	private Marshallers() {
+		// static utility
+	}
+
+	/**
+	 * Used to get the generated marshaller for the given type.
+	 * 
+	 * @param type
+	 *            The type to get the marshaller for.
+	 * 
+	 * @return the marshaller generated for the given type or <code>null</code>
+	 *         if it isn't annotated with {@link Marshalled} or the annotation
+	 *         processor wasn't run on it.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>type</code> is <code>null</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> IMarshaller<T> get(Class<T> type)
+			throws IllegalArgumentException {
+		if (type == null)
+			throw new IllegalArgumentException("type cannot be null");
+
+		IMarshaller<?> marshaller = MARSHALLERS.get(type);
+		return (marshaller == NONE ? null : (IMarshaller<T>) marshaller);
+	}
+
+	public static long readLong(UBJInputStreamParser in, byte type)
+			throws IOException, UBJFormatException {
+		switch (type) {
+		case BYTE:
+			return in.readByte();
+
+		case INT16:
+			return in.readInt16();
+
+		case INT32:
+			return in.readInt32();
+
+		case INT64:
+			return in.readInt64();
+
+		case FLOAT:
+			return (long) in.readFloat();
+
+		case DOUBLE:
+			return (long) in.readDouble();
+
+		case HUGE:
+		case HUGE_COMPACT:
+			return in.readHuge().longValue();
+
+		default:
+			throw new UBJFormatException(in.getPosition(),
+					"Unable to read a numeric value; the type marker byte value read was "
+							+ type + " (char='" + ((char) type) + "').");
+		}
+	}
+
+	public static double readDouble(UBJInputStreamParser in, byte type)
+			throws IOException, UBJFormatException {
+		switch (type) {
+		case FLOAT:
+			return in.readFloat();
+
+		case DOUBLE:
+			return in.readDouble();
+
+		case HUGE:
+		case HUGE_COMPACT:
+			return in.readHuge().doubleValue();
+
+		default:
+			return readLong(in, type);
+		}
+	}
+
+	public static String readString(UBJInputStreamParser in, byte type)
+			throws IOException, UBJFormatException {
+		if (type == HUGE || type == HUGE_COMPACT)
+			return in.readHugeAsString();
+		else
+			return in.readString();
+	}
+
+	public static BigInteger readBigInteger(UBJInputStreamParser in, byte type)
+			throws IOException, UBJFormatException {
+		if (type == HUGE || type == HUGE_COMPACT)
+			return new BigInteger(in.readHugeAsString());
+		else
+			return BigInteger.valueOf(readLong(in, type));
+	}
+
+	public static BigDecimal readBigDecimal(UBJInputStreamParser in, byte type)
+			throws IOException, UBJFormatException {
+		if (type == HUGE || type == HUGE_COMPACT)
+			return new BigDecimal(in.readHugeAsString());
+		else if (type == FLOAT || type == DOUBLE)
+			return BigDecimal.valueOf(readDouble(in, type));
+		else
+			return BigDecimal.valueOf(readLong(in, type));
+	}
+
+	/**
+	 * Used to find and instantiate the generated marshaller for the given
+	 * type; only called once per type.
+	 */
+	private static IMarshaller<?> find(Class<?> type) {
+		if (!type.isAnnotationPresent(Marshalled.class))
+			return NONE;
+
+		String name = type.getName();
+		int i = name.lastIndexOf('.') + 1;
+
+		// Nested classes: Outer$Inner -> Outer_Inner_UBJMarshaller
+		name = name.substring(0, i) + name.substring(i).replace('$', '_')
+				+ SUFFIX;
+
+		try {
+			return (IMarshaller<?>) Class.forName(name, true,
+					type.getClassLoader()).getDeclaredConstructor()
+					.newInstance();
+		} catch (ClassNotFoundException e) {
+			// The processor wasn't run; fall back to reflection.
+			return NONE;
+		} catch (Exception e) {
+			throw new IllegalArgumentException(
+					"Unable to create the generated marshaller [" + name
+							+ "] for type [" + type.getName() + "]", e);
+		}
+	}
+}
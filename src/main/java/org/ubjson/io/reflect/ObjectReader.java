@@ -15,45 +15,886 @@
  */
 package org.ubjson.io.reflect;
 
+import static org.ubjson.io.IUBJTypeMarker.ARRAY;
+import static org.ubjson.io.IUBJTypeMarker.ARRAY_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.ARRAY_OPTIMIZED;
+import static org.ubjson.io.IUBJTypeMarker.BYTE;
+import static org.ubjson.io.IUBJTypeMarker.DOUBLE;
+import static org.ubjson.io.IUBJTypeMarker.FALSE;
+import static org.ubjson.io.IUBJTypeMarker.FLOAT;
+import static org.ubjson.io.IUBJTypeMarker.HUGE;
+import static org.ubjson.io.IUBJTypeMarker.HUGE_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.INT16;
+import static org.ubjson.io.IUBJTypeMarker.INT32;
+import static org.ubjson.io.IUBJTypeMarker.INT64;
+import static org.ubjson.io.IUBJTypeMarker.NULL;
+import static org.ubjson.io.IUBJTypeMarker.OBJECT;
+import static org.ubjson.io.IUBJTypeMarker.OBJECT_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.STRING;
+import static org.ubjson.io.IUBJTypeMarker.STRING_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.TRUE;
+
 import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.ubjson.io.UBJFormatException;
 import org.ubjson.io.UBJInputStreamParser;
+import org.ubjson.io.reflect.IObjectWriter.Mode;
 
+/**
+ * Reflection-based reader that populates POJOs from UBJ objects; the
+ * counterpart to {@link ObjectWriter}.
+ * <p/>
+ * In {@link Mode#FIELDS} mode the keys of an object are mapped to the
+ * non-static, non-transient, non-final fields of the target class (of any
+ * visibility, like {@link ObjectWriter}) and in {@link Mode#METHODS} mode to
+ * its public one-argument setters (e.g. the key "age" is mapped to
+ * <code>setAge(int)</code>). Keys that don't map to anything are skipped.
+ * <p/>
+ * Every class that is read is analyzed once into a {@link ClassPlan} that
+ * holds the constructor to use and, for each property, the accessor along
+ * with a pre-resolved description of its declared type (including the
+ * element types of arrays and generic {@link Collection}s and {@link Map}s). Plans are cached
+ * so steady-state decoding is reduced to a {@link Map} lookup per key and a
+ * <code>switch</code> per value; no reflection lookups are done.
+ * <p/>
+ * Nested objects whose class is a non-static inner class are constructed
+ * with the object they are being read into as their enclosing instance.
+ * Classes annotated with {@link Marshalled} are read by their generated
+ * {@link IMarshaller} instead, when it is present.
+ * <p/>
+ * Instances of this class are not thread-safe.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
 public class ObjectReader implements IObjectReader {
+	/*
+	 * Kinds of values a TypePlan can describe; decided once when the plan is
+	 * built so decoding a value is a single switch.
+	 */
+	protected static final int ANY = 0;
+	protected static final int BOOLEAN = 1;
+	protected static final int BYTE_NUMBER = 2;
+	protected static final int SHORT = 3;
+	protected static final int INT = 4;
+	protected static final int LONG = 5;
+	protected static final int FLOAT_NUMBER = 6;
+	protected static final int DOUBLE_NUMBER = 7;
+	protected static final int NUMBER = 8;
+	protected static final int BIG_INTEGER = 9;
+	protected static final int BIG_DECIMAL = 10;
+	protected static final int ATOMIC_INTEGER = 11;
+	protected static final int ATOMIC_LONG = 12;
+	protected static final int STRING_VALUE = 13;
+	protected static final int CHARS = 14;
+	protected static final int ARRAY_VALUE = 15;
+	protected static final int COLLECTION = 16;
+	protected static final int MAP = 17;
+	protected static final int OBJECT_VALUE = 18;
+
+	protected Mode mode;
+
+	private LRUHashMap<Class<?>, ClassPlan> fieldPlanCache;
+	private LRUHashMap<Class<?>, ClassPlan> methodPlanCache;
+
+	public ObjectReader() {
+		fieldPlanCache = new LRUHashMap<Class<?>, ClassPlan>();
+		methodPlanCache = new LRUHashMap<Class<?>, ClassPlan>();
+	}
+
+	@Override
+	public void clear() {
+		fieldPlanCache.clear();
+		methodPlanCache.clear();
+	}
+
 	@Override
 	public <T> T readObject(UBJInputStreamParser in, Class<T> type)
 			throws IllegalArgumentException, IOException, UBJFormatException {
+		return readObject(in, type, Mode.FIELDS);
+	}
+
+	@Override
+	public <T> T readObject(UBJInputStreamParser in, Class<T> type, Mode mode)
+			throws IllegalArgumentException, IOException, UBJFormatException {
 		if (in == null)
 			throw new IllegalArgumentException("in cannot be null");
 		if (type == null)
 			throw new IllegalArgumentException("type cannot be null");
+		if (mode == null)
+			throw new IllegalArgumentException("mode cannot be null");
+
+		// Setup the reflection mode used for this operation.
+		this.mode = mode;
+
+		if (in.nextType() == -1)
+			throw new IOException(
+					"End of Stream encountered while looking for the root OBJECT value.");
+
+		// Prefer a generated marshaller over reflection.
+		IMarshaller<T> marshaller = Marshallers.get(type);
+
+		if (marshaller != null)
+			return marshaller.deserialize(in);
+
+		return type.cast(readObjectImpl(in, getClassPlan(type), null));
+	}
+
+	/**
+	 * Used to get the cached {@link ClassPlan} for the given type in the
+	 * current {@link #mode}, building and caching it first if necessary.
+	 */
+	protected ClassPlan getClassPlan(Class<?> type) {
+		LRUHashMap<Class<?>, ClassPlan> cache = (mode == Mode.FIELDS ? fieldPlanCache
+				: methodPlanCache);
+		ClassPlan plan = cache.get(type);
+
+		if (plan == null) {
+			plan = createClassPlan(type);
+			cache.put(type, plan);
+		}
+
+		return plan;
+	}
+
+	protected ClassPlan createClassPlan(Class<?> type) {
+		ClassPlan plan = new ClassPlan(type);
+
+		switch (mode) {
+		case FIELDS:
+			// Get the same fields ObjectWriter maps.
+			List<Field> fields = PropertyAccessor.getFields(type);
+
+			for (int i = 0, s = fields.size(); i < s; i++) {
+				Field f = fields.get(i);
+
+				// Skip final fields.
+				if (Modifier.isFinal(f.getModifiers()))
+					continue;
+
+				plan.properties.put(f.getName(), new PropertyPlan(f,
+						createTypePlan(f.getGenericType())));
+			}
+			break;
+
+		case METHODS:
+			// Get all public, inherited methods.
+			Method[] methods = type.getMethods();
+
+			for (int i = 0; i < methods.length; i++) {
+				Method m = methods[i];
+				String mName = m.getName();
+
+				// Skip static, synthetic or non-setter methods.
+				if (Modifier.isStatic(m.getModifiers()) || m.isSynthetic()
+						|| m.getParameterTypes().length != 1
+						|| mName.length() < 4 || !mName.startsWith("set"))
+					continue;
+
+				/*
+				 * Normalize the method name into the same property name
+				 * ObjectWriter derives from the matching getter: chop the
+				 * prefix and lowercase the first char.
+				 */
+				mName = Character.toLowerCase(mName.charAt(3))
+						+ mName.substring(4);
+
+				plan.properties.put(mName, new PropertyPlan(m,
+						createTypePlan(m.getGenericParameterTypes()[0])));
+			}
+			break;
+		}
+
+		return plan;
+	}
+
+	protected TypePlan createTypePlan(Type type) {
+		Class<?> raw = getRawType(type);
+		TypePlan plan = new TypePlan(raw);
+
+		if (raw == Boolean.class || raw == boolean.class)
+			plan.kind = BOOLEAN;
+		else if (raw == Byte.class || raw == byte.class)
+			plan.kind = BYTE_NUMBER;
+		else if (raw == Short.class || raw == short.class)
+			plan.kind = SHORT;
+		else if (raw == Integer.class || raw == int.class)
+			plan.kind = INT;
+		else if (raw == Long.class || raw == long.class)
+			plan.kind = LONG;
+		else if (raw == Float.class || raw == float.class)
+			plan.kind = FLOAT_NUMBER;
+		else if (raw == Double.class || raw == double.class)
+			plan.kind = DOUBLE_NUMBER;
+		else if (raw == BigInteger.class)
+			plan.kind = BIG_INTEGER;
+		else if (raw == BigDecimal.class)
+			plan.kind = BIG_DECIMAL;
+		else if (raw == AtomicInteger.class)
+			plan.kind = ATOMIC_INTEGER;
+		else if (raw == AtomicLong.class)
+			plan.kind = ATOMIC_LONG;
+		else if (raw == Number.class)
+			plan.kind = NUMBER;
+		else if (raw == String.class || raw == CharSequence.class)
+			plan.kind = STRING_VALUE;
+		else if (raw == char[].class)
+			plan.kind = CHARS;
+		else if (raw == Object.class)
+			plan.kind = ANY;
+		else if (raw.isArray()) {
+			plan.kind = ARRAY_VALUE;
+			plan.element = createTypePlan(type instanceof GenericArrayType ? ((GenericArrayType) type)
+					.getGenericComponentType() : raw.getComponentType());
+		} else if (Collection.class.isAssignableFrom(raw)) {
+			plan.kind = COLLECTION;
+			plan.implType = getImplType(raw);
+			plan.element = createTypePlan(getTypeArgument(type, 0));
+		} else if (Map.class.isAssignableFrom(raw)) {
+			plan.kind = MAP;
+			plan.implType = getImplType(raw);
+			plan.element = createTypePlan(getTypeArgument(type, 1));
+		} else {
+			plan.kind = OBJECT_VALUE;
+			plan.marshaller = Marshallers.get(raw);
+		}
+
+		return plan;
+	}
+
+	protected Object readObjectImpl(UBJInputStreamParser in, ClassPlan plan,
+			Object outer) throws IOException, UBJFormatException {
+		int length = in.readObjectLength();
+		Object obj = plan.newInstance(outer);
+		Map<String, PropertyPlan> properties = plan.properties;
+
+		for (int i = 0; in.hasNext(length, i); i++) {
+			PropertyPlan property = properties.get(in.readKey());
+
+			// Skip values we have nowhere to put.
+			if (property == null)
+				in.skipValue();
+			else
+				readProperty(in, property, obj);
+		}
 
-		T obj = null;
+		return obj;
+	}
+
+	protected void readProperty(UBJInputStreamParser in, PropertyPlan property,
+			Object obj) throws IOException, UBJFormatException {
+		TypePlan plan = property.type;
+		byte type = in.nextType();
 
 		try {
-			// Safely create an instance of our target class.
-			obj = type.newInstance();
+			if (type == NULL) {
+				in.readNull();
+
+				// Primitives keep their initialized value.
+				if (!plan.type.isPrimitive())
+					property.set(obj, null);
+			} else if (property.field != null && plan.type.isPrimitive()) {
+				/*
+				 * Set primitive fields directly so the value is never boxed on
+				 * its way in.
+				 */
+				Field f = property.field;
+
+				switch (plan.kind) {
+				case BOOLEAN:
+					f.setBoolean(obj, in.readBoolean());
+					break;
+
+				case BYTE_NUMBER:
+					f.setByte(obj, (byte) readLong(in, type));
+					break;
+
+				case SHORT:
+					f.setShort(obj, (short) readLong(in, type));
+					break;
+
+				case INT:
+					f.setInt(obj, (int) readLong(in, type));
+					break;
+
+				case LONG:
+					f.setLong(obj, readLong(in, type));
+					break;
+
+				case FLOAT_NUMBER:
+					f.setFloat(obj, (float) readDouble(in, type));
+					break;
+
+				case DOUBLE_NUMBER:
+					f.setDouble(obj, readDouble(in, type));
+					break;
+
+				default:
+					// char fields have no UBJ counterpart.
+					in.skipValue();
+				}
+			} else
+				property.set(obj, readValue(in, type, plan, obj));
+		} catch (IllegalAccessException e) {
+			throw new IllegalArgumentException("Unable to set property ["
+					+ property.name + "] of type [" + obj.getClass().getName()
+					+ "]", e);
+		} catch (InvocationTargetException e) {
+			throw new IllegalArgumentException("Unable to set property ["
+					+ property.name + "] of type [" + obj.getClass().getName()
+					+ "]", e.getCause());
+		}
+	}
+
+	/**
+	 * Used to read the value with the given type marker (already returned by
+	 * {@link UBJInputStreamParser#nextType()}) as the type described by the
+	 * given plan.
+	 * 
+	 * @param outer
+	 *            The object the value is being read into, used as the
+	 *            enclosing instance of inner classes.
+	 */
+	protected Object readValue(UBJInputStreamParser in, byte type,
+			TypePlan plan, Object outer) throws IOException,
+			UBJFormatException {
+		if (type == NULL) {
+			in.readNull();
+			return null;
+		}
+
+		switch (plan.kind) {
+		case BOOLEAN:
+			return Boolean.valueOf(in.readBoolean());
+
+		case BYTE_NUMBER:
+			return Byte.valueOf((byte) readLong(in, type));
+
+		case SHORT:
+			return Short.valueOf((short) readLong(in, type));
+
+		case INT:
+			return Integer.valueOf((int) readLong(in, type));
+
+		case LONG:
+			return Long.valueOf(readLong(in, type));
+
+		case FLOAT_NUMBER:
+			return Float.valueOf((float) readDouble(in, type));
+
+		case DOUBLE_NUMBER:
+			return Double.valueOf(readDouble(in, type));
+
+		case BIG_INTEGER:
+			return Marshallers.readBigInteger(in, type);
+
+		case BIG_DECIMAL:
+			return Marshallers.readBigDecimal(in, type);
+
+		case ATOMIC_INTEGER:
+			return new AtomicInteger((int) readLong(in, type));
+
+		case ATOMIC_LONG:
+			return new AtomicLong(readLong(in, type));
+
+		case STRING_VALUE:
+			return Marshallers.readString(in, type);
+
+		case CHARS:
+			return in.readString().toCharArray();
+
+		case ARRAY_VALUE:
+			return readArray(in, plan.element, outer);
+
+		case COLLECTION:
+			return readCollection(in, plan, outer);
+
+		case MAP:
+			return readMap(in, plan, outer);
+
+		case OBJECT_VALUE:
+			if (plan.marshaller != null)
+				return plan.marshaller.deserialize(in);
+
+			/*
+			 * Resolve the nested class plan the first time we need it instead
+			 * of when the plan is built so recursive types work.
+			 */
+			if (plan.classPlan == null)
+				plan.classPlan = getClassPlan(plan.type);
+
+			return readObjectImpl(in, plan.classPlan, outer);
+
+		default:
+			return readAny(in, type);
+		}
+	}
+
+	protected Object readArray(UBJInputStreamParser in, TypePlan element,
+			Object outer) throws IOException, UBJFormatException {
+		int length = in.readArrayLength();
+
+		/*
+		 * Unbounded ARRAYs don't say how big an array to create; collect
+		 * their elements first and copy them into one of the right size.
+		 */
+		if (length == -1) {
+			List<Object> values = new ArrayList<Object>();
+
+			for (int i = 0; in.hasNext(length, i); i++)
+				values.add(readValue(in, in.nextType(), element, outer));
+
+			int size = values.size();
+			Object array = Array.newInstance(element.type, size);
+
+			for (int i = 0; i < size; i++)
+				Array.set(array, i, values.get(i));
+
+			return array;
+		}
+
+		/*
+		 * Fill primitive arrays directly. Elements of an optimized ARRAY of
+		 * the exact same type are decoded in bulk; anything else is read one
+		 * element at a time so numeric values are widened or narrowed to the
+		 * array's type just like scalar fields are. Either way the elements
+		 * are never boxed on their way in.
+		 */
+		byte elementType = in.getElementType();
+
+		switch (element.type.isPrimitive() ? element.kind : ANY) {
+		case BOOLEAN:
+			boolean[] booleans = new boolean[length];
+			in.readArrayElements(booleans, 0, length);
+			return booleans;
+
+		case BYTE_NUMBER:
+			byte[] bytes = new byte[length];
+
+			if (elementType == BYTE)
+				in.readArrayElements(bytes, 0, length);
+			else {
+				for (int i = 0; i < length; i++)
+					bytes[i] = (byte) readLong(in, in.nextType());
+			}
+
+			return bytes;
+
+		case SHORT:
+			short[] shorts = new short[length];
+
+			if (elementType == INT16)
+				in.readArrayElements(shorts, 0, length);
+			else {
+				for (int i = 0; i < length; i++)
+					shorts[i] = (short) readLong(in, in.nextType());
+			}
+
+			return shorts;
+
+		case INT:
+			int[] ints = new int[length];
+
+			if (elementType == INT32)
+				in.readArrayElements(ints, 0, length);
+			else {
+				for (int i = 0; i < length; i++)
+					ints[i] = (int) readLong(in, in.nextType());
+			}
+
+			return ints;
+
+		case LONG:
+			long[] longs = new long[length];
+
+			if (elementType == INT64)
+				in.readArrayElements(longs, 0, length);
+			else {
+				for (int i = 0; i < length; i++)
+					longs[i] = readLong(in, in.nextType());
+			}
+
+			return longs;
+
+		case FLOAT_NUMBER:
+			float[] floats = new float[length];
+
+			if (elementType == FLOAT)
+				in.readArrayElements(floats, 0, length);
+			else {
+				for (int i = 0; i < length; i++)
+					floats[i] = (float) readDouble(in, in.nextType());
+			}
+
+			return floats;
+
+		case DOUBLE_NUMBER:
+			double[] doubles = new double[length];
+
+			if (elementType == DOUBLE)
+				in.readArrayElements(doubles, 0, length);
+			else {
+				for (int i = 0; i < length; i++)
+					doubles[i] = readDouble(in, in.nextType());
+			}
+
+			return doubles;
+		}
+
+		if (element.type.isPrimitive())
+			throw new IllegalArgumentException("Unsupported array type ["
+					+ element.type.getName() + "[]]");
+
+		Object[] array = (Object[]) Array.newInstance(element.type, length);
+
+		for (int i = 0; i < length; i++)
+			array[i] = readValue(in, in.nextType(), element, outer);
+
+		return array;
+	}
+
+	@SuppressWarnings("unchecked")
+	protected Collection<Object> readCollection(UBJInputStreamParser in,
+			TypePlan plan, Object outer) throws IOException,
+			UBJFormatException {
+		int length = in.readArrayLength();
+		Collection<Object> collection = null;
+
+		if (plan.implType == ArrayList.class)
+			collection = new ArrayList<Object>(length == -1 ? 10 : length);
+		else {
+			try {
+				collection = (Collection<Object>) plan.implType
+						.getDeclaredConstructor().newInstance();
+			} catch (Exception e) {
+				throw new IllegalArgumentException(
+						"Unable to create an instance of ["
+								+ plan.implType.getName()
+								+ "]; does it define a default no-arg constructor?",
+						e);
+			}
+		}
+
+		TypePlan element = plan.element;
+
+		for (int i = 0; in.hasNext(length, i); i++)
+			collection.add(readValue(in, in.nextType(), element, outer));
+
+		return collection;
+	}
+
+	/**
+	 * Used to read an OBJECT into a {@link Map}; keys are read as-is and the
+	 * values as the type of the map's second type argument.
+	 */
+	@SuppressWarnings("unchecked")
+	protected Map<String, Object> readMap(UBJInputStreamParser in,
+			TypePlan plan, Object outer) throws IOException,
+			UBJFormatException {
+		int length = in.readObjectLength();
+		Map<String, Object> map = null;
+
+		try {
+			map = (Map<String, Object>) plan.implType
+					.getDeclaredConstructor().newInstance();
 		} catch (Exception e) {
 			throw new IllegalArgumentException(
-					"Unable to invoke type.newInstance(); does Class T define a default no-arg constructor?",
+					"Unable to create an instance of ["
+							+ plan.implType.getName()
+							+ "]; does it define a default no-arg constructor?",
 					e);
 		}
 
-		/*
-		 * begin looping on parser, ensure the root element is an object, and
-		 * then read NUM number of values from parser, populating the object
-		 * (maybe a method populateObject(stream, T obj, int count), going
-		 * deeper as needed.
-		 */
-		byte t = -1;
+		TypePlan value = plan.element;
+
+		for (int i = 0; in.hasNext(length, i); i++) {
+			String key = in.readKey();
+			map.put(key, readValue(in, in.nextType(), value, outer));
+		}
+
+		return map;
+	}
+
+	/**
+	 * Used to read a value of an unknown target type (e.g. a field declared
+	 * as {@link Object} or a raw {@link List}) as its natural Java
+	 * representation; OBJECTs are read into a {@link LinkedHashMap} and
+	 * ARRAYs into an {@link ArrayList}.
+	 */
+	protected Object readAny(UBJInputStreamParser in, byte type)
+			throws IOException, UBJFormatException {
+		switch (type) {
+		case NULL:
+			in.readNull();
+			return null;
+
+		case TRUE:
+		case FALSE:
+			return Boolean.valueOf(in.readBoolean());
 
-		while ((t = in.nextType()) != -1) {
-			switch (t) {
+		case BYTE:
+			return Byte.valueOf(in.readByte());
 
+		case INT16:
+			return Short.valueOf(in.readInt16());
+
+		case INT32:
+			return Integer.valueOf(in.readInt32());
+
+		case INT64:
+			return Long.valueOf(in.readInt64());
+
+		case FLOAT:
+			return Float.valueOf(in.readFloat());
+
+		case DOUBLE:
+			return Double.valueOf(in.readDouble());
+
+		case HUGE:
+		case HUGE_COMPACT:
+			return in.readHuge();
+
+		case STRING:
+		case STRING_COMPACT:
+			return in.readString();
+
+		case ARRAY:
+		case ARRAY_COMPACT:
+		case ARRAY_OPTIMIZED:
+			int length = in.readArrayLength();
+			List<Object> list = new ArrayList<Object>(length == -1 ? 10
+					: length);
+
+			for (int i = 0; in.hasNext(length, i); i++)
+				list.add(readAny(in, in.nextType()));
+
+			return list;
+
+		case OBJECT:
+		case OBJECT_COMPACT:
+			int count = in.readObjectLength();
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+
+			for (int i = 0; in.hasNext(count, i); i++) {
+				String key = in.readKey();
+				map.put(key, readAny(in, in.nextType()));
 			}
+
+			return map;
+
+		default:
+			throw new UBJFormatException(in.getPosition(),
+					"Unable to read a value with type marker byte value "
+							+ type + " (char='" + ((char) type) + "').");
 		}
+	}
 
-		return obj;
+	protected long readLong(UBJInputStreamParser in, byte type)
+			throws IOException, UBJFormatException {
+		return Marshallers.readLong(in, type);
+	}
+
+	protected double readDouble(UBJInputStreamParser in, byte type)
+			throws IOException, UBJFormatException {
+		return Marshallers.readDouble(in, type);
+	}
+
+	protected static Class<?> getRawType(Type type) {
+		if (type instanceof Class)
+			return (Class<?>) type;
+		else if (type instanceof ParameterizedType)
+			return getRawType(((ParameterizedType) type).getRawType());
+		else if (type instanceof GenericArrayType)
+			return Array.newInstance(
+					getRawType(((GenericArrayType) type)
+							.getGenericComponentType()), 0).getClass();
+		else if (type instanceof WildcardType)
+			return getRawType(((WildcardType) type).getUpperBounds()[0]);
+		else if (type instanceof TypeVariable)
+			return getRawType(((TypeVariable<?>) type).getBounds()[0]);
+		else
+			return Object.class;
+	}
+
+	/**
+	 * Used to get the type argument at the given index of the given
+	 * {@link Collection} or {@link Map} type (e.g. <code>String</code> for
+	 * <code>List&lt;String&gt;</code>), or {@link Object} if it is raw.
+	 */
+	protected static Type getTypeArgument(Type type, int index) {
+		if (type instanceof ParameterizedType) {
+			Type[] args = ((ParameterizedType) type).getActualTypeArguments();
+
+			if (index < args.length)
+				return args[index];
+		}
+
+		return Object.class;
+	}
+
+	/**
+	 * Used to pick the concrete {@link Collection} or {@link Map} class to
+	 * instantiate for the given declared type.
+	 */
+	protected static Class<?> getImplType(Class<?> type) {
+		if (!type.isInterface() && !Modifier.isAbstract(type.getModifiers()))
+			return type;
+		else if (SortedMap.class.isAssignableFrom(type))
+			return TreeMap.class;
+		else if (Map.class.isAssignableFrom(type))
+			return LinkedHashMap.class;
+		else if (SortedSet.class.isAssignableFrom(type))
+			return TreeSet.class;
+		else if (Set.class.isAssignableFrom(type))
+			return LinkedHashSet.class;
+		else if (Queue.class.isAssignableFrom(type))
+			return ArrayDeque.class;
+		else
+			return ArrayList.class;
+	}
+
+	/**
+	 * Class used to represent the cached binding plan of a class: how to
+	 * create it and the {@link PropertyPlan} each key maps to.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	protected static class ClassPlan {
+		Class<?> type;
+		Class<?> outerType;
+		Constructor<?> constructor;
+		Map<String, PropertyPlan> properties;
+
+		public ClassPlan(Class<?> type) {
+			this.type = type;
+			this.properties = new HashMap<String, PropertyPlan>();
+
+			/*
+			 * Non-static inner classes take their enclosing instance as the
+			 * implicit first constructor argument.
+			 */
+			if (type.isMemberClass()
+					&& !Modifier.isStatic(type.getModifiers()))
+				outerType = type.getEnclosingClass();
+
+			try {
+				constructor = (outerType == null ? type
+						.getDeclaredConstructor() : type
+						.getDeclaredConstructor(outerType));
+				constructor.setAccessible(true);
+			} catch (Exception e) {
+				/*
+				 * No usable constructor; we only fail if we actually need to
+				 * create an instance of this type.
+				 */
+				constructor = null;
+			}
+		}
+
+		public Object newInstance(Object outer) throws IllegalArgumentException {
+			if (constructor == null)
+				throw new IllegalArgumentException(
+						"Unable to create an instance of ["
+								+ type.getName()
+								+ "]; does it define a default no-arg constructor?");
+
+			try {
+				if (outerType == null)
+					return constructor.newInstance();
+				else
+					return constructor.newInstance(outerType.isInstance(outer) ? outer
+							: null);
+			} catch (InvocationTargetException e) {
+				throw new IllegalArgumentException(
+						"Unable to create an instance of [" + type.getName()
+								+ "]", e.getCause());
+			} catch (Exception e) {
+				throw new IllegalArgumentException(
+						"Unable to create an instance of [" + type.getName()
+								+ "]", e);
+			}
+		}
+	}
+
+	/**
+	 * Class used to represent a single mapped property of a {@link ClassPlan};
+	 * either a {@link Field} or a setter {@link Method} along with the
+	 * {@link TypePlan} of its declared type.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	protected static class PropertyPlan {
+		String name;
+		Field field;
+		Method setter;
+		TypePlan type;
+
+		public PropertyPlan(Field field, TypePlan type) {
+			this.name = field.getName();
+			this.field = field;
+			this.type = type;
+		}
+
+		public PropertyPlan(Method setter, TypePlan type) {
+			this.name = setter.getName();
+			this.setter = setter;
+			this.type = type;
+		}
+
+		public void set(Object obj, Object value)
+				throws IllegalAccessException, InvocationTargetException {
+			if (field != null)
+				field.set(obj, value);
+			else
+				setter.invoke(obj, value);
+		}
+	}
+
+	/**
+	 * Class used to represent the pre-resolved description of a declared
+	 * type; what kind of value it is and, for arrays, {@link Collection}s and
+	 * {@link Map}s, the plan of its elements (or values).
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	protected static class TypePlan {
+		int kind;
+		Class<?> type;
+		Class<?> implType;
+		TypePlan element;
+		ClassPlan classPlan;
+		IMarshaller<?> marshaller;
+
+		public TypePlan(Class<?> type) {
+			this.type = type;
+		}
 	}
-}
\ No newline at end of file
+}
@@ -17,49 +17,72 @@ package org.ubjson.io.reflect;
 
 import java.io.IOException;
 import java.lang.reflect.Array;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.nio.CharBuffer;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.ubjson.io.UBJOutputStream;
 
+/**
+ * Reflection-based writer that writes POJOs out as UBJ objects by mapping
+ * either their fields ({@link Mode#FIELDS}) or their getters (
+ * {@link Mode#METHODS}) to key/value pairs.
+ * <p/>
+ * Classes annotated with {@link Marshalled} are written by their generated
+ * {@link IMarshaller} instead, when it is present.
+ * <p/>
+ * Instances of this class are thread-safe and are meant to be shared; the
+ * metadata cached for each class is immutable and kept in concurrent maps,
+ * and all the state of a single <code>writeObject(...)</code> call lives on
+ * the calling thread's stack.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
 public class ObjectWriter implements IObjectWriter {
-	protected enum ScopeType {
-		ARRAY, OBJECT;
+	/**
+	 * The different ways a value can be written out, one per
+	 * <code>writeXXX</code> method (and numeric type).
+	 */
+	protected enum ValueType {
+		BOOLEAN, BYTE, INT16, INT32, INT64, FLOAT, DOUBLE, BIG_INTEGER,
+		BIG_DECIMAL, ATOMIC_INTEGER, ATOMIC_LONG, NUMBER, STRING, CHARS, ARRAY,
+		COLLECTION, ITERATOR, MARSHALLED, OBJECT;
 	}
 
-	protected Mode mode;
-	protected ScopeStack sstack;
-
-	private AssignableCacheKey assignableQuery;
-	private LRUHashMap<AssignableCacheKey, Boolean> assignableCache;
+	/**
+	 * The {@link ValueType} of every concrete class written so far; resolved
+	 * once per class by {@link #resolveValueType(Class)} the first time one of
+	 * its instances is written.
+	 * <p/>
+	 * A {@link ClassValue} is keyed on the {@link Class} identity itself, so
+	 * unlike a {@link java.util.HashMap} there is no hashing or equality to get
+	 * wrong and lookups are about as cheap as a field read.
+	 */
+	protected static final ClassValue<ValueType> VALUE_TYPES = new ClassValue<ValueType>() {
+		@Override
+		protected ValueType computeValue(Class<?> type) {
+			return resolveValueType(type);
+		}
+	};
 
-	private LRUHashMap<Class<?>, List<Field>> fieldCache;
-	private LRUHashMap<Class<?>, List<MethodCacheElement>> methodCache;
+	private ConcurrentMap<Class<?>, ObjectPlan> fieldCache;
+	private ConcurrentMap<Class<?>, ObjectPlan> methodCache;
 
 	public ObjectWriter() {
-		sstack = new ScopeStack();
-
-		assignableQuery = new AssignableCacheKey();
-		assignableCache = new LRUHashMap<AssignableCacheKey, Boolean>();
-
-		fieldCache = new LRUHashMap<Class<?>, List<Field>>();
-		methodCache = new LRUHashMap<Class<?>, List<MethodCacheElement>>();
+		fieldCache = new ConcurrentHashMap<Class<?>, ObjectPlan>();
+		methodCache = new ConcurrentHashMap<Class<?>, ObjectPlan>();
 	}
 
 	@Override
 	public void clear() {
-		assignableCache.clear();
-
 		fieldCache.clear();
 		methodCache.clear();
 	}
@@ -80,65 +103,80 @@ public class ObjectWriter implements IObjectWriter {
 		if (mode == null)
 			throw new IllegalArgumentException("mode cannot be null");
 
-		// Reset scope stack state
-		sstack.reset();
-
-		// Setup the reflection mode used for this operation.
-		this.mode = mode;
-
-		switch (mode) {
-		case FIELDS:
-			writeObjectByFields(out, null, obj.getClass(), obj);
-			break;
+		Class<?> type = obj.getClass();
 
-		case METHODS:
-			writeObjectByMethods(out, null, obj.getClass(), obj);
-			break;
+		// Prefer a generated marshaller over reflection.
+		if (VALUE_TYPES.get(type) == ValueType.MARSHALLED)
+			writeMarshalled(out, null, obj);
+		else {
+			switch (mode) {
+			case FIELDS:
+				writeObjectByFields(out, null, type, obj);
+				break;
+
+			case METHODS:
+				writeObjectByMethods(out, null, type, obj);
+				break;
+			}
 		}
 	}
 
 	/**
-	 * Used to check if the given {@link Class} <code>from</code> is assignable
-	 * to the given {@link Class} <code>to</code>.
+	 * Used to determine how values of the given concrete {@link Class} are
+	 * written out.
 	 * <p/>
-	 * Put another way, this method checks if objects of type <code>from</code>
-	 * can be cast to type <code>to</code>.
-	 * <p/>
-	 * This implementation caches the results of these tests so as to avoid
-	 * unnecessary {@link Class#isAssignableFrom(Class)} calls.
-	 * 
-	 * @param from
-	 *            The original {@link Class} to check assignment to
-	 *            <code>to</code>.
-	 * @param to
-	 *            The target assignable {@link Class}.
+	 * This is only called once per class, the result is cached in
+	 * {@link #VALUE_TYPES}.
 	 * 
-	 * @return <code>true</code> if <code>from</code> can be cast to
-	 *         <code>to</code>, otherwise returns <code>false</code>.
+	 * @param type
+	 *            The runtime {@link Class} of a value.
 	 * 
-	 * @throws IllegalArgumentException
-	 *             if <code>from</code> or <code>to</code> or <code>null</code>.
+	 * @return the {@link ValueType} values of the given type are written as.
 	 */
-	protected boolean isAssignable(Class<?> from, Class<?> to)
-			throws IllegalArgumentException {
-		if (from == null)
-			throw new IllegalArgumentException("from cannot be null");
-		if (to == null)
-			throw new IllegalArgumentException("to cannot be null");
-
-		// Re-use temp key to query our cache.
-		assignableQuery.set(from, to);
-
-		// Check if the assignable calculation has been checked/cached before.
-		Boolean assignable = assignableCache.get(assignableQuery);
-
-		if (assignable == null) {
-			// Calculate assignability and cache result.
-			assignable = to.isAssignableFrom(from);
-			assignableCache.put(new AssignableCacheKey(from, to), assignable);
-		}
-
-		return assignable;
+	protected static ValueType resolveValueType(Class<?> type) {
+		// Values
+		if (type == Boolean.class)
+			return ValueType.BOOLEAN;
+		else if (Number.class.isAssignableFrom(type)) {
+			if (type == Byte.class)
+				return ValueType.BYTE;
+			else if (type == Short.class)
+				return ValueType.INT16;
+			else if (type == Integer.class)
+				return ValueType.INT32;
+			else if (type == Long.class)
+				return ValueType.INT64;
+			else if (type == Float.class)
+				return ValueType.FLOAT;
+			else if (type == Double.class)
+				return ValueType.DOUBLE;
+			else if (BigInteger.class.isAssignableFrom(type))
+				return ValueType.BIG_INTEGER;
+			else if (BigDecimal.class.isAssignableFrom(type))
+				return ValueType.BIG_DECIMAL;
+			else if (type == AtomicInteger.class)
+				return ValueType.ATOMIC_INTEGER;
+			else if (type == AtomicLong.class)
+				return ValueType.ATOMIC_LONG;
+			else
+				return ValueType.NUMBER;
+		} else if (type == String.class)
+			return ValueType.STRING;
+		// Arrays
+		else if (type == char[].class)
+			return ValueType.CHARS;
+		else if (type.isArray())
+			return ValueType.ARRAY;
+		else if (Collection.class.isAssignableFrom(type))
+			return ValueType.COLLECTION;
+		else if (Iterable.class.isAssignableFrom(type)
+				|| Iterator.class.isAssignableFrom(type))
+			return ValueType.ITERATOR;
+		// Objects
+		else if (Marshallers.get(type) != null)
+			return ValueType.MARSHALLED;
+		else
+			return ValueType.OBJECT;
 	}
 
 	/**
@@ -154,8 +192,12 @@ public class ObjectWriter implements IObjectWriter {
 	 * 
 	 * @param out
 	 *            The UBJ stream to write to.
+	 * @param mode
+	 *            The reflection mode nested objects are written with.
 	 * @param name
-	 *            A optional name (label) of the given value.
+	 *            The name (label) of the given value inside of its object, or
+	 *            <code>null</code> if it is an array element or the root
+	 *            object.
 	 * @param value
 	 *            The value to be written.
 	 * 
@@ -163,48 +205,73 @@ public class ObjectWriter implements IObjectWriter {
 	 *             if any error occurs while writing out to the
 	 *             {@link UBJOutputStream}.
 	 */
-	protected void dispatchWrite(UBJOutputStream out, String name, Object value)
-			throws IOException {
+	protected void dispatchWrite(UBJOutputStream out, Mode mode, String name,
+			Object value) throws IOException {
 		if (value == null)
 			writeNull(out, name);
-		else {
-			Class<?> valType = value.getClass();
-
-			// Values
-			if (isAssignable(valType, Boolean.class))
-				writeBoolean(out, name, (Boolean) value);
-			else if (isAssignable(valType, Number.class))
-				writeNumber(out, name, valType, (Number) value);
-			else if (isAssignable(valType, String.class))
-				writeString(out, name, (String) value);
-			// Arrays
-			else if (valType.isArray()) {
-				if ("char".equals(valType.getComponentType().getName()))
-					writeString(out, name, (char[]) value);
-				else
-					writeArray(out, name, value);
-			} else if (isAssignable(valType, Collection.class))
-				writeArray(out, name, (Collection<?>) value);
-			// Objects
-			else {
-				switch (mode) {
-				case FIELDS:
-					writeObjectByFields(out, valType.getSimpleName(), valType,
-							value);
-					break;
+		else
+			dispatchWrite(out, mode, name, VALUE_TYPES.get(value.getClass()),
+					value);
+	}
 
-				case METHODS:
-					writeObjectByMethods(out, valType.getSimpleName(), valType,
-							value);
-					break;
-				}
+	/**
+	 * Used to write the given non-<code>null</code> value as the given
+	 * {@link ValueType}, which must be the one {@link #VALUE_TYPES} holds for
+	 * the value's class.
+	 */
+	protected void dispatchWrite(UBJOutputStream out, Mode mode, String name,
+			ValueType type, Object value) throws IOException {
+		switch (type) {
+		case BOOLEAN:
+			writeBoolean(out, name, (Boolean) value);
+			break;
+
+		case STRING:
+			writeString(out, name, (String) value);
+			break;
+
+		case CHARS:
+			writeString(out, name, (char[]) value);
+			break;
+
+		case ARRAY:
+			writeArray(out, mode, name, value);
+			break;
+
+		case COLLECTION:
+			writeArray(out, mode, name, (Collection<?>) value);
+			break;
+
+		case ITERATOR:
+			writeArray(out, mode, name,
+					(value instanceof Iterator ? (Iterator<?>) value
+							: ((Iterable<?>) value).iterator()));
+			break;
+
+		case MARSHALLED:
+			writeMarshalled(out, name, value);
+			break;
+
+		case OBJECT:
+			switch (mode) {
+			case FIELDS:
+				writeObjectByFields(out, name, value.getClass(), value);
+				break;
+
+			case METHODS:
+				writeObjectByMethods(out, name, value.getClass(), value);
+				break;
 			}
+			break;
+
+		default:
+			writeNumber(out, name, type, (Number) value);
 		}
 	}
 
 	protected void writeNull(UBJOutputStream out, String name)
 			throws IOException {
-		if (sstack.peek() != ScopeType.ARRAY)
+		if (name != null)
 			out.writeString(name);
 
 		out.writeNull();
@@ -212,45 +279,67 @@ public class ObjectWriter implements IObjectWriter {
 
 	protected void writeBoolean(UBJOutputStream out, String name, boolean value)
 			throws IOException {
-		if (sstack.peek() != ScopeType.ARRAY)
+		if (name != null)
 			out.writeString(name);
 
 		out.writeBoolean(value);
 	}
 
-	protected void writeNumber(UBJOutputStream out, String name, Class<?> type,
-			Number value) throws IOException {
-		if (sstack.peek() != ScopeType.ARRAY)
+	protected void writeNumber(UBJOutputStream out, String name,
+			ValueType type, Number value) throws IOException {
+		if (name != null)
 			out.writeString(name);
 
-		if (isAssignable(type, Byte.class))
+		switch (type) {
+		case BYTE:
 			out.writeByte((Byte) value);
-		else if (isAssignable(type, Short.class))
+			break;
+
+		case INT16:
 			out.writeInt16((Short) value);
-		else if (isAssignable(type, Integer.class))
+			break;
+
+		case INT32:
 			out.writeInt32((Integer) value);
-		else if (isAssignable(type, Long.class))
+			break;
+
+		case INT64:
 			out.writeInt64((Long) value);
-		else if (isAssignable(type, Float.class))
+			break;
+
+		case FLOAT:
 			out.writeFloat((Float) value);
-		else if (isAssignable(type, Double.class))
+			break;
+
+		case DOUBLE:
 			out.writeDouble((Double) value);
-		else if (isAssignable(type, BigInteger.class))
+			break;
+
+		case BIG_INTEGER:
 			out.writeHuge((BigInteger) value);
-		else if (isAssignable(type, BigDecimal.class))
+			break;
+
+		case BIG_DECIMAL:
 			out.writeHuge((BigDecimal) value);
-		else if (isAssignable(type, AtomicInteger.class))
+			break;
+
+		case ATOMIC_INTEGER:
 			out.writeInt32(((AtomicInteger) value).get());
-		else if (isAssignable(type, AtomicLong.class))
+			break;
+
+		case ATOMIC_LONG:
 			out.writeInt64(((AtomicLong) value).get());
-		else
+			break;
+
+		default:
 			throw new IllegalArgumentException("Unsupported numeric type ["
-					+ type + "]");
+					+ value.getClass() + "]");
+		}
 	}
 
 	protected void writeString(UBJOutputStream out, String name, char[] value)
 			throws IOException {
-		if (sstack.peek() != ScopeType.ARRAY)
+		if (name != null)
 			out.writeString(name);
 
 		// TODO: Optimize this.
@@ -259,34 +348,57 @@ public class ObjectWriter implements IObjectWriter {
 
 	protected void writeString(UBJOutputStream out, String name, String value)
 			throws IOException {
-		if (sstack.peek() != ScopeType.ARRAY)
+		if (name != null)
 			out.writeString(name);
 
 		out.writeString(value);
 	}
 
-	protected void writeArray(UBJOutputStream out, String name, Object array)
-			throws IOException {
-		if (sstack.peek() != ScopeType.ARRAY)
+	protected void writeArray(UBJOutputStream out, Mode mode, String name,
+			Object array) throws IOException {
+		if (name != null)
 			out.writeString(name);
 
-		int length = Array.getLength(array);
-		out.writeArrayHeader(length);
-
-		// Enter array scope
-		sstack.push(ScopeType.ARRAY);
+		/*
+		 * Primitive arrays are handed to the stream's bulk writers so the
+		 * elements are never boxed or dispatched one at a time; numeric ones
+		 * are written as optimized ARRAYs (element type and count declared
+		 * once in the header, no per-element type markers).
+		 */
+		if (array instanceof int[])
+			out.writeTypedArray((int[]) array);
+		else if (array instanceof long[])
+			out.writeTypedArray((long[]) array);
+		else if (array instanceof double[])
+			out.writeTypedArray((double[]) array);
+		else if (array instanceof float[])
+			out.writeTypedArray((float[]) array);
+		else if (array instanceof byte[])
+			out.writeTypedArray((byte[]) array);
+		else if (array instanceof short[])
+			out.writeTypedArray((short[]) array);
+		else if (array instanceof boolean[])
+			out.writeArray((boolean[]) array);
+		else if (array instanceof Object[]) {
+			Object[] values = (Object[]) array;
+			out.writeArrayHeader(values.length);
 
-		// Write array elements
-		for (int i = 0; i < length; i++)
-			dispatchWrite(out, null, Array.get(array, i));
+			// Write array elements
+			for (int i = 0; i < values.length; i++)
+				dispatchWrite(out, mode, null, values[i]);
+		} else {
+			int length = Array.getLength(array);
+			out.writeArrayHeader(length);
 
-		// Exit array scope
-		sstack.pop();
+			// Write array elements
+			for (int i = 0; i < length; i++)
+				dispatchWrite(out, mode, null, Array.get(array, i));
+		}
 	}
 
-	protected void writeArray(UBJOutputStream out, String name,
+	protected void writeArray(UBJOutputStream out, Mode mode, String name,
 			Collection<?> collection) throws IOException {
-		if (sstack.peek() != ScopeType.ARRAY)
+		if (name != null)
 			out.writeString(name);
 
 		int length = collection.size();
@@ -294,9 +406,6 @@ public class ObjectWriter implements IObjectWriter {
 
 		Class<?> cType = collection.getClass();
 
-		// Enter array scope
-		sstack.push(ScopeType.ARRAY);
-
 		/*
 		 * We can iterate over a List more efficiently otherwise fall back to
 		 * using the collection's iterator.
@@ -306,262 +415,193 @@ public class ObjectWriter implements IObjectWriter {
 
 			// Write array elements
 			for (int i = 0; i < length; i++)
-				dispatchWrite(out, null, list.get(i));
+				dispatchWrite(out, mode, null, list.get(i));
 		} else {
 			Iterator<?> iter = collection.iterator();
 
 			// Write array elements
 			while (iter.hasNext())
-				dispatchWrite(out, null, iter.next());
+				dispatchWrite(out, mode, null, iter.next());
 		}
-
-		// Exit array scope
-		sstack.pop();
 	}
 
-	protected void writeObjectByFields(UBJOutputStream out, String name,
-			Class<?> type, Object obj) throws IOException {
-		/*
-		 * Extra checks for the state of the 'name' arg (not-null) because this
-		 * method is called directly from the public writeObject(...) method
-		 * which specifically passes a null name for the root element.
-		 */
-		if (name != null && sstack.peek() != ScopeType.ARRAY && !name.isEmpty())
+	/**
+	 * Used to write the values of the given {@link Iterator} (or of an
+	 * {@link Iterable} that isn't a {@link Collection}) out as an unbounded
+	 * ARRAY terminated by an END marker; elements are written as they are
+	 * produced (e.g. the rows of a database cursor) without ever being
+	 * buffered to count them first.
+	 */
+	protected void writeArray(UBJOutputStream out, Mode mode, String name,
+			Iterator<?> iter) throws IOException {
+		if (name != null)
 			out.writeString(name);
 
-		// Check cache for existing filtered field list.
-		List<Field> fieldList = fieldCache.get(type);
+		out.writeUnboundedArrayHeader();
 
-		// Filter and cache field list if we didn't already.
-		if (fieldList == null) {
-			// Get all public, inherited fields.
-			Field[] fields = type.getFields();
-			fieldList = new ArrayList<Field>(fields.length);
-
-			// Filter the fields down to just the ones we want to map.
-			for (int i = 0; i < fields.length; i++) {
-				Field f = fields[i];
-				int mods = f.getModifiers();
-
-				// Skip static, transient or synthetic fields.
-				if (Modifier.isStatic(mods) || Modifier.isTransient(mods)
-						|| f.isSynthetic())
-					continue;
+		// Write array elements
+		while (iter.hasNext())
+			dispatchWrite(out, mode, null, iter.next());
 
-				fieldList.add(f);
-			}
-		}
+		out.writeEnd();
+	}
 
-		out.writeObjectHeader(fieldList.size());
+	/**
+	 * Used to write the given object out using the {@link IMarshaller}
+	 * generated for its {@link Marshalled} class; regardless of the
+	 * {@link Mode} in use.
+	 */
+	@SuppressWarnings("unchecked")
+	protected void writeMarshalled(UBJOutputStream out, String name,
+			Object obj) throws IOException {
+		if (name != null)
+			out.writeString(name);
 
-		// Enter object scope
-		sstack.push(ScopeType.OBJECT);
+		((IMarshaller<Object>) Marshallers.get(obj.getClass())).serialize(out,
+				obj);
+	}
 
-		// Write out the values for each field we are mapping.
-		for (int i = 0, s = fieldList.size(); i < s; i++) {
-			Field f = fieldList.get(i);
-			Object fValue = null;
+	protected void writeObjectByFields(UBJOutputStream out, String name,
+			Class<?> type, Object obj) throws IOException {
+		// Check cache for an existing plan.
+		ObjectPlan plan = fieldCache.get(type);
 
-			try {
-				// Safely reflect the field's value.
-				fValue = f.get(obj);
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
+		/*
+		 * Create and cache the plan if we didn't already. If another thread
+		 * beat us to it, use its plan so all threads share the same one.
+		 */
+		if (plan == null) {
+			plan = new ObjectPlan(PropertyAccessor.forFields(type));
+			ObjectPlan existing = fieldCache.putIfAbsent(type, plan);
 
-			dispatchWrite(out, f.getName(), fValue);
+			if (existing != null)
+				plan = existing;
 		}
 
-		// Exit object scope
-		sstack.pop();
+		writeObjectByPlan(out, Mode.FIELDS, name, plan, obj);
 	}
 
 	protected void writeObjectByMethods(UBJOutputStream out, String name,
 			Class<?> type, Object obj) throws IOException {
+		// Check cache for an existing plan.
+		ObjectPlan plan = methodCache.get(type);
+
 		/*
-		 * Extra checks for the state of the 'name' arg (not-null) because this
-		 * method is called directly from the public writeObject(...) method
-		 * which specifically passes a null name for the root element.
+		 * Create and cache the plan if we didn't already. If another thread
+		 * beat us to it, use its plan so all threads share the same one.
 		 */
-		if (name != null && sstack.peek() != ScopeType.ARRAY && !name.isEmpty())
-			out.writeString(name);
+		if (plan == null) {
+			plan = new ObjectPlan(PropertyAccessor.forMethods(type));
+			ObjectPlan existing = methodCache.putIfAbsent(type, plan);
 
-		// Check cache for existing filtered method list.
-		List<MethodCacheElement> methodList = methodCache.get(type);
-
-		// Filter and cache field list if we didn't already.
-		if (methodList == null) {
-			// Get all public, inherited methods.
-			Method[] methods = type.getMethods();
-			methodList = new ArrayList<MethodCacheElement>(methods.length);
-
-			// Filter the methods down to just the ones we want to map.
-			for (int i = 0; i < methods.length; i++) {
-				Method m = methods[i];
-				int mods = m.getModifiers();
-
-				// Skip static, transient, synthetic or methods that take args.
-				if (Modifier.isStatic(mods) || Modifier.isTransient(mods)
-						|| m.isSynthetic() || m.getParameterTypes().length != 0)
-					continue;
-
-				int j = 0;
-				String mName = m.getName();
-
-				/*
-				 * We need to normalize the method name into a proper property
-				 * name. First we need to find where the prefix is to chop
-				 * off...
-				 */
-				if (mName.startsWith("is"))
-					j = 2;
-				else if (mName.startsWith("get") || mName.startsWith("has")
-						|| mName.startsWith("can"))
-					j = 3;
-
-				/*
-				 * Skip mapping this property totally if the method name isn't
-				 * long enough to be used as a property name (e.g. the method
-				 * name is just "get" or "is" and not something like "getAge" or
-				 * "isRegistered".
-				 */
-				if (j >= mName.length())
-					continue;
-
-				/*
-				 * Now we set the property name to the method's name with the
-				 * prefix chopped and the first char lowercased.
-				 */
-				mName = Character.toLowerCase(mName.charAt(j))
-						+ mName.substring(j + 1);
-
-				methodList.add(new MethodCacheElement(m, mName));
-			}
-		}
-
-		out.writeObjectHeader(methodList.size());
-
-		// Enter object scope
-		sstack.push(ScopeType.OBJECT);
-
-		// Write out the values for each method we are mapping.
-		for (int i = 0, s = methodList.size(); i < s; i++) {
-			MethodCacheElement cacheElement = methodList.get(i);
-			Object mValue = null;
-
-			try {
-				// Safely reflect the method value.
-				mValue = cacheElement.method.invoke(obj);
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-
-			dispatchWrite(out, cacheElement.name, mValue);
+			if (existing != null)
+				plan = existing;
 		}
 
-		// Exit object scope
-		sstack.pop();
+		writeObjectByPlan(out, Mode.METHODS, name, plan, obj);
 	}
 
-	/**
-	 * Class used to represent a (FIFO) stack of scopes that the reflection code
-	 * uses to keep track of where it is while writing out an object; this is
-	 * important so the code knows when to include labels for values (in
-	 * objects) and when not to (in arrays).
-	 * 
-	 * @author Riyad Kalla (software@thebuzzmedia.com)
-	 */
-	protected class ScopeStack {
-		private int pos;
-		private ScopeType[] levels;
+	protected void writeObjectByPlan(UBJOutputStream out, Mode mode,
+			String name, ObjectPlan plan, Object obj) throws IOException {
+		PropertyAccessor[] accessors = plan.accessors;
 
-		public ScopeStack() {
-			// Support a scope depth up to 128-levels.
-			levels = new ScopeType[128];
-		}
-
-		public void reset() {
-			pos = -1;
-		}
+		/*
+		 * Extra checks for the state of the 'name' arg (not-null) because this
+		 * method is called directly from the public writeObject(...) method
+		 * which specifically passes a null name for the root element.
+		 */
+		if (name != null && !name.isEmpty())
+			out.writeString(name);
 
-		public void push(ScopeType type) {
-			levels[++pos] = type;
-		}
+		out.writeObjectHeader(accessors.length);
 
-		public ScopeType peek() {
-			return (pos < 0 ? null : levels[pos]);
-		}
+		// Write out the values for each property we are mapping.
+		for (int i = 0; i < accessors.length; i++) {
+			PropertyAccessor p = accessors[i];
 
-		public ScopeType pop() {
-			return levels[pos--];
-		}
-	}
+			/*
+			 * Primitive properties are read through the typed getter of their
+			 * kind and written directly so the value is never boxed.
+			 */
+			try {
+				switch (p.kind) {
+				case PropertyAccessor.BOOLEAN:
+					out.writeString(p.name);
+					out.writeBoolean(p.getBoolean(obj));
+					break;
 
-	/**
-	 * Class used to represent a key in the assignableCache Map.
-	 * <p/>
-	 * Key's represent the combination of the [from,to] classes that the
-	 * assignability is being tested for while the map's value is represented by
-	 * a {@link Boolean} value indicating if the assignability from-&gt;to is
-	 * possible.
-	 * 
-	 * @author Riyad Kalla (software@thebuzzmedia.com)
-	 */
-	private class AssignableCacheKey {
-		Class<?> from;
-		Class<?> to;
+				case PropertyAccessor.BYTE:
+					out.writeString(p.name);
+					out.writeByte(p.getByte(obj));
+					break;
 
-		public AssignableCacheKey() {
-			set(null, null);
-		}
+				case PropertyAccessor.SHORT:
+					out.writeString(p.name);
+					out.writeInt16(p.getShort(obj));
+					break;
 
-		public AssignableCacheKey(Class<?> from, Class<?> to) {
-			set(from, to);
-		}
+				case PropertyAccessor.INT:
+					out.writeString(p.name);
+					out.writeInt32(p.getInt(obj));
+					break;
 
-		@Override
-		public int hashCode() {
-			return (from.hashCode() + to.hashCode());
-		}
+				case PropertyAccessor.LONG:
+					out.writeString(p.name);
+					out.writeInt64(p.getLong(obj));
+					break;
 
-		@Override
-		public boolean equals(Object obj) {
-			boolean equal = false;
+				case PropertyAccessor.FLOAT:
+					out.writeString(p.name);
+					out.writeFloat(p.getFloat(obj));
+					break;
 
-			if (obj != null)
-				equal = (hashCode() == obj.hashCode());
+				case PropertyAccessor.DOUBLE:
+					out.writeString(p.name);
+					out.writeDouble(p.getDouble(obj));
+					break;
 
-			return equal;
-		}
+				default:
+					Object value = p.getObject(obj);
 
-		public void set(Class<?> from, Class<?> to) {
-			this.from = from;
-			this.to = to;
+					// Skip the type lookup for values of a final declared type.
+					if (value != null && plan.types[i] != null)
+						dispatchWrite(out, mode, p.name, plan.types[i], value);
+					else
+						dispatchWrite(out, mode, p.name, value);
+				}
+			} catch (IOException e) {
+				throw e;
+			} catch (Throwable t) {
+				throw p.fail(obj, t);
+			}
 		}
 	}
 
 	/**
-	 * Class used to represent a method cache element.
-	 * <p/>
-	 * When methods are used to reflect values out of objects (
-	 * {@link Mode#METHODS}) the names of the methods have to be normalized into
-	 * the field names for the UBJ representation. This is done by trimming any
-	 * of the 'getter' style property prefixes off of the method name (e.g.
-	 * "is", "can", "has" or "get") and then appending the rest of the method
-	 * name with the first char lowercased.
-	 * <p/>
-	 * To avoid doing this string manipulation every time, we cache it along
-	 * with the cached method name from the reflection result.
+	 * Class used to represent the cached plan for writing out objects of a
+	 * class; the accessors for its properties along with the {@link ValueType}
+	 * of every property whose declared type is final, and so always the
+	 * runtime type of its value, bound up front.
 	 * 
 	 * @author Riyad Kalla (software@thebuzzmedia.com)
 	 */
-	private class MethodCacheElement {
-		Method method;
-		String name;
-
-		public MethodCacheElement(Method method, String name) {
-			this.method = method;
-			this.name = name;
+	protected static class ObjectPlan {
+		final PropertyAccessor[] accessors;
+		final ValueType[] types;
+
+		ObjectPlan(List<PropertyAccessor> accessorList) {
+			accessors = accessorList.toArray(new PropertyAccessor[accessorList
+					.size()]);
+			types = new ValueType[accessors.length];
+
+			for (int i = 0; i < accessors.length; i++) {
+				Class<?> type = accessors[i].type;
+
+				// Primitives are written by the accessor's kind instead.
+				if (!type.isPrimitive()
+						&& Modifier.isFinal(type.getModifiers()))
+					types[i] = VALUE_TYPES.get(type);
+			}
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,339 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io.reflect;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Class used to represent a single readable property (a field or a getter) of
+ * a class, backed by a {@link MethodHandle} that is looked up and adapted once
+ * when the accessor is created.
+ * <p/>
+ * A handle held in an instance field is not a constant to the JIT, so calls
+ * through it are never inlined. Instead every accessor is an instance of its
+ * own hidden copy of {@link PropertyAccessorTemplate}, which holds the handle
+ * in a <code>static final</code> slot; the JIT folds that slot to a constant
+ * and inlines the field read or getter call straight into the typed getter
+ * (e.g. {@link #getInt(Object)}) of the copy.
+ * <p/>
+ * Primitive properties get a handle of type <code>(Object)prim</code> and are
+ * read through the typed getter of their {@link #kind} without ever boxing the
+ * value; all other properties get a handle of type <code>(Object)Object</code>
+ * and are read through {@link #getObject(Object)}.
+ * <p/>
+ * This class is intentionally package-private as (for the time being) it is a
+ * hidden implementation detail of the default reflection-based IO classes.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+abstract class PropertyAccessor {
+	/*
+	 * Kinds of properties; every primitive type besides char (which has no
+	 * UBJ counterpart) gets its own kind so it can be read unboxed.
+	 */
+	static final int REFERENCE = 0;
+	static final int BOOLEAN = 1;
+	static final int BYTE = 2;
+	static final int SHORT = 3;
+	static final int INT = 4;
+	static final int LONG = 5;
+	static final int FLOAT = 6;
+	static final int DOUBLE = 7;
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	/*
+	 * Bytes of the template class every accessor is a hidden copy of.
+	 */
+	private static final byte[] TEMPLATE;
+
+	static {
+		InputStream in = PropertyAccessor.class
+				.getResourceAsStream("PropertyAccessorTemplate.class");
+
+		try {
+			if (in == null)
+				throw new IOException("Class file not found");
+
+			try {
+				TEMPLATE = in.readAllBytes();
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new ExceptionInInitializerError(
+					"Unable to read the PropertyAccessorTemplate class: "
+							+ e.getMessage());
+		}
+	}
+
+	final String name;
+	final Class<?> type;
+	final int kind;
+
+	PropertyAccessor(String name, Class<?> type) {
+		this.name = name;
+		this.type = type;
+
+		if (type == boolean.class)
+			kind = BOOLEAN;
+		else if (type == byte.class)
+			kind = BYTE;
+		else if (type == short.class)
+			kind = SHORT;
+		else if (type == int.class)
+			kind = INT;
+		else if (type == long.class)
+			kind = LONG;
+		else if (type == float.class)
+			kind = FLOAT;
+		else if (type == double.class)
+			kind = DOUBLE;
+		else
+			kind = REFERENCE;
+	}
+
+	/*
+	 * Typed getters; only the one matching the kind of the property may be
+	 * called.
+	 */
+	abstract Object getObject(Object obj) throws Throwable;
+
+	abstract boolean getBoolean(Object obj) throws Throwable;
+
+	abstract byte getByte(Object obj) throws Throwable;
+
+	abstract short getShort(Object obj) throws Throwable;
+
+	abstract int getInt(Object obj) throws Throwable;
+
+	abstract long getLong(Object obj) throws Throwable;
+
+	abstract float getFloat(Object obj) throws Throwable;
+
+	abstract double getDouble(Object obj) throws Throwable;
+
+	/**
+	 * Used to get the boxed value of this property from the given object;
+	 * primitive kinds should be read through their typed getter instead.
+	 */
+	Object get(Object obj) {
+		try {
+			switch (kind) {
+			case BOOLEAN:
+				return Boolean.valueOf(getBoolean(obj));
+			case BYTE:
+				return Byte.valueOf(getByte(obj));
+			case SHORT:
+				return Short.valueOf(getShort(obj));
+			case INT:
+				return Integer.valueOf(getInt(obj));
+			case LONG:
+				return Long.valueOf(getLong(obj));
+			case FLOAT:
+				return Float.valueOf(getFloat(obj));
+			case DOUBLE:
+				return Double.valueOf(getDouble(obj));
+			default:
+				return getObject(obj);
+			}
+		} catch (Throwable t) {
+			throw fail(obj, t);
+		}
+	}
+
+	/**
+	 * Used to wrap the given failure to read this property from the given
+	 * object in an exception describing which property failed.
+	 */
+	RuntimeException fail(Object obj, Throwable t) {
+		if (t instanceof Error)
+			throw (Error) t;
+
+		return new IllegalArgumentException("Unable to read property ["
+				+ name + "] of type [" + obj.getClass().getName() + "]", t);
+	}
+
+	/**
+	 * Used to create the accessor for the property of the given name and type
+	 * read by the given handle; a new hidden copy of
+	 * {@link PropertyAccessorTemplate} holding the handle, adapted to the kind
+	 * of the property, as its class data.
+	 */
+	static PropertyAccessor create(String name, Class<?> type,
+			MethodHandle getter) throws IllegalAccessException {
+		getter = getter.asType(MethodType.methodType(
+				type.isPrimitive() && type != char.class ? type : Object.class,
+				Object.class));
+		MethodHandles.Lookup lookup = LOOKUP.defineHiddenClassWithClassData(
+				TEMPLATE, getter, true);
+
+		try {
+			return (PropertyAccessor) lookup.findConstructor(
+					lookup.lookupClass(),
+					MethodType.methodType(void.class, String.class,
+							Class.class)).invoke(name, type);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException(
+					"Unable to create the accessor for property [" + name
+							+ "]", t);
+		}
+	}
+
+	/**
+	 * Used to get the fields of the given type that are mapped by the
+	 * reflection-based IO classes; all non-static, non-transient,
+	 * non-synthetic fields declared by the type or any of its superclasses
+	 * (regardless of their visibility) in the same order as
+	 * {@link Class#getFields()}. Fields hidden by a field of the same name in
+	 * a subclass are skipped.
+	 * <p/>
+	 * Non-public fields are made accessible; any that can't be (e.g. because
+	 * of a {@link SecurityManager} or module boundary) are skipped.
+	 */
+	static List<Field> getFields(Class<?> type) {
+		List<Field> fieldList = new ArrayList<Field>();
+		Set<String> names = new HashSet<String>();
+
+		for (Class<?> c = type; c != null && c != Object.class; c = c
+				.getSuperclass()) {
+			Field[] fields = c.getDeclaredFields();
+
+			for (int i = 0; i < fields.length; i++) {
+				Field f = fields[i];
+				int mods = f.getModifiers();
+
+				// Skip static, transient, synthetic or hidden fields.
+				if (Modifier.isStatic(mods) || Modifier.isTransient(mods)
+						|| f.isSynthetic() || !names.add(f.getName()))
+					continue;
+
+				if (!Modifier.isPublic(mods)
+						|| !Modifier.isPublic(c.getModifiers())) {
+					try {
+						f.setAccessible(true);
+					} catch (RuntimeException e) {
+						continue;
+					}
+				}
+
+				fieldList.add(f);
+			}
+		}
+
+		return fieldList;
+	}
+
+	/**
+	 * Used to create accessors for all the fields of the given type returned
+	 * by {@link #getFields(Class)}.
+	 */
+	static List<PropertyAccessor> forFields(Class<?> type) {
+		List<Field> fields = getFields(type);
+		List<PropertyAccessor> accessors = new ArrayList<PropertyAccessor>(
+				fields.size());
+
+		for (int i = 0, s = fields.size(); i < s; i++) {
+			Field f = fields.get(i);
+
+			try {
+				accessors.add(create(f.getName(), f.getType(),
+						LOOKUP.unreflectGetter(f)));
+			} catch (IllegalAccessException e) {
+				// Unreachable from here; skip it like an inaccessible field.
+			}
+		}
+
+		return accessors;
+	}
+
+	/**
+	 * Used to create accessors for all the public getters of the given type.
+	 * <p/>
+	 * Getters are public, non-static, no-arg, non-void methods not declared by
+	 * {@link Object} whose names start with one of the "is", "get", "has" or
+	 * "can" prefixes. The property name is the method name with the prefix
+	 * chopped off and the first char lowercased (e.g. "isRegistered" becomes
+	 * "registered").
+	 */
+	static List<PropertyAccessor> forMethods(Class<?> type) {
+		// Get all public, inherited methods.
+		Method[] methods = type.getMethods();
+		List<PropertyAccessor> accessors = new ArrayList<PropertyAccessor>(
+				methods.length);
+
+		for (int i = 0; i < methods.length; i++) {
+			Method m = methods[i];
+			String name = m.getName();
+			int j = 0;
+
+			if (name.startsWith("is"))
+				j = 2;
+			else if (name.startsWith("get") || name.startsWith("has")
+					|| name.startsWith("can"))
+				j = 3;
+
+			/*
+			 * Skip static, synthetic, non-getter methods or getters whose name
+			 * is just the prefix (e.g. "get" or "is").
+			 */
+			if (Modifier.isStatic(m.getModifiers()) || m.isSynthetic()
+					|| m.getParameterTypes().length != 0
+					|| m.getReturnType() == void.class
+					|| m.getDeclaringClass() == Object.class || j == 0
+					|| j >= name.length())
+				continue;
+
+			/*
+			 * Public methods of non-public classes (e.g. inherited through a
+			 * public subclass) still need to be made accessible.
+			 */
+			if (!Modifier.isPublic(m.getDeclaringClass().getModifiers())) {
+				try {
+					m.setAccessible(true);
+				} catch (RuntimeException e) {
+					continue;
+				}
+			}
+
+			name = Character.toLowerCase(name.charAt(j)) + name.substring(j + 1);
+
+			try {
+				accessors.add(create(name, m.getReturnType(),
+						LOOKUP.unreflect(m)));
+			} catch (IllegalAccessException e) {
+				// Unreachable from here; skip it.
+			}
+		}
+
+		return accessors;
+	}
+}
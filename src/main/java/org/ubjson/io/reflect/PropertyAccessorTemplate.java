@@ -0,0 +1,90 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io.reflect;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+
+/**
+ * Template of the classes behind every {@link PropertyAccessor}; this class
+ * itself is never loaded. Instead {@link PropertyAccessor} defines a new hidden
+ * copy of it for every property, each with the handle reading that property
+ * as its class data.
+ * <p/>
+ * The copy holds the handle in the <code>static final</code> {@link #GETTER}
+ * slot, which the JIT treats as a constant, so the field read or getter call
+ * behind the handle is inlined into the typed getters below. Only the getter
+ * matching the type of the handle works; the others throw a
+ * {@link java.lang.invoke.WrongMethodTypeException}.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+final class PropertyAccessorTemplate extends PropertyAccessor {
+	private static final MethodHandle GETTER;
+
+	static {
+		try {
+			GETTER = MethodHandles.classData(MethodHandles.lookup(),
+					"_", MethodHandle.class);
+		} catch (IllegalAccessException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	PropertyAccessorTemplate(String name, Class<?> type) {
+		super(name, type);
+	}
+
+	@Override
+	Object getObject(Object obj) throws Throwable {
+		return (Object) GETTER.invokeExact(obj);
+	}
+
+	@Override
+	boolean getBoolean(Object obj) throws Throwable {
+		return (boolean) GETTER.invokeExact(obj);
+	}
+
+	@Override
+	byte getByte(Object obj) throws Throwable {
+		return (byte) GETTER.invokeExact(obj);
+	}
+
+	@Override
+	short getShort(Object obj) throws Throwable {
+		return (short) GETTER.invokeExact(obj);
+	}
+
+	@Override
+	int getInt(Object obj) throws Throwable {
+		return (int) GETTER.invokeExact(obj);
+	}
+
+	@Override
+	long getLong(Object obj) throws Throwable {
+		return (long) GETTER.invokeExact(obj);
+	}
+
+	@Override
+	float getFloat(Object obj) throws Throwable {
+		return (float) GETTER.invokeExact(obj);
+	}
+
+	@Override
+	double getDouble(Object obj) throws Throwable {
+		return (double) GETTER.invokeExact(obj);
+	}
+}
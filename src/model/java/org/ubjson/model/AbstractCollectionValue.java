@@ -2,6 +2,7 @@ package org.ubjson.model;
 
 import static org.ubjson.io.IUBJTypeMarker.ARRAY;
 import static org.ubjson.io.IUBJTypeMarker.ARRAY_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.ARRAY_OPTIMIZED;
 import static org.ubjson.io.IUBJTypeMarker.BYTE;
 import static org.ubjson.io.IUBJTypeMarker.DOUBLE;
 import static org.ubjson.io.IUBJTypeMarker.END;
@@ -30,6 +31,24 @@ import java.util.Map.Entry;
 import org.ubjson.io.UBJOutputStream;
 
 public abstract class AbstractCollectionValue<T> extends AbstractValue<T> {
+	protected boolean unbounded;
+
+	/**
+	 * Used to determine if this container is written out as an unbounded
+	 * (streaming) container terminated by an END marker instead of with its
+	 * size in its header.
+	 * <p/>
+	 * Containers deserialized from an unbounded container are unbounded, so
+	 * they are written back out the way they were read.
+	 */
+	public boolean isUnbounded() {
+		return unbounded;
+	}
+
+	public void setUnbounded(boolean unbounded) {
+		this.unbounded = unbounded;
+	}
+
 	protected void writeValue(UBJOutputStream out, IValue<?> value)
 			throws IOException, IllegalArgumentException {
 		switch (value.getType()) {
@@ -92,17 +111,37 @@ public abstract class AbstractCollectionValue<T> extends AbstractValue<T> {
 
 		case ARRAY:
 		case ARRAY_COMPACT:
+			// Primitive-backed ARRAYs write their elements in bulk.
+			if (value instanceof PrimitiveArrayValue) {
+				value.serialize(out);
+				break;
+			}
+
 			@SuppressWarnings("unchecked")
 			List<? extends IValue<?>> list = (List<? extends IValue<?>>) value
 					.getValue();
 			int size = list.size();
+			boolean streaming = isUnbounded(value);
 
 			// write header
-			out.writeArrayHeader(size);
+			if (streaming)
+				out.writeUnboundedArrayHeader();
+			else
+				out.writeArrayHeader(size);
 
-			// delegate element write recursively
+			/*
+			 * Let each element write itself so values with their own encoding
+			 * (e.g. lazy containers re-using their original bytes) can.
+			 */
 			for (int i = 0; i < size; i++)
-				writeValue(out, list.get(i));
+				list.get(i).serialize(out);
+
+			if (streaming)
+				out.writeEnd();
+			break;
+
+		case ARRAY_OPTIMIZED:
+			value.serialize(out);
 			break;
 
 		case OBJECT:
@@ -111,9 +150,13 @@ public abstract class AbstractCollectionValue<T> extends AbstractValue<T> {
 			Map<String, ? extends IValue<?>> map = (Map<String, ? extends IValue<?>>) value
 					.getValue();
 			size = map.size();
+			streaming = isUnbounded(value);
 
 			// write header
-			out.writeObjectHeader(size);
+			if (streaming)
+				out.writeUnboundedObjectHeader();
+			else
+				out.writeObjectHeader(size);
 
 			Iterator<?> entries = map.entrySet().iterator();
 
@@ -125,10 +168,18 @@ public abstract class AbstractCollectionValue<T> extends AbstractValue<T> {
 				// write name
 				out.writeString(item.getKey());
 
-				// delegate value-write recursively
-				writeValue(out, item.getValue());
+				// let the value write itself
+				item.getValue().serialize(out);
 			}
+
+			if (streaming)
+				out.writeEnd();
 			break;
 		}
 	}
-}
\ No newline at end of file
+
+	private static boolean isUnbounded(IValue<?> value) {
+		return (value instanceof AbstractCollectionValue<?> && ((AbstractCollectionValue<?>) value)
+				.isUnbounded());
+	}
+}
\ No newline at end of file
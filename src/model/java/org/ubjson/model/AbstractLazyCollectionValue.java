@@ -0,0 +1,743 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.model;
+
+import static org.ubjson.io.IUBJTypeMarker.ARRAY;
+import static org.ubjson.io.IUBJTypeMarker.ARRAY_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.ARRAY_OPTIMIZED;
+import static org.ubjson.io.IUBJTypeMarker.BYTE;
+import static org.ubjson.io.IUBJTypeMarker.CONTAINER_COUNT;
+import static org.ubjson.io.IUBJTypeMarker.CONTAINER_TYPE;
+import static org.ubjson.io.IUBJTypeMarker.DOUBLE;
+import static org.ubjson.io.IUBJTypeMarker.END;
+import static org.ubjson.io.IUBJTypeMarker.FALSE;
+import static org.ubjson.io.IUBJTypeMarker.FLOAT;
+import static org.ubjson.io.IUBJTypeMarker.HUGE;
+import static org.ubjson.io.IUBJTypeMarker.HUGE_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.INT16;
+import static org.ubjson.io.IUBJTypeMarker.INT32;
+import static org.ubjson.io.IUBJTypeMarker.INT64;
+import static org.ubjson.io.IUBJTypeMarker.NOOP;
+import static org.ubjson.io.IUBJTypeMarker.NULL;
+import static org.ubjson.io.IUBJTypeMarker.OBJECT;
+import static org.ubjson.io.IUBJTypeMarker.OBJECT_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.STRING;
+import static org.ubjson.io.IUBJTypeMarker.STRING_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.TRUE;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import org.ubjson.io.ByteArrayInputStream;
+import org.ubjson.io.UBJFormatException;
+import org.ubjson.io.UBJInputStream;
+import org.ubjson.io.UBJInputStreamParser;
+import org.ubjson.io.UBJOutputStream;
+import org.ubjson.io.charset.UTF8Decoder;
+
+/**
+ * Base class for the lazy container values ({@link LazyArrayValue} and
+ * {@link LazyObjectValue}) that are built directly on top of the encoded bytes
+ * of a container.
+ * <p/>
+ * Creating a lazy container only indexes its direct children: the byte range
+ * each child occupies (and the name of each field for objects). A child is
+ * decoded into an {@link IValue} the first time it is reached through the
+ * container's value ({@link #getValue()}); child containers are themselves
+ * lazy. As long as nothing in a (sub)tree was modified,
+ * {@link #serialize(UBJOutputStream)} writes its original bytes back out
+ * verbatim instead of re-encoding it.
+ * <p/>
+ * Lazy containers share (and never modify) the <code>byte[]</code> they were
+ * created from; the caller must not change it while they are in use.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public abstract class AbstractLazyCollectionValue<T> extends
+		AbstractCollectionValue<T> {
+	protected byte[] data;
+	protected int offset;
+	protected int length;
+
+	/*
+	 * Per-child state: the field name (objects only; names is null for
+	 * arrays), the [start, end) range of the encoded child in data (start is
+	 * -1 for children added or replaced after creation) and the decoded
+	 * child, if it has been decoded yet.
+	 */
+	protected int size;
+	protected String[] names;
+	protected int[] starts;
+	protected int[] ends;
+	protected IValue<?>[] values;
+
+	// Set once a child is added, removed or replaced.
+	protected boolean modified;
+
+	/**
+	 * Creates a lazy container over the ARRAY (or OBJECT if
+	 * <code>object</code> is <code>true</code>) encoded at the start of the
+	 * given range; the range may extend past the end of the container.
+	 * 
+	 * @throws UBJFormatException
+	 *             if the range does not start with a container of the
+	 *             expected type or the container is truncated or malformed.
+	 */
+	protected AbstractLazyCollectionValue(byte[] data, int offset, int length,
+			boolean object) throws IllegalArgumentException,
+			UBJFormatException {
+		if (data == null)
+			throw new IllegalArgumentException("data cannot be null");
+		if (offset < 0 || length < 0 || (offset + length) > data.length)
+			throw new IllegalArgumentException("offset [" + offset
+					+ "] and length [" + length
+					+ "] must be >= 0 and (offset + length)["
+					+ (offset + length) + "] must be <= data.length ["
+					+ data.length + "]");
+
+		this.data = data;
+		this.offset = offset;
+
+		// Trim the range down to the container itself.
+		this.length = index(offset, offset + length, object) - offset;
+	}
+
+	@Override
+	public void serialize(UBJOutputStream out) throws IllegalArgumentException,
+			IOException {
+		if (out == null)
+			throw new IllegalArgumentException("out cannot be null");
+
+		// Untouched; copy the original bytes straight out.
+		if (!isModified()) {
+			out.write(data, offset, length);
+			return;
+		}
+
+		if (names == null)
+			out.writeArrayHeader(size);
+		else
+			out.writeObjectHeader(size);
+
+		for (int i = 0; i < size; i++) {
+			if (names != null)
+				out.writeString(names[i]);
+
+			writeChild(out, i);
+		}
+	}
+
+	@Override
+	public void deserialize(UBJInputStreamParser in)
+			throws IllegalArgumentException, IOException, UBJFormatException {
+		throw new UnsupportedOperationException(
+				"Lazy containers can only be created from the encoded bytes of the container (byte[]); they cannot be deserialized from a stream.");
+	}
+
+	/**
+	 * Used to determine if this container, or any container below it that has
+	 * been decoded, has been modified since it was created (in which case it
+	 * can no longer be written out as its original bytes).
+	 */
+	public boolean isModified() {
+		if (modified)
+			return true;
+
+		for (int i = 0; i < size; i++) {
+			IValue<?> v = values[i];
+
+			if (v instanceof AbstractLazyCollectionValue<?>
+					&& ((AbstractLazyCollectionValue<?>) v).isModified())
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Used to get the number of children in this container without decoding
+	 * any of them.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Used to get the range of bytes [<code>getOffset()</code>,
+	 * <code>getOffset() + getLength()</code>) in {@link #getData()} this
+	 * container was created from.
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Used to parse the header of the container starting at
+	 * <code>start</code> and record the name (for objects) and byte range of
+	 * each of its children.
+	 * 
+	 * @return the index right after the end of the container.
+	 */
+	protected int index(int start, int limit, boolean object)
+			throws UBJFormatException {
+		int i = skipNoop(start, limit);
+		byte type = data[i];
+
+		if (object ? (type != OBJECT && type != OBJECT_COMPACT)
+				: (type != ARRAY && type != ARRAY_COMPACT))
+			throw new UBJFormatException(i, "Expected "
+					+ (object ? "an OBJECT" : "an ARRAY")
+					+ " container at index " + i
+					+ " but found a type marker of byte value " + type
+					+ " (char='" + ((char) type) + "').");
+
+		int count = readLength(i, limit);
+		i += (type == ARRAY_COMPACT || type == OBJECT_COMPACT ? 2 : 5);
+
+		// Every child takes at least 1 byte; don't trust a bogus count.
+		if (count > limit - i)
+			throw new UBJFormatException(i, "Unexpected end of data at index "
+					+ limit + "; the container at index " + start
+					+ " claims " + count + " children.");
+
+		// Unbounded containers (count -1) grow as their children are found.
+		int capacity = (count == -1 ? 8 : count);
+
+		if (object)
+			names = new String[capacity];
+
+		starts = new int[capacity];
+		ends = new int[capacity];
+		values = new IValue<?>[capacity];
+		size = 0;
+
+		for (int n = 0; count == -1 || n < count; n++) {
+			if (count == -1) {
+				i = skipNoop(i, limit);
+
+				// The END marker terminates an unbounded container.
+				if (data[i] == END) {
+					i++;
+					break;
+				}
+
+				ensureCapacity(n + 1);
+			}
+
+			if (object) {
+				i = skipNoop(i, limit);
+
+				byte kt = data[i];
+
+				if (kt != STRING && kt != STRING_COMPACT)
+					throw new UBJFormatException(i,
+							"Expected a STRING field name at index " + i
+									+ " but found a type marker of byte value "
+									+ kt + " (char='" + ((char) kt) + "').");
+
+				int header = (kt == STRING_COMPACT ? 2 : 5);
+				int end = skip(i, limit);
+
+				names[n] = decodeString(i + header, end - (i + header));
+				i = end;
+			}
+
+			i = skipNoop(i, limit);
+
+			starts[n] = i;
+			ends[n] = i = skip(i, limit);
+			size = n + 1;
+		}
+
+		return i;
+	}
+
+	/**
+	 * Used to get child <code>i</code>, decoding it first if needed.
+	 */
+	protected IValue<?> child(int i) {
+		IValue<?> v = values[i];
+
+		if (v == null)
+			values[i] = v = decode(starts[i], ends[i]);
+
+		return v;
+	}
+
+	/**
+	 * Used to replace child <code>i</code> with the given value.
+	 * 
+	 * @return the previous child.
+	 */
+	protected IValue<?> replace(int i, IValue<?> value)
+			throws IllegalArgumentException {
+		if (value == null)
+			throw new IllegalArgumentException("value cannot be null");
+
+		IValue<?> old = child(i);
+
+		starts[i] = -1;
+		values[i] = value;
+		modified = true;
+
+		return old;
+	}
+
+	/**
+	 * Used to insert the given child (and its name for objects) at index
+	 * <code>i</code>, shifting any subsequent children to the right.
+	 */
+	protected void insert(int i, String name, IValue<?> value)
+			throws IllegalArgumentException {
+		if (value == null)
+			throw new IllegalArgumentException("value cannot be null");
+
+		ensureCapacity(size + 1);
+
+		int moved = size - i;
+
+		if (names != null)
+			System.arraycopy(names, i, names, i + 1, moved);
+
+		System.arraycopy(starts, i, starts, i + 1, moved);
+		System.arraycopy(ends, i, ends, i + 1, moved);
+		System.arraycopy(values, i, values, i + 1, moved);
+
+		if (names != null)
+			names[i] = name;
+
+		starts[i] = -1;
+		ends[i] = -1;
+		values[i] = value;
+
+		size++;
+		modified = true;
+	}
+
+	/**
+	 * Used to remove child <code>i</code>, shifting any subsequent children to
+	 * the left.
+	 * 
+	 * @return the removed child.
+	 */
+	protected IValue<?> delete(int i) {
+		IValue<?> old = child(i);
+		int moved = size - i - 1;
+
+		if (names != null)
+			System.arraycopy(names, i + 1, names, i, moved);
+
+		System.arraycopy(starts, i + 1, starts, i, moved);
+		System.arraycopy(ends, i + 1, ends, i, moved);
+		System.arraycopy(values, i + 1, values, i, moved);
+
+		size--;
+
+		if (names != null)
+			names[size] = null;
+
+		values[size] = null;
+		modified = true;
+
+		return old;
+	}
+
+	/**
+	 * Used to ensure there is room for at least <code>capacity</code>
+	 * children.
+	 */
+	protected void ensureCapacity(int capacity) {
+		if (capacity <= starts.length)
+			return;
+
+		int length = starts.length * 2;
+
+		if (length < capacity)
+			length = capacity;
+
+		int[] starts = new int[length];
+		int[] ends = new int[length];
+		IValue<?>[] values = new IValue<?>[length];
+
+		if (names != null) {
+			String[] names = new String[length];
+			System.arraycopy(this.names, 0, names, 0, size);
+			this.names = names;
+		}
+
+		System.arraycopy(this.starts, 0, starts, 0, size);
+		System.arraycopy(this.ends, 0, ends, 0, size);
+		System.arraycopy(this.values, 0, values, 0, size);
+
+		this.starts = starts;
+		this.ends = ends;
+		this.values = values;
+	}
+
+	/**
+	 * Used to decode the single value encoded in [<code>start</code>,
+	 * <code>end</code>) of {@link #data}.
+	 */
+	protected IValue<?> decode(int start, int end) throws UBJFormatException {
+		try {
+			switch (data[start]) {
+			case ARRAY:
+			case ARRAY_COMPACT:
+				return new LazyArrayValue(data, start, end - start);
+
+			case OBJECT:
+			case OBJECT_COMPACT:
+				return new LazyObjectValue(data, start, end - start);
+			}
+
+			UBJInputStreamParser in = new UBJInputStreamParser(
+					new ByteArrayInputStream(data, start, end - start));
+			byte type = in.nextType();
+
+			switch (type) {
+			case END:
+				return new EndValue(in);
+
+			case NULL:
+				return new NullValue(in);
+
+			case TRUE:
+			case FALSE:
+				return new BooleanValue(in);
+
+			case BYTE:
+				return new ByteValue(in);
+
+			case INT16:
+				return new Int16Value(in);
+
+			case INT32:
+				return new Int32Value(in);
+
+			case INT64:
+				return new Int64Value(in);
+
+			case FLOAT:
+				return new FloatValue(in);
+
+			case DOUBLE:
+				return new DoubleValue(in);
+
+			case HUGE:
+			case HUGE_COMPACT:
+				Number huge = in.readHuge();
+
+				if (huge instanceof BigDecimal)
+					return new BigDecimalHugeValue((BigDecimal) huge);
+				else
+					return new BigIntegerHugeValue((BigInteger) huge);
+
+			case STRING:
+			case STRING_COMPACT:
+				return new StringValue(in);
+
+			case ARRAY_OPTIMIZED:
+				return new PrimitiveArrayValue(in);
+
+			default:
+				throw new UBJFormatException(start,
+						"Unknown type marker value " + type + " (char='"
+								+ ((char) type) + "') encountered at index "
+								+ start + ".");
+			}
+		} catch (IOException e) {
+			// Can't happen; the range was fully validated by index(...).
+			throw new UBJFormatException(start, "Unable to decode the value at index "
+					+ start + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Used to decode the UTF-8 string in [<code>start</code>,
+	 * <code>start + length</code>) of {@link #data}.
+	 */
+	protected String decodeString(int start, int length) {
+		return UTF8Decoder.decode(data, start, length);
+	}
+
+	/**
+	 * Used to write child <code>i</code> to the given stream; as its original
+	 * bytes if it hasn't been replaced or modified.
+	 */
+	protected void writeChild(UBJOutputStream out, int i) throws IOException {
+		IValue<?> v = values[i];
+
+		if (starts[i] != -1
+				&& !(v instanceof AbstractLazyCollectionValue<?> && ((AbstractLazyCollectionValue<?>) v)
+						.isModified()))
+			out.write(data, starts[i], ends[i] - starts[i]);
+		else
+			v.serialize(out);
+	}
+
+	private int skipNoop(int i, int limit) throws UBJFormatException {
+		while (i < limit && data[i] == NOOP)
+			i++;
+
+		if (i >= limit)
+			throw new UBJFormatException(i, "Unexpected end of data at index "
+					+ i + ".");
+
+		return i;
+	}
+
+	/**
+	 * Used to find the end of the value (which must not be preceded by NOOP
+	 * bytes) starting at index <code>i</code>.
+	 * <p/>
+	 * Nested containers are walked with an explicit stack of the children
+	 * left in each open container instead of recursion, so deeply nested (but
+	 * valid) data cannot overflow the call stack.
+	 */
+	private int skip(int i, int limit) throws UBJFormatException {
+		long[] stack = null;
+		int depth = 0;
+
+		for (;;) {
+			byte type = data[i];
+			long count = 0;
+			int end;
+
+			switch (type) {
+			case END:
+			case NULL:
+			case TRUE:
+			case FALSE:
+				end = i + 1;
+				break;
+
+			case BYTE:
+				end = i + 2;
+				break;
+
+			case INT16:
+				end = i + 3;
+				break;
+
+			case INT32:
+			case FLOAT:
+				end = i + 5;
+				break;
+
+			case INT64:
+			case DOUBLE:
+				end = i + 9;
+				break;
+
+			case HUGE_COMPACT:
+			case STRING_COMPACT:
+				end = i + 2 + readLength(i, limit);
+				break;
+
+			case HUGE:
+			case STRING:
+				end = i + 5 + readLength(i, limit);
+				break;
+
+			case ARRAY:
+			case ARRAY_COMPACT:
+			case OBJECT:
+			case OBJECT_COMPACT:
+				count = readLength(i, limit);
+				end = i
+						+ (type == ARRAY_COMPACT || type == OBJECT_COMPACT ? 2
+								: 5);
+
+				// Objects hold 2 values (name and value) per entry.
+				if (count > 0 && (type == OBJECT || type == OBJECT_COMPACT))
+					count *= 2;
+				break;
+
+			case ARRAY_OPTIMIZED:
+				end = skipTyped(i, limit);
+				break;
+
+			default:
+				throw new UBJFormatException(i, "Unknown type marker value "
+						+ type + " (char='" + ((char) type)
+						+ "') encountered at index " + i + ".");
+			}
+
+			if (end > limit || end < i)
+				throw new UBJFormatException(i,
+						"Unexpected end of data at index " + limit
+								+ " while reading the value starting at index "
+								+ i + ".");
+
+			if (count != 0) {
+				if (stack == null || depth == stack.length) {
+					long[] grown = new long[depth == 0 ? 16 : depth * 2];
+
+					if (depth > 0)
+						System.arraycopy(stack, 0, grown, 0, depth);
+
+					stack = grown;
+				}
+
+				stack[depth++] = count;
+			}
+
+			// Find the next child to skip, closing finished containers.
+			for (;;) {
+				if (depth == 0)
+					return end;
+
+				long remaining = stack[depth - 1];
+
+				if (remaining == 0) {
+					depth--;
+					continue;
+				}
+
+				i = skipNoop(end, limit);
+
+				// The END marker terminates an unbounded container.
+				if (remaining == -1) {
+					if (data[i] == END) {
+						end = i + 1;
+						depth--;
+						continue;
+					}
+				} else
+					stack[depth - 1] = remaining - 1;
+
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Used to find the end of the optimized ARRAY starting at index
+	 * <code>i</code>; its elements are all the same size so there is no need
+	 * to look at them.
+	 */
+	private int skipTyped(int i, int limit) throws UBJFormatException {
+		if (i + 6 > limit)
+			throw new UBJFormatException(i,
+					"Unexpected end of data while reading the header of the value at index "
+							+ i + ".");
+
+		int size = UBJInputStream.sizeOf(data[i + 2]);
+
+		if (data[i + 1] != CONTAINER_TYPE || size == -1
+				|| data[i + 3] != CONTAINER_COUNT)
+			throw new UBJFormatException(i,
+					"Invalid or unsupported header for the optimized ARRAY at index "
+							+ i
+							+ "; only ARRAYs with a fixed-size numeric type and a count are supported.");
+
+		int count;
+		int end;
+
+		switch (data[i + 4]) {
+		case BYTE:
+			count = data[i + 5];
+			end = i + 6;
+			break;
+
+		case INT16:
+			if (i + 7 > limit)
+				throw new UBJFormatException(i,
+						"Unexpected end of data while reading the header of the value at index "
+								+ i + ".");
+
+			count = (short) (((data[i + 5] & 0xFF) << 8) | (data[i + 6] & 0xFF));
+			end = i + 7;
+			break;
+
+		case INT32:
+			if (i + 9 > limit)
+				throw new UBJFormatException(i,
+						"Unexpected end of data while reading the header of the value at index "
+								+ i + ".");
+
+			count = ((data[i + 5] & 0xFF) << 24)
+					| ((data[i + 6] & 0xFF) << 16)
+					| ((data[i + 7] & 0xFF) << 8) | (data[i + 8] & 0xFF);
+			end = i + 9;
+			break;
+
+		default:
+			throw new UBJFormatException(i,
+					"Unsupported count type for the optimized ARRAY at index "
+							+ i + ".");
+		}
+
+		if (count < 0)
+			throw new UBJFormatException(i,
+					"Encountered a negative (invalid) count of [" + count
+							+ "] for the optimized ARRAY at index " + i + ".");
+
+		// Checked by the caller; a long keeps a bogus count from wrapping.
+		long body = end + (long) count * size;
+		return (body > limit ? limit + 1 : (int) body);
+	}
+
+	/**
+	 * Used to read the length (or count) in the header of the STRING, HUGE,
+	 * ARRAY or OBJECT value starting at index <code>i</code>; <code>-1</code>
+	 * for unbounded containers.
+	 */
+	private int readLength(int i, int limit) throws UBJFormatException {
+		byte type = data[i];
+		int length;
+
+		if (type == STRING_COMPACT || type == HUGE_COMPACT
+				|| type == ARRAY_COMPACT || type == OBJECT_COMPACT) {
+			if (i + 2 > limit)
+				throw new UBJFormatException(i,
+						"Unexpected end of data while reading the header of the value at index "
+								+ i + ".");
+
+			length = data[i + 1] & 0xFF;
+
+			// Unbounded (streaming) containers are terminated by END.
+			if (length == 255
+					&& (type == ARRAY_COMPACT || type == OBJECT_COMPACT))
+				return -1;
+		} else {
+			if (i + 5 > limit)
+				throw new UBJFormatException(i,
+						"Unexpected end of data while reading the header of the value at index "
+								+ i + ".");
+
+			length = ((data[i + 1] & 0xFF) << 24)
+					| ((data[i + 2] & 0xFF) << 16)
+					| ((data[i + 3] & 0xFF) << 8) | (data[i + 4] & 0xFF);
+		}
+
+		if (length < 0)
+			throw new UBJFormatException(i,
+					"Encountered a negative (invalid) length of [" + length
+							+ "] for the value at index " + i + ".");
+
+		return length;
+	}
+}
@@ -2,6 +2,7 @@ package org.ubjson.model;
 
 import static org.ubjson.io.IUBJTypeMarker.ARRAY;
 import static org.ubjson.io.IUBJTypeMarker.ARRAY_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.ARRAY_OPTIMIZED;
 import static org.ubjson.io.IUBJTypeMarker.BYTE;
 import static org.ubjson.io.IUBJTypeMarker.DOUBLE;
 import static org.ubjson.io.IUBJTypeMarker.END;
@@ -20,9 +21,9 @@ import static org.ubjson.io.IUBJTypeMarker.STRING_COMPACT;
 import static org.ubjson.io.IUBJTypeMarker.TRUE;
 
 import java.io.IOException;
+import java.lang.reflect.Array;
 import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -50,7 +51,7 @@ public class ArrayValue extends AbstractCollectionValue<List<IValue<?>>> {
 
 	@Override
 	public byte getType() {
-		return (value.size() < 256 ? ARRAY_COMPACT : ARRAY);
+		return (value.size() < 255 ? ARRAY_COMPACT : ARRAY);
 	}
 
 	@Override
@@ -62,102 +63,198 @@ public class ArrayValue extends AbstractCollectionValue<List<IValue<?>>> {
 	public void deserialize(UBJInputStreamParser in) throws IOException,
 			UBJFormatException {
 		int size = in.readArrayLength();
-		value = new ArrayList<IValue<?>>(size);
 
-		// TODO: Adding support for streaming
-		if (size == -1)
-			throw new IOException(
-					"Deserializing an unbounded ARRAY (length 255) container is not supported by this class.");
+		// Unbounded ARRAYs are written back out the same way.
+		unbounded = (size == -1);
+		value = new ArrayList<IValue<?>>(unbounded ? 10 : size);
 
+		readElements(in, size, 0);
+	}
+
+	/**
+	 * Used to read the next ARRAY from the given stream the same way
+	 * {@link #ArrayValue(UBJInputStreamParser)} does, except that an ARRAY
+	 * whose elements all turn out to be numeric values of the same fixed-size
+	 * type (e.g. all INT32s) is decoded straight into a
+	 * {@link PrimitiveArrayValue} instead; no per-element objects are created
+	 * for it. That value is marked {@link PrimitiveArrayValue#isRegular()
+	 * regular} (and unbounded if the ARRAY was), so it reports the same type
+	 * as an {@link ArrayValue} and is written back out the same way.
+	 * <p/>
+	 * This is how ARRAYs nested in an {@link ArrayValue} or
+	 * {@link ObjectValue} are decoded.
+	 */
+	public static IValue<?> readArray(UBJInputStreamParser in)
+			throws IOException, UBJFormatException {
+		int size = in.readArrayLength();
+
+		ArrayValue array = new ArrayValue();
+		array.unbounded = (size == -1);
+
+		// Empty ARRAY.
+		if (!in.hasNext(size, 0))
+			return array;
+
+		int type = nextType(in, size, 0);
+
+		Class<?> componentType = PrimitiveArrayValue.getComponentType(type);
+
+		if (componentType == null) {
+			array.value.add(readValue(in, type));
+			array.readElements(in, size, 1);
+			return array;
+		}
+
+		/*
+		 * Read elements straight into a primitive array for as long as they
+		 * keep the type of the first one.
+		 */
+		Object elements = Array.newInstance(componentType, (size == -1 ? 16
+				: size));
 		int read = 0;
+		int next = type;
+
+		while (next == type) {
+			if (read == Array.getLength(elements))
+				elements = PrimitiveArrayValue.copyOf(elements, read, read * 2);
+
+			PrimitiveArrayValue.readElement(in, type, elements, read++);
+			next = (in.hasNext(size, read) ? nextType(in, size, read) : -1);
+		}
+
+		if (next == -1) {
+			if (read < Array.getLength(elements))
+				elements = PrimitiveArrayValue.copyOf(elements, read, read);
+
+			PrimitiveArrayValue primitive = new PrimitiveArrayValue(elements);
+			primitive.regular = true;
+			primitive.unbounded = array.unbounded;
+
+			return primitive;
+		}
+
+		// Mixed types after all; box what was read so far and carry on.
+		for (int i = 0; i < read; i++)
+			array.value.add(PrimitiveArrayValue.getElement(type, elements, i));
+
+		array.value.add(readValue(in, next));
+		array.readElements(in, size, read + 1);
+
+		// Counted ARRAYs cut short by the end of the stream.
+		if (size != -1 && array.value.size() < size)
+			throw truncated(in, size, array.value.size());
+
+		return array;
+	}
+
+	/**
+	 * Used to get the type marker of element <code>index</code> of an ARRAY
+	 * of <code>size</code> elements, which
+	 * {@link UBJInputStreamParser#hasNext(int, int)} said is there.
+	 * 
+	 * @throws UBJFormatException
+	 *             if the stream ends before it.
+	 */
+	private static int nextType(UBJInputStreamParser in, int size, int index)
+			throws IOException, UBJFormatException {
+		int type = in.nextType();
+
+		if (type == -1)
+			throw truncated(in, size, index);
+
+		return type;
+	}
+
+	private static UBJFormatException truncated(UBJInputStreamParser in,
+			int size, int index) {
+		return new UBJFormatException(in.getPosition(),
+				"End of Stream encountered at stream position "
+						+ in.getPosition() + " while reading element " + index
+						+ " of an ARRAY of " + size + " elements.");
+	}
+
+	/**
+	 * Used to read the rest of the elements of an ARRAY of <code>size</code>
+	 * elements (see {@link UBJInputStreamParser#hasNext(int, int)}) after the
+	 * first <code>read</code> of them.
+	 */
+	protected void readElements(UBJInputStreamParser in, int size, int read)
+			throws IOException, UBJFormatException {
 		int type = -1;
 
-		// Loop until we read size items or hit EOS.
-		while ((read < size) && (type = in.nextType()) != -1) {
-			switch (type) {
-			case END:
-				value.add(new EndValue(in));
-				break;
-
-			case NULL:
-				value.add(new NullValue(in));
-				break;
-
-			case TRUE:
-			case FALSE:
-				value.add(new BooleanValue(in));
-				break;
-
-			case BYTE:
-				value.add(new ByteValue(in));
-				break;
-
-			case INT16:
-				value.add(new Int16Value(in));
-				break;
-
-			case INT32:
-				value.add(new Int32Value(in));
-				break;
-
-			case INT64:
-				value.add(new Int64Value(in));
-				break;
-
-			case FLOAT:
-				value.add(new FloatValue(in));
-				break;
-
-			case DOUBLE:
-				value.add(new DoubleValue(in));
-				break;
-
-			case HUGE:
-			case HUGE_COMPACT:
-				boolean isDecimal = false;
-				CharBuffer buffer = in.readHugeAsChars();
-				char[] array = buffer.array();
-
-				for (int i = buffer.position(), length = buffer.remaining(); !isDecimal
-						&& i < length; i++) {
-					if (array[i] == '.')
-						isDecimal = true;
-				}
-
-				if (isDecimal)
-					value.add(new BigDecimalHugeValue(new BigDecimal(array,
-							buffer.position(), buffer.remaining())));
-				else
-					value.add(new BigIntegerHugeValue(new BigInteger(
-							new String(array, buffer.position(), buffer
-									.remaining()))));
-				break;
-
-			case STRING:
-			case STRING_COMPACT:
-				value.add(new StringValue(in));
-				break;
-
-			case ARRAY:
-			case ARRAY_COMPACT:
-				value.add(new ArrayValue(in));
-				break;
-
-			case OBJECT:
-			case OBJECT_COMPACT:
-				value.add(new ObjectValue(in));
-				break;
-
-			default:
-				throw new UBJFormatException(in.getPosition(),
-						"Unknown type marker value " + type + " (char='"
-								+ ((char) type)
-								+ "') encountered at stream position "
-								+ in.getPosition() + ".");
-			}
-
-			// Keep track of how many values we've read.
-			read++;
+		/*
+		 * Loop until we read size items (or the END marker of an unbounded
+		 * ARRAY) or hit EOS.
+		 */
+		for (; in.hasNext(size, read) && (type = in.nextType()) != -1; read++)
+			value.add(readValue(in, type));
+	}
+
+	/**
+	 * Used to read the value whose type marker (<code>type</code>) was just
+	 * returned by {@link UBJInputStreamParser#nextType()}.
+	 */
+	protected static IValue<?> readValue(UBJInputStreamParser in, int type)
+			throws IOException, UBJFormatException {
+		switch (type) {
+		case END:
+			return new EndValue(in);
+
+		case NULL:
+			return new NullValue(in);
+
+		case TRUE:
+		case FALSE:
+			return new BooleanValue(in);
+
+		case BYTE:
+			return new ByteValue(in);
+
+		case INT16:
+			return new Int16Value(in);
+
+		case INT32:
+			return new Int32Value(in);
+
+		case INT64:
+			return new Int64Value(in);
+
+		case FLOAT:
+			return new FloatValue(in);
+
+		case DOUBLE:
+			return new DoubleValue(in);
+
+		case HUGE:
+		case HUGE_COMPACT:
+			Number huge = in.readHuge();
+
+			if (huge instanceof BigDecimal)
+				return new BigDecimalHugeValue((BigDecimal) huge);
+			else
+				return new BigIntegerHugeValue((BigInteger) huge);
+
+		case STRING:
+		case STRING_COMPACT:
+			return new StringValue(in);
+
+		case ARRAY:
+		case ARRAY_COMPACT:
+			return readArray(in);
+
+		case ARRAY_OPTIMIZED:
+			return new PrimitiveArrayValue(in);
+
+		case OBJECT:
+		case OBJECT_COMPACT:
+			return new ObjectValue(in);
+
+		default:
+			throw new UBJFormatException(in.getPosition(),
+					"Unknown type marker value " + type + " (char='"
+							+ ((char) type)
+							+ "') encountered at stream position "
+							+ in.getPosition() + ".");
 		}
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
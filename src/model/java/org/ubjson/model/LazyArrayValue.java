@@ -0,0 +1,109 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.model;
+
+import static org.ubjson.io.IUBJTypeMarker.ARRAY;
+import static org.ubjson.io.IUBJTypeMarker.ARRAY_COMPACT;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.ubjson.io.UBJFormatException;
+
+/**
+ * Class used to represent an ARRAY whose elements are only decoded when they
+ * are first accessed through the {@link List} returned by {@link #getValue()}
+ * (or {@link #get(int)}).
+ * <p/>
+ * The list supports <code>get</code>, <code>set</code>, <code>add</code> and
+ * <code>remove</code>; see {@link AbstractLazyCollectionValue} for how the
+ * original bytes are re-used when the array is serialized.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class LazyArrayValue extends
+		AbstractLazyCollectionValue<List<IValue<?>>> {
+	public LazyArrayValue(byte[] data) throws IllegalArgumentException,
+			UBJFormatException {
+		this(data, 0, (data == null ? 0 : data.length));
+	}
+
+	public LazyArrayValue(byte[] data, int offset, int length)
+			throws IllegalArgumentException, UBJFormatException {
+		super(data, offset, length, false);
+		value = new Elements();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getName() + "@" + hashCode() + " [size=" + size
+				+ ", length=" + length + ", modified=" + isModified() + "]";
+	}
+
+	@Override
+	public byte getType() {
+		return (size < 255 ? ARRAY_COMPACT : ARRAY);
+	}
+
+	/**
+	 * Used to get the element at the given index, decoding it first if this
+	 * is the first time it has been accessed.
+	 */
+	public IValue<?> get(int index) throws IndexOutOfBoundsException {
+		return value.get(index);
+	}
+
+	private class Elements extends AbstractList<IValue<?>> implements
+			RandomAccess {
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public IValue<?> get(int index) {
+			check(index, size);
+			return child(index);
+		}
+
+		@Override
+		public IValue<?> set(int index, IValue<?> element) {
+			check(index, size);
+			return replace(index, element);
+		}
+
+		@Override
+		public void add(int index, IValue<?> element) {
+			check(index, size + 1);
+			insert(index, null, element);
+			modCount++;
+		}
+
+		@Override
+		public IValue<?> remove(int index) {
+			check(index, size);
+			modCount++;
+			return delete(index);
+		}
+
+		private void check(int index, int limit) {
+			if (index < 0 || index >= limit)
+				throw new IndexOutOfBoundsException("index [" + index
+						+ "] must be >= 0 and < " + limit);
+		}
+	}
+}
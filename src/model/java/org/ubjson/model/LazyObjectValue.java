@@ -0,0 +1,261 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.model;
+
+import static org.ubjson.io.IUBJTypeMarker.OBJECT;
+import static org.ubjson.io.IUBJTypeMarker.OBJECT_COMPACT;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.ubjson.io.UBJFormatException;
+
+/**
+ * Class used to represent an OBJECT whose field values are only decoded when
+ * they are first reached through the {@link Map} returned by
+ * {@link #getValue()} (or {@link #get(String)}); field names are decoded up
+ * front so they can be looked up.
+ * <p/>
+ * The map supports <code>get</code>, <code>put</code> and
+ * <code>remove</code> and keeps the fields in their original order; see
+ * {@link AbstractLazyCollectionValue} for how the original bytes are re-used
+ * when the object is serialized.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class LazyObjectValue extends
+		AbstractLazyCollectionValue<Map<String, IValue<?>>> {
+	/*
+	 * Objects with more fields than this get a name -> index hash lookup
+	 * instead of a linear scan of the names.
+	 */
+	private static final int SCAN_LIMIT = 8;
+
+	// Built on demand; null after any insert or remove.
+	private Map<String, Integer> lookup;
+
+	public LazyObjectValue(byte[] data) throws IllegalArgumentException,
+			UBJFormatException {
+		this(data, 0, (data == null ? 0 : data.length));
+	}
+
+	public LazyObjectValue(byte[] data, int offset, int length)
+			throws IllegalArgumentException, UBJFormatException {
+		super(data, offset, length, true);
+		value = new Fields();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getName() + "@" + hashCode() + " [size=" + size
+				+ ", length=" + length + ", modified=" + isModified() + "]";
+	}
+
+	@Override
+	public byte getType() {
+		return (size < 255 ? OBJECT_COMPACT : OBJECT);
+	}
+
+	/**
+	 * Used to get the value of the field with the given name, decoding it
+	 * first if this is the first time it has been accessed.
+	 * 
+	 * @return the value of the field or <code>null</code> if this object has
+	 *         no field with the given name.
+	 */
+	public IValue<?> get(String name) {
+		int i = indexOf(name);
+		return (i == -1 ? null : child(i));
+	}
+
+	@Override
+	protected void insert(int i, String name, IValue<?> value)
+			throws IllegalArgumentException {
+		super.insert(i, name, value);
+		lookup = null;
+	}
+
+	@Override
+	protected IValue<?> delete(int i) {
+		IValue<?> old = super.delete(i);
+		lookup = null;
+		return old;
+	}
+
+	protected int indexOf(Object name) {
+		if (name == null)
+			return -1;
+
+		if (size <= SCAN_LIMIT) {
+			for (int i = 0; i < size; i++)
+				if (name.equals(names[i]))
+					return i;
+
+			return -1;
+		}
+
+		if (lookup == null) {
+			lookup = new HashMap<String, Integer>(size * 2);
+
+			// Iterate backwards so the first of any duplicate names wins.
+			for (int i = size - 1; i >= 0; i--)
+				lookup.put(names[i], i);
+		}
+
+		Integer i = lookup.get(name);
+		return (i == null ? -1 : i);
+	}
+
+	private class Fields extends AbstractMap<String, IValue<?>> {
+		private Set<Map.Entry<String, IValue<?>>> entries;
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return (indexOf(key) != -1);
+		}
+
+		@Override
+		public IValue<?> get(Object key) {
+			int i = indexOf(key);
+			return (i == -1 ? null : child(i));
+		}
+
+		@Override
+		public IValue<?> put(String key, IValue<?> value) {
+			if (key == null)
+				throw new IllegalArgumentException("key cannot be null");
+
+			int i = indexOf(key);
+
+			if (i != -1)
+				return LazyObjectValue.this.replace(i, value);
+
+			insert(size, key, value);
+			return null;
+		}
+
+		@Override
+		public IValue<?> remove(Object key) {
+			int i = indexOf(key);
+			return (i == -1 ? null : delete(i));
+		}
+
+		@Override
+		public Set<Map.Entry<String, IValue<?>>> entrySet() {
+			if (entries == null) {
+				entries = new AbstractSet<Map.Entry<String, IValue<?>>>() {
+					@Override
+					public int size() {
+						return size;
+					}
+
+					@Override
+					public Iterator<Map.Entry<String, IValue<?>>> iterator() {
+						return new FieldIterator();
+					}
+				};
+			}
+
+			return entries;
+		}
+	}
+
+	private class FieldIterator implements
+			Iterator<Map.Entry<String, IValue<?>>> {
+		private int next;
+		private int last = -1;
+		private int expected = size;
+
+		@Override
+		public boolean hasNext() {
+			return (next < size);
+		}
+
+		@Override
+		public Map.Entry<String, IValue<?>> next() {
+			if (expected != size)
+				throw new ConcurrentModificationException();
+			if (next >= size)
+				throw new NoSuchElementException();
+
+			last = next++;
+			return new Field(last);
+		}
+
+		@Override
+		public void remove() {
+			if (last == -1)
+				throw new IllegalStateException();
+
+			delete(last);
+
+			next = last;
+			last = -1;
+			expected = size;
+		}
+	}
+
+	private class Field implements Map.Entry<String, IValue<?>> {
+		private int i;
+
+		private Field(int i) {
+			this.i = i;
+		}
+
+		@Override
+		public String getKey() {
+			return names[i];
+		}
+
+		@Override
+		public IValue<?> getValue() {
+			return child(i);
+		}
+
+		@Override
+		public IValue<?> setValue(IValue<?> value) {
+			return replace(i, value);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry<?, ?>))
+				return false;
+
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			Object v = e.getValue();
+
+			return getKey().equals(e.getKey())
+					&& (v == null ? false : v.equals(getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			return getKey().hashCode() ^ getValue().hashCode();
+		}
+	}
+}
@@ -2,6 +2,7 @@ package org.ubjson.model;
 
 import static org.ubjson.io.IUBJTypeMarker.ARRAY;
 import static org.ubjson.io.IUBJTypeMarker.ARRAY_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.ARRAY_OPTIMIZED;
 import static org.ubjson.io.IUBJTypeMarker.BYTE;
 import static org.ubjson.io.IUBJTypeMarker.DOUBLE;
 import static org.ubjson.io.IUBJTypeMarker.END;
@@ -22,7 +23,6 @@ import static org.ubjson.io.IUBJTypeMarker.TRUE;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.nio.CharBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -51,7 +51,7 @@ public class ObjectValue extends
 
 	@Override
 	public byte getType() {
-		return (value.size() < 256 ? OBJECT_COMPACT : OBJECT);
+		return (value.size() < 255 ? OBJECT_COMPACT : OBJECT);
 	}
 
 	@Override
@@ -63,19 +63,20 @@ public class ObjectValue extends
 	public void deserialize(UBJInputStreamParser in) throws IOException,
 			UBJFormatException {
 		int size = in.readObjectLength();
-		value = new HashMap<String, IValue<?>>(size * 3);
 
-		// TODO: add support for streaming.
-		if (size == -1)
-			throw new IOException(
-					"Deserializing an unbounded OBJECT (length 255) container is not supported by this class.");
+		// Unbounded OBJECTs are written back out the same way.
+		unbounded = (size == -1);
+		value = new HashMap<String, IValue<?>>(unbounded ? 16 : size * 3);
 
-		int read = 0;
 		int type = -1;
 
-		// Loop until we read size items or hit EOS.
-		while ((read < size) && (type = in.nextType()) != -1) {
-			String name = in.readString();
+		/*
+		 * Loop until we read size items (or the END marker of an unbounded
+		 * OBJECT) or hit EOS.
+		 */
+		for (int read = 0; in.hasNext(size, read)
+				&& (type = in.nextType()) != -1; read++) {
+			String name = in.readKey();
 
 			// Switch on the value type.
 			switch ((type = in.nextType())) {
@@ -118,25 +119,12 @@ public class ObjectValue extends
 
 			case HUGE:
 			case HUGE_COMPACT:
-				boolean isDecimal = false;
-				CharBuffer buffer = in.readHugeAsChars();
-				char[] array = buffer.array();
-
-				for (int i = buffer.position(), length = buffer.remaining(); !isDecimal
-						&& i < length; i++) {
-					if (array[i] == '.')
-						isDecimal = true;
-				}
-
-				if (isDecimal)
-					value.put(name, new BigDecimalHugeValue(new BigDecimal(
-							array, buffer.position(), buffer.remaining())));
+				Number huge = in.readHuge();
+
+				if (huge instanceof BigDecimal)
+					value.put(name, new BigDecimalHugeValue((BigDecimal) huge));
 				else
-					value.put(
-							name,
-							new BigIntegerHugeValue(new BigInteger(new String(
-									array, buffer.position(), buffer
-											.remaining()))));
+					value.put(name, new BigIntegerHugeValue((BigInteger) huge));
 				break;
 
 			case STRING:
@@ -146,7 +134,11 @@ public class ObjectValue extends
 
 			case ARRAY:
 			case ARRAY_COMPACT:
-				value.put(name, new ArrayValue(in));
+				value.put(name, ArrayValue.readArray(in));
+				break;
+
+			case ARRAY_OPTIMIZED:
+				value.put(name, new PrimitiveArrayValue(in));
 				break;
 
 			case OBJECT:
@@ -161,9 +153,6 @@ public class ObjectValue extends
 								+ "') encountered at stream position "
 								+ in.getPosition() + ".");
 			}
-
-			// Keep track of how many name-value pairs we've read.
-			read++;
 		}
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
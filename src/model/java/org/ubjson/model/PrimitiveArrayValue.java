@@ -0,0 +1,428 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.model;
+
+import static org.ubjson.io.IUBJTypeMarker.ARRAY;
+import static org.ubjson.io.IUBJTypeMarker.ARRAY_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.ARRAY_OPTIMIZED;
+import static org.ubjson.io.IUBJTypeMarker.BYTE;
+import static org.ubjson.io.IUBJTypeMarker.DOUBLE;
+import static org.ubjson.io.IUBJTypeMarker.FLOAT;
+import static org.ubjson.io.IUBJTypeMarker.INT16;
+import static org.ubjson.io.IUBJTypeMarker.INT32;
+import static org.ubjson.io.IUBJTypeMarker.INT64;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+
+import org.ubjson.io.UBJFormatException;
+import org.ubjson.io.UBJInputStreamParser;
+import org.ubjson.io.UBJOutputStream;
+
+/**
+ * Class used to represent an optimized ARRAY (see
+ * {@link org.ubjson.io.IUBJTypeMarker#ARRAY_OPTIMIZED}) of fixed-size numeric
+ * values, backed directly by the matching Java primitive array instead of a
+ * list of individual {@link IValue}s.
+ * <p/>
+ * Regular ARRAYs whose elements all turn out to be numeric values of the same
+ * type are decoded into this class as well by
+ * {@link ArrayValue#readArray(UBJInputStreamParser)}, so they take 4 bytes
+ * per INT32 element instead of an {@link Int32Value} and boxed
+ * {@link Integer} each. Those are marked {@link #isRegular() regular} (and
+ * {@link #isUnbounded() unbounded} if they were), report the same type as an
+ * {@link ArrayValue} would and are written back out the way they were read.
+ * <p/>
+ * The backing array (returned by {@link #getValue()}) is a
+ * <code>byte[]</code>, <code>short[]</code>, <code>int[]</code>,
+ * <code>long[]</code>, <code>float[]</code> or <code>double[]</code> for an
+ * element type of BYTE, INT16, INT32, INT64, FLOAT or DOUBLE respectively. The
+ * elements are read and written in bulk; no per-element objects are created.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class PrimitiveArrayValue extends AbstractValue<Object> {
+	protected byte elementType;
+	protected boolean regular;
+	protected boolean unbounded;
+
+	/**
+	 * Creates a value backed by the given primitive array (which is not
+	 * copied).
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>value</code> is <code>null</code> or is not a
+	 *             <code>byte[]</code>, <code>short[]</code>,
+	 *             <code>int[]</code>, <code>long[]</code>,
+	 *             <code>float[]</code> or <code>double[]</code>.
+	 */
+	public PrimitiveArrayValue(Object value) throws IllegalArgumentException {
+		super(value);
+
+		elementType = getElementType(value.getClass());
+
+		if (elementType == -1)
+			throw new IllegalArgumentException(
+					"value must be a byte[], short[], int[], long[], float[] or double[] but was a "
+							+ value.getClass().getName());
+	}
+
+	public PrimitiveArrayValue(UBJInputStreamParser in)
+			throws IllegalArgumentException, IOException, UBJFormatException {
+		super(in);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getName() + "@" + hashCode() + " [elementType="
+				+ (char) elementType + ", size=" + size() + "]";
+	}
+
+	@Override
+	public byte getType() {
+		if (!regular)
+			return ARRAY_OPTIMIZED;
+
+		return (unbounded || size() < 255 ? ARRAY_COMPACT : ARRAY);
+	}
+
+	/**
+	 * Used to determine if this array is written out as a regular ARRAY, with
+	 * a type marker in front of every element, instead of as an optimized
+	 * ARRAY.
+	 */
+	public boolean isRegular() {
+		return regular;
+	}
+
+	public void setRegular(boolean regular) {
+		this.regular = regular;
+	}
+
+	/**
+	 * Used to determine if this array is written out as an unbounded
+	 * (streaming) ARRAY terminated by an END marker; only applies to
+	 * {@link #isRegular() regular} arrays.
+	 */
+	public boolean isUnbounded() {
+		return unbounded;
+	}
+
+	public void setUnbounded(boolean unbounded) {
+		this.unbounded = unbounded;
+	}
+
+	/**
+	 * Used to get the type marker shared by every element of this array (e.g.
+	 * {@link org.ubjson.io.IUBJTypeMarker#INT32} for an <code>int[]</code>).
+	 */
+	public byte getElementType() {
+		return elementType;
+	}
+
+	public int size() {
+		return (value == null ? 0 : Array.getLength(value));
+	}
+
+	@Override
+	public void serialize(UBJOutputStream out) throws IllegalArgumentException,
+			IOException {
+		if (out == null)
+			throw new IllegalArgumentException("out cannot be null");
+
+		if (regular) {
+			writeRegular(out);
+			return;
+		}
+
+		switch (elementType) {
+		case BYTE:
+			out.writeTypedArray((byte[]) value);
+			break;
+
+		case INT16:
+			out.writeTypedArray((short[]) value);
+			break;
+
+		case INT32:
+			out.writeTypedArray((int[]) value);
+			break;
+
+		case INT64:
+			out.writeTypedArray((long[]) value);
+			break;
+
+		case FLOAT:
+			out.writeTypedArray((float[]) value);
+			break;
+
+		case DOUBLE:
+			out.writeTypedArray((double[]) value);
+			break;
+		}
+	}
+
+	@Override
+	public void deserialize(UBJInputStreamParser in)
+			throws IllegalArgumentException, IOException, UBJFormatException {
+		if (in == null)
+			throw new IllegalArgumentException("in cannot be null");
+
+		int length = in.readArrayLength();
+
+		regular = false;
+		unbounded = false;
+
+		switch (elementType = in.getElementType()) {
+		case BYTE:
+			byte[] bytes = new byte[length];
+			in.readArrayElements(bytes, 0, length);
+			value = bytes;
+			break;
+
+		case INT16:
+			short[] shorts = new short[length];
+			in.readArrayElements(shorts, 0, length);
+			value = shorts;
+			break;
+
+		case INT32:
+			int[] ints = new int[length];
+			in.readArrayElements(ints, 0, length);
+			value = ints;
+			break;
+
+		case INT64:
+			long[] longs = new long[length];
+			in.readArrayElements(longs, 0, length);
+			value = longs;
+			break;
+
+		case FLOAT:
+			float[] floats = new float[length];
+			in.readArrayElements(floats, 0, length);
+			value = floats;
+			break;
+
+		case DOUBLE:
+			double[] doubles = new double[length];
+			in.readArrayElements(doubles, 0, length);
+			value = doubles;
+			break;
+
+		default:
+			throw new UBJFormatException(in.getPosition(),
+					"Expected an optimized ARRAY of fixed-size numeric values ending at stream position "
+							+ in.getPosition()
+							+ " but found a regular ARRAY.");
+		}
+	}
+
+	/**
+	 * Used to write this array as a regular ARRAY; counted ones in bulk where
+	 * the stream supports it, unbounded ones element by element between the
+	 * header and the END marker.
+	 */
+	protected void writeRegular(UBJOutputStream out) throws IOException {
+		if (!unbounded) {
+			switch (elementType) {
+			case INT16:
+				out.writeArray((short[]) value);
+				return;
+
+			case INT32:
+				out.writeArray((int[]) value);
+				return;
+
+			case INT64:
+				out.writeArray((long[]) value);
+				return;
+
+			case FLOAT:
+				out.writeArray((float[]) value);
+				return;
+
+			case DOUBLE:
+				out.writeArray((double[]) value);
+				return;
+			}
+		}
+
+		int size = size();
+
+		if (unbounded)
+			out.writeUnboundedArrayHeader();
+		else
+			out.writeArrayHeader(size);
+
+		for (int i = 0; i < size; i++) {
+			switch (elementType) {
+			case BYTE:
+				out.writeByte(((byte[]) value)[i]);
+				break;
+
+			case INT16:
+				out.writeInt16(((short[]) value)[i]);
+				break;
+
+			case INT32:
+				out.writeInt32(((int[]) value)[i]);
+				break;
+
+			case INT64:
+				out.writeInt64(((long[]) value)[i]);
+				break;
+
+			case FLOAT:
+				out.writeFloat(((float[]) value)[i]);
+				break;
+
+			case DOUBLE:
+				out.writeDouble(((double[]) value)[i]);
+				break;
+			}
+		}
+
+		if (unbounded)
+			out.writeEnd();
+	}
+
+	/**
+	 * Used to get the primitive component type of the backing arrays for the
+	 * given element type marker, or <code>null</code> if it is not a
+	 * fixed-size numeric type.
+	 */
+	protected static Class<?> getComponentType(int elementType) {
+		switch (elementType) {
+		case BYTE:
+			return byte.class;
+
+		case INT16:
+			return short.class;
+
+		case INT32:
+			return int.class;
+
+		case INT64:
+			return long.class;
+
+		case FLOAT:
+			return float.class;
+
+		case DOUBLE:
+			return double.class;
+
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Used to read the single value of the given element type (whose type
+	 * marker has already been read) from the stream into
+	 * <code>dest[index]</code>.
+	 */
+	protected static void readElement(UBJInputStreamParser in,
+			int elementType, Object dest, int index) throws IOException,
+			UBJFormatException {
+		switch (elementType) {
+		case BYTE:
+			((byte[]) dest)[index] = in.readByte();
+			break;
+
+		case INT16:
+			((short[]) dest)[index] = in.readInt16();
+			break;
+
+		case INT32:
+			((int[]) dest)[index] = in.readInt32();
+			break;
+
+		case INT64:
+			((long[]) dest)[index] = in.readInt64();
+			break;
+
+		case FLOAT:
+			((float[]) dest)[index] = in.readFloat();
+			break;
+
+		case DOUBLE:
+			((double[]) dest)[index] = in.readDouble();
+			break;
+		}
+	}
+
+	/**
+	 * Used to wrap <code>array[index]</code> in the matching individual
+	 * {@link IValue}.
+	 */
+	protected static IValue<?> getElement(int elementType, Object array,
+			int index) {
+		switch (elementType) {
+		case BYTE:
+			return new ByteValue(((byte[]) array)[index]);
+
+		case INT16:
+			return new Int16Value(((short[]) array)[index]);
+
+		case INT32:
+			return new Int32Value(((int[]) array)[index]);
+
+		case INT64:
+			return new Int64Value(((long[]) array)[index]);
+
+		case FLOAT:
+			return new FloatValue(((float[]) array)[index]);
+
+		default:
+			return new DoubleValue(((double[]) array)[index]);
+		}
+	}
+
+	/**
+	 * Used to copy the first <code>length</code> elements of the given
+	 * primitive array into a new one of <code>capacity</code> elements.
+	 */
+	protected static Object copyOf(Object array, int length, int capacity) {
+		Object copy = Array.newInstance(array.getClass().getComponentType(),
+				capacity);
+		System.arraycopy(array, 0, copy, 0, length);
+
+		return copy;
+	}
+
+	/**
+	 * Used to get the element type marker for arrays of the given class, or
+	 * <code>-1</code> if it is not one of the supported primitive array
+	 * types.
+	 */
+	public static byte getElementType(Class<?> type) {
+		if (type == byte[].class)
+			return BYTE;
+		else if (type == short[].class)
+			return INT16;
+		else if (type == int[].class)
+			return INT32;
+		else if (type == long[].class)
+			return INT64;
+		else if (type == float[].class)
+			return FLOAT;
+		else if (type == double[].class)
+			return DOUBLE;
+		else
+			return -1;
+	}
+}
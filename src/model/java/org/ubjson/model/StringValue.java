@@ -23,6 +23,7 @@ import java.io.IOException;
 import org.ubjson.io.UBJFormatException;
 import org.ubjson.io.UBJInputStreamParser;
 import org.ubjson.io.UBJOutputStream;
+import org.ubjson.io.charset.UTF8Encoder;
 
 public class StringValue extends AbstractValue<String> {
 	protected int length = -1;
@@ -39,7 +40,7 @@ public class StringValue extends AbstractValue<String> {
 	@Override
 	public byte getType() {
 		if (length == -1)
-			length = value.length();
+			length = UTF8Encoder.length(value);
 
 		return (length < 255 ? STRING_COMPACT : STRING);
 	}
@@ -61,4 +62,4 @@ public class StringValue extends AbstractValue<String> {
 
 		value = in.readString();
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,719 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.processor;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+/**
+ * Class used to generate the source of the marshaller for a single
+ * <code>Marshalled</code> class.
+ * <p/>
+ * Values are written exactly the way <code>ObjectWriter</code> writes them in
+ * <code>FIELDS</code> mode and read as leniently as <code>ObjectReader</code>
+ * reads them (any numeric type can be read into any numeric field and unknown
+ * keys are skipped).
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+class MarshallerGenerator {
+	private Elements elements;
+	private Types types;
+	private TypeElement annotation;
+	private TypeElement type;
+
+	private String packageName;
+	private String simpleName;
+
+	private TypeMirror collectionType;
+	private TypeMirror setType;
+	private TypeMirror sortedSetType;
+	private TypeMirror queueType;
+	private TypeMirror stringType;
+	private TypeMirror bigIntegerType;
+	private TypeMirror bigDecimalType;
+
+	private StringBuilder source;
+	private int vars;
+
+	public MarshallerGenerator(ProcessingEnvironment env,
+			TypeElement annotation, Element element)
+			throws InvalidElementException {
+		this.elements = env.getElementUtils();
+		this.types = env.getTypeUtils();
+		this.annotation = annotation;
+
+		checkType(element);
+		type = (TypeElement) element;
+
+		packageName = elements.getPackageOf(type).getQualifiedName()
+				.toString();
+		simpleName = getMarshallerName(type);
+
+		collectionType = erasure("java.util.Collection");
+		setType = erasure("java.util.Set");
+		sortedSetType = erasure("java.util.SortedSet");
+		queueType = erasure("java.util.Queue");
+		stringType = erasure("java.lang.String");
+		bigIntegerType = erasure("java.math.BigInteger");
+		bigDecimalType = erasure("java.math.BigDecimal");
+	}
+
+	public String getQualifiedName() {
+		return (packageName.length() == 0 ? simpleName : packageName + '.'
+				+ simpleName);
+	}
+
+	public String generate() throws InvalidElementException {
+		List<VariableElement> fields = getFields();
+		String typeName = type.getQualifiedName().toString();
+
+		source = new StringBuilder(4096);
+		vars = 0;
+
+		if (packageName.length() > 0)
+			line("", "package " + packageName + ";").append('\n');
+
+		line("", "import java.io.IOException;").append('\n');
+		line("", "import org.ubjson.io.IUBJTypeMarker;");
+		line("", "import org.ubjson.io.UBJFormatException;");
+		line("", "import org.ubjson.io.UBJInputStreamParser;");
+		line("", "import org.ubjson.io.UBJOutputStream;");
+		line("", "import org.ubjson.io.reflect.IMarshaller;");
+		line("", "import org.ubjson.io.reflect.Marshallers;").append('\n');
+
+		line("", "/**");
+		line("", " * {@link IMarshaller} for {@link " + typeName + "}.");
+		line("", " * <p/>");
+		line("", " * Generated by " + MarshallerProcessor.class.getName()
+				+ "; do not edit.");
+		line("", " */");
+		line("", "public final class " + simpleName + " implements IMarshaller<"
+				+ typeName + "> {");
+
+		// serialize(...)
+		line("\t", "@Override");
+		line("\t", "public void serialize(UBJOutputStream out, " + typeName
+				+ " obj)");
+		line("\t\t\t", "throws IllegalArgumentException, IOException {");
+		line("\t\t", "if (out == null)");
+		line("\t\t\t",
+				"throw new IllegalArgumentException(\"out cannot be null\");");
+		line("\t\t", "if (obj == null)");
+		line("\t\t\t",
+				"throw new IllegalArgumentException(\"obj cannot be null\");")
+				.append('\n');
+		line("\t\t", "write(out, obj);");
+		line("\t", "}").append('\n');
+
+		// deserialize(...)
+		line("\t", "@Override");
+		line("\t", "public " + typeName
+				+ " deserialize(UBJInputStreamParser in)");
+		line("\t\t\t", "throws IOException, UBJFormatException {");
+		line("\t\t", "if (in == null)");
+		line("\t\t\t",
+				"throw new IllegalArgumentException(\"in cannot be null\");")
+				.append('\n');
+		line("\t\t", "return read(in);");
+		line("\t", "}").append('\n');
+
+		// write(...)
+		line("\t", "public static void write(UBJOutputStream out, " + typeName
+				+ " obj)");
+		line("\t\t\t", "throws IOException {");
+		line("\t\t", "out.writeObjectHeader(" + fields.size() + ");");
+
+		for (int i = 0, s = fields.size(); i < s; i++) {
+			VariableElement f = fields.get(i);
+			String name = f.getSimpleName().toString();
+
+			source.append('\n');
+			line("\t\t", "out.writeString(\"" + name + "\");");
+			writeValue(f, f.asType(), "obj." + name, "\t\t");
+		}
+
+		line("\t", "}").append('\n');
+
+		// read(...)
+		line("\t", "public static " + typeName
+				+ " read(UBJInputStreamParser in)");
+		line("\t\t\t", "throws IOException, UBJFormatException {");
+		line("\t\t", "int length = in.readObjectLength();");
+		line("\t\t", typeName + " obj = new " + typeName + "();");
+		line("\t\t", "byte type;").append('\n');
+		line("\t\t", "for (int i = 0; in.hasNext(length, i); i++) {");
+		line("\t\t\t", "switch (in.readKey()) {");
+
+		for (int i = 0, s = fields.size(); i < s; i++) {
+			VariableElement f = fields.get(i);
+			String name = f.getSimpleName().toString();
+
+			// Final fields are written but can't be read back.
+			if (f.getModifiers().contains(Modifier.FINAL))
+				continue;
+
+			line("\t\t\t", "case \"" + name + "\":");
+			readValue(f, f.asType(), "obj." + name, "\t\t\t\t");
+			line("\t\t\t\t", "break;").append('\n');
+		}
+
+		line("\t\t\t", "default:");
+		line("\t\t\t\t", "in.skipValue();");
+		line("\t\t\t", "}");
+		line("\t\t", "}").append('\n');
+		line("\t\t", "return obj;");
+		line("\t", "}");
+		line("", "}");
+
+		return source.toString();
+	}
+
+	protected void writeValue(Element field, TypeMirror t, String expr,
+			String indent) throws InvalidElementException {
+		if (t.getKind().isPrimitive()) {
+			line(indent, "out." + getWriteMethod(field, t) + "(" + expr
+					+ ");");
+			return;
+		}
+
+		String v = var("v");
+
+		line(indent, t + " " + v + " = " + expr + ";").append('\n');
+		line(indent, "if (" + v + " == null)");
+		line(indent + "\t", "out.writeNull();");
+		line(indent, "else {");
+		writeNonNull(field, t, v, indent + "\t");
+		line(indent, "}");
+	}
+
+	protected void writeNonNull(Element field, TypeMirror t, String v,
+			String indent) throws InvalidElementException {
+		if (t.getKind() == TypeKind.ARRAY) {
+			TypeMirror component = ((ArrayType) t).getComponentType();
+
+			if (component.getKind() == TypeKind.CHAR) {
+				line(indent, "out.writeString(java.nio.CharBuffer.wrap(" + v
+						+ "));");
+				return;
+			}
+
+			/*
+			 * Primitive arrays use the stream's bulk writers; numeric ones are
+			 * written as optimized (typed) ARRAYs.
+			 */
+			if (isBulkComponent(component)) {
+				line(indent, "out."
+						+ (component.getKind() == TypeKind.BOOLEAN ? "writeArray"
+								: "writeTypedArray") + "(" + v + ");");
+				return;
+			}
+
+			String i = var("i");
+
+			line(indent, "out.writeArrayHeader(" + v + ".length);")
+					.append('\n');
+			line(indent, "for (int " + i + " = 0; " + i + " < " + v
+					+ ".length; " + i + "++) {");
+			writeValue(field, component, v + "[" + i + "]", indent + "\t");
+			line(indent, "}");
+		} else if (isBoxed(t)) {
+			TypeMirror primitive = types.unboxedType(t);
+
+			line(indent, "out." + getWriteMethod(field, primitive) + "(" + v
+					+ "." + primitive + "Value());");
+		} else if (isType(t, stringType))
+			line(indent, "out.writeString(" + v + ");");
+		else if (isType(t, bigIntegerType) || isType(t, bigDecimalType))
+			line(indent, "out.writeHuge(" + v + ");");
+		else if (isCollection(t)) {
+			TypeMirror element = getElementType(field, t);
+			String e = var("e");
+
+			line(indent, "out.writeArrayHeader(" + v + ".size());")
+					.append('\n');
+			line(indent, "for (" + element + " " + e + " : " + v + ") {");
+			writeValue(field, element, e, indent + "\t");
+			line(indent, "}");
+		} else
+			line(indent, getMarshaller(field, t) + ".write(out, " + v + ");");
+	}
+
+	protected void readValue(Element field, TypeMirror t, String target,
+			String indent) throws InvalidElementException {
+		if (t.getKind().isPrimitive()) {
+			line(indent, target + " = " + getReadExpression(field, t,
+					"in.nextType()") + ";");
+			return;
+		}
+
+		line(indent, "type = in.nextType();").append('\n');
+		line(indent, "if (type == IUBJTypeMarker.NULL) {");
+		line(indent + "\t", "in.readNull();");
+		line(indent + "\t", target + " = null;");
+		line(indent, "} else {");
+		readNonNull(field, t, target, indent + "\t");
+		line(indent, "}");
+	}
+
+	protected void readNonNull(Element field, TypeMirror t, String target,
+			String indent) throws InvalidElementException {
+		if (t.getKind() == TypeKind.ARRAY) {
+			TypeMirror component = ((ArrayType) t).getComponentType();
+
+			if (component.getKind() == TypeKind.CHAR) {
+				line(indent, target + " = in.readString().toCharArray();");
+				return;
+			}
+
+			String n = var("n");
+			String a = var("a");
+			String i = var("i");
+
+			/*
+			 * Build the array creation expression from the erased component
+			 * type; e.g. "int[][]" becomes "new int[n][]".
+			 */
+			String base = types.erasure(component).toString();
+			String dims = "";
+
+			while (base.endsWith("[]")) {
+				base = base.substring(0, base.length() - 2);
+				dims += "[]";
+			}
+
+			/*
+			 * Unbounded ARRAYs (length -1) start out with room for 16 elements
+			 * and grow as needed; the result is trimmed to size at the end.
+			 */
+			line(indent, "int " + n + " = in.readArrayLength();");
+			line(indent, t + " " + a + " = new " + base + "[" + n
+					+ " == -1 ? 16 : " + n + "]" + dims + ";");
+			line(indent, "int " + i + " = 0;").append('\n');
+
+			/*
+			 * Primitive arrays are filled with the stream's bulk readers, but
+			 * only when the elements are already of the exact same type;
+			 * anything else goes through the converting per-element reads.
+			 */
+			if (isBulkComponent(component)) {
+				String marker = getElementMarker(component);
+
+				line(indent, "if (" + n + " != -1"
+						+ (marker == null ? "" : " && in.getElementType() == "
+								+ marker) + ") {");
+				line(indent + "\t", "in.readArrayElements(" + a + ", 0, " + n
+						+ ");");
+				line(indent + "\t", i + " = " + n + ";");
+				line(indent, "}").append('\n');
+			}
+
+			line(indent, "for (; in.hasNext(" + n + ", " + i + "); " + i
+					+ "++) {");
+			line(indent + "\t", "if (" + i + " == " + a + ".length)");
+			line(indent + "\t\t", a + " = java.util.Arrays.copyOf(" + a + ", "
+					+ i + " * 2);").append('\n');
+			readValue(field, component, a + "[" + i + "]", indent + "\t");
+			line(indent, "}").append('\n');
+			line(indent, target + " = (" + i + " == " + a + ".length ? " + a
+					+ " : java.util.Arrays.copyOf(" + a + ", " + i + "));");
+		} else if (isBoxed(t)) {
+			TypeMirror primitive = types.unboxedType(t);
+
+			String boxed = types.boxedClass((PrimitiveType) primitive)
+					.getQualifiedName().toString();
+
+			line(indent, target + " = " + boxed + ".valueOf("
+					+ getReadExpression(field, primitive, "type") + ");");
+		} else if (isType(t, stringType))
+			line(indent, target + " = Marshallers.readString(in, type);");
+		else if (isType(t, bigIntegerType))
+			line(indent, target + " = Marshallers.readBigInteger(in, type);");
+		else if (isType(t, bigDecimalType))
+			line(indent, target + " = Marshallers.readBigDecimal(in, type);");
+		else if (isCollection(t)) {
+			TypeMirror element = getElementType(field, t);
+			String impl = getCollectionImpl(field, t) + "<" + element + ">";
+			String n = var("n");
+			String c = var("c");
+			String i = var("i");
+			String e = var("e");
+
+			line(indent, "int " + n + " = in.readArrayLength();");
+			line(indent, impl + " " + c + " = new " + impl + "();")
+					.append('\n');
+			line(indent, "for (int " + i + " = 0; in.hasNext(" + n + ", " + i
+					+ "); " + i + "++) {");
+			line(indent + "\t", element + " " + e + ";");
+			readValue(field, element, e, indent + "\t");
+			line(indent + "\t", c + ".add(" + e + ");");
+			line(indent, "}").append('\n');
+			line(indent, target + " = " + c + ";");
+		} else
+			line(indent, target + " = " + getMarshaller(field, t)
+					+ ".read(in);");
+	}
+
+	/**
+	 * Used to determine if arrays of the given component type can be written
+	 * and read in bulk by <code>UBJOutputStream.writeTypedArray(int[])</code>
+	 * and friends; every primitive type other than <code>char</code>.
+	 */
+	protected boolean isBulkComponent(TypeMirror component) {
+		TypeKind kind = component.getKind();
+		return kind.isPrimitive() && kind != TypeKind.CHAR;
+	}
+
+	/**
+	 * Used to get the (generated code) expression of the type marker that
+	 * the elements of an optimized ARRAY must have to be read into an array
+	 * of the given primitive type in bulk, or <code>null</code> for
+	 * <code>boolean</code> (which needs no conversion).
+	 */
+	protected String getElementMarker(TypeMirror component) {
+		switch (component.getKind()) {
+		case BYTE:
+			return "IUBJTypeMarker.BYTE";
+
+		case SHORT:
+			return "IUBJTypeMarker.INT16";
+
+		case INT:
+			return "IUBJTypeMarker.INT32";
+
+		case LONG:
+			return "IUBJTypeMarker.INT64";
+
+		case FLOAT:
+			return "IUBJTypeMarker.FLOAT";
+
+		case DOUBLE:
+			return "IUBJTypeMarker.DOUBLE";
+
+		default:
+			return null;
+		}
+	}
+
+	protected String getWriteMethod(Element field, TypeMirror primitive)
+			throws InvalidElementException {
+		switch (primitive.getKind()) {
+		case BOOLEAN:
+			return "writeBoolean";
+
+		case BYTE:
+			return "writeByte";
+
+		case SHORT:
+			return "writeInt16";
+
+		case INT:
+			return "writeInt32";
+
+		case LONG:
+			return "writeInt64";
+
+		case FLOAT:
+			return "writeFloat";
+
+		case DOUBLE:
+			return "writeDouble";
+
+		default:
+			throw new InvalidElementException(field, "Unsupported type ["
+					+ primitive + "]; char values can't be marshalled.");
+		}
+	}
+
+	/**
+	 * Used to get the expression that reads a value of the given primitive
+	 * type, given an expression that yields the value's type marker.
+	 */
+	protected String getReadExpression(Element field, TypeMirror primitive,
+			String marker) throws InvalidElementException {
+		switch (primitive.getKind()) {
+		case BOOLEAN:
+			return "in.readBoolean()";
+
+		case BYTE:
+			return "(byte) Marshallers.readLong(in, " + marker + ")";
+
+		case SHORT:
+			return "(short) Marshallers.readLong(in, " + marker + ")";
+
+		case INT:
+			return "(int) Marshallers.readLong(in, " + marker + ")";
+
+		case LONG:
+			return "Marshallers.readLong(in, " + marker + ")";
+
+		case FLOAT:
+			return "(float) Marshallers.readDouble(in, " + marker + ")";
+
+		case DOUBLE:
+			return "Marshallers.readDouble(in, " + marker + ")";
+
+		default:
+			throw new InvalidElementException(field, "Unsupported type ["
+					+ primitive + "]; char values can't be marshalled.");
+		}
+	}
+
+	/**
+	 * Used to get the qualified name of the generated marshaller of the given
+	 * type, which must be annotated too.
+	 */
+	protected String getMarshaller(Element field, TypeMirror t)
+			throws InvalidElementException {
+		Element e = types.asElement(t);
+
+		if (t.getKind() != TypeKind.DECLARED || e == null
+				|| !isAnnotated(e))
+			throw new InvalidElementException(field, "Unsupported type [" + t
+					+ "]; classes must be annotated with @"
+					+ annotation.getSimpleName()
+					+ " to be marshalled as nested objects.");
+
+		String pkg = elements.getPackageOf(e).getQualifiedName().toString();
+		String name = getMarshallerName((TypeElement) e);
+
+		return (pkg.length() == 0 ? name : pkg + '.' + name);
+	}
+
+	protected TypeMirror getElementType(Element field, TypeMirror t)
+			throws InvalidElementException {
+		List<? extends TypeMirror> args = ((DeclaredType) t)
+				.getTypeArguments();
+		TypeMirror element = (args.size() == 1 ? args.get(0) : null);
+
+		// Use the upper bound of "? extends X".
+		if (element != null && element.getKind() == TypeKind.WILDCARD)
+			element = ((WildcardType) element).getExtendsBound();
+
+		if (element == null || element.getKind() == TypeKind.TYPEVAR)
+			throw new InvalidElementException(field, "Unsupported type [" + t
+					+ "]; collections must declare a concrete element type.");
+
+		return element;
+	}
+
+	/**
+	 * Used to get the erased name of the concrete {@link java.util.Collection}
+	 * class to create when reading a value of the given declared type.
+	 */
+	protected String getCollectionImpl(Element field, TypeMirror t)
+			throws InvalidElementException {
+		TypeMirror erased = types.erasure(t);
+		TypeElement e = (TypeElement) types.asElement(t);
+
+		if (e.getKind() == ElementKind.CLASS
+				&& !e.getModifiers().contains(Modifier.ABSTRACT)) {
+			if (!hasNoArgConstructor(e))
+				throw new InvalidElementException(field, "Unsupported type ["
+						+ t + "]; it doesn't define a public no-arg constructor.");
+
+			return erased.toString();
+		} else if (types.isAssignable(erased, sortedSetType))
+			return "java.util.TreeSet";
+		else if (types.isAssignable(erased, setType))
+			return "java.util.LinkedHashSet";
+		else if (types.isAssignable(erased, queueType))
+			return "java.util.ArrayDeque";
+		else
+			return "java.util.ArrayList";
+	}
+
+	/**
+	 * Used to get the mapped fields of the annotated type; the same fields
+	 * <code>ObjectWriter</code> maps, in the same order.
+	 */
+	protected List<VariableElement> getFields() throws InvalidElementException {
+		List<VariableElement> fields = new ArrayList<VariableElement>();
+		Set<String> names = new HashSet<String>();
+		TypeElement c = type;
+
+		while (c != null
+				&& !c.getQualifiedName().contentEquals("java.lang.Object")) {
+			boolean samePackage = elements.getPackageOf(c).equals(
+					elements.getPackageOf(type));
+
+			for (VariableElement f : ElementFilter.fieldsIn(c
+					.getEnclosedElements())) {
+				Set<Modifier> mods = f.getModifiers();
+
+				// Skip static, transient or hidden fields.
+				if (mods.contains(Modifier.STATIC)
+						|| mods.contains(Modifier.TRANSIENT)
+						|| !names.add(f.getSimpleName().toString()))
+					continue;
+
+				if (mods.contains(Modifier.PRIVATE)
+						|| (!samePackage && !mods.contains(Modifier.PUBLIC)))
+					throw new InvalidElementException(f, "Field ["
+							+ f.getSimpleName() + "] of ["
+							+ c.getQualifiedName()
+							+ "] isn't accessible to the generated marshaller;"
+							+ " make it non-private or transient.");
+
+				fields.add(f);
+			}
+
+			c = (TypeElement) types.asElement(c.getSuperclass());
+		}
+
+		return fields;
+	}
+
+	protected void checkType(Element element) throws InvalidElementException {
+		if (element.getKind() != ElementKind.CLASS)
+			throw new InvalidElementException(element, "@"
+					+ annotation.getSimpleName()
+					+ " can only be applied to classes.");
+
+		TypeElement t = (TypeElement) element;
+
+		if (t.getModifiers().contains(Modifier.ABSTRACT))
+			throw new InvalidElementException(element, "@"
+					+ annotation.getSimpleName()
+					+ " can't be applied to abstract classes.");
+
+		for (Element e = t; e instanceof TypeElement; e = e
+				.getEnclosingElement()) {
+			if (e.getModifiers().contains(Modifier.PRIVATE))
+				throw new InvalidElementException(element, "@"
+						+ annotation.getSimpleName()
+						+ " classes (and the classes enclosing them) can't be private.");
+		}
+
+		if (t.getNestingKind() == NestingKind.MEMBER
+				&& !t.getModifiers().contains(Modifier.STATIC))
+			throw new InvalidElementException(element, "@"
+					+ annotation.getSimpleName()
+					+ " can't be applied to inner classes; make it static.");
+		else if (t.getNestingKind() == NestingKind.LOCAL
+				|| t.getNestingKind() == NestingKind.ANONYMOUS)
+			throw new InvalidElementException(element, "@"
+					+ annotation.getSimpleName()
+					+ " can't be applied to local or anonymous classes.");
+
+		if (!hasNoArgConstructor(t))
+			throw new InvalidElementException(element, "@"
+					+ annotation.getSimpleName()
+					+ " classes must define a non-private no-arg constructor.");
+	}
+
+	protected boolean hasNoArgConstructor(TypeElement t) {
+		for (ExecutableElement c : ElementFilter.constructorsIn(t
+				.getEnclosedElements())) {
+			if (c.getParameters().isEmpty()
+					&& !c.getModifiers().contains(Modifier.PRIVATE))
+				return true;
+		}
+
+		return false;
+	}
+
+	protected boolean isAnnotated(Element e) {
+		for (AnnotationMirror m : e.getAnnotationMirrors()) {
+			if (m.getAnnotationType().asElement().equals(annotation))
+				return true;
+		}
+
+		return false;
+	}
+
+	protected boolean isBoxed(TypeMirror t) {
+		try {
+			types.unboxedType(t);
+			return true;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	protected boolean isCollection(TypeMirror t) {
+		return t.getKind() == TypeKind.DECLARED
+				&& types.isAssignable(types.erasure(t), collectionType);
+	}
+
+	protected boolean isType(TypeMirror t, TypeMirror erased) {
+		return types.isSameType(types.erasure(t), erased);
+	}
+
+	private TypeMirror erasure(String name) {
+		return types.erasure(elements.getTypeElement(name).asType());
+	}
+
+	private String var(String prefix) {
+		return prefix + (vars++);
+	}
+
+	private StringBuilder line(String indent, String text) {
+		return source.append(indent).append(text).append('\n');
+	}
+
+	/**
+	 * Used to get the simple name of the marshaller generated for the given
+	 * type; the names of any enclosing classes are prepended and separated
+	 * with '_' (e.g. <code>Outer_Inner_UBJMarshaller</code>).
+	 */
+	static String getMarshallerName(TypeElement type) {
+		String name = type.getSimpleName().toString();
+
+		for (Element e = type.getEnclosingElement(); e instanceof TypeElement; e = e
+				.getEnclosingElement())
+			name = e.getSimpleName() + "_" + name;
+
+		return name + MarshallerProcessor.SUFFIX;
+	}
+
+	/**
+	 * Exception used to report an element that can't be marshalled.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	static class InvalidElementException extends Exception {
+		private static final long serialVersionUID = -6001318623422262187L;
+
+		final Element element;
+
+		public InvalidElementException(Element element, String message) {
+			super(message);
+			this.element = element;
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.JavaFileObject;
+
+/**
+ * Annotation processor that generates an <code>IMarshaller</code> for every
+ * class annotated with <code>org.ubjson.io.reflect.Marshalled</code>.
+ * <p/>
+ * The generated code calls <code>UBJOutputStream</code> and
+ * <code>UBJInputStreamParser</code> directly, the same way the hand-written
+ * marshallers in the test tree do, so annotated classes are serialized at
+ * hand-written speed without any reflection. <code>ObjectWriter</code> and
+ * <code>ObjectReader</code> find the generated classes by name and use them
+ * automatically.
+ * <p/>
+ * The processor is registered as a service so it runs whenever it is on the
+ * annotation processor path. Classes or fields that can't be marshalled are
+ * reported as compile errors on the offending element.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+@SupportedAnnotationTypes(MarshallerProcessor.ANNOTATION)
+public class MarshallerProcessor extends AbstractProcessor {
+	public static final String ANNOTATION = "org.ubjson.io.reflect.Marshalled";
+
+	/**
+	 * Suffix of the generated class names; must match
+	 * <code>org.ubjson.io.reflect.Marshallers.SUFFIX</code>.
+	 */
+	public static final String SUFFIX = "_UBJMarshaller";
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations,
+			RoundEnvironment env) {
+		TypeElement annotation = processingEnv.getElementUtils()
+				.getTypeElement(ANNOTATION);
+
+		// Nothing to do if the runtime isn't on the classpath.
+		if (annotation == null)
+			return false;
+
+		for (Element e : env.getElementsAnnotatedWith(annotation)) {
+			try {
+				MarshallerGenerator generator = new MarshallerGenerator(
+						processingEnv, annotation, e);
+				String source = generator.generate();
+				JavaFileObject file = processingEnv.getFiler()
+						.createSourceFile(generator.getQualifiedName(), e);
+				Writer writer = file.openWriter();
+
+				try {
+					writer.write(source);
+				} finally {
+					writer.close();
+				}
+			} catch (MarshallerGenerator.InvalidElementException ex) {
+				processingEnv.getMessager().printMessage(Kind.ERROR,
+						ex.getMessage(), ex.element);
+			} catch (IOException ex) {
+				processingEnv.getMessager().printMessage(Kind.ERROR,
+						"Unable to write the generated marshaller: " + ex, e);
+			}
+		}
+
+		return true;
+	}
+}
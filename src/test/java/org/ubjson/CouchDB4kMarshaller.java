@@ -156,119 +156,119 @@ public class CouchDB4kMarshaller {
 		// root obj
 		in.readObjectLength();
 
-		in.readStringAsChars();
+		in.readKey();
 		db.data3 = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		db.data4 = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		db.data0 = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		db.data7 = in.readString();
 
 		// data5 obj
-		in.readStringAsChars();
+		in.readKey();
 		in.readObjectLength();
 
-		in.readStringAsChars();
+		in.readKey();
 		in.readArrayLength();
 
 		for (int i = 0; i < db.data5.integers.length; i++)
 			db.data5.integers[i] = in.readInt32();
 
-		in.readStringAsChars();
+		in.readKey();
 		db.data5.float1 = in.readFloat();
 
-		in.readStringAsChars();
+		in.readKey();
 		db.data5.float2 = in.readFloat();
 
 		// data5: nested1 obj
-		in.readStringAsChars();
+		in.readKey();
 		in.readObjectLength();
 
-		in.readStringAsChars();
+		in.readKey();
 		in.readArrayLength();
 
 		for (int i = 0; i < db.data5.nested1.integers.length; i++)
 			db.data5.nested1.integers[i] = in.readInt32();
 
-		in.readStringAsChars();
+		in.readKey();
 		in.readArrayLength();
 
 		for (int i = 0; i < db.data5.nested1.floats.length; i++)
 			db.data5.nested1.floats[i] = in.readFloat();
 
 		// data5: nested2 obj
-		in.readStringAsChars();
+		in.readKey();
 		in.readObjectLength();
 
-		in.readStringAsChars();
+		in.readKey();
 		in.readArrayLength();
 
 		for (int i = 0; i < db.data5.nested2.integers.length; i++)
 			db.data5.nested2.integers[i] = in.readInt32();
 
-		in.readStringAsChars();
+		in.readKey();
 		db.data5.nested2.float1 = in.readFloat();
 
-		in.readStringAsChars();
+		in.readKey();
 		db.data5.nested2.float2 = in.readFloat();
 
 		// data5 obj
-		in.readStringAsChars();
+		in.readKey();
 		in.readArrayLength();
 
 		for (int i = 0; i < db.strings.length; i++)
 			db.strings[i] = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		db.data1 = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		in.readArrayLength();
 
 		for (int i = 0; i < db.integers2.length; i++)
 			db.integers2[i] = in.readInt32();
 
 		// data5: moreNested obj
-		in.readStringAsChars();
+		in.readKey();
 		in.readObjectLength();
 
-		in.readStringAsChars();
+		in.readKey();
 		in.readArrayLength();
 
 		for (int i = 0; i < db.moreNested.integers.length; i++)
 			db.moreNested.integers[i] = in.readInt32();
 
-		in.readStringAsChars();
+		in.readKey();
 		db.moreNested.float1 = in.readFloat();
 
-		in.readStringAsChars();
+		in.readKey();
 		db.moreNested.float2 = in.readFloat();
 
 		// data5: moreNested: nested1 obj
-		in.readStringAsChars();
+		in.readKey();
 		in.readObjectLength();
 
-		in.readStringAsChars();
+		in.readKey();
 		in.readArrayLength();
 
 		for (int i = 0; i < db.moreNested.nested1.integers.length; i++)
 			db.moreNested.nested1.integers[i] = in.readInt32();
 
 		// data5: moreNested: nested2 obj
-		in.readStringAsChars();
+		in.readKey();
 		in.readObjectLength();
 
-		in.readStringAsChars();
+		in.readKey();
 		in.readArrayLength();
 
 		for (int i = 0; i < db.moreNested.nested2.strings.length; i++)
 			db.moreNested.nested2.strings[i] = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		in.readArrayLength();
 
 		for (int i = 0; i < db.moreNested.nested2.integers.length; i++)
@@ -276,4 +276,4 @@ public class CouchDB4kMarshaller {
 
 		return db;
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
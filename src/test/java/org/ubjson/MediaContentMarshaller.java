@@ -101,44 +101,44 @@ public class MediaContentMarshaller {
 		in.readObjectLength();
 
 		// media obj
-		in.readStringAsChars();
+		in.readKey();
 		in.readObjectLength();
 
 		// media:contents
-		in.readStringAsChars();
+		in.readKey();
 		mc.media.uri = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		mc.media.title = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		mc.media.width = in.readInt32();
 
-		in.readStringAsChars();
+		in.readKey();
 		mc.media.height = in.readInt32();
 
-		in.readStringAsChars();
+		in.readKey();
 		mc.media.format = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		mc.media.duration = in.readInt32();
 
-		in.readStringAsChars();
+		in.readKey();
 		mc.media.size = in.readInt32();
 
-		in.readStringAsChars();
+		in.readKey();
 		mc.media.bitrate = in.readInt32();
 
-		in.readStringAsChars();
+		in.readKey();
 		in.readArrayLength();
 		mc.media.persons = new String[2];
 		mc.media.persons[0] = in.readString();
 		mc.media.persons[1] = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		mc.media.player = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		mc.media.copyright = (in.read() == 'Z' ? null : "");
 
 		if (mc.media.copyright != null)
@@ -146,7 +146,7 @@ public class MediaContentMarshaller {
 					"Did not read NULL value for copyright field.");
 
 		// images array
-		in.readStringAsChars();
+		in.readKey();
 		in.readArrayLength();
 		mc.images = new MediaContent.Image[2];
 		mc.images[0] = new MediaContent.Image(null, null, 0, 0, null);
@@ -154,30 +154,30 @@ public class MediaContentMarshaller {
 
 		// array[0]
 		in.readObjectLength();
-		in.readStringAsChars();
+		in.readKey();
 		mc.images[0].uri = in.readString();
-		in.readStringAsChars();
+		in.readKey();
 		mc.images[0].title = in.readString();
-		in.readStringAsChars();
+		in.readKey();
 		mc.images[0].width = in.readInt32();
-		in.readStringAsChars();
+		in.readKey();
 		mc.images[0].height = in.readInt32();
-		in.readStringAsChars();
+		in.readKey();
 		mc.images[0].size = in.readString();
 
 		// array[1]
 		in.readObjectLength();
-		in.readStringAsChars();
+		in.readKey();
 		mc.images[1].uri = in.readString();
-		in.readStringAsChars();
+		in.readKey();
 		mc.images[1].title = in.readString();
-		in.readStringAsChars();
+		in.readKey();
 		mc.images[1].width = in.readInt32();
-		in.readStringAsChars();
+		in.readKey();
 		mc.images[1].height = in.readInt32();
-		in.readStringAsChars();
+		in.readKey();
 		mc.images[1].size = in.readString();
 
 		return mc;
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
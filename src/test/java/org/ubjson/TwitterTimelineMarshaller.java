@@ -236,221 +236,221 @@ public class TwitterTimelineMarshaller {
 		// root obj
 		in.readObjectLength();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.id_str = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.retweet_count = in.readInt32();
 
-		in.readStringAsChars();
+		in.readKey();
 		// tt.in_reply_to_screen_name =
 		in.readNull();
 
-		in.readStringAsChars();
+		in.readKey();
 		// tt.in_reply_to_user_id =
 		in.readNull();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.truncated = in.readBoolean();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.retweeted = in.readBoolean();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.possibly_sensitive = in.readBoolean();
 
-		in.readStringAsChars();
+		in.readKey();
 		// tt.in_reply_to_status_id_str =
 		in.readNull();
 
 		// Entities
-		in.readStringAsChars();
+		in.readKey();
 		in.readObjectLength();
 
 		// Entities:URL
-		in.readStringAsChars();
+		in.readKey();
 		in.readObjectLength();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.entities.urls.url = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.entities.urls.display_url = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		in.readArrayLength();
 		tt.entities.urls.indices[0] = in.readInt32();
 		tt.entities.urls.indices[1] = in.readInt32();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.entities.urls.expanded_url = in.readString();
 		// Entities:URL end
 
-		in.readStringAsChars();
+		in.readKey();
 		in.readArrayLength();
 
-		in.readStringAsChars();
+		in.readKey();
 		in.readArrayLength();
 		// Entities end
 
-		in.readStringAsChars();
+		in.readKey();
 		// tt.geo =
 		in.readNull();
 
-		in.readStringAsChars();
+		in.readKey();
 		// tt.place =
 		in.readNull();
 
-		in.readStringAsChars();
+		in.readKey();
 		// tt.coordinates =
 		in.readNull();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.created_at = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		// tt.in_reply_to_user_id_str =
 		in.readNull();
 
 		// User
-		in.readStringAsChars();
+		in.readKey();
 		in.readObjectLength();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.id_str = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.profile_link_color = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.protectedd = in.readBoolean();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.url = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.screen_name = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.statuses_count = in.readInt32();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.profile_image_url = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.name = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.default_profile_image = in.readBoolean();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.default_profile = in.readBoolean();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.profile_background_color = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.lang = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.profile_background_tile = in.readBoolean();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.utc_offset = in.readInt32();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.description = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.is_translator = in.readBoolean();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.show_all_inline_media = in.readBoolean();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.contributors_enabled = in.readBoolean();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.profile_background_image_url_https = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.created_at = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.profile_sidebar_fill_color = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.follow_request_sent = in.readBoolean();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.friends_count = in.readInt32();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.followers_count = in.readInt32();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.time_zone = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.favourites_count = in.readInt32();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.profile_sidebar_border_color = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.profile_image_url_https = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.following = in.readBoolean();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.geo_enabled = in.readBoolean();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.notifications = in.readBoolean();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.profile_use_background_image = in.readBoolean();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.listed_count = in.readInt32();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.verified = in.readBoolean();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.profile_text_color = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.location = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.id = in.readInt32();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.user.profile_background_image_url = in.readString();
 		// User end
 
-		in.readStringAsChars();
+		in.readKey();
 		// tt.contributors =
 		in.readNull();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.source = in.readString();
 
-		in.readStringAsChars();
+		in.readKey();
 		// tt.in_reply_to_status_id =
 		in.readNull();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.favorited = in.readBoolean();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.id = in.readInt64();
 
-		in.readStringAsChars();
+		in.readKey();
 		tt.text = in.readString();
 
 		return tt;
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,190 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.ubjson.CouchDB4k;
+import org.ubjson.CouchDB4kMarshaller;
+
+public class BufferPoolTest {
+	@Test
+	public void testThreadLocal() throws IOException {
+		ThreadLocalBufferPool pool = new ThreadLocalBufferPool(1024, 2);
+
+		for (int i = 0; i < 100; i++)
+			roundTrip(pool);
+
+		// The output buffer is closed before the input one is needed.
+		Assert.assertEquals(1, pool.getAllocationCount());
+		Assert.assertEquals(199, pool.getReuseCount());
+	}
+
+	@Test
+	public void testStriped() throws IOException {
+		StripedBufferPool pool = new StripedBufferPool(1024, 3, 1);
+
+		Assert.assertEquals(4, pool.getStripeCount());
+
+		for (int i = 0; i < 100; i++)
+			roundTrip(pool);
+
+		Assert.assertEquals(1, pool.getAllocationCount());
+		Assert.assertEquals(199, pool.getReuseCount());
+
+		// Larger requests are never pooled.
+		byte[] large = pool.acquire(2048);
+
+		Assert.assertEquals(2048, large.length);
+		Assert.assertEquals(2, pool.getAllocationCount());
+
+		pool.release(large);
+		Assert.assertNotSame(large, pool.acquire(16));
+	}
+
+	@Test
+	public void testDoubleClose() throws IOException {
+		StripedBufferPool pool = new StripedBufferPool(1024, 1, 4);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(baos, 16, pool);
+
+		Assert.assertSame(pool, out.getBufferPool());
+
+		out.writeString("a");
+		out.close();
+		out.close();
+
+		Assert.assertNull(out.getBufferPool());
+
+		// The buffer must have been given back exactly once.
+		Assert.assertNotSame(pool.acquire(16), pool.acquire(16));
+		Assert.assertEquals(1, pool.getReuseCount());
+	}
+
+	@Test
+	public void testUnbufferedGrowth() throws IOException {
+		StripedBufferPool pool = new StripedBufferPool(1024, 1, 4);
+		IBufferPool previous = BufferPools.getDefault();
+
+		BufferPools.setDefault(pool);
+
+		try {
+			// The initial scratch buffer was never acquired; not released.
+			UBJOutputStream out = new UBJOutputStream(
+					new ByteArrayOutputStream());
+
+			Assert.assertNull(out.getBufferPool());
+
+			out.writeInt32(1);
+			out.close();
+
+			pool.acquire(16);
+			Assert.assertEquals(0, pool.getReuseCount());
+
+			// Growing borrows from the default pool and gives it back.
+			out = new UBJOutputStream(new ByteArrayOutputStream());
+			out.writeTypedArray(new int[100]);
+
+			Assert.assertSame(pool, out.getBufferPool());
+
+			out.close();
+			pool.acquire(16);
+			Assert.assertEquals(1, pool.getReuseCount());
+		} finally {
+			BufferPools.setDefault(previous);
+		}
+	}
+
+	@Test
+	public void testFailedClose() throws IOException {
+		StripedBufferPool pool = new StripedBufferPool(1024, 1, 4);
+		UBJOutputStream out = new UBJOutputStream(new ByteArrayOutputStream() {
+			@Override
+			public void close() throws IOException {
+				throw new IOException("close failed");
+			}
+		}, 16, pool);
+
+		try {
+			out.close();
+			Assert.fail("close() should have failed");
+		} catch (IOException e) {
+			// expected
+		}
+
+		// The buffer was given back regardless.
+		Assert.assertNull(out.getBufferPool());
+		pool.acquire(16);
+		Assert.assertEquals(1, pool.getReuseCount());
+	}
+
+	@Test
+	public void testCloseThenReset() throws IOException {
+		StripedBufferPool pool = new StripedBufferPool(1024, 1, 4);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(baos, 16, pool);
+
+		out.writeString("a");
+		out.close();
+		Assert.assertNull(out.getBufferPool());
+
+		// Borrows a buffer again and stays buffered.
+		baos = new ByteArrayOutputStream();
+		out.reset(baos);
+		Assert.assertSame(pool, out.getBufferPool());
+		Assert.assertEquals(1, pool.getReuseCount());
+
+		out.writeString("b");
+		Assert.assertEquals(0, baos.getLength());
+		out.close();
+		Assert.assertEquals(3, baos.getLength());
+
+		UBJInputStream in = new UBJInputStream(new ByteArrayInputStream(
+				baos.getArray(), 0, baos.getLength()), 16, pool);
+		Assert.assertEquals("b", in.readString());
+		in.close();
+		Assert.assertNull(in.getBufferPool());
+
+		in.reset(new ByteArrayInputStream(baos.getArray(), 0, baos
+				.getLength()));
+		Assert.assertSame(pool, in.getBufferPool());
+		Assert.assertEquals("b", in.readString());
+		in.close();
+
+		// Every buffer went back to the pool exactly once.
+		Assert.assertEquals(1, pool.getAllocationCount());
+		Assert.assertEquals(3, pool.getReuseCount());
+	}
+
+	private static void roundTrip(IBufferPool pool) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(baos, 16, pool);
+
+		CouchDB4kMarshaller.serialize(new CouchDB4k(), out);
+		out.close();
+
+		UBJInputStreamParser in = new UBJInputStreamParser(
+				new ByteArrayInputStream(baos.getArray(), 0, baos.getLength()),
+				16, pool);
+
+		Assert.assertEquals(new CouchDB4k(),
+				CouchDB4kMarshaller.deserialize(in));
+		in.close();
+	}
+}
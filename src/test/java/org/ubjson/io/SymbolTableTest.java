@@ -0,0 +1,114 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.ubjson.TwitterTimeline;
+import org.ubjson.TwitterTimelineMarshaller;
+
+public class SymbolTableTest {
+	@Test
+	public void testCanonical() throws IOException {
+		SymbolTable symbols = new SymbolTable(4, 8);
+		byte[] data = "xxnamenamecaf\u00e9".getBytes("UTF-8");
+
+		String name = symbols.get(data, 2, 4);
+		Assert.assertEquals("name", name);
+		Assert.assertSame(name, symbols.get(data, 6, 4));
+		Assert.assertEquals("caf\u00e9", symbols.get(data, 10, 5));
+
+		Assert.assertEquals(1, symbols.getHits());
+		Assert.assertEquals(2, symbols.getMisses());
+		Assert.assertEquals(2, symbols.size());
+
+		// Longer than maxLength; decoded but never cached.
+		Assert.assertEquals("xxnamename", symbols.get(data, 0, 10));
+		Assert.assertEquals(2, symbols.size());
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		SymbolTable symbols = new SymbolTable(4, 8);
+		byte[] hot = "hot".getBytes("UTF-8");
+		String canonical = symbols.get(hot, 0, hot.length);
+
+		// Flood the table with one-off keys, touching the hot key in between.
+		for (int i = 0; i < 1000; i++) {
+			byte[] key = ("k" + i).getBytes("UTF-8");
+
+			Assert.assertEquals("k" + i, symbols.get(key, 0, key.length));
+			Assert.assertSame(canonical, symbols.get(hot, 0, hot.length));
+			Assert.assertTrue(symbols.size() <= 4);
+		}
+
+		Assert.assertEquals(1000, symbols.getHits());
+		Assert.assertEquals(1001, symbols.getMisses());
+		Assert.assertEquals(1001 - 4, symbols.getEvictions());
+	}
+
+	@Test
+	public void testReadKey() throws IOException {
+		SymbolTable symbols = new SymbolTable();
+
+		for (int i = 0; i < 2; i++) {
+			UBJInputStream in = new UBJInputStream(
+					TwitterTimeline.class
+							.getResourceAsStream("TwitterTimeline.ubj"),
+					UBJInputStream.MIN_BUFFER_SIZE);
+			in.setSymbolTable(symbols);
+
+			Assert.assertTrue(new TwitterTimeline()
+					.equals(TwitterTimelineMarshaller.deserialize(in)));
+			in.close();
+		}
+
+		// Every key of the second pass came out of the table.
+		Assert.assertTrue(symbols.getHits() > symbols.getMisses());
+	}
+
+	@Test
+	public void testThreadTable() throws IOException {
+		SymbolTable symbols = SymbolTable.getThreadTable();
+		long hits = 0;
+		long misses = 0;
+
+		// A new stream per message, none given a table.
+		for (int i = 0; i < 2; i++) {
+			UBJInputStream in = new UBJInputStream(
+					TwitterTimeline.class
+							.getResourceAsStream("TwitterTimeline.ubj"));
+
+			Assert.assertTrue(new TwitterTimeline()
+					.equals(TwitterTimelineMarshaller.deserialize(in)));
+			Assert.assertNull(in.getSymbolTable());
+			in.close();
+
+			if (i == 0) {
+				hits = symbols.getHits();
+				misses = symbols.getMisses();
+			}
+		}
+
+		// The second stream found every key the first one left behind.
+		Assert.assertSame(symbols, SymbolTable.getThreadTable());
+		Assert.assertEquals(misses, symbols.getMisses());
+		Assert.assertTrue(symbols.getHits() > hits);
+	}
+}
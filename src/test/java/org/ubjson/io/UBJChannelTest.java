@@ -0,0 +1,192 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.Pipe;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.ubjson.CouchDB4k;
+import org.ubjson.CouchDB4kMarshaller;
+import org.ubjson.TwitterTimeline;
+import org.ubjson.TwitterTimelineMarshaller;
+
+public class UBJChannelTest {
+	@Test
+	public void testFileChannel() throws IOException {
+		File file = File.createTempFile("ubjson", ".ubj");
+		file.deleteOnExit();
+
+		// Tiny buffers so values straddle buffer boundaries.
+		DirectBufferPool pool = new DirectBufferPool(64, 2);
+		byte[] blob = new byte[1000];
+
+		for (int i = 0; i < blob.length; i++)
+			blob[i] = (byte) i;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		UBJChannelOutputStream out = new UBJChannelOutputStream(
+				raf.getChannel(), pool);
+
+		TwitterTimelineMarshaller.serialize(new TwitterTimeline(), out);
+		out.writeTypedArray(blob);
+		CouchDB4kMarshaller.serialize(new CouchDB4k(), out);
+		out.close();
+
+		Assert.assertEquals(out.getWriteCount(), raf.length());
+		Assert.assertEquals(1, pool.getIdleCount());
+
+		FileChannel channel = raf.getChannel();
+		channel.position(0);
+
+		UBJChannelParser in = new UBJChannelParser(channel, pool);
+
+		Assert.assertEquals(0, pool.getIdleCount());
+		Assert.assertTrue(new TwitterTimeline()
+				.equals(TwitterTimelineMarshaller.deserialize(in)));
+
+		byte[] copy = new byte[in.readArrayLength()];
+		in.readArrayElements(copy, 0, copy.length);
+
+		for (int i = 0; i < blob.length; i++)
+			Assert.assertEquals(blob[i], copy[i]);
+
+		Assert.assertTrue(new CouchDB4k().equals(CouchDB4kMarshaller
+				.deserialize(in)));
+		Assert.assertEquals(-1, in.nextType());
+
+		// Skipping jumps straight over the rest of the file.
+		channel.position(0);
+		in = new UBJChannelParser(channel, pool);
+		in.skipValue();
+		in.skipValue();
+		Assert.assertTrue(new CouchDB4k().equals(CouchDB4kMarshaller
+				.deserialize(in)));
+
+		in.close();
+		raf.close();
+	}
+
+	@Test
+	public void testPipe() throws Exception {
+		final Pipe pipe = Pipe.open();
+		final Exception[] failure = new Exception[1];
+
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					UBJChannelOutputStream out = new UBJChannelOutputStream(
+							pipe.sink());
+
+					for (int i = 0; i < 10; i++)
+						TwitterTimelineMarshaller.serialize(
+								new TwitterTimeline(), out);
+
+					out.close();
+					pipe.sink().close();
+				} catch (Exception e) {
+					failure[0] = e;
+				}
+			}
+		};
+
+		writer.start();
+
+		UBJChannelParser in = new UBJChannelParser(pipe.source());
+
+		for (int i = 0; i < 10; i++)
+			Assert.assertTrue(new TwitterTimeline()
+					.equals(TwitterTimelineMarshaller.deserialize(in)));
+
+		Assert.assertEquals(-1, in.nextType());
+		in.close();
+		writer.join();
+
+		Assert.assertNull(failure[0]);
+	}
+
+	@Test
+	public void testGatheredWrites() throws IOException {
+		RecordingChannel channel = new RecordingChannel();
+		UBJChannelOutputStream out = new UBJChannelOutputStream(channel,
+				new DirectBufferPool(64, 1));
+
+		byte[] blob = new byte[10000];
+
+		out.writeTypedArray(blob);
+		out.close();
+
+		// The header and the large body went out in a single call.
+		Assert.assertEquals(1, channel.gathered);
+		Assert.assertEquals(out.getWriteCount(), channel.written);
+
+		try {
+			Pipe pipe = Pipe.open();
+			pipe.source().configureBlocking(false);
+			new ChannelInputStream(pipe.source());
+			Assert.fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	static class RecordingChannel implements GatheringByteChannel {
+		int gathered;
+		long written;
+
+		@Override
+		public int write(ByteBuffer src) {
+			int n = src.remaining();
+			src.position(src.limit());
+			written += n;
+			return n;
+		}
+
+		@Override
+		public long write(ByteBuffer[] srcs) {
+			return write(srcs, 0, srcs.length);
+		}
+
+		@Override
+		public long write(ByteBuffer[] srcs, int offset, int length) {
+			long n = 0;
+
+			for (int i = offset; i < offset + length; i++)
+				n += write(srcs[i]);
+
+			gathered++;
+			return n;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+			// no-op
+		}
+	}
+}
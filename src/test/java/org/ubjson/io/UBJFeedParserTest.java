@@ -0,0 +1,226 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.ubjson.TwitterTimeline;
+import org.ubjson.TwitterTimelineMarshaller;
+import org.ubjson.io.UBJPullParser.Token;
+
+public class UBJFeedParserTest {
+	@Test
+	public void testChunks() throws IOException {
+		byte[] data = write();
+
+		// Reference token sequence from the blocking parser.
+		UBJPullParser pull = new UBJPullParser(new ByteArrayInputStream(data));
+		List<String> expected = new ArrayList<String>();
+		Token token;
+
+		while ((token = pull.nextToken()) != null)
+			expected.add(describe(pull, token));
+
+		// Same tokens no matter how the bytes are split up.
+		for (int chunk : new int[] { 1, 2, 3, 7, 64, data.length }) {
+			UBJFeedParser feed = new UBJFeedParser();
+			List<String> actual = new ArrayList<String>();
+			int fed = 0;
+
+			for (;;) {
+				token = feed.nextToken();
+
+				if (token == Token.NOT_AVAILABLE) {
+					Assert.assertTrue(feed.needsInput()
+							|| feed.getBufferedCount() > 0);
+
+					if (fed == data.length)
+						feed.endOfInput();
+					else {
+						int length = Math.min(chunk, data.length - fed);
+						feed.feed(ByteBuffer.wrap(data, fed, length));
+						fed += length;
+					}
+				} else if (token == null)
+					break;
+				else
+					actual.add(describe(feed, token));
+			}
+
+			Assert.assertEquals("chunk " + chunk, expected, actual);
+			Assert.assertEquals(data.length, feed.getPosition());
+		}
+	}
+
+	@Test
+	public void testShrink() throws IOException {
+		char[] big = new char[10000];
+		Arrays.fill(big, 'x');
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(bytes);
+		out.writeString(new String(big));
+		out.writeInt32(42);
+		out.flush();
+
+		byte[] data = new byte[bytes.getLength()];
+		System.arraycopy(bytes.getArray(), 0, data, 0, data.length);
+
+		UBJFeedParser feed = new UBJFeedParser();
+		int split = data.length - 5;
+
+		for (int i = 0; i < split; i += 1000) {
+			Assert.assertEquals(Token.NOT_AVAILABLE, feed.nextToken());
+			feed.feed(data, i, Math.min(1000, split - i));
+		}
+
+		// The buffer grew to hold the STRING, then went back once it was read.
+		Assert.assertTrue(feed.data.length >= split);
+		Assert.assertEquals(Token.VALUE_STRING, feed.nextToken());
+		Assert.assertEquals(10000, feed.getText().length());
+		Assert.assertEquals(UBJFeedParser.BUFFER_SIZE, feed.data.length);
+		Assert.assertEquals(split, feed.getPosition());
+
+		feed.feed(data, split, 5);
+		Assert.assertEquals(Token.VALUE_NUMBER_INT, feed.nextToken());
+		Assert.assertEquals(42, feed.getInt());
+		Assert.assertEquals(data.length, feed.getPosition());
+		Assert.assertEquals(Token.NOT_AVAILABLE, feed.nextToken());
+	}
+
+	@Test
+	public void testSkipChildren() throws IOException {
+		byte[] data = write();
+		UBJFeedParser feed = new UBJFeedParser();
+
+		feed.feed(data, 0, 4);
+		Assert.assertEquals(Token.START_ARRAY, feed.nextToken());
+		Assert.assertEquals(Token.START_OBJECT, feed.nextToken());
+
+		// Not all fed yet; the skipping carries on as bytes come in.
+		feed.skipChildren();
+		Assert.assertEquals(Token.NOT_AVAILABLE, feed.getToken());
+
+		feed.feed(data, 4, data.length - 4);
+		Assert.assertEquals(Token.END_OBJECT, feed.nextToken());
+		Assert.assertEquals(1, feed.getDepth());
+		Assert.assertEquals(Token.START_ARRAY, feed.nextToken());
+		Assert.assertEquals("$[1]", feed.getPath());
+	}
+
+	@Test
+	public void testTruncated() throws IOException {
+		byte[] data = write();
+		UBJFeedParser feed = new UBJFeedParser();
+
+		feed.feed(data, 0, data.length - 1);
+		feed.endOfInput();
+
+		try {
+			while (feed.nextToken() != null)
+				;
+
+			Assert.fail("Expected UBJFormatException");
+		} catch (UBJFormatException e) {
+			// expected
+		}
+
+		try {
+			feed.feed(data, 0, 1);
+			Assert.fail("Expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	private static byte[] write() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(bytes);
+
+		out.writeArrayHeader(3);
+		TwitterTimelineMarshaller.serialize(new TwitterTimeline(), out);
+
+		out.writeUnboundedArrayHeader();
+		out.writeNoop();
+		out.writeInt16((short) -2);
+		out.writeFloat(0.25f);
+		out.writeHuge(new BigDecimal("3.14159265358979323846"));
+		out.writeTypedArray(new double[] { 1.5, -2.5 });
+		out.writeTypedArray(new short[0]);
+		out.writeUnboundedObjectHeader();
+		out.writeString("caf\u00e9");
+		out.writeNull();
+		out.writeEnd();
+		out.writeEnd();
+
+		out.writeString(repeat('x', 1000));
+
+		// A second top-level value.
+		out.writeInt64(Long.MIN_VALUE);
+
+		byte[] data = new byte[bytes.getLength()];
+		System.arraycopy(bytes.getArray(), 0, data, 0, data.length);
+
+		return data;
+	}
+
+	private static String describe(UBJPullParser parser, Token token) {
+		StringBuilder text = new StringBuilder();
+
+		text.append(token).append(' ').append(parser.getPath()).append(' ')
+				.append(parser.getType());
+
+		switch (token) {
+		case START_ARRAY:
+		case START_OBJECT:
+			text.append(' ').append(parser.getLength());
+			break;
+
+		case FIELD_NAME:
+		case VALUE_HUGE:
+		case VALUE_STRING:
+			text.append(' ').append(parser.getText());
+			break;
+
+		case VALUE_NUMBER_INT:
+			text.append(' ').append(parser.getLong());
+			break;
+
+		case VALUE_NUMBER_FLOAT:
+			text.append(' ').append(parser.getDouble());
+			break;
+
+		default:
+			break;
+		}
+
+		return text.toString();
+	}
+
+	private static String repeat(char c, int count) {
+		char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+}
@@ -0,0 +1,237 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.ubjson.CouchDB4k;
+import org.ubjson.CouchDB4kMarshaller;
+import org.ubjson.TwitterTimeline;
+import org.ubjson.TwitterTimelineMarshaller;
+
+public class UBJInputStreamParserTest {
+	@Test
+	public void testSkipValue() throws IOException {
+		byte[] data = writeSample();
+
+		InputStream[] sources = { new ByteArrayInputStream(data),
+				new NoSkipInputStream(data) };
+
+		for (InputStream source : sources) {
+			UBJInputStreamParser in = new UBJInputStreamParser(source);
+
+			// Skip whole documents without having peeked at them first.
+			in.skipValue();
+			Assert.assertEquals(IUBJTypeMarker.OBJECT_COMPACT, in.nextType());
+			in.skipValue();
+
+			// Unbounded containers, nested in each other.
+			in.skipValue();
+
+			// A STRING body bigger than any read buffer.
+			in.skipValue();
+
+			Assert.assertEquals(42, in.readInt32());
+			Assert.assertEquals(data.length, in.getPosition());
+			Assert.assertEquals(-1, in.nextType());
+		}
+	}
+
+	@Test
+	public void testReset() throws IOException {
+		byte[] data = writeSample();
+		UBJInputStreamParser in = new UBJInputStreamParser(
+				new ByteArrayInputStream(data), UBJInputStream.MIN_BUFFER_SIZE);
+
+		// Leave the stream part way into a message with a value peeked at.
+		Assert.assertEquals(IUBJTypeMarker.OBJECT_COMPACT, in.nextType());
+		in.readObjectLength();
+		Assert.assertEquals(IUBJTypeMarker.STRING_COMPACT, in.nextType());
+
+		for (int i = 0; i < 3; i++) {
+			in.reset(new ByteArrayInputStream(data));
+
+			Assert.assertEquals(0, in.getPosition());
+			Assert.assertEquals(IUBJTypeMarker.OBJECT_COMPACT, in.nextType());
+			in.skipValue();
+			in.skipValue();
+			in.skipValue();
+			in.skipValue();
+
+			Assert.assertEquals(42, in.readInt32());
+			Assert.assertEquals(data.length, in.getPosition());
+		}
+	}
+
+	@Test
+	public void testNextTypeSkipsContainers() throws IOException {
+		byte[] data = writeSample();
+		UBJInputStreamParser in = new UBJInputStreamParser(
+				new ByteArrayInputStream(data), UBJInputStream.MIN_BUFFER_SIZE);
+
+		// Peeking at each value without reading it skips it entirely.
+		Assert.assertEquals(IUBJTypeMarker.OBJECT_COMPACT, in.nextType());
+		Assert.assertEquals(IUBJTypeMarker.OBJECT_COMPACT, in.nextType());
+		Assert.assertEquals(IUBJTypeMarker.ARRAY_COMPACT, in.nextType());
+		Assert.assertEquals(IUBJTypeMarker.STRING, in.nextType());
+		Assert.assertEquals(IUBJTypeMarker.INT32, in.nextType());
+		Assert.assertEquals(42, in.readInt32());
+	}
+
+	@Test
+	public void testTruncated() throws IOException {
+		byte[] data = writeSample();
+
+		// Cut off inside the first container, then inside the big STRING.
+		int[] lengths = { 1000, data.length - 10 };
+		int[] skippable = { 0, 3 };
+
+		for (int i = 0; i < lengths.length; i++) {
+			UBJInputStreamParser in = new UBJInputStreamParser(
+					new ByteArrayInputStream(data, 0, lengths[i]));
+
+			for (int j = 0; j < skippable[i]; j++)
+				in.skipValue();
+
+			try {
+				in.skipValue();
+				Assert.fail("skipped a truncated value");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testTypedArrays() throws IOException {
+		int[] lengths = { 0, 3, 200, 40000 };
+
+		for (int length : lengths) {
+			int[] ints = new int[length];
+			double[] doubles = new double[length];
+			byte[] bytes = new byte[length];
+
+			for (int i = 0; i < length; i++) {
+				ints[i] = i * -104729;
+				doubles[i] = i / 7d;
+				bytes[i] = (byte) i;
+			}
+
+			ByteArrayOutputStream data = new ByteArrayOutputStream();
+			UBJOutputStream out = new UBJOutputStream(data);
+
+			out.writeTypedArray(ints);
+			out.writeTypedArray(doubles);
+			out.writeTypedArray(bytes);
+			out.writeTypedArray(ints);
+			out.writeInt32(42);
+
+			// Header plus the raw values, no per-element markers.
+			Assert.assertEquals(length * 17 + 4
+					* (length < 128 ? 6 : (length < 32768 ? 7 : 9)) + 5,
+					data.getLength());
+
+			byte[] encoded = new byte[data.getLength()];
+			System.arraycopy(data.getArray(), 0, encoded, 0, encoded.length);
+
+			for (int size : new int[] { 0, UBJInputStream.MIN_BUFFER_SIZE }) {
+				/*
+				 * Array-backed (decoded in place) and a plain stream (decoded
+				 * out of bulk reads).
+				 */
+				InputStream[] sources = { new ByteArrayInputStream(encoded),
+						new java.io.ByteArrayInputStream(encoded) };
+
+				for (InputStream source : sources) {
+					UBJInputStreamParser in = (size == 0 ? new UBJInputStreamParser(
+							source) : new UBJInputStreamParser(source, size));
+
+					// In bulk.
+					int[] ints2 = new int[length];
+					Assert.assertEquals(length, in.readArrayLength());
+					Assert.assertEquals(IUBJTypeMarker.INT32,
+							in.getElementType());
+					in.readArrayElements(ints2, 0, length);
+
+					// One element at a time, as if every one had a marker.
+					Assert.assertEquals(IUBJTypeMarker.ARRAY_OPTIMIZED,
+							in.nextType());
+					Assert.assertEquals(length, in.readArrayLength());
+
+					for (int i = 0; i < length; i++) {
+						Assert.assertEquals(IUBJTypeMarker.DOUBLE,
+								in.nextType());
+						Assert.assertEquals(doubles[i], in.readDouble());
+					}
+
+					byte[] bytes2 = new byte[length];
+					in.readArrayElements(bytes2, 0, in.readArrayLength());
+
+					// Skipped in one go.
+					in.skipValue();
+					Assert.assertEquals(42, in.readInt32());
+					Assert.assertEquals(-1, in.nextType());
+
+					for (int i = 0; i < length; i++) {
+						Assert.assertEquals(ints[i], ints2[i]);
+						Assert.assertEquals(bytes[i], bytes2[i]);
+					}
+				}
+			}
+		}
+	}
+
+	private byte[] writeSample() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(baos);
+
+		TwitterTimelineMarshaller.serialize(new TwitterTimeline(), out);
+		CouchDB4kMarshaller.serialize(new CouchDB4k(), out);
+
+		// [[1, {"k": null}], "x"] with both arrays and the object unbounded.
+		out.write(new byte[] { 'a', (byte) 0xFF, 'a', (byte) 0xFF, 'B', 1,
+				'o', (byte) 0xFF, 's', 1, 'k', 'Z', 'E', 'E', 's', 1, 'x',
+				'E' });
+
+		out.writeString(new String(new char[70000]).replace('\0', 'x'));
+		out.writeInt32(42);
+		out.flush();
+
+		byte[] data = new byte[baos.getLength()];
+		System.arraycopy(baos.getArray(), 0, data, 0, data.length);
+
+		return data;
+	}
+
+	/*
+	 * Source that never skips anything, forcing callers to fall back on
+	 * reading.
+	 */
+	private static class NoSkipInputStream extends ByteArrayInputStream {
+		public NoSkipInputStream(byte[] data) {
+			super(data);
+		}
+
+		@Override
+		public long skip(long n) {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,292 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.ubjson.MediaContent;
+import org.ubjson.MediaContentMarshaller;
+import org.ubjson.TwitterTimeline;
+import org.ubjson.TwitterTimelineMarshaller;
+
+public class UBJInputStreamTest {
+	@Test
+	public void testShortReads() throws IOException {
+		byte[] data = writeSample();
+
+		// Unbuffered, underlying stream only ever returns 1 byte per read.
+		assertSample(new UBJInputStream(new TrickleInputStream(data)),
+				data.length);
+
+		// Buffered, same trickling source.
+		assertSample(new UBJInputStream(new TrickleInputStream(data), 16),
+				data.length);
+	}
+
+	@Test
+	public void testBufferedPosition() throws IOException {
+		byte[] data = writeSample();
+
+		// Window smaller than the sample forces multiple refills.
+		UBJInputStream in = new UBJInputStream(new ByteArrayInputStream(data),
+				UBJInputStream.MIN_BUFFER_SIZE);
+
+		in.readInt16();
+		Assert.assertEquals(3, in.getPosition());
+
+		in.readInt32();
+		Assert.assertEquals(8, in.getPosition());
+
+		in.readInt64();
+		Assert.assertEquals(17, in.getPosition());
+	}
+
+	@Test
+	public void testBufferedMarshallers() throws IOException {
+		UBJInputStream in = new UBJInputStream(
+				MediaContent.class.getResourceAsStream("MediaContent.ubj"),
+				UBJInputStream.BUFFER_SIZE);
+		Assert.assertTrue(new MediaContent().equals(MediaContentMarshaller
+				.deserialize(in)));
+		in.close();
+
+		in = new UBJInputStream(
+				TwitterTimeline.class
+						.getResourceAsStream("TwitterTimeline.ubj"),
+				UBJInputStream.MIN_BUFFER_SIZE);
+		Assert.assertTrue(new TwitterTimeline()
+				.equals(TwitterTimelineMarshaller.deserialize(in)));
+		in.close();
+	}
+
+	@Test
+	public void testDirectStrings() throws IOException {
+		String[] texts = { "", "ascii", "caf\u00e9", "\u20ac\ud83d\ude00",
+				new String(new char[300]).replace('\0', 'x') + "\u00e9" };
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(baos);
+
+		for (String text : texts)
+			out.writeString(text);
+
+		out.writeHuge(new java.math.BigDecimal("3.14159"));
+
+		// Shift the data to make sure offsets are honored.
+		byte[] data = new byte[baos.getLength() + 3];
+		System.arraycopy(baos.getArray(), 0, data, 3, baos.getLength());
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+		direct.put(data).position(3);
+
+		InputStream[] sources = {
+				new ByteArrayInputStream(data, 3, baos.getLength()),
+				new ByteBufferInputStream((ByteBuffer) ByteBuffer.wrap(data)
+						.position(3)), new ByteBufferInputStream(direct),
+				new TrickleInputStream(baos.getArray()) };
+
+		for (InputStream source : sources) {
+			UBJInputStream in = new UBJInputStream(source);
+
+			for (String text : texts)
+				Assert.assertEquals(text, in.readString());
+
+			Assert.assertEquals("3.14159", in.readHugeAsString());
+			Assert.assertEquals(baos.getLength(), in.getPosition());
+		}
+
+		// Buffered and decoding into a caller-provided (direct) CharBuffer.
+		UBJInputStream in = new UBJInputStream(new ByteArrayInputStream(data,
+				3, baos.getLength()), UBJInputStream.MIN_BUFFER_SIZE);
+		CharBuffer chars = ByteBuffer.allocateDirect(1024).asCharBuffer();
+
+		for (String text : texts) {
+			in.readStringAsChars(chars);
+			Assert.assertEquals(text, chars.toString());
+		}
+	}
+
+	@Test
+	public void testHuge() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(baos);
+
+		out.writeHuge(new BigInteger("123456789012345678901234567890"));
+		out.writeHuge(new BigDecimal("1.5"));
+		out.writeHuge(new BigDecimal("1E+5"));
+		out.writeHuge(new BigDecimal("-2.5e-7"));
+		out.flush();
+
+		UBJInputStream in = new UBJInputStream(new ByteArrayInputStream(
+				baos.getArray(), 0, baos.getLength()));
+
+		Assert.assertEquals(new BigInteger("123456789012345678901234567890"),
+				in.readHuge());
+		Assert.assertEquals(new BigDecimal("1.5"), in.readHuge());
+
+		// Scientific notation has no '.' but is still a decimal.
+		Assert.assertEquals(new BigDecimal("1E+5"), in.readHuge());
+		Assert.assertEquals(new BigDecimal("-2.5e-7"), in.readHuge());
+	}
+
+	@Test
+	public void testSlices() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(baos);
+
+		out.writeString("caf\u00e9");
+		out.writeHuge(new java.math.BigInteger("12345678901234567890"));
+		out.writeString("tail");
+
+		byte[] data = new byte[baos.getLength()];
+		System.arraycopy(baos.getArray(), 0, data, 0, data.length);
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+		direct.put(data).flip();
+
+		InputStream[] sources = { new ByteArrayInputStream(data),
+				new ByteBufferInputStream(ByteBuffer.wrap(data)),
+				new ByteBufferInputStream(direct) };
+
+		for (InputStream source : sources) {
+			UBJInputStreamParser in = new UBJInputStreamParser(source);
+			Assert.assertTrue(in.isSliceSupported());
+
+			ByteBuffer slice = in.readStringAsSlice();
+			Assert.assertTrue(slice.isReadOnly());
+			Assert.assertEquals(0, slice.position());
+			Assert.assertEquals(ByteBuffer.wrap("caf\u00e9".getBytes("UTF-8")),
+					slice);
+
+			slice = in.readHugeAsSlice();
+			Assert.assertEquals(
+					ByteBuffer.wrap("12345678901234567890".getBytes("UTF-8")),
+					slice);
+
+			Assert.assertEquals("tail", in.readString());
+			Assert.assertEquals(data.length, in.getPosition());
+		}
+
+		// Buffered streams can't hand out slices and must not consume anything.
+		UBJInputStream in = new UBJInputStream(new ByteArrayInputStream(data),
+				UBJInputStream.MIN_BUFFER_SIZE);
+		Assert.assertFalse(in.isSliceSupported());
+
+		try {
+			in.readStringAsSlice();
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+
+		// Direct destination buffers work with the copying variants.
+		ByteBuffer dest = ByteBuffer.allocateDirect(64);
+		in.readStringAsBytes(dest);
+		Assert.assertEquals(ByteBuffer.wrap("caf\u00e9".getBytes("UTF-8")),
+				dest);
+	}
+
+	@Test
+	public void testMalformedStrings() throws IOException {
+		byte[][] bodies = { { (byte) 0x80 }, { 'a', (byte) 0xC3 },
+				{ (byte) 0xC0, (byte) 0xAF }, { (byte) 0xE0, (byte) 0x80, 'b' },
+				{ (byte) 0xED, (byte) 0xA0, (byte) 0x80 },
+				{ (byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80 },
+				{ (byte) 0xE2, (byte) 0x82, 'c' } };
+
+		for (byte[] body : bodies) {
+			byte[] data = new byte[body.length + 2];
+			data[0] = IUBJTypeMarker.STRING_COMPACT;
+			data[1] = (byte) body.length;
+			System.arraycopy(body, 0, data, 2, body.length);
+
+			// Same replacement behavior as the JDK decoder.
+			Assert.assertEquals(new String(body, "UTF-8"), new UBJInputStream(
+					new ByteArrayInputStream(data)).readString());
+		}
+	}
+
+	private byte[] writeSample() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(64);
+		UBJOutputStream out = new UBJOutputStream(baos);
+
+		out.writeInt16(Short.MIN_VALUE);
+		out.writeInt32(Integer.MAX_VALUE);
+		out.writeInt64(Long.MIN_VALUE);
+		out.writeNoop();
+		out.writeDouble(Math.PI);
+		out.writeString("short reads");
+		out.close();
+
+		byte[] data = new byte[baos.getLength()];
+		System.arraycopy(baos.getArray(), 0, data, 0, data.length);
+
+		return data;
+	}
+
+	private void assertSample(UBJInputStream in, int length)
+			throws IOException {
+		Assert.assertEquals(Short.MIN_VALUE, in.readInt16());
+		Assert.assertEquals(Integer.MAX_VALUE, in.readInt32());
+		Assert.assertEquals(Long.MIN_VALUE, in.readInt64());
+		Assert.assertEquals(Math.PI, in.readDouble());
+		Assert.assertEquals("short reads", in.readString());
+		Assert.assertEquals(length, in.getPosition());
+		Assert.assertEquals(-1, in.read());
+		Assert.assertEquals(length, in.getPosition());
+	}
+
+	/**
+	 * Simulates a slow network source that only ever returns a single byte
+	 * per bulk read request.
+	 */
+	private static class TrickleInputStream extends InputStream {
+		private int i;
+		private byte[] data;
+
+		public TrickleInputStream(byte[] data) {
+			this.data = data;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return (i < data.length ? data[i++] & 0xFF : -1);
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length)
+				throws IOException {
+			if (length == 0)
+				return 0;
+
+			int b = read();
+
+			if (b == -1)
+				return -1;
+
+			buffer[offset] = (byte) b;
+			return 1;
+		}
+	}
+}
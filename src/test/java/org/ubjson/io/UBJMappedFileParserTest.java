@@ -0,0 +1,189 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.ubjson.CouchDB4k;
+import org.ubjson.CouchDB4kMarshaller;
+import org.ubjson.MediaContent;
+import org.ubjson.MediaContentMarshaller;
+import org.ubjson.TwitterTimeline;
+import org.ubjson.TwitterTimelineMarshaller;
+
+public class UBJMappedFileParserTest {
+	@Test
+	public void testWindows() throws IOException {
+		File file = File.createTempFile("ubjson", ".ubj");
+		file.deleteOnExit();
+
+		UBJOutputStream out = new UBJOutputStream(new FileOutputStream(file),
+				UBJOutputStream.BUFFER_SIZE);
+		MediaContentMarshaller.serialize(new MediaContent(), out);
+		long couch = out.getWriteCount();
+		CouchDB4kMarshaller.serialize(new CouchDB4k(), out);
+		long twitter = out.getWriteCount();
+		TwitterTimelineMarshaller.serialize(new TwitterTimeline(), out);
+		long length = out.getWriteCount();
+		out.close();
+
+		// Tiny windows so values straddle window boundaries.
+		int[] windows = { 7, 64, MappedFileInputStream.WINDOW_SIZE };
+
+		for (int window : windows) {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			UBJMappedFileParser in = new UBJMappedFileParser(raf.getChannel(),
+					window);
+
+			Assert.assertEquals(length, in.getLength());
+			Assert.assertTrue(new MediaContent().equals(MediaContentMarshaller
+					.deserialize(in)));
+			Assert.assertEquals(couch, in.getPosition());
+			Assert.assertTrue(new CouchDB4k().equals(CouchDB4kMarshaller
+					.deserialize(in)));
+			Assert.assertEquals(twitter, in.getPosition());
+			Assert.assertTrue(new TwitterTimeline()
+					.equals(TwitterTimelineMarshaller.deserialize(in)));
+			Assert.assertEquals(length, in.getPosition());
+			Assert.assertEquals(-1, in.nextType());
+
+			// Jump back to a known offset.
+			in.seek(couch);
+			Assert.assertEquals(couch, in.getPosition());
+			Assert.assertTrue(new CouchDB4k().equals(CouchDB4kMarshaller
+					.deserialize(in)));
+
+			in.seek(0);
+			in.mark(0);
+			in.readObjectLength();
+			in.reset();
+			Assert.assertEquals(0, in.getPosition());
+			Assert.assertTrue(new MediaContent().equals(MediaContentMarshaller
+					.deserialize(in)));
+
+			in.close();
+			raf.close();
+		}
+	}
+
+	@Test
+	public void testWindowValues() throws IOException {
+		File file = File.createTempFile("ubjson", ".ubj");
+		file.deleteOnExit();
+
+		StringBuilder big = new StringBuilder();
+
+		for (int i = 0; i < 100; i++)
+			big.append("ab\u00e9\u20ac\ud83d\ude00");
+
+		String[] texts = { "", "ascii", "caf\u00e9", big.toString() };
+		int[] ints = new int[50];
+		double[] doubles = new double[50];
+
+		for (int i = 0; i < ints.length; i++) {
+			ints[i] = i * -104729;
+			doubles[i] = i / 7d;
+		}
+
+		UBJOutputStream out = new UBJOutputStream(new FileOutputStream(file));
+
+		for (String text : texts) {
+			out.writeString(text);
+			out.writeInt16((short) -12345);
+			out.writeInt32(-123456789);
+			out.writeInt64(Long.MIN_VALUE + 7);
+			out.writeDouble(Math.PI);
+		}
+
+		out.writeTypedArray(ints);
+		out.writeTypedArray(doubles);
+		out.writeHuge(new java.math.BigInteger("12345678901234567890"));
+		out.writeString("tail");
+		long length = out.getWriteCount();
+		out.close();
+
+		// Values that straddle windows, fill them exactly and fit easily.
+		int[] windows = { 1, 7, 64, MappedFileInputStream.WINDOW_SIZE };
+
+		for (int window : windows) {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			UBJMappedFileParser in = new UBJMappedFileParser(raf.getChannel(),
+					window);
+
+			// An empty body does not map (or slide) the window past its length.
+			Assert.assertEquals("", in.readString());
+			Assert.assertEquals(window == 1 ? 1 : 0, in.min.wstart);
+			in.seek(0);
+
+			for (String text : texts) {
+				Assert.assertEquals(text, in.readString());
+				Assert.assertEquals(-12345, in.readInt16());
+				Assert.assertEquals(-123456789, in.readInt32());
+				Assert.assertEquals(Long.MIN_VALUE + 7, in.readInt64());
+				Assert.assertEquals(Math.PI, in.readDouble());
+			}
+
+			int[] ints2 = new int[ints.length];
+			in.readArrayElements(ints2, 0, in.readArrayLength());
+			double[] doubles2 = new double[doubles.length];
+			in.readArrayElements(doubles2, 0, in.readArrayLength());
+
+			for (int i = 0; i < ints.length; i++) {
+				Assert.assertEquals(ints[i], ints2[i]);
+				Assert.assertEquals(doubles[i], doubles2[i]);
+			}
+
+			Assert.assertEquals("12345678901234567890", in.readHugeAsString());
+			Assert.assertEquals("tail", in.readString());
+			Assert.assertEquals(length, in.getPosition());
+
+			// Decoded into heap and direct buffers.
+			CharBuffer[] chars = { CharBuffer.allocate(2048),
+					ByteBuffer.allocateDirect(4096).asCharBuffer() };
+
+			for (CharBuffer buffer : chars) {
+				in.seek(0);
+
+				for (String text : texts) {
+					in.readStringAsChars(buffer);
+					Assert.assertEquals(text, buffer.toString());
+					in.skip(3 + 5 + 9 + 9);
+				}
+			}
+
+			in.seek(0);
+			ByteBuffer bytes = ByteBuffer.allocateDirect(1024);
+			in.readStringAsBytes(bytes);
+			Assert.assertEquals(0, bytes.remaining());
+			in.skip(3 + 5 + 9 + 9);
+			in.readStringAsBytes(bytes);
+			Assert.assertEquals(5, bytes.remaining());
+			Assert.assertEquals((byte) 'a', bytes.get(0));
+			Assert.assertEquals((byte) 'i', bytes.get(4));
+
+			in.close();
+			raf.close();
+		}
+	}
+}
@@ -0,0 +1,288 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.ubjson.CouchDB4k;
+import org.ubjson.CouchDB4kMarshaller;
+import org.ubjson.MediaContent;
+import org.ubjson.MediaContentMarshaller;
+import org.ubjson.TwitterTimeline;
+import org.ubjson.TwitterTimelineMarshaller;
+import org.ubjson.io.reflect.ObjectWriter;
+
+public class UBJOutputStreamTest {
+	@Test
+	public void testBufferedMatchesUnbuffered() throws IOException {
+		int[] sizes = { UBJOutputStream.MIN_BUFFER_SIZE, 100,
+				UBJOutputStream.BUFFER_SIZE };
+
+		for (int size : sizes) {
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			ByteArrayOutputStream actual = new ByteArrayOutputStream();
+
+			UBJOutputStream out = new UBJOutputStream(expected);
+			UBJOutputStream bout = new UBJOutputStream(actual, size);
+
+			MediaContentMarshaller.serialize(new MediaContent(), out);
+			MediaContentMarshaller.serialize(new MediaContent(), bout);
+
+			CouchDB4kMarshaller.serialize(new CouchDB4k(), out);
+			CouchDB4kMarshaller.serialize(new CouchDB4k(), bout);
+
+			TwitterTimelineMarshaller.serialize(new TwitterTimeline(), out);
+			TwitterTimelineMarshaller.serialize(new TwitterTimeline(), bout);
+
+			new ObjectWriter().writeObject(out, new CouchDB4k());
+			new ObjectWriter().writeObject(bout, new CouchDB4k());
+
+			bout.flush();
+
+			Assert.assertEquals(out.getWriteCount(), bout.getWriteCount());
+			assertEquals(expected, actual);
+		}
+	}
+
+	@Test
+	public void testReset() throws IOException {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(expected);
+		CouchDB4kMarshaller.serialize(new CouchDB4k(), out);
+
+		UBJOutputStream bout = new UBJOutputStream(
+				new ByteArrayOutputStream(), UBJOutputStream.BUFFER_SIZE);
+
+		// Pending bytes for the old sink must not leak into the new one.
+		bout.writeString("discarded");
+
+		for (int i = 0; i < 3; i++) {
+			ByteArrayOutputStream actual = new ByteArrayOutputStream();
+			bout.reset(actual);
+
+			Assert.assertEquals(0, bout.getWriteCount());
+
+			CouchDB4kMarshaller.serialize(new CouchDB4k(), bout);
+			bout.flush();
+
+			Assert.assertEquals(out.getWriteCount(), bout.getWriteCount());
+			assertEquals(expected, actual);
+		}
+	}
+
+	@Test
+	public void testStringByteLength() throws IOException {
+		StringBuilder big = new StringBuilder();
+
+		for (int i = 0; i < 5000; i++)
+			big.append(i % 3 == 0 ? "\u00e9" : (i % 3 == 1 ? "\u20ac"
+					: "\ud83d\ude00"));
+
+		String[] texts = { "", "ascii", "caf\u00e9", "\u20ac\u20ac",
+				"\ud83d\ude00", repeat('a', 254), repeat('a', 255),
+				repeat('\u00e9', 127), repeat('\u00e9', 128),
+				repeat('\u20ac', 100), big.toString() };
+		int[] sizes = { 0, UBJOutputStream.MIN_BUFFER_SIZE, 100,
+				UBJOutputStream.BUFFER_SIZE };
+
+		for (String text : texts) {
+			byte[] utf8 = text.getBytes("UTF-8");
+
+			for (int size : sizes) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				UBJOutputStream out = (size == 0 ? new UBJOutputStream(bytes)
+						: new UBJOutputStream(bytes, size));
+
+				out.writeString(text);
+				out.flush();
+
+				byte[] a = bytes.getArray();
+				int header = (utf8.length < 255 ? 2 : 5);
+
+				Assert.assertEquals(utf8.length + header, bytes.getLength());
+				Assert.assertEquals(utf8.length + header, out.getWriteCount());
+
+				if (header == 2) {
+					Assert.assertEquals(IUBJTypeMarker.STRING_COMPACT, a[0]);
+					Assert.assertEquals(utf8.length, a[1] & 0xFF);
+				} else
+					Assert.assertEquals(IUBJTypeMarker.STRING, a[0]);
+
+				for (int i = 0; i < utf8.length; i++)
+					Assert.assertEquals("byte " + i, utf8[i], a[header + i]);
+
+				UBJInputStream in = new UBJInputStream(
+						new ByteArrayInputStream(a, 0, bytes.getLength()));
+				Assert.assertEquals(text, in.readString());
+			}
+		}
+	}
+
+	@Test
+	public void testBulkArrays() throws IOException {
+		int length = 10000;
+		boolean[] booleans = new boolean[length];
+		short[] shorts = new short[length];
+		int[] ints = new int[length];
+		long[] longs = new long[length];
+		float[] floats = new float[length];
+		double[] doubles = new double[length];
+
+		for (int i = 0; i < length; i++) {
+			booleans[i] = (i % 3 == 0);
+			shorts[i] = (short) (i * 7);
+			ints[i] = i * 104729;
+			longs[i] = i * 15485863L << 20;
+			floats[i] = i / 3f;
+			doubles[i] = -i / 7d;
+		}
+
+		int[] sizes = { 0, UBJOutputStream.MIN_BUFFER_SIZE, 100,
+				UBJOutputStream.BUFFER_SIZE };
+
+		for (int size : sizes) {
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			ByteArrayOutputStream actual = new ByteArrayOutputStream();
+
+			UBJOutputStream out = new UBJOutputStream(expected);
+			UBJOutputStream bout = (size == 0 ? new UBJOutputStream(actual)
+					: new UBJOutputStream(actual, size));
+
+			// One value at a time.
+			out.writeArrayHeader(length);
+			for (int i = 0; i < length; i++)
+				out.writeBoolean(booleans[i]);
+			out.writeArrayHeader(length);
+			for (int i = 0; i < length; i++)
+				out.writeInt16(shorts[i]);
+			out.writeArrayHeader(length);
+			for (int i = 0; i < length; i++)
+				out.writeInt32(ints[i]);
+			out.writeArrayHeader(length);
+			for (int i = 0; i < length; i++)
+				out.writeInt64(longs[i]);
+			out.writeArrayHeader(length);
+			for (int i = 0; i < length; i++)
+				out.writeFloat(floats[i]);
+			out.writeArrayHeader(10);
+			for (int i = 5; i < 15; i++)
+				out.writeDouble(doubles[i]);
+
+			// In bulk.
+			bout.writeArray(booleans);
+			bout.writeArray(shorts);
+			bout.writeArray(ints);
+			bout.writeArray(longs);
+			bout.writeArray(floats);
+			bout.writeArray(doubles, 5, 10);
+			bout.flush();
+
+			Assert.assertEquals(out.getWriteCount(), bout.getWriteCount());
+			assertEquals(expected, actual);
+
+			UBJInputStream in = (size == 0 ? new UBJInputStream(
+					new ByteArrayInputStream(actual.getArray(), 0,
+							actual.getLength())) : new UBJInputStream(
+					new ByteArrayInputStream(actual.getArray(), 0,
+							actual.getLength()), size));
+
+			boolean[] booleans2 = new boolean[length];
+			in.readArrayElements(booleans2, 0, in.readArrayLength());
+			short[] shorts2 = new short[length];
+			in.readArrayElements(shorts2, 0, in.readArrayLength());
+			int[] ints2 = new int[length];
+			in.readArrayElements(ints2, 0, in.readArrayLength());
+			long[] longs2 = new long[length];
+			in.readArrayElements(longs2, 0, in.readArrayLength());
+			float[] floats2 = new float[length];
+			in.readArrayElements(floats2, 0, in.readArrayLength());
+			double[] doubles2 = new double[20];
+			in.readArrayElements(doubles2, 5, in.readArrayLength());
+
+			for (int i = 0; i < length; i++) {
+				Assert.assertEquals(booleans[i], booleans2[i]);
+				Assert.assertEquals(shorts[i], shorts2[i]);
+				Assert.assertEquals(ints[i], ints2[i]);
+				Assert.assertEquals(longs[i], longs2[i]);
+				Assert.assertEquals(floats[i], floats2[i]);
+			}
+
+			for (int i = 5; i < 15; i++)
+				Assert.assertEquals(doubles[i], doubles2[i]);
+
+			Assert.assertEquals(-1, in.read());
+		}
+	}
+
+	@Test
+	public void testBulkArrayWidening() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(bytes);
+
+		out.writeArrayHeader(3);
+		out.writeByte((byte) -1);
+		out.writeNoop();
+		out.writeInt16((short) 300);
+		out.writeInt32(70000);
+
+		out.writeArrayHeader(2);
+		out.writeInt32(1);
+		out.writeString("2");
+
+		UBJInputStreamParser in = new UBJInputStreamParser(
+				new ByteArrayInputStream(bytes.getArray(), 0, bytes.getLength()));
+
+		// The parser may have already peeked at the first element.
+		long[] longs = new long[3];
+		Assert.assertEquals(3, in.readArrayLength());
+		Assert.assertEquals(IUBJTypeMarker.BYTE, in.nextType());
+		in.readArrayElements(longs, 0, 3);
+
+		Assert.assertEquals(-1, longs[0]);
+		Assert.assertEquals(300, longs[1]);
+		Assert.assertEquals(70000, longs[2]);
+
+		try {
+			in.readArrayElements(new int[2], 0, in.readArrayLength());
+			Assert.fail();
+		} catch (UBJFormatException e) {
+			// expected
+		}
+	}
+
+	private static String repeat(char c, int count) {
+		char[] chars = new char[count];
+
+		for (int i = 0; i < count; i++)
+			chars[i] = c;
+
+		return new String(chars);
+	}
+
+	private void assertEquals(ByteArrayOutputStream expected,
+			ByteArrayOutputStream actual) {
+		Assert.assertEquals(expected.getLength(), actual.getLength());
+
+		byte[] e = expected.getArray();
+		byte[] a = actual.getArray();
+
+		for (int i = 0, length = expected.getLength(); i < length; i++)
+			Assert.assertEquals("byte " + i, e[i], a[i]);
+	}
+}
@@ -0,0 +1,194 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.ubjson.TwitterTimeline;
+import org.ubjson.TwitterTimelineMarshaller;
+import org.ubjson.io.UBJPullParser.Token;
+import org.ubjson.model.ObjectValue;
+
+public class UBJPullParserTest {
+	@Test
+	public void testTokens() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(bytes);
+
+		out.writeObjectHeader(3);
+		out.writeString("name");
+		out.writeString("caf\u00e9");
+		out.writeString("values");
+		out.writeArrayHeader(3);
+		out.writeByte((byte) 7);
+		out.writeDouble(1.5);
+		out.writeNull();
+		out.writeString("stream");
+
+		// Unbounded containers are closed by their END marker.
+		out.writeUnboundedObjectHeader();
+		out.writeString("ids");
+		out.writeTypedArray(new long[] { 1, Long.MAX_VALUE });
+		out.writeString("empty");
+		out.writeUnboundedArrayHeader();
+		out.writeEnd();
+		out.writeEnd();
+
+		// A second top-level value.
+		out.writeBoolean(true);
+
+		UBJPullParser parser = new UBJPullParser(new ByteArrayInputStream(
+				bytes.getArray(), 0, bytes.getLength()));
+
+		assertToken(parser, Token.START_OBJECT, 1, "$");
+		Assert.assertEquals(3, parser.getLength());
+		assertToken(parser, Token.FIELD_NAME, 1, "$.name");
+		Assert.assertEquals("name", parser.getText());
+		assertToken(parser, Token.VALUE_STRING, 1, "$.name");
+		Assert.assertEquals("caf\u00e9", parser.getText());
+		Assert.assertEquals(4, parser.getTextChars().remaining());
+
+		assertToken(parser, Token.FIELD_NAME, 1, "$.values");
+		assertToken(parser, Token.START_ARRAY, 2, "$.values");
+		Assert.assertEquals("values", parser.getFieldName());
+		assertToken(parser, Token.VALUE_NUMBER_INT, 2, "$.values[0]");
+		Assert.assertEquals(IUBJTypeMarker.BYTE, parser.getType());
+		Assert.assertEquals(7, parser.getInt());
+		Assert.assertEquals(7.0, parser.getDouble());
+		assertToken(parser, Token.VALUE_NUMBER_FLOAT, 2, "$.values[1]");
+		Assert.assertEquals(1.5, parser.getDouble());
+		assertToken(parser, Token.VALUE_NULL, 2, "$.values[2]");
+		Assert.assertEquals(2, parser.getIndex());
+		assertToken(parser, Token.END_ARRAY, 1, "$.values");
+
+		assertToken(parser, Token.FIELD_NAME, 1, "$.stream");
+		assertToken(parser, Token.START_OBJECT, 2, "$.stream");
+		Assert.assertEquals(-1, parser.getLength());
+		assertToken(parser, Token.FIELD_NAME, 2, "$.stream.ids");
+		assertToken(parser, Token.START_ARRAY, 3, "$.stream.ids");
+		assertToken(parser, Token.VALUE_NUMBER_INT, 3, "$.stream.ids[0]");
+		Assert.assertEquals(1, parser.getLong());
+		assertToken(parser, Token.VALUE_NUMBER_INT, 3, "$.stream.ids[1]");
+		Assert.assertEquals(Long.MAX_VALUE, parser.getLong());
+		assertToken(parser, Token.END_ARRAY, 2, "$.stream.ids");
+		assertToken(parser, Token.FIELD_NAME, 2, "$.stream.empty");
+		assertToken(parser, Token.START_ARRAY, 3, "$.stream.empty");
+		assertToken(parser, Token.END_ARRAY, 2, "$.stream.empty");
+		assertToken(parser, Token.END_OBJECT, 1, "$.stream");
+		assertToken(parser, Token.END_OBJECT, 0, "$");
+
+		assertToken(parser, Token.VALUE_TRUE, 0, "$");
+		Assert.assertTrue(parser.getBoolean());
+		Assert.assertNull(parser.nextToken());
+
+		try {
+			parser.getInt();
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testSkipChildren() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(bytes);
+
+		TwitterTimelineMarshaller.serialize(new TwitterTimeline(), out);
+
+		byte[] data = new byte[bytes.getLength()];
+		System.arraycopy(bytes.getArray(), 0, data, 0, data.length);
+
+		// Count the top-level fields, skipping every nested container.
+		UBJPullParser parser = new UBJPullParser(new ByteArrayInputStream(
+				data));
+		int fields = 0;
+
+		Assert.assertEquals(Token.START_OBJECT, parser.nextToken());
+
+		while (parser.nextToken() == Token.FIELD_NAME) {
+			fields++;
+			parser.nextToken();
+			parser.skipChildren();
+			Assert.assertEquals(1, parser.getDepth());
+		}
+
+		Assert.assertEquals(Token.END_OBJECT, parser.getToken());
+		Assert.assertEquals(data.length, parser.getInputStream().getPosition());
+
+		ObjectValue tree = new ObjectValue(new UBJInputStreamParser(
+				new ByteArrayInputStream(data)));
+		Assert.assertEquals(tree.getValue().size(), fields);
+	}
+
+	@Test
+	public void testHuge() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(bytes);
+
+		out.writeHuge(new BigInteger("123456789012345678901234567890"));
+		out.writeHuge(new BigDecimal("1.5"));
+		out.writeHuge(new BigDecimal("1E+5"));
+		out.flush();
+
+		UBJPullParser parser = new UBJPullParser(new ByteArrayInputStream(
+				bytes.getArray(), 0, bytes.getLength()));
+
+		Assert.assertEquals(Token.VALUE_HUGE, parser.nextToken());
+		Assert.assertEquals(new BigInteger("123456789012345678901234567890"),
+				parser.getHuge());
+		Assert.assertEquals(Token.VALUE_HUGE, parser.nextToken());
+		Assert.assertEquals(new BigDecimal("1.5"), parser.getHuge());
+
+		// Scientific notation has no '.' but is still a decimal.
+		Assert.assertEquals(Token.VALUE_HUGE, parser.nextToken());
+		Assert.assertEquals(new BigDecimal("1E+5"), parser.getHuge());
+	}
+
+	@Test
+	public void testTruncated() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(bytes);
+
+		out.writeArrayHeader(2);
+		out.writeInt32(1);
+
+		UBJPullParser parser = new UBJPullParser(new ByteArrayInputStream(
+				bytes.getArray(), 0, bytes.getLength()));
+
+		Assert.assertEquals(Token.START_ARRAY, parser.nextToken());
+		Assert.assertEquals(Token.VALUE_NUMBER_INT, parser.nextToken());
+
+		try {
+			parser.nextToken();
+			Assert.fail();
+		} catch (UBJFormatException e) {
+			// expected
+		}
+	}
+
+	private static void assertToken(UBJPullParser parser, Token token,
+			int depth, String path) throws IOException {
+		Assert.assertEquals(token, parser.nextToken());
+		Assert.assertEquals(depth, parser.getDepth());
+		Assert.assertEquals(path, parser.getPath());
+	}
+}
@@ -0,0 +1,149 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.io;
+
+import java.io.IOException;
+import java.math.BigInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class UBJPushParserTest {
+	@Test
+	public void testEvents() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(bytes);
+
+		out.writeObjectHeader(2);
+		out.writeString("name");
+		out.writeString("caf\u00e9");
+		out.writeString("values");
+		out.writeUnboundedArrayHeader();
+		out.writeByte((byte) 7);
+		out.writeInt16((short) 300);
+		out.writeInt32(70000);
+		out.writeInt64(Long.MAX_VALUE);
+		out.writeFloat(1.5f);
+		out.writeDouble(2.5);
+		out.writeHuge(new BigInteger("12345678901234567890"));
+		out.writeNull();
+		out.writeBoolean(false);
+		out.writeEnd();
+
+		// A second top-level value.
+		out.writeBoolean(true);
+
+		RecordingHandler handler = new RecordingHandler();
+		UBJPushParser parser = new UBJPushParser(new ByteArrayInputStream(
+				bytes.getArray(), 0, bytes.getLength()));
+
+		Assert.assertTrue(parser.parseNext(handler));
+		Assert.assertEquals("{2 name=caf\u00e9 values=[-1 b7 s300 i70000 l"
+				+ Long.MAX_VALUE
+				+ " f1.5 d2.5 h12345678901234567890 null false ] }",
+				handler.events.toString());
+
+		handler.events.setLength(0);
+		Assert.assertEquals(1, parser.parse(handler));
+		Assert.assertEquals("true ", handler.events.toString());
+		Assert.assertFalse(parser.parseNext(handler));
+		parser.close();
+	}
+
+	@Test
+	public void testTruncated() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(bytes);
+
+		out.writeArrayHeader(3);
+		out.writeInt32(1);
+
+		UBJPushParser parser = new UBJPushParser(new ByteArrayInputStream(
+				bytes.getArray(), 0, bytes.getLength()));
+
+		try {
+			parser.parse(new UBJHandlerAdapter());
+			Assert.fail("Expected UBJFormatException");
+		} catch (UBJFormatException e) {
+			// expected
+		}
+	}
+
+	static class RecordingHandler implements IUBJHandler {
+		StringBuilder events = new StringBuilder();
+
+		public void onStartArray(int length) {
+			events.append('[').append(length).append(' ');
+		}
+
+		public void onEndArray() {
+			events.append("] ");
+		}
+
+		public void onStartObject(int length) {
+			events.append('{').append(length).append(' ');
+		}
+
+		public void onEndObject() {
+			events.append('}');
+		}
+
+		public void onFieldName(String name) {
+			events.append(name).append('=');
+		}
+
+		public void onNull() {
+			events.append("null ");
+		}
+
+		public void onBoolean(boolean value) {
+			events.append(value).append(' ');
+		}
+
+		public void onByte(byte value) {
+			events.append('b').append(value).append(' ');
+		}
+
+		public void onInt16(short value) {
+			events.append('s').append(value).append(' ');
+		}
+
+		public void onInt32(int value) {
+			events.append('i').append(value).append(' ');
+		}
+
+		public void onInt64(long value) {
+			events.append('l').append(value).append(' ');
+		}
+
+		public void onFloat(float value) {
+			events.append('f').append(value).append(' ');
+		}
+
+		public void onDouble(double value) {
+			events.append('d').append(value).append(' ');
+		}
+
+		public void onHuge(CharSequence value) {
+			events.append('h').append(value).append(' ');
+		}
+
+		public void onString(CharSequence value) {
+			events.append(value).append(' ');
+		}
+	}
+}
@@ -0,0 +1,235 @@
+package org.ubjson.io.reflect;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.ubjson.io.UBJInputStreamParser;
+import org.ubjson.io.UBJOutputStream;
+
+public class MarshallerTest {
+	@Test
+	public void testGenerated() throws IOException {
+		IMarshaller<Order> m = Marshallers.get(Order.class);
+
+		Assert.assertNotNull(m);
+		Assert.assertEquals("MarshallerTest_Order" + Marshallers.SUFFIX, m
+				.getClass().getSimpleName());
+		Assert.assertNull(Marshallers.get(PlainOrder.class));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(bytes);
+		m.serialize(out, newOrder());
+		out.close();
+
+		Order o = m.deserialize(parser(bytes.toByteArray()));
+		assertOrder(o);
+	}
+
+	@Test
+	public void testObjectWriterAndReader() throws IOException {
+		Assert.assertEquals(ObjectWriter.ValueType.MARSHALLED,
+				ObjectWriter.VALUE_TYPES.get(Order.class));
+
+		// The generated form is byte-for-byte what reflection writes.
+		byte[] generated = write(newOrder());
+		PlainOrder plain = new ObjectReader().readObject(parser(generated),
+				PlainOrder.class);
+
+		Assert.assertTrue(Arrays.equals(generated, write(plain)));
+		assertOrder(new ObjectReader().readObject(parser(generated),
+				Order.class));
+
+		// Unknown keys are skipped and NULLs accepted.
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(bytes);
+		out.writeObjectHeader(3);
+		out.writeString("unknown");
+		out.writeArrayHeader(1);
+		out.writeString("x");
+		out.writeString("customer");
+		out.writeNull();
+		out.writeString("id");
+		out.writeInt16((short) 12);
+		out.close();
+
+		Order o = Marshallers.get(Order.class).deserialize(
+				parser(bytes.toByteArray()));
+		Assert.assertEquals(12, o.id);
+		Assert.assertNull(o.customer);
+	}
+
+	@Test
+	public void testPrimitiveArrayConversion() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(bytes);
+		out.writeObjectHeader(3);
+
+		// Regular ARRAY of mixed numeric types.
+		out.writeString("values");
+		out.writeArrayHeader(2);
+		out.writeInt32(1);
+		out.writeDouble(2.5);
+
+		// Optimized ARRAYs of a different (wider and narrower) type.
+		out.writeString("more");
+		out.writeTypedArray(new int[] { 3, 4 });
+		out.writeString("counts");
+		out.writeTypedArray(new long[] { 5, 6 });
+		out.close();
+
+		byte[] data = bytes.toByteArray();
+		Samples generated = Marshallers.get(Samples.class).deserialize(
+				parser(data));
+		PlainSamples plain = new ObjectReader().readObject(parser(data),
+				PlainSamples.class);
+
+		Assert.assertTrue(Arrays.equals(new double[] { 1, 2.5 },
+				generated.values));
+		Assert.assertTrue(Arrays.equals(new double[] { 3, 4 },
+				generated.more));
+		Assert.assertTrue(Arrays.equals(new int[] { 5, 6 }, generated.counts));
+
+		Assert.assertTrue(Arrays.equals(new double[] { 1, 2.5 },
+				plain.values));
+		Assert.assertTrue(Arrays.equals(new double[] { 3, 4 }, plain.more));
+		Assert.assertTrue(Arrays.equals(new int[] { 5, 6 }, plain.counts));
+	}
+
+	private static Order newOrder() {
+		Order o = new Order();
+		o.id = Long.MAX_VALUE;
+		o.customer = "ACME";
+		o.paid = true;
+		o.total = 19.99;
+		o.priority = null;
+		o.tax = new BigDecimal("1.234567890123456789");
+		o.note = "fragile".toCharArray();
+		o.codes = new int[] { 1, -1, 300 };
+		o.lines = new ArrayList<Line>();
+		o.lines.add(new Line("A-1", (short) 2, 9.5f));
+		o.lines.add(null);
+		o.tags = new TreeSet<String>(Arrays.asList("b", "a"));
+		o.first = new Line("B-2", (short) 1, 0.99f);
+		o.matrix = new Integer[][] { { 1, null }, {} };
+		o.ignored = 7;
+
+		return o;
+	}
+
+	private static void assertOrder(Order o) {
+		Assert.assertEquals(Long.MAX_VALUE, o.id);
+		Assert.assertEquals("ACME", o.customer);
+		Assert.assertTrue(o.paid);
+		Assert.assertEquals(19.99, o.total, 0);
+		Assert.assertNull(o.priority);
+		Assert.assertEquals(new BigDecimal("1.234567890123456789"), o.tax);
+		Assert.assertEquals("fragile", new String(o.note));
+		Assert.assertTrue(Arrays.equals(new int[] { 1, -1, 300 }, o.codes));
+		Assert.assertEquals(2, o.lines.size());
+		Assert.assertEquals("A-1", o.lines.get(0).sku);
+		Assert.assertEquals(2, o.lines.get(0).qty);
+		Assert.assertEquals(9.5f, o.lines.get(0).price, 0);
+		Assert.assertNull(o.lines.get(1));
+		Assert.assertEquals(Arrays.asList("a", "b"),
+				new ArrayList<String>(o.tags));
+		Assert.assertEquals("B-2", o.first.sku);
+		Assert.assertEquals(2, o.matrix.length);
+		Assert.assertEquals(Integer.valueOf(1), o.matrix[0][0]);
+		Assert.assertNull(o.matrix[0][1]);
+		Assert.assertEquals(0, o.matrix[1].length);
+		Assert.assertEquals(0, o.ignored);
+	}
+
+	private static byte[] write(Object obj) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(bytes);
+
+		new ObjectWriter().writeObject(out, obj);
+		out.close();
+
+		return bytes.toByteArray();
+	}
+
+	private static UBJInputStreamParser parser(byte[] data) {
+		return new UBJInputStreamParser(new ByteArrayInputStream(data));
+	}
+
+	@Marshalled
+	public static class Order {
+		public long id;
+		public String customer;
+		public boolean paid;
+		public double total;
+		public Integer priority;
+		public BigDecimal tax;
+		public char[] note;
+		public int[] codes;
+		public List<Line> lines;
+		public Set<String> tags;
+		public Line first;
+		public Integer[][] matrix;
+		public final String version = "1";
+		transient int ignored;
+	}
+
+	/*
+	 * Same fields as Order but not annotated, so it is always handled with
+	 * reflection.
+	 */
+	public static class PlainOrder {
+		public long id;
+		public String customer;
+		public boolean paid;
+		public double total;
+		public Integer priority;
+		public BigDecimal tax;
+		public char[] note;
+		public int[] codes;
+		public List<Line> lines;
+		public Set<String> tags;
+		public Line first;
+		public Integer[][] matrix;
+		public final String version = "1";
+		transient int ignored;
+	}
+
+	@Marshalled
+	public static class Samples {
+		public double[] values;
+		public double[] more;
+		public int[] counts;
+	}
+
+	public static class PlainSamples {
+		public double[] values;
+		public double[] more;
+		public int[] counts;
+	}
+
+	@Marshalled
+	public static class Line {
+		String sku;
+		short qty;
+		float price;
+
+		public Line() {
+			// default
+		}
+
+		public Line(String sku, short qty, float price) {
+			this.sku = sku;
+			this.qty = qty;
+			this.price = price;
+		}
+	}
+}
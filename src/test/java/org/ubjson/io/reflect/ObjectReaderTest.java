@@ -0,0 +1,240 @@
+package org.ubjson.io.reflect;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ubjson.CouchDB4k;
+import org.ubjson.TwitterTimeline;
+import org.ubjson.io.UBJInputStreamParser;
+import org.ubjson.io.UBJOutputStream;
+import org.ubjson.io.reflect.IObjectWriter.Mode;
+
+public class ObjectReaderTest {
+	private IObjectReader reader;
+
+	@Before
+	public void before() {
+		reader = new ObjectReader();
+	}
+
+	@Test
+	public void testCouchDB4k() throws IOException {
+		// Read the canonical file written by the hand-coded marshaller.
+		UBJInputStreamParser in = new UBJInputStreamParser(
+				CouchDB4k.class.getResourceAsStream("CouchDB4k.ubj"));
+		CouchDB4k c = reader.readObject(in, CouchDB4k.class);
+		in.close();
+
+		Assert.assertTrue(new CouchDB4k().equals(c));
+
+		// Round trip through ObjectWriter; re-uses the cached plans.
+		Assert.assertTrue(new CouchDB4k().equals(reader.readObject(
+				parser(write(new CouchDB4k())), CouchDB4k.class)));
+	}
+
+	@Test
+	public void testTwitterTimeline() throws IOException {
+		// Entities, User, etc. are non-static inner classes.
+		UBJInputStreamParser in = new UBJInputStreamParser(
+				TwitterTimeline.class
+						.getResourceAsStream("TwitterTimeline.ubj"));
+		TwitterTimeline tt = reader.readObject(in, TwitterTimeline.class);
+		in.close();
+
+		Assert.assertTrue(new TwitterTimeline().equals(tt));
+		Assert.assertTrue(new TwitterTimeline().equals(reader.readObject(
+				parser(write(new TwitterTimeline())), TwitterTimeline.class)));
+	}
+
+	@Test
+	public void testGenerics() throws IOException {
+		Bean b = new Bean();
+		b.items = Arrays.asList(new Item("a", 1), null, new Item("b", 2));
+		b.tags = new java.util.TreeSet<String>(Arrays.asList("x", "y"));
+		b.matrix = new long[][] { { 1, 2 }, {}, { Long.MAX_VALUE } };
+		b.chars = "chars".toCharArray();
+		b.huge = new BigDecimal("1234567890.0987654321");
+		b.count = null;
+		b.any = Arrays.asList("s", Integer.valueOf(7));
+
+		Bean r = reader.readObject(parser(write(b)), Bean.class);
+
+		Assert.assertEquals(3, r.items.size());
+		Assert.assertEquals("a", r.items.get(0).name);
+		Assert.assertNull(r.items.get(1));
+		Assert.assertEquals(2, r.items.get(2).value);
+		Assert.assertTrue(r.tags instanceof Set);
+		Assert.assertEquals(b.tags, r.tags);
+		Assert.assertEquals(3, r.matrix.length);
+		Assert.assertTrue(Arrays.equals(b.matrix[0], r.matrix[0]));
+		Assert.assertEquals(0, r.matrix[1].length);
+		Assert.assertTrue(Arrays.equals(b.matrix[2], r.matrix[2]));
+		Assert.assertEquals("chars", new String(r.chars));
+		Assert.assertEquals(b.huge, r.huge);
+		Assert.assertNull(r.count);
+		Assert.assertEquals(b.any, r.any);
+	}
+
+	@Test
+	public void testMethods() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(bytes);
+
+		out.writeObjectHeader(4);
+		out.writeString("name");
+		out.writeString("Bob");
+		out.writeString("unknown");
+		out.writeObjectHeader(1);
+		out.writeString("a");
+		out.writeArrayHeader(2);
+		out.writeNull();
+		out.writeBoolean(true);
+		out.writeString("age");
+		// Narrower than the setter's type.
+		out.writeInt16((short) 42);
+		out.writeString("attributes");
+		out.writeObjectHeader(1);
+		out.writeString("k");
+		out.writeDouble(1.5);
+		out.close();
+
+		Person p = reader.readObject(parser(bytes.toByteArray()),
+				Person.class, Mode.METHODS);
+
+		Assert.assertEquals("Bob", p.getName());
+		Assert.assertEquals(42L, p.getAge());
+		Assert.assertEquals(Double.valueOf(1.5), p.getAttributes().get("k"));
+	}
+
+	@Test
+	public void testUnbounded() throws IOException {
+		Cursor c = new Cursor();
+		c.names = new java.util.ArrayDeque<String>(Arrays.asList("a", "b"));
+		c.ids = Arrays.asList(Integer.valueOf(1), Integer.valueOf(2),
+				Integer.valueOf(3)).iterator();
+
+		// Iterables and Iterators are written as unbounded ARRAYs.
+		Streamed s = reader.readObject(parser(write(c)), Streamed.class);
+
+		Assert.assertEquals(Arrays.asList("a", "b"), s.names);
+		Assert.assertTrue(Arrays.equals(new int[] { 1, 2, 3 }, s.ids));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(bytes);
+
+		out.writeUnboundedObjectHeader();
+		out.writeString("names");
+		out.writeUnboundedArrayHeader();
+		out.writeEnd();
+		out.writeString("ids");
+		out.writeUnboundedArrayHeader();
+		out.writeByte((byte) 4);
+		out.writeInt32(5);
+		out.writeEnd();
+		out.writeString("attributes");
+		out.writeUnboundedObjectHeader();
+		out.writeString("k");
+		out.writeUnboundedArrayHeader();
+		out.writeBoolean(true);
+		out.writeEnd();
+		out.writeEnd();
+		out.writeEnd();
+		out.close();
+
+		s = reader.readObject(parser(bytes.toByteArray()), Streamed.class);
+
+		Assert.assertEquals(0, s.names.size());
+		Assert.assertTrue(Arrays.equals(new int[] { 4, 5 }, s.ids));
+		Assert.assertEquals(Arrays.asList(Boolean.TRUE),
+				s.attributes.get("k"));
+	}
+
+	private static byte[] write(Object obj) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(bytes);
+
+		new ObjectWriter().writeObject(out, obj);
+		out.close();
+
+		return bytes.toByteArray();
+	}
+
+	private static UBJInputStreamParser parser(byte[] data) {
+		return new UBJInputStreamParser(new ByteArrayInputStream(data));
+	}
+
+	public static class Item {
+		public String name;
+		public int value;
+
+		public Item() {
+			// default
+		}
+
+		public Item(String name, int value) {
+			this.name = name;
+			this.value = value;
+		}
+	}
+
+	public static class Bean {
+		public List<Item> items;
+		public Set<String> tags;
+		public long[][] matrix;
+		public char[] chars;
+		public BigDecimal huge;
+		public Integer count = Integer.valueOf(1);
+		public Object any;
+	}
+
+	public static class Cursor {
+		public Iterable<String> names;
+		public java.util.Iterator<Integer> ids;
+	}
+
+	public static class Streamed {
+		public List<String> names;
+		public int[] ids;
+		public Map<String, Object> attributes;
+	}
+
+	public static class Person {
+		private String name;
+		private long age;
+		private Map<String, Object> attributes;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public long getAge() {
+			return age;
+		}
+
+		public void setAge(long age) {
+			this.age = age;
+		}
+
+		public Map<String, Object> getAttributes() {
+			return attributes;
+		}
+
+		public void setAttributes(Map<String, Object> attributes) {
+			this.attributes = attributes;
+		}
+	}
+}
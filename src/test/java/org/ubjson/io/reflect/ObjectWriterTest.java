@@ -1,9 +1,15 @@
 package org.ubjson.io.reflect;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Assert;
 
@@ -17,8 +23,10 @@ import org.ubjson.MediaContentMarshaller;
 import org.ubjson.TwitterTimeline;
 import org.ubjson.TwitterTimelineMarshaller;
 import org.ubjson.io.UBJInputStream;
+import org.ubjson.io.UBJInputStreamParser;
 import org.ubjson.io.UBJOutputStream;
 import org.ubjson.io.reflect.IObjectWriter;
+import org.ubjson.io.reflect.IObjectWriter.Mode;
 import org.ubjson.io.reflect.ObjectWriter;
 
 public class ObjectWriterTest {
@@ -141,4 +149,203 @@ public class ObjectWriterTest {
 		// Delete the temp test file.
 		Assert.assertTrue(f.delete());
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testPrivateFields() throws IOException {
+		Primitives p = new Primitives();
+		p.set(true, (byte) -1, (short) 300, 70000, Long.MIN_VALUE, 1.5f,
+				Math.PI, "text");
+
+		Primitives r = new ObjectReader().readObject(parser(write(p,
+				Mode.FIELDS)), Primitives.class);
+
+		Assert.assertEquals(p.toString(), r.toString());
+	}
+
+	@Test
+	public void testMethods() throws IOException {
+		Bean b = new Bean();
+		b.setName("Bob");
+		b.setRegistered(true);
+		b.setAge(42);
+
+		Bean r = new ObjectReader().readObject(parser(write(b,
+				Mode.METHODS)), Bean.class, Mode.METHODS);
+
+		Assert.assertEquals("Bob", r.getName());
+		Assert.assertTrue(r.isRegistered());
+		Assert.assertEquals(42, r.getAge());
+	}
+
+	@Test
+	public void testGetterFailure() throws IOException {
+		Bean b = new Bean();
+		b.setAge(-1);
+
+		try {
+			write(b, Mode.METHODS);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			Assert.assertTrue(e.getMessage().indexOf("[age]") != -1);
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void testValueTypes() throws IOException {
+		Assert.assertEquals(ObjectWriter.ValueType.INT32,
+				ObjectWriter.VALUE_TYPES.get(Integer.class));
+		Assert.assertEquals(ObjectWriter.ValueType.BIG_INTEGER,
+				ObjectWriter.VALUE_TYPES.get(BigInteger.class));
+		Assert.assertEquals(ObjectWriter.ValueType.CHARS,
+				ObjectWriter.VALUE_TYPES.get(char[].class));
+		Assert.assertEquals(ObjectWriter.ValueType.ARRAY,
+				ObjectWriter.VALUE_TYPES.get(Integer[].class));
+		Assert.assertEquals(ObjectWriter.ValueType.COLLECTION,
+				ObjectWriter.VALUE_TYPES.get(LinkedList.class));
+		Assert.assertEquals(ObjectWriter.ValueType.OBJECT,
+				ObjectWriter.VALUE_TYPES.get(Bean.class));
+
+		// Final declared types are bound, everything else is looked up.
+		Mixed m = new Mixed();
+		m.any = Long.valueOf(7);
+		m.number = new BigInteger("123456789012345678901234567890");
+
+		Mixed r = new ObjectReader().readObject(parser(write(m,
+				Mode.FIELDS)), Mixed.class);
+
+		Assert.assertEquals(m.name, r.name);
+		Assert.assertEquals(m.count, r.count);
+		Assert.assertTrue(Arrays.equals(m.values, r.values));
+		Assert.assertEquals(m.any, r.any);
+		Assert.assertEquals(m.number, r.number);
+		Assert.assertNull(r.missing);
+	}
+
+	@Test
+	public void testConcurrentUse() throws Exception {
+		final byte[] expected = write(new TwitterTimeline(), Mode.FIELDS);
+		final AtomicInteger failures = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+
+		// One writer, cold caches, shared by every thread.
+		final IObjectWriter shared = new ObjectWriter();
+
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < 200; j++) {
+							ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+							UBJOutputStream out = new UBJOutputStream(bytes);
+
+							shared.writeObject(out, (j % 2 == 0 ? new TwitterTimeline()
+									: new CouchDB4k()));
+							out.close();
+
+							if (j % 2 == 0
+									&& !Arrays.equals(expected,
+											bytes.toByteArray()))
+								failures.incrementAndGet();
+						}
+					} catch (Exception e) {
+						failures.incrementAndGet();
+					}
+				}
+			};
+		}
+
+		for (int i = 0; i < threads.length; i++)
+			threads[i].start();
+		for (int i = 0; i < threads.length; i++)
+			threads[i].join();
+
+		Assert.assertEquals(0, failures.get());
+	}
+
+	private byte[] write(Object obj, Mode mode) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(bytes);
+
+		writer.writeObject(out, obj, mode);
+		out.close();
+
+		return bytes.toByteArray();
+	}
+
+	private static UBJInputStreamParser parser(byte[] data) {
+		return new UBJInputStreamParser(new ByteArrayInputStream(data));
+	}
+
+	public static class Primitives {
+		private boolean z;
+		private byte b;
+		private short s;
+		private int i;
+		private long l;
+		private float f;
+		private double d;
+		private String str;
+
+		void set(boolean z, byte b, short s, int i, long l, float f, double d,
+				String str) {
+			this.z = z;
+			this.b = b;
+			this.s = s;
+			this.i = i;
+			this.l = l;
+			this.f = f;
+			this.d = d;
+			this.str = str;
+		}
+
+		@Override
+		public String toString() {
+			return z + "," + b + "," + s + "," + i + "," + l + "," + f + ","
+					+ d + "," + str;
+		}
+	}
+
+	public static class Mixed {
+		public String name = "mixed";
+		public Integer count = Integer.valueOf(3);
+		public int[] values = { 1, 2, 3 };
+		public String missing;
+		public Object any;
+		public Number number;
+	}
+
+	public static class Bean {
+		private String name;
+		private boolean registered;
+		private int age;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public boolean isRegistered() {
+			return registered;
+		}
+
+		public void setRegistered(boolean registered) {
+			this.registered = registered;
+		}
+
+		public int getAge() {
+			if (age < 0)
+				throw new IllegalStateException("age not set");
+
+			return age;
+		}
+
+		public void setAge(int age) {
+			this.age = age;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,255 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.model;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.ubjson.io.ByteArrayInputStream;
+import org.ubjson.io.ByteArrayOutputStream;
+import org.ubjson.io.IUBJTypeMarker;
+import org.ubjson.io.UBJFormatException;
+import org.ubjson.io.UBJInputStreamParser;
+import org.ubjson.io.UBJOutputStream;
+
+public class ArrayValueTest {
+	@Test
+	public void testPrimitiveArrays() throws IOException {
+		int[] ints = new int[1000];
+
+		for (int i = 0; i < ints.length; i++)
+			ints[i] = i * 31;
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(baos);
+
+		out.writeObjectHeader(6);
+		out.writeString("ints");
+		out.writeArray(ints);
+
+		out.writeString("doubles");
+		out.writeUnboundedArrayHeader();
+
+		for (int i = 0; i < 40; i++)
+			out.writeDouble(i / 2d);
+
+		out.writeEnd();
+
+		out.writeString("mixed");
+		out.writeArrayHeader(3);
+		out.writeInt32(1);
+		out.writeInt32(2);
+		out.writeString("x");
+
+		out.writeString("widened");
+		out.writeArrayHeader(2);
+		out.writeInt16((short) 1);
+		out.writeInt32(2);
+
+		out.writeString("empty");
+		out.writeArrayHeader(0);
+
+		out.writeString("after");
+		out.writeInt32(7);
+		out.flush();
+
+		ObjectValue object = new ObjectValue(new UBJInputStreamParser(
+				new ByteArrayInputStream(baos.getArray(), 0, baos.getLength())));
+		Map<String, IValue<?>> map = object.getValue();
+
+		// Homogeneous ARRAYs are primitive-backed.
+		PrimitiveArrayValue intsValue = (PrimitiveArrayValue) map.get("ints");
+		Assert.assertEquals(IUBJTypeMarker.INT32, intsValue.getElementType());
+		assertArrayEquals(ints, (int[]) intsValue.getValue());
+
+		double[] doubles = (double[]) map.get("doubles").getValue();
+		Assert.assertEquals(40, doubles.length);
+		Assert.assertEquals(19.5d, doubles[39]);
+
+		// Anything else is not.
+		List<IValue<?>> mixed = ((ArrayValue) map.get("mixed")).getValue();
+		Assert.assertEquals(3, mixed.size());
+		Assert.assertEquals(2, mixed.get(1).getValue());
+		Assert.assertEquals("x", mixed.get(2).getValue());
+
+		List<IValue<?>> widened = ((ArrayValue) map.get("widened"))
+				.getValue();
+		Assert.assertEquals(IUBJTypeMarker.INT16, widened.get(0).getType());
+		Assert.assertEquals(IUBJTypeMarker.INT32, widened.get(1).getType());
+
+		Assert.assertEquals(0, ((ArrayValue) map.get("empty")).getValue()
+				.size());
+		Assert.assertEquals(7, map.get("after").getValue());
+
+		// Written back out as the regular ARRAYs they were; same values.
+		baos.reset();
+		object.serialize(new UBJOutputStream(baos));
+
+		ObjectValue copy = new ObjectValue(new UBJInputStreamParser(
+				new ByteArrayInputStream(baos.getArray(), 0, baos.getLength())));
+
+		assertArrayEquals(ints, (int[]) copy.getValue().get("ints")
+				.getValue());
+		Assert.assertEquals(40, ((double[]) copy.getValue().get("doubles")
+				.getValue()).length);
+		Assert.assertEquals(7, copy.getValue().get("after").getValue());
+	}
+
+	@Test
+	public void testReadArray() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(baos);
+
+		// [[1, 2], [3], "x"]
+		out.writeArrayHeader(3);
+		out.writeArray(new long[] { 1, 2 });
+		out.writeArray(new long[] { 3 });
+		out.writeString("x");
+
+		IValue<?> value = ArrayValue.readArray(new UBJInputStreamParser(
+				new ByteArrayInputStream(baos.getArray(), 0, baos.getLength())));
+		List<IValue<?>> list = ((ArrayValue) value).getValue();
+
+		Assert.assertEquals(3, list.size());
+		assertArrayEquals(new long[] { 1, 2 }, (long[]) list.get(0)
+				.getValue());
+		assertArrayEquals(new long[] { 3 }, (long[]) list.get(1).getValue());
+		Assert.assertEquals("x", list.get(2).getValue());
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(baos);
+
+		// [[1, 2, 3] unbounded, [4, 5] counted, [6, 7] optimized, [8b]]
+		out.writeArrayHeader(4);
+		out.writeUnboundedArrayHeader();
+		out.writeInt16((short) 1);
+		out.writeInt16((short) 2);
+		out.writeInt16((short) 3);
+		out.writeEnd();
+		out.writeArray(new int[] { 4, 5 });
+		out.writeTypedArray(new long[] { 6, 7 });
+		out.writeArrayHeader(1);
+		out.writeByte((byte) 8);
+		out.flush();
+
+		byte[] data = new byte[baos.getLength()];
+		System.arraycopy(baos.getArray(), 0, data, 0, data.length);
+
+		ArrayValue array = new ArrayValue(new UBJInputStreamParser(
+				new ByteArrayInputStream(data)));
+		List<IValue<?>> list = array.getValue();
+
+		PrimitiveArrayValue unbounded = (PrimitiveArrayValue) list.get(0);
+		Assert.assertTrue(unbounded.isRegular());
+		Assert.assertTrue(unbounded.isUnbounded());
+		Assert.assertEquals(IUBJTypeMarker.ARRAY_COMPACT, unbounded.getType());
+
+		PrimitiveArrayValue counted = (PrimitiveArrayValue) list.get(1);
+		Assert.assertTrue(counted.isRegular());
+		Assert.assertFalse(counted.isUnbounded());
+		Assert.assertEquals(IUBJTypeMarker.ARRAY_COMPACT, counted.getType());
+
+		PrimitiveArrayValue optimized = (PrimitiveArrayValue) list.get(2);
+		Assert.assertFalse(optimized.isRegular());
+		Assert.assertEquals(IUBJTypeMarker.ARRAY_OPTIMIZED,
+				optimized.getType());
+
+		// Every ARRAY is written back out exactly the way it was read.
+		baos.reset();
+		array.serialize(new UBJOutputStream(baos));
+
+		Assert.assertEquals(data.length, baos.getLength());
+
+		for (int i = 0; i < data.length; i++)
+			Assert.assertEquals("byte " + i, data[i], baos.getArray()[i]);
+	}
+
+	@Test
+	public void testTruncated() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(baos);
+
+		// [[1, 2, 3], ...] with the stream ending after the 2nd element.
+		out.writeArrayHeader(1);
+		out.writeArrayHeader(3);
+		out.writeInt32(1);
+		out.writeInt32(2);
+
+		for (int mixed = 0; mixed < 2; mixed++) {
+			if (mixed == 1) {
+				baos.reset();
+				out.writeArrayHeader(1);
+				out.writeArrayHeader(3);
+				out.writeInt32(1);
+				out.writeString("x");
+			}
+
+			try {
+				new ArrayValue(new UBJInputStreamParser(
+						new ByteArrayInputStream(baos.getArray(), 0, baos
+								.getLength())));
+				Assert.fail("Expected a UBJFormatException");
+			} catch (UBJFormatException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testScientificHuge() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(baos);
+
+		// {"huge": 1E+5, "list": [1E+5]}
+		out.writeObjectHeader(2);
+		out.writeString("huge");
+		out.writeHuge(new BigDecimal("1E+5"));
+		out.writeString("list");
+		out.writeArrayHeader(1);
+		out.writeHuge(new BigDecimal("1E+5"));
+		out.flush();
+
+		ObjectValue object = new ObjectValue(new UBJInputStreamParser(
+				new ByteArrayInputStream(baos.getArray(), 0, baos.getLength())));
+
+		Assert.assertEquals(new BigDecimal("1E+5"),
+				object.getValue().get("huge").getValue());
+		Assert.assertEquals(new BigDecimal("1E+5"), ((ArrayValue) object
+				.getValue().get("list")).getValue().get(0).getValue());
+	}
+
+	private static void assertArrayEquals(int[] expected, int[] actual) {
+		Assert.assertEquals(expected.length, actual.length);
+
+		for (int i = 0; i < expected.length; i++)
+			Assert.assertEquals("element " + i, expected[i], actual[i]);
+	}
+
+	private static void assertArrayEquals(long[] expected, long[] actual) {
+		Assert.assertEquals(expected.length, actual.length);
+
+		for (int i = 0; i < expected.length; i++)
+			Assert.assertEquals("element " + i, expected[i], actual[i]);
+	}
+}
@@ -0,0 +1,297 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ubjson.model;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.ubjson.TwitterTimeline;
+import org.ubjson.TwitterTimelineMarshaller;
+import org.ubjson.io.ByteArrayInputStream;
+import org.ubjson.io.ByteArrayOutputStream;
+import org.ubjson.io.IUBJTypeMarker;
+import org.ubjson.io.UBJFormatException;
+import org.ubjson.io.UBJInputStreamParser;
+import org.ubjson.io.UBJOutputStream;
+
+public class LazyValueTest {
+	@Test
+	public void testLazyAccess() throws IOException {
+		byte[] data = write(new TwitterTimeline());
+		LazyObjectValue root = new LazyObjectValue(data);
+
+		Assert.assertEquals(data.length, root.getLength());
+
+		// Nothing below the root is decoded until it is reached.
+		Assert.assertNull(root.values[0]);
+
+		IValue<?> id = root.get("id_str");
+		Assert.assertEquals(new TwitterTimeline().id_str, id.getValue());
+		Assert.assertSame(id, root.getValue().get("id_str"));
+		Assert.assertNull(root.get("missing"));
+
+		// Same content as the eager model.
+		ObjectValue eager = new ObjectValue(new UBJInputStreamParser(
+				new ByteArrayInputStream(data)));
+		assertEquals(eager, root);
+
+		// Untouched (even if decoded) means the original bytes come back.
+		Assert.assertFalse(root.isModified());
+		assertBytes(data, write(root));
+	}
+
+	@Test
+	public void testModified() throws IOException {
+		byte[] data = write(new TwitterTimeline());
+		LazyObjectValue root = new LazyObjectValue(data);
+
+		// Change one field of a nested object.
+		LazyObjectValue user = (LazyObjectValue) root.get("user");
+		user.getValue().put("name", new StringValue("renamed"));
+		root.getValue().remove("text");
+		root.getValue().put("added", new Int32Value(42));
+
+		Assert.assertTrue(root.isModified());
+
+		ObjectValue copy = new ObjectValue(new UBJInputStreamParser(
+				new ByteArrayInputStream(write(root))));
+
+		Assert.assertEquals(root.size(), copy.getValue().size());
+		Assert.assertNull(copy.getValue().get("text"));
+		Assert.assertEquals(42, copy.getValue().get("added").getValue());
+		Assert.assertEquals("renamed", ((ObjectValue) copy.getValue().get(
+				"user")).getValue().get("name").getValue());
+	}
+
+	@Test
+	public void testLazyArray() throws IOException {
+		ArrayValue array = new ArrayValue();
+		array.getValue().add(new StringValue("a"));
+		array.getValue().add(new Int16Value((short) 2));
+		array.getValue().add(new LazyObjectValue(write(new TwitterTimeline())));
+
+		byte[] data = write(array);
+		LazyArrayValue lazy = new LazyArrayValue(data);
+
+		Assert.assertEquals(3, lazy.size());
+		Assert.assertEquals((short) 2, lazy.get(1).getValue());
+		assertBytes(data, write(lazy));
+
+		lazy.getValue().remove(0);
+		lazy.getValue().add(new NullValue());
+
+		ArrayValue copy = new ArrayValue(new UBJInputStreamParser(
+				new ByteArrayInputStream(write(lazy))));
+		List<IValue<?>> list = copy.getValue();
+
+		Assert.assertEquals(3, list.size());
+		Assert.assertEquals((short) 2, list.get(0).getValue());
+		Assert.assertTrue(list.get(1) instanceof ObjectValue);
+		Assert.assertTrue(list.get(2) instanceof NullValue);
+	}
+
+	@Test
+	public void testPrimitiveArray() throws IOException {
+		double[] samples = new double[1000];
+
+		for (int i = 0; i < samples.length; i++)
+			samples[i] = Math.sin(i);
+
+		ObjectValue object = new ObjectValue();
+		object.getValue().put("samples", new PrimitiveArrayValue(samples));
+		object.getValue().put("ids",
+				new PrimitiveArrayValue(new int[] { 1, 2 }));
+
+		byte[] data = write(object);
+
+		// Eager and lazy models both decode it into the primitive array.
+		ObjectValue eager = new ObjectValue(new UBJInputStreamParser(
+				new ByteArrayInputStream(data)));
+		LazyObjectValue lazy = new LazyObjectValue(data);
+
+		for (IValue<?> value : new IValue<?>[] {
+				eager.getValue().get("samples"), lazy.get("samples") }) {
+			PrimitiveArrayValue array = (PrimitiveArrayValue) value;
+			double[] copy = (double[]) array.getValue();
+
+			Assert.assertEquals(IUBJTypeMarker.DOUBLE, array.getElementType());
+			Assert.assertEquals(samples.length, copy.length);
+
+			for (int i = 0; i < samples.length; i++)
+				Assert.assertEquals(samples[i], copy[i]);
+		}
+
+		Assert.assertEquals(2, ((int[]) lazy.get("ids").getValue())[1]);
+		assertBytes(data, write(eager));
+		assertBytes(data, write(lazy));
+	}
+
+	@Test
+	public void testUnbounded() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(baos);
+
+		out.writeUnboundedObjectHeader();
+		out.writeString("list");
+		out.writeUnboundedArrayHeader();
+		out.writeInt32(1);
+		out.writeUnboundedObjectHeader();
+		out.writeString("count");
+		out.writeByte((byte) 3);
+		out.writeEnd();
+		out.writeEnd();
+		out.writeEnd();
+
+		byte[] data = new byte[baos.getLength()];
+		System.arraycopy(baos.getArray(), 0, data, 0, data.length);
+
+		ObjectValue eager = new ObjectValue(new UBJInputStreamParser(
+				new ByteArrayInputStream(data)));
+		LazyObjectValue lazy = new LazyObjectValue(data);
+
+		Assert.assertTrue(eager.isUnbounded());
+		Assert.assertEquals(1, lazy.size());
+		Assert.assertEquals(data.length, lazy.getLength());
+		Assert.assertEquals(2, ((LazyArrayValue) lazy.get("list")).size());
+		assertEquals(eager, lazy);
+
+		// Both write the unbounded containers back out as they were read.
+		assertBytes(data, write(eager));
+		assertBytes(data, write(lazy));
+
+		// 255 children no longer collide with the unbounded marker.
+		ArrayValue array = new ArrayValue();
+
+		for (int i = 0; i < 255; i++)
+			array.getValue().add(new NullValue());
+
+		data = write(array);
+
+		Assert.assertEquals(IUBJTypeMarker.ARRAY, data[0]);
+		Assert.assertEquals(255, new ArrayValue(new UBJInputStreamParser(
+				new ByteArrayInputStream(data))).getValue().size());
+		Assert.assertEquals(IUBJTypeMarker.ARRAY,
+				new LazyArrayValue(data).getType());
+	}
+
+	@Test
+	public void testDeepNesting() throws IOException {
+		int depth = 20000;
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(baos);
+
+		// [{"k": [{"k": ... [] ... }]}] alternating counted and unbounded.
+		out.writeArrayHeader(1);
+
+		for (int i = 0; i < depth; i++) {
+			if (i % 2 == 0)
+				out.writeObjectHeader(1);
+			else
+				out.writeUnboundedObjectHeader();
+
+			out.writeString("k");
+			out.writeArrayHeader(1);
+		}
+
+		out.writeInt32(42);
+
+		for (int i = 0; i < depth; i++) {
+			if (i % 2 == 1)
+				out.writeEnd();
+		}
+
+		byte[] data = new byte[baos.getLength()];
+		System.arraycopy(baos.getArray(), 0, data, 0, data.length);
+
+		// Indexing the root skips over every level of its only child.
+		LazyArrayValue lazy = new LazyArrayValue(data);
+		Assert.assertEquals(1, lazy.size());
+		Assert.assertEquals(data.length, lazy.getLength());
+
+		// Cut short somewhere deep inside.
+		byte[] truncated = new byte[data.length - 2];
+		System.arraycopy(data, 0, truncated, 0, truncated.length);
+
+		try {
+			new LazyArrayValue(truncated);
+			Assert.fail("Expected a UBJFormatException");
+		} catch (UBJFormatException e) {
+			// expected
+		}
+	}
+
+	private static void assertEquals(IValue<?> expected, IValue<?> actual) {
+		Object e = expected.getValue();
+		Object a = actual.getValue();
+
+		if (e instanceof Map<?, ?>) {
+			Map<?, ?> em = (Map<?, ?>) e;
+			Map<?, ?> am = (Map<?, ?>) a;
+
+			Assert.assertEquals(em.size(), am.size());
+
+			for (Map.Entry<?, ?> entry : em.entrySet())
+				assertEquals((IValue<?>) entry.getValue(),
+						(IValue<?>) am.get(entry.getKey()));
+		} else if (e instanceof List<?>) {
+			List<?> el = (List<?>) e;
+			List<?> al = (List<?>) a;
+
+			Assert.assertEquals(el.size(), al.size());
+
+			for (int i = 0; i < el.size(); i++)
+				assertEquals((IValue<?>) el.get(i), (IValue<?>) al.get(i));
+		} else if (expected instanceof PrimitiveArrayValue
+				&& a instanceof List<?>) {
+			// Eager numeric ARRAYs are primitive-backed, lazy ones are not.
+			List<?> al = (List<?>) a;
+
+			Assert.assertEquals(Array.getLength(e), al.size());
+
+			for (int i = 0; i < al.size(); i++)
+				Assert.assertEquals(Array.get(e, i),
+						((IValue<?>) al.get(i)).getValue());
+		} else
+			Assert.assertEquals(e, a);
+	}
+
+	private static void assertBytes(byte[] expected, byte[] actual) {
+		Assert.assertEquals(expected.length, actual.length);
+
+		for (int i = 0; i < expected.length; i++)
+			Assert.assertEquals("byte " + i, expected[i], actual[i]);
+	}
+
+	private static byte[] write(Object value) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		UBJOutputStream out = new UBJOutputStream(baos);
+
+		if (value instanceof IValue<?>)
+			((IValue<?>) value).serialize(out);
+		else
+			TwitterTimelineMarshaller.serialize((TwitterTimeline) value, out);
+
+		byte[] data = new byte[baos.getLength()];
+		System.arraycopy(baos.getArray(), 0, data, 0, data.length);
+
+		return data;
+	}
+}
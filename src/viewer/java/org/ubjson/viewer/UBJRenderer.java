@@ -2,6 +2,7 @@ package org.ubjson.viewer;
 
 import static org.ubjson.io.IUBJTypeMarker.ARRAY;
 import static org.ubjson.io.IUBJTypeMarker.ARRAY_COMPACT;
+import static org.ubjson.io.IUBJTypeMarker.ARRAY_OPTIMIZED;
 import static org.ubjson.io.IUBJTypeMarker.BYTE;
 import static org.ubjson.io.IUBJTypeMarker.DOUBLE;
 import static org.ubjson.io.IUBJTypeMarker.END;
@@ -158,6 +159,17 @@ public class UBJRenderer {
 				writer.append('\n');
 				break;
 
+			case ARRAY_OPTIMIZED:
+				length = parser.readArrayLength();
+				sstack.push(new Scope(Type.ARRAY, length));
+
+				writer.append(indent(indent++)).append("[$")
+						.append((char) parser.getElementType()).append(',')
+						.append(Integer.toString(length)).append(']')
+						.append('[');
+				writer.append('\n');
+				break;
+
 			case OBJECT:
 				length = parser.readObjectLength();
 				sstack.push(new Scope(Type.OBJECT, length));
@@ -234,4 +246,4 @@ public class UBJRenderer {
 			break;
 		}
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file